@@ -0,0 +1,189 @@
+package com.github.nilscoding.mailbuilder.benchmarks;
+
+import com.github.nilscoding.mailbuilder.AttachmentContentProvider;
+import com.github.nilscoding.mailbuilder.InlineImageContentProvider;
+import com.github.nilscoding.mailbuilder.MailBuilder;
+
+import javax.mail.Session;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Test data shared by the benchmarks. All data is generated from a fixed seed,
+ * so every run works on the same content.
+ * @author nilscoding
+ */
+public final class BenchmarkData {
+
+    /**
+     * Message variant: plain text only.
+     */
+    public static final String PLAIN = "plain";
+    /**
+     * Message variant: html with auto-generated plain text.
+     */
+    public static final String HTML = "html";
+    /**
+     * Message variant: html with inline images.
+     */
+    public static final String HTML_INLINE_IMAGES = "htmlInlineImages";
+    /**
+     * Message variant: html with attachments.
+     */
+    public static final String HTML_ATTACHMENTS = "htmlAttachments";
+
+    /**
+     * Seed for generated content.
+     */
+    private static final long SEED = 4711L;
+    /**
+     * Words used in generated text.
+     */
+    private static final String[] WORDS = {
+        "lorem", "ipsum", "dolor", "sit", "amet", "mail", "builder", "message", "content",
+        "Grüße", "straße", "&amp;", "&nbsp;", "newsletter", "recipient", "attachment"
+    };
+
+    /**
+     * Hidden constructor.
+     */
+    private BenchmarkData() {
+    }
+
+    /**
+     * Creates a session which is never connected.
+     * @return session
+     */
+    public static Session createSession() {
+        Properties props = new Properties();
+        props.put("mail.smtp.host", "localhost");
+        return Session.getInstance(props);
+    }
+
+    /**
+     * Creates an html document of about the given size. The document contains headings,
+     * paragraphs, lists, links, a table and an image reference, like a typical newsletter.
+     * @param approxSize approximate size in chars
+     * @return html document
+     */
+    public static String createHtml(int approxSize) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(approxSize + 1024);
+        sb.append("<html><head><title>Newsletter</title>")
+                .append("<style>p { margin: 0; } td { padding: 2px; }</style></head><body>");
+        sb.append("<img src=\"cid:logo\" alt=\"logo\"/>");
+        int block = 0;
+        while (sb.length() < approxSize) {
+            switch (block % 4) {
+                case 0:
+                    sb.append("<h2>");
+                    appendWords(sb, random, 4);
+                    sb.append("</h2>");
+                    break;
+                case 1:
+                    sb.append("<ul>");
+                    for (int i = 0; i < 4; i++) {
+                        sb.append("<li>");
+                        appendWords(sb, random, 6);
+                        sb.append("</li>");
+                    }
+                    sb.append("</ul>");
+                    break;
+                case 2:
+                    sb.append("<table><tr><td>");
+                    appendWords(sb, random, 3);
+                    sb.append("</td><td>");
+                    appendWords(sb, random, 3);
+                    sb.append("</td></tr></table>");
+                    break;
+                default:
+                    sb.append("<p>");
+                    appendWords(sb, random, 40);
+                    sb.append(" <a href=\"https://example.com/").append(block).append("\">link</a><br/>");
+                    appendWords(sb, random, 20);
+                    sb.append("</p>\n");
+                    break;
+            }
+            block++;
+        }
+        sb.append("</body></html>");
+        return sb.toString();
+    }
+
+    /**
+     * Creates plain text of about the given size.
+     * @param approxSize approximate size in chars
+     * @return plain text
+     */
+    public static String createPlain(int approxSize) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(approxSize + 256);
+        while (sb.length() < approxSize) {
+            appendWords(sb, random, 12);
+            sb.append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates binary data of the given size.
+     * @param size size in bytes
+     * @return data
+     */
+    public static byte[] createBinary(int size) {
+        byte[] data = new byte[size];
+        new Random(SEED).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Creates a builder for the given message variant.
+     * @param variant message variant, one of the constants of this class
+     * @param session session
+     * @return mail builder
+     */
+    public static MailBuilder createBuilder(String variant, Session session) {
+        MailBuilder mb = MailBuilder.onSession(session)
+                .setFrom("sender@example.com")
+                .addTo("first@example.com", "second@example.com")
+                .addCc("copy@example.com")
+                .setSubject("Benchmark message");
+        switch (variant) {
+            case PLAIN:
+                mb.setBodyPlain(createPlain(8 * 1024));
+                break;
+            case HTML:
+                mb.setBodyHtml(createHtml(16 * 1024)).enableAutoPlainFromHtml();
+                break;
+            case HTML_INLINE_IMAGES:
+                mb.setBodyHtml(createHtml(16 * 1024)).enableAutoPlainFromHtml()
+                        .addHtmlInlineImage(new InlineImageContentProvider(createBinary(8 * 1024), "image/png", "logo"))
+                        .addHtmlInlineImage(new InlineImageContentProvider(createBinary(32 * 1024), "image/jpeg", "header"));
+                break;
+            case HTML_ATTACHMENTS:
+                mb.setBodyHtml(createHtml(16 * 1024)).enableAutoPlainFromHtml()
+                        .addAttachment(new AttachmentContentProvider(createBinary(256 * 1024), "application/pdf", "report.pdf"))
+                        .addAttachment(new AttachmentContentProvider(createBinary(64 * 1024), "application/zip", "data.zip"));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown variant: " + variant);
+        }
+        return mb;
+    }
+
+    /**
+     * Appends random words.
+     * @param sb     target
+     * @param random random
+     * @param count  number of words
+     */
+    private static void appendWords(StringBuilder sb, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+    }
+
+}
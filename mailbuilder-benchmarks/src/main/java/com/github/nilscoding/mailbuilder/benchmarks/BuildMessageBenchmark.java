@@ -0,0 +1,63 @@
+package com.github.nilscoding.mailbuilder.benchmarks;
+
+import com.github.nilscoding.mailbuilder.MailBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.mail.Message;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MailBuilder#buildMessage()} for different message variants.
+ * @author nilscoding
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildMessageBenchmark {
+
+    /**
+     * Message variant.
+     */
+    @Param({BenchmarkData.PLAIN, BenchmarkData.HTML, BenchmarkData.HTML_INLINE_IMAGES, BenchmarkData.HTML_ATTACHMENTS})
+    public String variant;
+
+    /**
+     * Mail builder.
+     */
+    private MailBuilder mailBuilder;
+
+    /**
+     * Creates the builder.
+     */
+    @Setup
+    public void setup() {
+        this.mailBuilder = BenchmarkData.createBuilder(this.variant, BenchmarkData.createSession());
+    }
+
+    /**
+     * Builds the message.
+     * @return message
+     */
+    @Benchmark
+    public Message buildMessage() {
+        Message message = this.mailBuilder.buildMessage();
+        if (message == null) {
+            throw new IllegalStateException("message could not be built", this.mailBuilder.getLastException());
+        }
+        return message;
+    }
+
+}
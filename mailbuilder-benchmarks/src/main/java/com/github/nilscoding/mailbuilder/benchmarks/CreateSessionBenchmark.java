@@ -0,0 +1,60 @@
+package com.github.nilscoding.mailbuilder.benchmarks;
+
+import com.github.nilscoding.mailbuilder.sessionimpl.SmtpSSLAuthMailSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.mail.Session;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link SmtpSSLAuthMailSession#createNewSession()} with and without session caching.
+ * @author nilscoding
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CreateSessionBenchmark {
+
+    /**
+     * Flag if session caching is enabled.
+     */
+    @Param({"false", "true"})
+    public boolean caching;
+
+    /**
+     * Mail session.
+     */
+    private SmtpSSLAuthMailSession mailSession;
+
+    /**
+     * Creates the mail session.
+     */
+    @Setup
+    public void setup() {
+        this.mailSession = new SmtpSSLAuthMailSession("smtp.example.com", "user", "secret");
+        this.mailSession.setSessionCaching(this.caching);
+    }
+
+    /**
+     * Creates a session.
+     * @return session
+     */
+    @Benchmark
+    public Session createNewSession() {
+        return this.mailSession.createNewSession();
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.github.nilscoding.mailbuilder.benchmarks;
+
+import com.github.nilscoding.mailbuilder.HtmlToPlainConverter;
+import com.github.nilscoding.mailbuilder.SimpleHtmlToPlainConverter;
+import com.github.nilscoding.mailbuilder.SinglePassHtmlToPlainConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the html to plain text converters at different input sizes.
+ * @author nilscoding
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HtmlToPlainBenchmark {
+
+    /**
+     * Html size in chars.
+     */
+    @Param({"10240", "102400", "1048576"})
+    public int size;
+
+    /**
+     * Converter name.
+     */
+    @Param({"simple", "singlePass"})
+    public String converter;
+
+    /**
+     * Html document.
+     */
+    private String html;
+    /**
+     * Converter instance.
+     */
+    private HtmlToPlainConverter converterInstance;
+
+    /**
+     * Creates the document and converter.
+     */
+    @Setup
+    public void setup() {
+        this.html = BenchmarkData.createHtml(this.size);
+        switch (this.converter) {
+            case "simple":
+                this.converterInstance = new SimpleHtmlToPlainConverter();
+                break;
+            case "singlePass":
+                this.converterInstance = new SinglePassHtmlToPlainConverter();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown converter: " + this.converter);
+        }
+    }
+
+    /**
+     * Converts the document.
+     * @return plain text
+     */
+    @Benchmark
+    public String convert() {
+        return this.converterInstance.convertHtmlToPlainText(this.html);
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.github.nilscoding.mailbuilder.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing built messages using {@link Message#writeTo(OutputStream)}.
+ * The messages are built once, so only encoding and writing is measured.
+ * @author nilscoding
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteToBenchmark {
+
+    /**
+     * Message variant.
+     */
+    @Param({BenchmarkData.PLAIN, BenchmarkData.HTML, BenchmarkData.HTML_INLINE_IMAGES, BenchmarkData.HTML_ATTACHMENTS})
+    public String variant;
+
+    /**
+     * Built message.
+     */
+    private Message message;
+
+    /**
+     * Builds the message.
+     * @throws MessagingException if message could not be prepared
+     */
+    @Setup
+    public void setup() throws MessagingException {
+        this.message = BenchmarkData.createBuilder(this.variant, BenchmarkData.createSession()).buildMessage();
+        if (this.message == null) {
+            throw new IllegalStateException("message could not be built");
+        }
+        this.message.saveChanges();
+    }
+
+    /**
+     * Writes the message.
+     * @return number of written bytes
+     * @throws IOException        if writing failed
+     * @throws MessagingException if message could not be written
+     */
+    @Benchmark
+    public long writeTo() throws IOException, MessagingException {
+        CountingOutputStream out = new CountingOutputStream();
+        this.message.writeTo(out);
+        return out.count;
+    }
+
+    /**
+     * Output stream discarding all data and counting the bytes.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        /**
+         * Number of written bytes.
+         */
+        private long count = 0L;
+
+        /**
+         * Counts one byte.
+         * @param b byte
+         */
+        @Override
+        public void write(int b) {
+            this.count++;
+        }
+
+        /**
+         * Counts the given bytes.
+         * @param b   data
+         * @param off offset
+         * @param len number of bytes
+         */
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+        }
+    }
+
+}
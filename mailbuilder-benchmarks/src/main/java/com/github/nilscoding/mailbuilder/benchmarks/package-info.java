@@ -0,0 +1,5 @@
+/**
+ * JMH benchmarks for mailbuilder.
+ * @author nilscoding
+ */
+package com.github.nilscoding.mailbuilder.benchmarks;
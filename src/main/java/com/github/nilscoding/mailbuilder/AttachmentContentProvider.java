@@ -13,6 +13,10 @@ public class AttachmentContentProvider extends BinaryContentProvider {
      * DataSource.
      */
     protected DataSource datasource;
+    /**
+     * Content length, -1 if unknown.
+     */
+    protected long contentLength = -1L;
     /**
      * Filename.
      */
@@ -38,6 +42,7 @@ public class AttachmentContentProvider extends BinaryContentProvider {
     public AttachmentContentProvider(byte[] fileData, String contentType, String fileName) {
         super();
         this.datasource = new ByteArrayDataSource(fileData, contentType);
+        this.contentLength = (fileData != null) ? fileData.length : -1L;
         this.filename = fileName;
     }
 
@@ -68,4 +73,13 @@ public class AttachmentContentProvider extends BinaryContentProvider {
         return this.filename;
     }
 
+    /**
+     * Returns the content length if created from binary data.
+     * @return length in bytes, -1 if unknown
+     */
+    @Override
+    public long getContentLength() {
+        return this.contentLength;
+    }
+
 }
@@ -0,0 +1,365 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.sessionimpl.RetryPolicy;
+import com.github.nilscoding.mailbuilder.sessionimpl.TransportPool;
+import com.github.nilscoding.mailbuilder.utils.SharedByteArrayOutputStream;
+import com.github.nilscoding.mailbuilder.utils.SmtpUtils;
+import com.sun.mail.smtp.SMTPMessage;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sends many messages in order over a single SMTP connection. The connection is only
+ * re-established if it got lost, and a failing message does not abort the batch: a
+ * result is returned for every message. Results keep the Message-ID and recipients only, so the messages
+ * built for a batch of builders can be freed once they have been sent.
+ * A message with many recipients can also be sent in chunks of recipients, e.g. to stay below the
+ * recipient limit of the SMTP server: the message is serialized once and transferred once per chunk.
+ * Instances are not thread-safe, use one batch sender per thread.
+ * @author nilscoding
+ */
+public class BatchSender {
+
+    /**
+     * Mail session.
+     */
+    protected final MailSession mailSession;
+    /**
+     * Transport pool, may be null.
+     */
+    protected final TransportPool transportPool;
+    /**
+     * JavaMail session for the transport, created lazily if no transport pool is used.
+     */
+    protected Session session;
+    /**
+     * Current transport.
+     */
+    protected Transport transport;
+    /**
+     * Policy for retrying transient failures, may be null.
+     */
+    protected RetryPolicy retryPolicy;
+
+    /**
+     * Creates a new batch sender which opens its own connection for each batch.
+     * @param mailSession mail session
+     */
+    public BatchSender(MailSession mailSession) {
+        this(mailSession, null);
+    }
+
+    /**
+     * Creates a new batch sender which borrows its connection from the given transport pool.
+     * @param mailSession   mail session
+     * @param transportPool transport pool, may be null
+     */
+    public BatchSender(MailSession mailSession, TransportPool transportPool) {
+        this.mailSession = mailSession;
+        this.transportPool = transportPool;
+    }
+
+    /**
+     * Sets the policy for retrying transient failures of a message or chunk.
+     * @param retryPolicy retry policy, null to not retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Builds the message of the given builder and sends it to its recipients in chunks.
+     * @param mailBuilder mail builder
+     * @param chunkSize   maximum number of recipients per chunk
+     * @return results, one per chunk; a single result without recipients if the message could not be built
+     */
+    public List<ChunkSendResult> sendInChunks(MailBuilder mailBuilder, int chunkSize) {
+        if (mailBuilder == null) {
+            List<ChunkSendResult> results = new ArrayList<>();
+            results.add(new ChunkSendResult(false, null, new IllegalArgumentException("no mail builder given"), null));
+            return results;
+        }
+        Message message = this.build(mailBuilder);
+        if (message == null) {
+            this.finishBatch();
+            List<ChunkSendResult> results = new ArrayList<>();
+            results.add(new ChunkSendResult(false, null, mailBuilder.getLastException(), null));
+            return results;
+        }
+        return this.sendInChunks(message, chunkSize);
+    }
+
+    /**
+     * Sends the given message to its recipients (to, cc and bcc) in chunks. The message is serialized
+     * once and transferred once per chunk with the recipients of that chunk as envelope recipients.
+     * Each chunk is retried on its own if a retry policy is set; a failing chunk does not stop the others.
+     * @param message   message, must be a MimeMessage
+     * @param chunkSize maximum number of recipients per chunk
+     * @return results, one per chunk; a single result without recipients if the message could not be serialized
+     */
+    public List<ChunkSendResult> sendInChunks(Message message, int chunkSize) {
+        List<ChunkSendResult> results = new ArrayList<>();
+        Address[] recipients;
+        Message serialized;
+        try {
+            if ((message instanceof MimeMessage) == false) {
+                throw new MessagingException("only MimeMessages can be sent in chunks");
+            }
+            message.saveChanges();
+            recipients = message.getAllRecipients();
+            if ((recipients == null) || (recipients.length == 0)) {
+                throw new SendFailedException("No recipient addresses");
+            }
+            serialized = serialize((MimeMessage) message);
+        } catch (IOException | MessagingException ex) {
+            this.finishBatch();
+            results.add(new ChunkSendResult(false, message, ex, null));
+            return results;
+        }
+        int size = Math.max(1, chunkSize);
+        try {
+            for (int start = 0; start < recipients.length; start += size) {
+                Address[] chunk = Arrays.copyOfRange(recipients, start, Math.min(recipients.length, start + size));
+                try {
+                    this.sendWithRetry(serialized, chunk);
+                    results.add(new ChunkSendResult(true, message, null, chunk));
+                } catch (MessagingException | IllegalStateException ex) {
+                    results.add(new ChunkSendResult(false, message, ex, chunk));
+                }
+            }
+        } finally {
+            this.finishBatch();
+        }
+        return results;
+    }
+
+    /**
+     * Serializes the message without Bcc header and parses it again, so that sending
+     * it repeatedly only writes the stored bytes. The MAIL extension of an SMTPMessage, like BODY=8BITMIME
+     * for 8bit content, is kept.
+     * @param message message, changes must be saved
+     * @return serialized message
+     * @throws IOException        if message could not be written
+     * @throws MessagingException if message could not be written or parsed
+     */
+    protected static MimeMessage serialize(MimeMessage message) throws IOException, MessagingException {
+        SharedByteArrayOutputStream bytesOut = new SharedByteArrayOutputStream();
+        message.writeTo(bytesOut, new String[] {"Bcc", "Content-Length"});
+        // parsed from a shared stream, the content is not copied but read from the written buffer
+        SMTPMessage serialized = new SMTPMessage((Session) null, bytesOut.toInputStream());
+        if (message instanceof SMTPMessage) {
+            serialized.setMailExtension(((SMTPMessage) message).getMailExtension());
+        }
+        return serialized;
+    }
+
+    /**
+     * Builds and sends the messages of the given builders.
+     * @param mailBuilders mail builders
+     * @return results, one per builder and in the same order
+     */
+    public List<SendResult> sendBuilders(Iterable<MailBuilder> mailBuilders) {
+        List<SendResult> results = new ArrayList<>();
+        if (mailBuilders == null) {
+            return results;
+        }
+        try {
+            for (MailBuilder oneBuilder : mailBuilders) {
+                if (oneBuilder == null) {
+                    results.add(SendResult.failed(null, new IllegalArgumentException("no mail builder given")));
+                    continue;
+                }
+                Message message = this.build(oneBuilder);
+                if (message == null) {
+                    results.add(SendResult.failed(null, oneBuilder.getLastException()));
+                } else {
+                    results.add(this.sendOne(message));
+                }
+            }
+        } finally {
+            this.finishBatch();
+        }
+        return results;
+    }
+
+    /**
+     * Sends the given messages.
+     * @param messages messages
+     * @return results, one per message and in the same order
+     */
+    public List<SendResult> sendMessages(Iterable<? extends Message> messages) {
+        List<SendResult> results = new ArrayList<>();
+        if (messages == null) {
+            return results;
+        }
+        try {
+            for (Message oneMessage : messages) {
+                if (oneMessage == null) {
+                    results.add(SendResult.failed(null, new IllegalArgumentException("no message given")));
+                } else {
+                    results.add(this.sendOne(oneMessage));
+                }
+            }
+        } finally {
+            this.finishBatch();
+        }
+        return results;
+    }
+
+    /**
+     * Builds the message of the given builder, using 8bit content if enabled on the builder and
+     * the server of the current connection advertises 8BITMIME.
+     * @param mailBuilder mail builder
+     * @return message or null on error
+     */
+    protected Message build(MailBuilder mailBuilder) {
+        boolean serverAccepts8Bit = false;
+        if (mailBuilder.eightBitMime) {
+            try {
+                this.ensureConnected();
+                serverAccepts8Bit = SmtpUtils.supports8BitMime(this.transport);
+            } catch (MessagingException ex) {
+                // sending will report the connection problem
+            }
+        }
+        return mailBuilder.buildMessage(serverAccepts8Bit);
+    }
+
+    /**
+     * Sends one message over the current connection, reconnecting once if the connection got lost.
+     * @param message message
+     * @return send result
+     */
+    protected SendResult sendOne(Message message) {
+        try {
+            message.saveChanges();
+            this.sendWithRetry(message, message.getAllRecipients());
+            return SendResult.sent(message);
+        } catch (Exception ex) {
+            return SendResult.failed(message, ex);
+        }
+    }
+
+    /**
+     * Sends the message to the given recipients, retrying transient failures if a retry policy is set.
+     * @param message    message, changes must be saved
+     * @param recipients envelope recipients
+     * @throws MessagingException if sending failed
+     */
+    protected void sendWithRetry(Message message, Address[] recipients) throws MessagingException {
+        RetryPolicy retry = this.retryPolicy;
+        for (int attempt = 1; true; attempt++) {
+            try {
+                this.sendTo(message, recipients);
+                return;
+            } catch (MessagingException ex) {
+                if ((retry == null) || (retry.shouldRetry(ex, attempt) == false)) {
+                    throw ex;
+                }
+                try {
+                    retry.backoff(attempt);
+                } catch (InterruptedException intEx) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the message to the given recipients over the current connection, reconnecting once
+     * if the connection got lost.
+     * @param message    message, changes must be saved
+     * @param recipients envelope recipients
+     * @throws MessagingException if sending failed
+     */
+    protected void sendTo(Message message, Address[] recipients) throws MessagingException {
+        try {
+            this.ensureConnected();
+            try {
+                this.transport.sendMessage(message, recipients);
+            } catch (MessagingException | IllegalStateException ex) {
+                if (SmtpUtils.isConnectionLost(ex) == false) {
+                    throw ex;
+                }
+                this.dropTransport();
+                this.ensureConnected();
+                this.transport.sendMessage(message, recipients);
+            }
+        } catch (MessagingException | IllegalStateException ex) {
+            if (SmtpUtils.isConnectionLost(ex)
+                    || ((this.transport != null) && (this.transport.isConnected() == false))) {
+                // next message will connect again
+                this.dropTransport();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Ensures that a connected transport is present.
+     * @throws MessagingException if no transport could be connected
+     */
+    protected void ensureConnected() throws MessagingException {
+        if (this.transport != null) {
+            return;
+        }
+        if (this.transportPool != null) {
+            this.transport = this.transportPool.borrowTransport(this.mailSession);
+            return;
+        }
+        if (this.session == null) {
+            if (this.mailSession == null) {
+                throw new MessagingException("no mail session given");
+            }
+            this.session = this.mailSession.createNewSession();
+            if (this.session == null) {
+                throw new MessagingException("mail session could not be created");
+            }
+        }
+        Transport newTransport = this.session.getTransport("smtp");
+        newTransport.connect();
+        this.transport = newTransport;
+    }
+
+    /**
+     * Closes the current transport because it is not usable anymore.
+     */
+    protected void dropTransport() {
+        if (this.transport == null) {
+            return;
+        }
+        if (this.transportPool != null) {
+            this.transportPool.invalidateTransport(this.mailSession, this.transport);
+        } else {
+            TransportPool.closeQuietly(this.transport);
+        }
+        this.transport = null;
+    }
+
+    /**
+     * Closes the transport or gives it back to the pool after a batch.
+     */
+    protected void finishBatch() {
+        if (this.transport == null) {
+            return;
+        }
+        if (this.transportPool != null) {
+            this.transportPool.returnTransport(this.mailSession, this.transport);
+        } else {
+            TransportPool.closeQuietly(this.transport);
+        }
+        this.transport = null;
+    }
+
+}
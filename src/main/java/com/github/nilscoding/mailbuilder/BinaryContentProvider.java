@@ -1,5 +1,7 @@
 package com.github.nilscoding.mailbuilder;
 
+import com.github.nilscoding.mailbuilder.utils.ContentKey;
+
 import javax.activation.DataSource;
 
 /**
@@ -8,6 +10,19 @@ import javax.activation.DataSource;
  */
 public abstract class BinaryContentProvider {
 
+    /**
+     * Key of the content, set by an EncodedContentCache when the content is hashed for the first time.
+     */
+    protected volatile ContentKey contentKey;
+    /**
+     * Transfer encoding chosen for the content without 8bit, set by an EncodedContentCache before the key.
+     */
+    protected volatile String contentEncoding;
+    /**
+     * Transfer encoding chosen for the content if 8bit is allowed, set by an EncodedContentCache before the key.
+     */
+    protected volatile String contentEncoding8Bit;
+
     /**
      * Creates a new content provider for binary content.
      */
@@ -32,4 +47,21 @@ public abstract class BinaryContentProvider {
      */
     public abstract String getName();
 
+    /**
+     * Checks if the content may be held in memory, e.g. in encoded form by an EncodedContentCache
+     * or a MailTemplate. Providers for large content should return false.
+     * @return true if content may be held in memory
+     */
+    public boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * Returns the length of the content if known without reading it.
+     * @return length in bytes, -1 if unknown
+     */
+    public long getContentLength() {
+        return -1L;
+    }
+
 }
@@ -0,0 +1,80 @@
+package com.github.nilscoding.mailbuilder;
+
+import javax.mail.Message;
+
+/**
+ * Result of building one message in a bulk build: the input it was built for and
+ * either the message or the exception.
+ * @param <T> input type
+ * @author nilscoding
+ */
+public class BuiltMessage<T> {
+
+    /**
+     * Input.
+     */
+    protected final T input;
+    /**
+     * Built message, null on error.
+     */
+    protected final Message message;
+    /**
+     * Exception, null if built.
+     */
+    protected final Exception exception;
+
+    /**
+     * Creates a new result.
+     * @param input     input
+     * @param message   message, null on error
+     * @param exception exception, null if built
+     */
+    protected BuiltMessage(T input, Message message, Exception exception) {
+        this.input = input;
+        this.message = message;
+        this.exception = exception;
+    }
+
+    /**
+     * Returns the input the message was built for.
+     * @return input
+     */
+    public T getInput() {
+        return this.input;
+    }
+
+    /**
+     * Returns the built message.
+     * @return message or null if building failed
+     */
+    public Message getMessage() {
+        return this.message;
+    }
+
+    /**
+     * Returns the exception.
+     * @return exception or null if message was built
+     */
+    public Exception getException() {
+        return this.exception;
+    }
+
+    /**
+     * Checks if the message was built.
+     * @return true if built, false on error
+     */
+    public boolean isBuilt() {
+        return (this.message != null);
+    }
+
+    /**
+     * Returns a string representation.
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        return "BuiltMessage[input=" + this.input + ", built=" + this.isBuilt()
+                + ((this.exception != null) ? ", exception=" + this.exception : "") + "]";
+    }
+
+}
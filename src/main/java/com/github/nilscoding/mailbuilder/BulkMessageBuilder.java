@@ -0,0 +1,342 @@
+package com.github.nilscoding.mailbuilder;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds messages for many recipients in parallel on a ForkJoinPool. Inputs are read in chunks,
+ * each chunk is split across the pool, and the built messages are handed to a consumer chunk by chunk,
+ * in input order and on the calling thread. Only a few chunks are in memory at once, so the number
+ * of inputs is not limited by memory.
+ * One instance can be used by many threads. Call close() when done to shut down a pool created by this builder.
+ * @author nilscoding
+ */
+public class BulkMessageBuilder implements Closeable {
+
+    /**
+     * Default number of messages per chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+    /**
+     * Number of messages below which a chunk is not split further.
+     */
+    protected static final int SPLIT_THRESHOLD = 8;
+
+    /**
+     * Pool to build on.
+     */
+    protected final ForkJoinPool pool;
+    /**
+     * Number of messages per chunk.
+     */
+    protected final int chunkSize;
+    /**
+     * Maximum number of chunks being built or waiting for the consumer.
+     */
+    protected final int maxChunksInFlight;
+    /**
+     * Flag if the pool has been created by this builder and is shut down by close().
+     */
+    protected final boolean ownsPool;
+
+    /**
+     * Creates a new bulk builder using all processors and the default chunk size.
+     * The builder creates its own pool, which is shut down by close().
+     */
+    public BulkMessageBuilder() {
+        this(new ForkJoinPool(), DEFAULT_CHUNK_SIZE, 2, true);
+    }
+
+    /**
+     * Creates a new bulk builder. At most two chunks are held in memory besides the one given to the consumer.
+     * @param pool      pool to build on
+     * @param chunkSize number of messages per chunk
+     */
+    public BulkMessageBuilder(ForkJoinPool pool, int chunkSize) {
+        this(pool, chunkSize, 2);
+    }
+
+    /**
+     * Creates a new bulk builder. The given pool is not shut down by close().
+     * @param pool              pool to build on
+     * @param chunkSize         number of messages per chunk
+     * @param maxChunksInFlight maximum number of chunks being built while the consumer processes one
+     */
+    public BulkMessageBuilder(ForkJoinPool pool, int chunkSize, int maxChunksInFlight) {
+        this(pool, chunkSize, maxChunksInFlight, false);
+    }
+
+    /**
+     * Creates a new bulk builder.
+     * @param pool              pool to build on
+     * @param chunkSize         number of messages per chunk
+     * @param maxChunksInFlight maximum number of chunks being built while the consumer processes one
+     * @param ownsPool          true if the pool is shut down by close()
+     */
+    protected BulkMessageBuilder(ForkJoinPool pool, int chunkSize, int maxChunksInFlight, boolean ownsPool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("no pool given");
+        }
+        this.pool = pool;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxChunksInFlight = Math.max(1, maxChunksInFlight);
+        this.ownsPool = ownsPool;
+    }
+
+    /**
+     * Builds one message per input based on the given builder. For each input, a copy of the base builder
+     * is given to the personalizer, which sets the per-recipient data like the recipients.
+     * The base builder is copied once at the beginning and not used afterwards.
+     * @param <T>          input type
+     * @param base         base builder
+     * @param inputs       per-recipient inputs
+     * @param personalizer sets the per-recipient data, called from many threads at once
+     * @param consumer     receives the built messages chunk by chunk
+     * @return number of messages built successfully
+     */
+    public <T> long build(MailBuilder base, Iterable<T> inputs, final Personalizer<T> personalizer,
+                          ChunkConsumer<T> consumer) {
+        final MailSpec spec = MailSpec.of(base);
+        return this.build(inputs, new MessageFactory<T>() {
+            @Override
+            public Message createMessage(T input) throws Exception {
+                MailBuilder mb = spec.toBuilder();
+                personalizer.personalize(mb, input);
+                Message message = mb.buildMessage();
+                if (message == null) {
+                    throw new MessagingException("message could not be built", mb.getLastException());
+                }
+                return message;
+            }
+        }, consumer);
+    }
+
+    /**
+     * Builds one message per input using the given template. For each input, an empty builder
+     * is given to the personalizer, which sets the per-recipient data; it is then rendered
+     * with {@link MailTemplate#render(MailBuilder)}.
+     * @param <T>          input type
+     * @param template     compiled template
+     * @param inputs       per-recipient inputs
+     * @param personalizer sets the per-recipient data, called from many threads at once
+     * @param consumer     receives the built messages chunk by chunk
+     * @return number of messages built successfully
+     */
+    public <T> long build(final MailTemplate template, Iterable<T> inputs, final Personalizer<T> personalizer,
+                          ChunkConsumer<T> consumer) {
+        return this.build(inputs, new MessageFactory<T>() {
+            @Override
+            public Message createMessage(T input) throws Exception {
+                MailBuilder personalization = new MailBuilder();
+                personalizer.personalize(personalization, input);
+                return template.render(personalization);
+            }
+        }, consumer);
+    }
+
+    /**
+     * Builds one message per input using the given factory.
+     * @param <T>      input type
+     * @param inputs   per-recipient inputs
+     * @param factory  creates the message for one input, called from many threads at once
+     * @param consumer receives the built messages chunk by chunk
+     * @return number of messages built successfully
+     */
+    public <T> long build(Iterable<T> inputs, MessageFactory<T> factory, ChunkConsumer<T> consumer) {
+        if (inputs == null) {
+            return 0L;
+        }
+        long builtCount = 0L;
+        Deque<ForkJoinTask<List<BuiltMessage<T>>>> inFlight = new ArrayDeque<>();
+        Iterator<T> inputIterator = inputs.iterator();
+        try {
+            while (inputIterator.hasNext()) {
+                List<T> chunk = new ArrayList<>(this.chunkSize);
+                while ((chunk.size() < this.chunkSize) && inputIterator.hasNext()) {
+                    chunk.add(inputIterator.next());
+                }
+                inFlight.addLast(this.pool.submit(new ChunkTask<>(chunk, factory)));
+                if (inFlight.size() > this.maxChunksInFlight) {
+                    builtCount += deliver(inFlight.removeFirst(), consumer);
+                }
+            }
+            while (inFlight.isEmpty() == false) {
+                builtCount += deliver(inFlight.removeFirst(), consumer);
+            }
+        } finally {
+            // only non-empty if the consumer failed
+            for (ForkJoinTask<List<BuiltMessage<T>>> oneTask : inFlight) {
+                oneTask.cancel(false);
+            }
+        }
+        return builtCount;
+    }
+
+    /**
+     * Shuts down the pool if it has been created by this builder. Messages being built are finished,
+     * but no new bulk builds can be started afterwards. A pool given by the caller is left running.
+     */
+    @Override
+    public void close() {
+        if (this.ownsPool) {
+            this.pool.shutdown();
+        }
+    }
+
+    /**
+     * Waits for a chunk and hands it to the consumer.
+     * @param <T>      input type
+     * @param task     chunk task
+     * @param consumer consumer
+     * @return number of messages built successfully in the chunk
+     */
+    protected static <T> long deliver(ForkJoinTask<List<BuiltMessage<T>>> task, ChunkConsumer<T> consumer) {
+        List<BuiltMessage<T>> built = task.join();
+        long builtCount = 0L;
+        for (BuiltMessage<T> oneBuilt : built) {
+            if (oneBuilt.isBuilt()) {
+                builtCount++;
+            }
+        }
+        if (consumer != null) {
+            consumer.accept(built);
+        }
+        return builtCount;
+    }
+
+    /**
+     * Sets the per-recipient data of a message.
+     * @param <T> input type
+     */
+    public interface Personalizer<T> {
+
+        /**
+         * Sets the data for the given input on the given builder.
+         * @param mailBuilder builder for this input only
+         * @param input       input
+         */
+        void personalize(MailBuilder mailBuilder, T input);
+    }
+
+    /**
+     * Creates the message for one input.
+     * @param <T> input type
+     */
+    public interface MessageFactory<T> {
+
+        /**
+         * Creates the message for the given input.
+         * @param input input
+         * @return message
+         * @throws Exception if message could not be created
+         */
+        Message createMessage(T input) throws Exception;
+    }
+
+    /**
+     * Receives built messages chunk by chunk.
+     * @param <T> input type
+     */
+    public interface ChunkConsumer<T> {
+
+        /**
+         * Processes one chunk of built messages, called on the thread that started the bulk build.
+         * @param chunk built messages in input order
+         */
+        void accept(List<BuiltMessage<T>> chunk);
+    }
+
+    /**
+     * Builds a range of a chunk, splitting it in halves until it is small enough.
+     * @param <T> input type
+     */
+    protected static class ChunkTask<T> extends RecursiveTask<List<BuiltMessage<T>>> {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Inputs.
+         */
+        protected final List<T> inputs;
+        /**
+         * Message factory.
+         */
+        protected final MessageFactory<T> factory;
+        /**
+         * Results, shared by all subtasks of one chunk. Each subtask only sets the results of its range.
+         */
+        protected final List<BuiltMessage<T>> results;
+        /**
+         * Start index.
+         */
+        protected final int start;
+        /**
+         * End index (exclusive).
+         */
+        protected final int end;
+
+        /**
+         * Creates a task for a whole chunk.
+         * @param inputs  inputs
+         * @param factory message factory
+         */
+        protected ChunkTask(List<T> inputs, MessageFactory<T> factory) {
+            this(inputs, factory, new ArrayList<>(Collections.<BuiltMessage<T>>nCopies(inputs.size(), null)),
+                    0, inputs.size());
+        }
+
+        /**
+         * Creates a task for a range of a chunk.
+         * @param inputs  inputs
+         * @param factory message factory
+         * @param results results
+         * @param start   start index
+         * @param end     end index (exclusive)
+         */
+        protected ChunkTask(List<T> inputs, MessageFactory<T> factory, List<BuiltMessage<T>> results,
+                            int start, int end) {
+            this.inputs = inputs;
+            this.factory = factory;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Builds the messages of the range.
+         * @return results of the whole chunk, complete only for the task of the whole chunk
+         */
+        @Override
+        protected List<BuiltMessage<T>> compute() {
+            if (this.end - this.start <= SPLIT_THRESHOLD) {
+                for (int i = this.start; i < this.end; i++) {
+                    T input = this.inputs.get(i);
+                    try {
+                        this.results.set(i, new BuiltMessage<>(input, this.factory.createMessage(input), null));
+                    } catch (Exception ex) {
+                        this.results.set(i, new BuiltMessage<>(input, null, ex));
+                    }
+                }
+            } else {
+                int middle = (this.start + this.end) >>> 1;
+                invokeAll(new ChunkTask<>(this.inputs, this.factory, this.results, this.start, middle),
+                        new ChunkTask<>(this.inputs, this.factory, this.results, middle, this.end));
+            }
+            return this.results;
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.utils.ContentKey;
+import com.github.nilscoding.mailbuilder.utils.WeightedLruCache;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * HTML to plain text converter remembering the results of another converter. Results are
+ * looked up by a hash of the HTML text, so identical HTML bodies are converted only once.
+ * The least recently used results are evicted when the number of entries or the total size
+ * of all cached plain texts exceeds the configured limits.
+ * Streams are passed to the other converter if it supports streaming, without using the cache,
+ * so wrapping a streaming converter keeps large HTML documents out of memory.
+ * This class is thread-safe, one instance can be shared by many MailBuilders.
+ * @author nilscoding
+ */
+public class CachingHtmlToPlainConverter implements StreamingHtmlToPlainConverter {
+
+    /**
+     * Default maximum number of cached results.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    /**
+     * Default maximum size of all cached results in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024L * 1024L;
+    /**
+     * Size of the read buffer.
+     */
+    protected static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Converter doing the actual conversion.
+     */
+    protected final HtmlToPlainConverter delegate;
+    /**
+     * Cached plain texts.
+     */
+    protected final WeightedLruCache<ContentKey, String> results;
+
+    /**
+     * Creates a new caching converter with the default limits.
+     * @param delegate converter doing the actual conversion
+     */
+    public CachingHtmlToPlainConverter(HtmlToPlainConverter delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a new caching converter.
+     * @param delegate   converter doing the actual conversion
+     * @param maxEntries maximum number of cached results
+     * @param maxBytes   maximum size of all cached results in bytes
+     */
+    public CachingHtmlToPlainConverter(HtmlToPlainConverter delegate, int maxEntries, long maxBytes) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("no delegate converter given");
+        }
+        this.delegate = delegate;
+        this.results = new WeightedLruCache<>(maxEntries, maxBytes);
+    }
+
+    /**
+     * Converts the given HTML document to plain text, using the cached result if the same
+     * HTML has been converted before.
+     * @param htmlText html text to convert
+     * @return converted plain text
+     */
+    @Override
+    public String convertHtmlToPlainText(String htmlText) {
+        if (htmlText == null) {
+            return this.delegate.convertHtmlToPlainText(null);
+        }
+        ContentKey key = ContentKey.of(htmlText, null);
+        String plainText = this.results.get(key);
+        if (plainText == null) {
+            plainText = this.delegate.convertHtmlToPlainText(htmlText);
+            if (plainText != null) {
+                // strings use two bytes per char
+                this.results.put(key, plainText, plainText.length() * 2L);
+            }
+        }
+        return plainText;
+    }
+
+    /**
+     * Converts the HTML document of the given reader. If the other converter supports streaming,
+     * the stream is passed to it without using the cache, otherwise the document is read
+     * completely and converted using the cache.
+     * @param htmlReader reader for html text
+     * @param plainOut   target for converted plain text
+     * @throws IOException if reading or writing failed
+     */
+    @Override
+    public void convertHtmlToPlainText(Reader htmlReader, Appendable plainOut) throws IOException {
+        if (this.delegate instanceof StreamingHtmlToPlainConverter) {
+            ((StreamingHtmlToPlainConverter) this.delegate).convertHtmlToPlainText(htmlReader, plainOut);
+            return;
+        }
+        StringBuilder htmlText = new StringBuilder();
+        char[] buffer = new char[BUFFER_SIZE];
+        int len;
+        while ((len = htmlReader.read(buffer)) != -1) {
+            htmlText.append(buffer, 0, len);
+        }
+        String plainText = this.convertHtmlToPlainText(htmlText.toString());
+        if (plainText != null) {
+            plainOut.append(plainText);
+        }
+    }
+
+    /**
+     * Returns the converter doing the actual conversion.
+     * @return delegate converter
+     */
+    public HtmlToPlainConverter getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void clear() {
+        this.results.clear();
+    }
+
+    /**
+     * Returns the number of cache hits.
+     * @return number of hits
+     */
+    public long getHitCount() {
+        return this.results.getHitCount();
+    }
+
+    /**
+     * Returns the number of cache misses.
+     * @return number of misses
+     */
+    public long getMissCount() {
+        return this.results.getMissCount();
+    }
+
+    /**
+     * Returns the number of evicted results.
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return this.results.getEvictionCount();
+    }
+
+    /**
+     * Returns the hit rate.
+     * @return hit rate between 0 and 1, 0 if cache has not been used yet
+     */
+    public double getHitRate() {
+        return this.results.getHitRate();
+    }
+
+    /**
+     * Returns the number of cached results.
+     * @return number of entries
+     */
+    public int getEntryCount() {
+        return this.results.getEntryCount();
+    }
+
+    /**
+     * Returns the size of all cached results.
+     * @return size in bytes
+     */
+    public long getCurrentBytes() {
+        return this.results.getCurrentWeight();
+    }
+
+}
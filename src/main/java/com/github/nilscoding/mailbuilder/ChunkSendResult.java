@@ -0,0 +1,36 @@
+package com.github.nilscoding.mailbuilder;
+
+import javax.mail.Address;
+import javax.mail.Message;
+
+/**
+ * Result of sending a message to one chunk of its recipients, the recipients are those of the chunk.
+ * Instances are immutable and can safely be passed between threads.
+ * @author nilscoding
+ */
+public class ChunkSendResult extends SendResult {
+
+    /**
+     * Creates a new chunk result.
+     * @param sent       true if message was sent to the chunk
+     * @param message    message, may be null
+     * @param exception  exception, may be null
+     * @param recipients recipients of the chunk
+     */
+    protected ChunkSendResult(boolean sent, Message message, Exception exception, Address[] recipients) {
+        super(sent, getMessageId(message), recipients, exception);
+    }
+
+    /**
+     * Returns a short description of this result.
+     * @return description
+     */
+    @Override
+    public String toString() {
+        if (this.sent) {
+            return "ChunkSendResult[sent, " + this.recipients.length + " recipients]";
+        }
+        return "ChunkSendResult[failed, " + this.recipients.length + " recipients: " + this.exception + "]";
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.utils.CountingOutputStream;
+import com.sun.mail.smtp.SMTPMessage;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * SMTP message remembering the number of bytes written by its last writeTo() call, so the size of the
+ * message transferred in the DATA phase can be reported without encoding the message a second time.
+ * The size is counted before SMTP dot-stuffing. MailBuilder only counts if a metrics listener is set,
+ * so without listener writing the message costs nothing extra.
+ * @author nilscoding
+ */
+public class CountingSMTPMessage extends SMTPMessage {
+
+    /**
+     * Number of bytes written by the last writeTo() call, -1 if not written yet.
+     */
+    protected volatile long writtenSize = -1L;
+    /**
+     * Flag if written bytes are counted.
+     */
+    protected final boolean counting;
+
+    /**
+     * Creates a new message counting the written bytes.
+     * @param session session
+     */
+    public CountingSMTPMessage(Session session) {
+        this(session, true);
+    }
+
+    /**
+     * Creates a new message.
+     * @param session  session
+     * @param counting true to count the written bytes, false to write without counting
+     */
+    public CountingSMTPMessage(Session session, boolean counting) {
+        super(session);
+        this.counting = counting;
+    }
+
+    /**
+     * Writes the message, counting the written bytes.
+     * @param os         output stream
+     * @param ignoreList headers to leave out, may be null
+     * @throws IOException        if writing failed
+     * @throws MessagingException if message could not be written
+     */
+    @Override
+    public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+        if (this.counting == false) {
+            super.writeTo(os, ignoreList);
+            return;
+        }
+        CountingOutputStream countingOut = new CountingOutputStream(os);
+        super.writeTo(countingOut, ignoreList);
+        this.writtenSize = countingOut.getCount();
+    }
+
+    /**
+     * Returns the number of bytes written by the last writeTo() call.
+     * @return size in bytes, -1 if not written yet or not counted
+     */
+    public long getWrittenSize() {
+        return this.writtenSize;
+    }
+
+    /**
+     * Returns the number of bytes the given message wrote the last time it was written.
+     * @param message message
+     * @return size in bytes, -1 if unknown
+     */
+    public static long getWrittenSize(Message message) {
+        if (message instanceof CountingSMTPMessage) {
+            return ((CountingSMTPMessage) message).getWrittenSize();
+        }
+        return -1L;
+    }
+
+}
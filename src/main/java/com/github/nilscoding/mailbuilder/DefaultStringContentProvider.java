@@ -10,6 +10,10 @@ public class DefaultStringContentProvider extends StringContentProvider {
      * String data.
      */
     protected String data;
+    /**
+     * Charset.
+     */
+    protected String charset = "utf-8";
 
     /**
      * Creates a string content provider with given data.
@@ -20,6 +24,17 @@ public class DefaultStringContentProvider extends StringContentProvider {
         this.data = str;
     }
 
+    /**
+     * Creates a string content provider with given data and charset.
+     * @param str     string to use as data
+     * @param charset charset name
+     */
+    public DefaultStringContentProvider(String str, String charset) {
+        super();
+        this.data = str;
+        this.charset = charset;
+    }
+
     /**
      * Returns the string data.
      * @return string data
@@ -29,4 +44,13 @@ public class DefaultStringContentProvider extends StringContentProvider {
         return this.data;
     }
 
+    /**
+     * Returns the charset.
+     * @return charset
+     */
+    @Override
+    public String getStringCharset() {
+        return this.charset;
+    }
+
 }
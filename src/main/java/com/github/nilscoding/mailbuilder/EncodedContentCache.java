@@ -0,0 +1,267 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.utils.ContentAnalysis;
+import com.github.nilscoding.mailbuilder.utils.ContentKey;
+import com.github.nilscoding.mailbuilder.utils.WeightedLruCache;
+
+import javax.activation.DataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeUtility;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Cache for transfer-encoded content of inline images and attachments. The transfer encoding is chosen
+ * from the content the same way MailBuilder chooses it without cache, e.g. 7bit or quoted-printable
+ * for text and base64 for binary data, so a message has the same encoding and size with or without cache.
+ * Entries are keyed by a hash of the content, its content type and the chosen transfer encoding, so identical
+ * content used in different messages is encoded only once. The key is remembered by each content provider,
+ * so the content of a provider must not change once it has been encoded. The least recently used entries
+ * are evicted when the total size of all encoded data exceeds the configured limit.
+ * This class is thread-safe, one instance can be shared by many MailBuilders.
+ * @author nilscoding
+ */
+public class EncodedContentCache {
+
+    /**
+     * Default maximum size of all cached data in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+    /**
+     * Buffer size for reading content.
+     */
+    protected static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Cached encoded data.
+     */
+    protected final WeightedLruCache<EntryKey, byte[]> entries;
+
+    /**
+     * Creates a new cache with the default size limit.
+     */
+    public EncodedContentCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a new cache.
+     * @param maxBytes maximum size of all cached data in bytes
+     */
+    public EncodedContentCache(long maxBytes) {
+        this.entries = new WeightedLruCache<>(Integer.MAX_VALUE, maxBytes);
+    }
+
+    /**
+     * Returns a pre-encoded content provider for the given content provider, without 8bit transfer encoding.
+     * @param contentProvider content provider
+     * @return pre-encoded content provider with content id and name of the given provider
+     * @throws IOException        if content could not be read
+     * @throws MessagingException if content could not be encoded
+     * @see #encode(BinaryContentProvider, boolean)
+     */
+    public PreEncodedContentProvider encode(BinaryContentProvider contentProvider)
+            throws IOException, MessagingException {
+        return this.encode(contentProvider, false);
+    }
+
+    /**
+     * Returns a pre-encoded content provider for the given content provider, using the cached
+     * encoded data if the same content has been encoded before. The content is read completely,
+     * analyzed and hashed the first time a provider is used, so this should only be used for providers which
+     * are cacheable. Later calls for the same provider find the cached data without reading it again.
+     * @param contentProvider content provider
+     * @param allow8Bit       true if text content may use 8bit transfer encoding
+     * @return pre-encoded content provider with content id and name of the given provider
+     * @throws IOException        if content could not be read
+     * @throws MessagingException if content could not be encoded
+     */
+    public PreEncodedContentProvider encode(BinaryContentProvider contentProvider, boolean allow8Bit)
+            throws IOException, MessagingException {
+        if (contentProvider instanceof PreEncodedContentProvider) {
+            return (PreEncodedContentProvider) contentProvider;
+        }
+        DataSource dataSource = contentProvider.getDataSource();
+        String contentType = dataSource.getContentType();
+        // the key is remembered by the provider, so content is only read and hashed on a miss
+        ContentKey contentKey = contentProvider.contentKey;
+        EntryKey key = null;
+        byte[] encodedData = null;
+        if (contentKey != null) {
+            key = new EntryKey(contentKey,
+                    allow8Bit ? contentProvider.contentEncoding8Bit : contentProvider.contentEncoding);
+            encodedData = this.entries.get(key);
+        }
+        if (encodedData == null) {
+            byte[] rawData = readFully(dataSource);
+            if (key == null) {
+                boolean isText = (contentType != null)
+                        && contentType.regionMatches(true, 0, "text/", 0, "text/".length());
+                ContentAnalysis analysis = ContentAnalysis.of(rawData);
+                contentProvider.contentEncoding = analysis.chooseEncoding(isText, false);
+                contentProvider.contentEncoding8Bit = analysis.chooseEncoding(isText, true);
+                contentKey = ContentKey.of(rawData, contentType);
+                contentProvider.contentKey = contentKey;
+                key = new EntryKey(contentKey,
+                        allow8Bit ? contentProvider.contentEncoding8Bit : contentProvider.contentEncoding);
+                encodedData = this.entries.get(key);
+            }
+            if (encodedData == null) {
+                encodedData = encodeData(rawData, key.transferEncoding);
+                this.entries.put(key, encodedData, encodedData.length);
+            }
+        }
+        // cached data is shared by all providers for the same content and never changed
+        return new PreEncodedContentProvider(encodedData, key.transferEncoding, contentType,
+                contentProvider.getContentId(), contentProvider.getName(), false);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * Returns the number of cache hits.
+     * @return number of hits
+     */
+    public long getHitCount() {
+        return this.entries.getHitCount();
+    }
+
+    /**
+     * Returns the number of cache misses.
+     * @return number of misses
+     */
+    public long getMissCount() {
+        return this.entries.getMissCount();
+    }
+
+    /**
+     * Returns the number of evicted entries.
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return this.entries.getEvictionCount();
+    }
+
+    /**
+     * Returns the hit rate.
+     * @return hit rate between 0 and 1, 0 if cache has not been used yet
+     */
+    public double getHitRate() {
+        return this.entries.getHitRate();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     * @return number of entries
+     */
+    public int getEntryCount() {
+        return this.entries.getEntryCount();
+    }
+
+    /**
+     * Returns the size of all cached data.
+     * @return size in bytes
+     */
+    public long getCurrentBytes() {
+        return this.entries.getCurrentWeight();
+    }
+
+    /**
+     * Reads all data of the given data source.
+     * @param dataSource data source
+     * @return data
+     * @throws IOException if data could not be read
+     */
+    protected static byte[] readFully(DataSource dataSource) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        try (InputStream in = dataSource.getInputStream()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                bytesOut.write(buffer, 0, len);
+            }
+        }
+        return bytesOut.toByteArray();
+    }
+
+    /**
+     * Encodes the given data using the given transfer encoding.
+     * @param rawData          data to encode, not changed afterwards
+     * @param transferEncoding transfer encoding
+     * @return encoded data, the given array for 7bit and 8bit
+     * @throws IOException        if data could not be written
+     * @throws MessagingException if encoder is not available
+     */
+    protected static byte[] encodeData(byte[] rawData, String transferEncoding)
+            throws IOException, MessagingException {
+        if (ContentAnalysis.ENCODING_7BIT.equals(transferEncoding)
+                || ContentAnalysis.ENCODING_8BIT.equals(transferEncoding)) {
+            return rawData;
+        }
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream((rawData.length / 3 + 1) * 4 + rawData.length / 38);
+        OutputStream encodingOut = MimeUtility.encode(bytesOut, transferEncoding);
+        encodingOut.write(rawData);
+        // only flushed like MimeBodyPart does, closing would append a line break the uncached part lacks
+        encodingOut.flush();
+        return bytesOut.toByteArray();
+    }
+
+    /**
+     * Key of a cache entry: the content and its transfer encoding.
+     */
+    protected static final class EntryKey {
+
+        /**
+         * Key of the content.
+         */
+        protected final ContentKey contentKey;
+        /**
+         * Transfer encoding.
+         */
+        protected final String transferEncoding;
+
+        /**
+         * Creates a new entry key.
+         * @param contentKey       key of the content
+         * @param transferEncoding transfer encoding
+         */
+        protected EntryKey(ContentKey contentKey, String transferEncoding) {
+            this.contentKey = contentKey;
+            this.transferEncoding = transferEncoding;
+        }
+
+        /**
+         * Returns the hash code.
+         * @return hash code
+         */
+        @Override
+        public int hashCode() {
+            return 31 * this.contentKey.hashCode() + this.transferEncoding.hashCode();
+        }
+
+        /**
+         * Checks if the given object is an equal key.
+         * @param obj object to compare
+         * @return true if equal
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if ((obj instanceof EntryKey) == false) {
+                return false;
+            }
+            EntryKey other = (EntryKey) obj;
+            return this.contentKey.equals(other.contentKey) && this.transferEncoding.equals(other.transferEncoding);
+        }
+    }
+
+}
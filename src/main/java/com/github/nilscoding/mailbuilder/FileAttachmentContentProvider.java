@@ -0,0 +1,418 @@
+package com.github.nilscoding.mailbuilder;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Content provider for attachments backed by a file. The file content is not loaded into memory,
+ * it is streamed in chunks while the message is written, either using a FileChannel or using a
+ * memory-mapped buffer. The same provider can be used in many messages and read by many threads at once.
+ * A memory-mapped file is mapped on first use and shared by all messages of the provider. Java can not
+ * unmap a file explicitly: the mapping is released by the garbage collector after the provider and all
+ * streams on it are no longer referenced, and until then the file can not be deleted or replaced
+ * on Windows. Call releaseMapping() once the provider is no longer needed, or read using a FileChannel
+ * (the default) if the file must be released right after sending.
+ * @author nilscoding
+ */
+public class FileAttachmentContentProvider extends BinaryContentProvider {
+
+    /**
+     * Content type used if none is given and it could not be detected.
+     */
+    public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    /**
+     * Size of the read buffer.
+     */
+    protected static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * File path.
+     */
+    protected final Path path;
+    /**
+     * Content-Type.
+     */
+    protected final String contentType;
+    /**
+     * Filename.
+     */
+    protected final String filename;
+    /**
+     * Flag if file should be memory-mapped.
+     */
+    protected final boolean memoryMapped;
+    /**
+     * Mapped file content, created on first read if memory-mapping is used.
+     */
+    protected volatile MappedByteBuffer mappedContent;
+
+    /**
+     * Creates a new content provider for the given file, detecting the content type and using the file's name.
+     * @param path file path
+     */
+    public FileAttachmentContentProvider(Path path) {
+        this(path, null, null, false);
+    }
+
+    /**
+     * Creates a new content provider for the given file, read using a FileChannel.
+     * @param path        file path
+     * @param contentType content type, null to detect
+     * @param fileName    file name, null to use the name of the file
+     */
+    public FileAttachmentContentProvider(Path path, String contentType, String fileName) {
+        this(path, contentType, fileName, false);
+    }
+
+    /**
+     * Creates a new content provider for the given file.
+     * @param path         file path
+     * @param contentType  content type, null to detect
+     * @param fileName     file name, null to use the name of the file
+     * @param memoryMapped true to memory-map the file, false to read it using a FileChannel
+     */
+    public FileAttachmentContentProvider(Path path, String contentType, String fileName, boolean memoryMapped) {
+        super();
+        this.path = path;
+        this.contentType = (contentType != null) ? contentType : detectContentType(path);
+        this.filename = (fileName != null) ? fileName : String.valueOf(path.getFileName());
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Returns the DataSource.
+     * @return DataSource
+     */
+    @Override
+    public DataSource getDataSource() {
+        return new FileChannelDataSource();
+    }
+
+    /**
+     * Returns the content ID.
+     * @return content ID
+     */
+    @Override
+    public String getContentId() {
+        return null;
+    }
+
+    /**
+     * Returns the name.
+     * @return name
+     */
+    @Override
+    public String getName() {
+        return this.filename;
+    }
+
+    /**
+     * File content should not be kept in memory.
+     * @return false
+     */
+    @Override
+    public boolean isCacheable() {
+        return false;
+    }
+
+    /**
+     * Returns the file path.
+     * @return path
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * Returns the size of the file.
+     * @return size in bytes, -1 if file could not be accessed
+     */
+    @Override
+    public long getContentLength() {
+        try {
+            return Files.size(this.path);
+        } catch (IOException ioEx) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Opens a stream on the file content.
+     * @return input stream
+     * @throws IOException if file could not be opened
+     */
+    protected InputStream openStream() throws IOException {
+        if (this.memoryMapped) {
+            MappedByteBuffer mapped = this.getMappedContent();
+            if (mapped != null) {
+                // every stream gets its own position on the shared mapping;
+                // the ByteBuffer cast keeps the Java 7 descriptor, MappedByteBuffer.duplicate() exists since Java 17
+                return new ByteBufferInputStream(((ByteBuffer) mapped).duplicate());
+            }
+        }
+        return new FileChannelInputStream(FileChannel.open(this.path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Returns the mapped file content, mapping it on first use.
+     * @return mapped content or null if file is too large to be mapped at once
+     * @throws IOException if file could not be mapped
+     */
+    protected MappedByteBuffer getMappedContent() throws IOException {
+        MappedByteBuffer mapped = this.mappedContent;
+        if (mapped == null) {
+            synchronized (this) {
+                mapped = this.mappedContent;
+                if (mapped == null) {
+                    try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+                        long size = channel.size();
+                        if (size > Integer.MAX_VALUE) {
+                            return null;
+                        }
+                        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    }
+                    this.mappedContent = mapped;
+                }
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * Drops the mapped file content, so the mapping can be released by the garbage collector once
+     * no stream uses it any more. The file is mapped again if the provider is read afterwards.
+     */
+    public void releaseMapping() {
+        synchronized (this) {
+            this.mappedContent = null;
+        }
+    }
+
+    /**
+     * Detects the content type of the given file.
+     * @param path file path
+     * @return content type
+     */
+    protected static String detectContentType(Path path) {
+        try {
+            String detected = Files.probeContentType(path);
+            if (detected != null) {
+                return detected;
+            }
+        } catch (Exception ex) {
+        }
+        return DEFAULT_CONTENT_TYPE;
+    }
+
+    /**
+     * DataSource opening a new stream on the file for every call.
+     */
+    protected class FileChannelDataSource implements DataSource {
+
+        /**
+         * Returns a new stream on the file content.
+         * @return input stream
+         * @throws IOException if file could not be opened
+         */
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return openStream();
+        }
+
+        /**
+         * Not supported.
+         * @return never returns
+         * @throws IOException always
+         */
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("file attachment is read-only");
+        }
+
+        /**
+         * Returns the content type.
+         * @return content type
+         */
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Returns the name.
+         * @return name
+         */
+        @Override
+        public String getName() {
+            return filename;
+        }
+    }
+
+    /**
+     * Input stream reading a FileChannel in large chunks.
+     */
+    protected static class FileChannelInputStream extends InputStream {
+
+        /**
+         * File channel.
+         */
+        private final FileChannel channel;
+        /**
+         * Read buffer.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        /**
+         * Flag if end of file was reached.
+         */
+        private boolean eof = false;
+
+        /**
+         * Creates a new stream on the given channel.
+         * @param channel file channel
+         */
+        FileChannelInputStream(FileChannel channel) {
+            this.channel = channel;
+            // Buffer casts keep the Java 7 method descriptors when compiled on newer JDKs
+            ((Buffer) this.buffer).flip();
+        }
+
+        /**
+         * Fills the buffer if it is empty.
+         * @return true if data is available, false on end of file
+         * @throws IOException if reading failed
+         */
+        private boolean fill() throws IOException {
+            while ((this.buffer.hasRemaining() == false) && (this.eof == false)) {
+                ((Buffer) this.buffer).clear();
+                int len = this.channel.read(this.buffer);
+                ((Buffer) this.buffer).flip();
+                if (len < 0) {
+                    this.eof = true;
+                }
+            }
+            return this.buffer.hasRemaining();
+        }
+
+        /**
+         * Reads one byte.
+         * @return byte or -1 on end of file
+         * @throws IOException if reading failed
+         */
+        @Override
+        public int read() throws IOException {
+            if (this.fill() == false) {
+                return -1;
+            }
+            return this.buffer.get() & 0xFF;
+        }
+
+        /**
+         * Reads into the given array.
+         * @param b   target array
+         * @param off offset
+         * @param len maximum number of bytes
+         * @return number of bytes read or -1 on end of file
+         * @throws IOException if reading failed
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (this.fill() == false) {
+                return -1;
+            }
+            int count = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, count);
+            return count;
+        }
+
+        /**
+         * Returns the number of buffered bytes.
+         * @return number of bytes
+         */
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+
+        /**
+         * Closes the channel.
+         * @throws IOException if closing failed
+         */
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Input stream reading from a byte buffer.
+     */
+    protected static class ByteBufferInputStream extends InputStream {
+
+        /**
+         * Buffer.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Creates a new stream on the given buffer.
+         * @param buffer buffer, must not be shared with other streams
+         */
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Reads one byte.
+         * @return byte or -1 at end of buffer
+         */
+        @Override
+        public int read() {
+            if (this.buffer.hasRemaining() == false) {
+                return -1;
+            }
+            return this.buffer.get() & 0xFF;
+        }
+
+        /**
+         * Reads into the given array.
+         * @param b   target array
+         * @param off offset
+         * @param len maximum number of bytes
+         * @return number of bytes read or -1 at end of buffer
+         */
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (this.buffer.hasRemaining() == false) {
+                return -1;
+            }
+            int count = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, count);
+            return count;
+        }
+
+        /**
+         * Returns the number of remaining bytes.
+         * @return number of bytes
+         */
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.github.nilscoding.mailbuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * String content provider reading its content from a text file, e.g. a large HTML newsletter.
+ * The file is streamed while the message is written.
+ * @author nilscoding
+ */
+public class FileStringContentProvider extends StreamingStringContentProvider {
+
+    /**
+     * File path.
+     */
+    protected final Path path;
+    /**
+     * Charset of the file.
+     */
+    protected final String charset;
+
+    /**
+     * Creates a new content provider for the given UTF-8 encoded file.
+     * @param path file path
+     */
+    public FileStringContentProvider(Path path) {
+        this(path, "utf-8");
+    }
+
+    /**
+     * Creates a new content provider for the given file.
+     * @param path    file path
+     * @param charset charset of the file, also used in the message
+     */
+    public FileStringContentProvider(Path path, String charset) {
+        super();
+        this.path = path;
+        this.charset = charset;
+    }
+
+    /**
+     * Opens a new reader on the file.
+     * @return reader
+     * @throws IOException if file could not be opened
+     */
+    @Override
+    public Reader openReader() throws IOException {
+        return Files.newBufferedReader(this.path, Charset.forName(this.charset));
+    }
+
+    /**
+     * Returns the charset.
+     * @return charset
+     */
+    @Override
+    public String getStringCharset() {
+        return this.charset;
+    }
+
+}
@@ -0,0 +1,332 @@
+package com.github.nilscoding.mailbuilder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics listener keeping in-memory histograms of the durations of every phase,
+ * of building and of sending. Durations are counted in power-of-two buckets, so
+ * percentiles are upper bounds with a precision of factor two.
+ * Recording does not allocate or lock, so one instance can be shared by many builders and threads.
+ * @author nilscoding
+ */
+public class HistogramMailMetrics implements MailMetricsListener {
+
+    /**
+     * Histograms per phase, indexed by ordinal.
+     */
+    protected final Histogram[] phaseHistograms;
+    /**
+     * Histogram of build durations.
+     */
+    protected final Histogram buildHistogram = new Histogram();
+    /**
+     * Histogram of send durations.
+     */
+    protected final Histogram sendHistogram = new Histogram();
+    /**
+     * Number of failed builds.
+     */
+    protected final AtomicLong buildFailureCount = new AtomicLong();
+    /**
+     * Number of failed sends.
+     */
+    protected final AtomicLong sendFailureCount = new AtomicLong();
+    /**
+     * Number of parts of all built messages.
+     */
+    protected final AtomicLong partCount = new AtomicLong();
+
+    /**
+     * Creates new empty metrics.
+     */
+    public HistogramMailMetrics() {
+        MailPhase[] phases = MailPhase.values();
+        this.phaseHistograms = new Histogram[phases.length];
+        for (int i = 0; i < phases.length; i++) {
+            this.phaseHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Records a completed phase.
+     * @param phase     phase
+     * @param nanos     duration in nanoseconds
+     * @param byteCount number of encoded or written bytes, -1 if unknown or not applicable
+     */
+    @Override
+    public void phaseCompleted(MailPhase phase, long nanos, long byteCount) {
+        this.phaseHistograms[phase.ordinal()].record(nanos, byteCount);
+    }
+
+    /**
+     * Records a built message.
+     * @param nanos     total build duration in nanoseconds
+     * @param partCount number of leaf MIME parts
+     * @param failure   exception if building failed, null on success
+     */
+    @Override
+    public void messageBuilt(long nanos, int partCount, Exception failure) {
+        this.buildHistogram.record(nanos, -1L);
+        this.partCount.addAndGet(partCount);
+        if (failure != null) {
+            this.buildFailureCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a sent message.
+     * @param nanos   total send duration in nanoseconds
+     * @param failure exception if sending failed, null on success
+     */
+    @Override
+    public void messageSent(long nanos, Exception failure) {
+        this.sendHistogram.record(nanos, -1L);
+        if (failure != null) {
+            this.sendFailureCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the histogram of the given phase.
+     * @param phase phase
+     * @return histogram
+     */
+    public Histogram getPhaseHistogram(MailPhase phase) {
+        return this.phaseHistograms[phase.ordinal()];
+    }
+
+    /**
+     * Returns the histogram of build durations.
+     * @return histogram
+     */
+    public Histogram getBuildHistogram() {
+        return this.buildHistogram;
+    }
+
+    /**
+     * Returns the histogram of send durations.
+     * @return histogram
+     */
+    public Histogram getSendHistogram() {
+        return this.sendHistogram;
+    }
+
+    /**
+     * Returns the number of failed builds.
+     * @return number of failures
+     */
+    public long getBuildFailureCount() {
+        return this.buildFailureCount.get();
+    }
+
+    /**
+     * Returns the number of failed sends.
+     * @return number of failures
+     */
+    public long getSendFailureCount() {
+        return this.sendFailureCount.get();
+    }
+
+    /**
+     * Returns the number of parts of all built messages.
+     * @return number of parts
+     */
+    public long getPartCount() {
+        return this.partCount.get();
+    }
+
+    /**
+     * Resets all values. Values recorded concurrently may partly survive the reset.
+     */
+    public void reset() {
+        for (Histogram oneHistogram : this.phaseHistograms) {
+            oneHistogram.reset();
+        }
+        this.buildHistogram.reset();
+        this.sendHistogram.reset();
+        this.buildFailureCount.set(0L);
+        this.sendFailureCount.set(0L);
+        this.partCount.set(0L);
+    }
+
+    /**
+     * Returns a summary of all non-empty histograms.
+     * @return summary
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("HistogramMailMetrics{");
+        sb.append("build=").append(this.buildHistogram)
+                .append(", buildFailures=").append(this.getBuildFailureCount())
+                .append(", send=").append(this.sendHistogram)
+                .append(", sendFailures=").append(this.getSendFailureCount())
+                .append(", parts=").append(this.getPartCount());
+        for (MailPhase onePhase : MailPhase.values()) {
+            Histogram histogram = this.getPhaseHistogram(onePhase);
+            if (histogram.getCount() > 0L) {
+                sb.append(", ").append(onePhase).append('=').append(histogram);
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Histogram of durations with power-of-two buckets: bucket 0 counts durations of 0,
+     * bucket i counts durations from 2^(i-1) to 2^i - 1 nanoseconds.
+     */
+    public static class Histogram {
+
+        /**
+         * Number of buckets.
+         */
+        public static final int BUCKET_COUNT = 64;
+
+        /**
+         * Bucket counts.
+         */
+        protected final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        /**
+         * Number of recorded values.
+         */
+        protected final AtomicLong count = new AtomicLong();
+        /**
+         * Sum of all durations.
+         */
+        protected final AtomicLong totalNanos = new AtomicLong();
+        /**
+         * Maximum duration.
+         */
+        protected final AtomicLong maxNanos = new AtomicLong();
+        /**
+         * Sum of all known byte counts.
+         */
+        protected final AtomicLong totalBytes = new AtomicLong();
+
+        /**
+         * Records a duration.
+         * @param nanos     duration in nanoseconds, negative values are recorded as 0
+         * @param byteCount byte count, negative if unknown
+         */
+        public void record(long nanos, long byteCount) {
+            long value = Math.max(0L, nanos);
+            this.buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+            this.count.incrementAndGet();
+            this.totalNanos.addAndGet(value);
+            if (byteCount > 0L) {
+                this.totalBytes.addAndGet(byteCount);
+            }
+            long max = this.maxNanos.get();
+            while ((value > max) && (this.maxNanos.compareAndSet(max, value) == false)) {
+                max = this.maxNanos.get();
+            }
+        }
+
+        /**
+         * Returns the number of recorded durations.
+         * @return count
+         */
+        public long getCount() {
+            return this.count.get();
+        }
+
+        /**
+         * Returns the sum of all recorded durations.
+         * @return total in nanoseconds
+         */
+        public long getTotalNanos() {
+            return this.totalNanos.get();
+        }
+
+        /**
+         * Returns the maximum recorded duration.
+         * @return maximum in nanoseconds
+         */
+        public long getMaxNanos() {
+            return this.maxNanos.get();
+        }
+
+        /**
+         * Returns the mean duration.
+         * @return mean in nanoseconds, 0 if nothing has been recorded
+         */
+        public long getMeanNanos() {
+            long currentCount = this.count.get();
+            return (currentCount > 0L) ? (this.totalNanos.get() / currentCount) : 0L;
+        }
+
+        /**
+         * Returns the sum of all recorded byte counts.
+         * @return total bytes
+         */
+        public long getTotalBytes() {
+            return this.totalBytes.get();
+        }
+
+        /**
+         * Returns the upper bound of the duration below which the given fraction of recorded durations lie.
+         * @param fraction fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+         * @return upper bound in nanoseconds, at most the maximum recorded duration
+         */
+        public long getPercentileNanos(double fraction) {
+            long[] counts = this.getBucketCounts();
+            long total = 0L;
+            for (long oneCount : counts) {
+                total += oneCount;
+            }
+            if (total == 0L) {
+                return 0L;
+            }
+            long threshold = (long) Math.ceil(Math.min(1.0d, Math.max(0.0d, fraction)) * total);
+            long seen = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if ((seen >= threshold) && (seen > 0L)) {
+                    long upperBound = (i == 0) ? 0L : ((i == BUCKET_COUNT - 1) ? Long.MAX_VALUE : (1L << i) - 1L);
+                    return Math.min(upperBound, this.getMaxNanos());
+                }
+            }
+            return this.getMaxNanos();
+        }
+
+        /**
+         * Returns a copy of the bucket counts.
+         * @return bucket counts
+         */
+        public long[] getBucketCounts() {
+            long[] counts = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = this.buckets.get(i);
+            }
+            return counts;
+        }
+
+        /**
+         * Resets all values.
+         */
+        public void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                this.buckets.set(i, 0L);
+            }
+            this.count.set(0L);
+            this.totalNanos.set(0L);
+            this.maxNanos.set(0L);
+            this.totalBytes.set(0L);
+        }
+
+        /**
+         * Returns count, mean, 99th percentile and maximum.
+         * @return summary
+         */
+        @Override
+        public String toString() {
+            return "{count=" + this.getCount()
+                    + ", meanNanos=" + this.getMeanNanos()
+                    + ", p99Nanos=" + this.getPercentileNanos(0.99d)
+                    + ", maxNanos=" + this.getMaxNanos()
+                    + ((this.getTotalBytes() > 0L) ? ", bytes=" + this.getTotalBytes() : "")
+                    + "}";
+        }
+    }
+
+}
@@ -13,6 +13,10 @@ public class InlineImageContentProvider extends BinaryContentProvider {
      * DataSource.
      */
     protected DataSource datasource;
+    /**
+     * Content length, -1 if unknown.
+     */
+    protected long contentLength = -1L;
     /**
      * Image ID.
      */
@@ -38,6 +42,7 @@ public class InlineImageContentProvider extends BinaryContentProvider {
     public InlineImageContentProvider(byte[] imageData, String contentType, String imageId) {
         super();
         this.datasource = new ByteArrayDataSource(imageData, contentType);
+        this.contentLength = (imageData != null) ? imageData.length : -1L;
         this.imageid = imageId;
     }
 
@@ -68,4 +73,13 @@ public class InlineImageContentProvider extends BinaryContentProvider {
         return null;
     }
 
+    /**
+     * Returns the content length if created from binary data.
+     * @return length in bytes, -1 if unknown
+     */
+    @Override
+    public long getContentLength() {
+        return this.contentLength;
+    }
+
 }
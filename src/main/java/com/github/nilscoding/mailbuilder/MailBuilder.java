@@ -1,15 +1,39 @@
 package com.github.nilscoding.mailbuilder;
 
+import com.github.nilscoding.mailbuilder.sessionimpl.RelayMailSession;
+import com.github.nilscoding.mailbuilder.sessionimpl.RetryPolicy;
+import com.github.nilscoding.mailbuilder.sessionimpl.SendThrottle;
+import com.github.nilscoding.mailbuilder.sessionimpl.TransportPool;
+import com.github.nilscoding.mailbuilder.utils.AddressParser;
+import com.github.nilscoding.mailbuilder.utils.ContentAnalysis;
+import com.github.nilscoding.mailbuilder.utils.CountingOutputStream;
+import com.github.nilscoding.mailbuilder.utils.RecipientStore;
+import com.github.nilscoding.mailbuilder.utils.SmtpUtils;
 import com.github.nilscoding.mailbuilder.utils.StringUtils;
+import com.sun.mail.smtp.SMTPMessage;
 
 import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.Address;
 import javax.mail.Message;
+import javax.mail.MessagingException;
 import javax.mail.Multipart;
+import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.Transport;
 import javax.mail.internet.*;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Mail Builder, used for building a message with optional attachments and inline attachments.
@@ -17,26 +41,48 @@ import java.util.List;
  */
 public class MailBuilder {
 
+    /**
+     * Default buffer size for writing messages to a stream.
+     */
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = 64 * 1024;
+    /**
+     * MAIL FROM parameter announcing 8bit content (RFC 6152).
+     */
+    protected static final String BODY_8BITMIME = "BODY=8BITMIME";
+    /**
+     * Build context shared by all builds without metrics listener and without 8bit. Such a context
+     * is never changed by a build, so it does not have to be created for every message.
+     */
+    protected static final BuildContext PLAIN_BUILD_CONTEXT = new BuildContext(null, false);
+
     /**
      * Session.
      */
     protected Session session;
+    /**
+     * Mail session the JavaMail session was created from, null if builder was created on a JavaMail session.
+     */
+    protected MailSession mailSession;
     /**
      * List with sender addresses.
      */
     protected final List<InternetAddress> from = new LinkedList<>();
     /**
-     * List with recipient addresses.
+     * Recipients (to, cc and bcc), ignoring duplicates.
      */
-    protected final List<InternetAddress> to = new LinkedList<>();
+    protected final RecipientStore recipients = new RecipientStore();
     /**
-     * List with CC addresses.
+     * List with recipient addresses, view of the recipient store.
      */
-    protected final List<InternetAddress> cc = new LinkedList<>();
+    protected final List<InternetAddress> to = this.recipients.view(Message.RecipientType.TO);
     /**
-     * List with BCC addresses.
+     * List with CC addresses, view of the recipient store.
      */
-    protected final List<InternetAddress> bcc = new LinkedList<>();
+    protected final List<InternetAddress> cc = this.recipients.view(Message.RecipientType.CC);
+    /**
+     * List with BCC addresses, view of the recipient store.
+     */
+    protected final List<InternetAddress> bcc = this.recipients.view(Message.RecipientType.BCC);
     /**
      * Subject.
      */
@@ -53,6 +99,10 @@ public class MailBuilder {
      * HTML-to-plain converter.
      */
     protected HtmlToPlainConverter plainConverter = null;
+    /**
+     * Flag if text may be sent as 8bit if the SMTP server advertises 8BITMIME.
+     */
+    protected boolean eightBitMime = false;
     /**
      * List with inline image providers.
      */
@@ -61,6 +111,30 @@ public class MailBuilder {
      * List with attachment data providers.
      */
     protected final List<BinaryContentProvider> attachments = new LinkedList<>();
+    /**
+     * Cache for encoded inline images and attachments, may be null.
+     */
+    protected EncodedContentCache encodedContentCache;
+    /**
+     * Parser for addresses given as strings.
+     */
+    protected AddressParser addressParser = AddressParser.getDefault();
+    /**
+     * Addresses given as strings which could not be parsed.
+     */
+    protected final List<String> rejectedAddresses = new LinkedList<>();
+    /**
+     * Rate limiter for sending without transport pool, may be null.
+     */
+    protected SendThrottle sendThrottle;
+    /**
+     * Policy for retrying transient failures when sending without transport pool, may be null.
+     */
+    protected RetryPolicy retryPolicy;
+    /**
+     * Metrics listener, may be null.
+     */
+    protected MailMetricsListener metricsListener;
     /**
      * Last exception.
      */
@@ -76,6 +150,7 @@ public class MailBuilder {
      */
     public static MailBuilder onSession(MailSession mailSession) {
         MailBuilder mb = new MailBuilder();
+        mb.mailSession = mailSession;
         mb.session = mailSession.createNewSession();
         return mb;
     }
@@ -116,10 +191,7 @@ public class MailBuilder {
         if (address != null) {
             for (String oneAddress : address) {
                 if (oneAddress != null) {
-                    try {
-                        this.from.add(new InternetAddress(oneAddress));
-                    } catch (AddressException adrEx) {
-                    }
+                    this.addAddress(this.from, oneAddress);
                 }
             }
         }
@@ -163,10 +235,7 @@ public class MailBuilder {
     public MailBuilder setFrom(String address) {
         this.from.clear();
         if (StringUtils.isEmpty(address) == false) {
-            try {
-                this.from.add(new InternetAddress(address));
-            } catch (AddressException adrEx) {
-            }
+            this.addAddress(this.from, address);
         }
         return this;
     }
@@ -205,10 +274,7 @@ public class MailBuilder {
         if (address != null) {
             for (String oneAddress : address) {
                 if (oneAddress != null) {
-                    try {
-                        this.to.add(new InternetAddress(oneAddress));
-                    } catch (AddressException adrEx) {
-                    }
+                    this.addAddress(this.to, oneAddress);
                 }
             }
         }
@@ -252,10 +318,7 @@ public class MailBuilder {
     public MailBuilder setTo(String address) {
         this.to.clear();
         if (StringUtils.isEmpty(address) == false) {
-            try {
-                this.to.add(new InternetAddress(address));
-            } catch (AddressException adrEx) {
-            }
+            this.addAddress(this.to, address);
         }
         return this;
     }
@@ -294,10 +357,7 @@ public class MailBuilder {
         if (address != null) {
             for (String oneAddress : address) {
                 if (oneAddress != null) {
-                    try {
-                        this.cc.add(new InternetAddress(oneAddress));
-                    } catch (AddressException adrEx) {
-                    }
+                    this.addAddress(this.cc, oneAddress);
                 }
             }
         }
@@ -341,10 +401,7 @@ public class MailBuilder {
     public MailBuilder setCc(String address) {
         this.cc.clear();
         if (StringUtils.isEmpty(address) == false) {
-            try {
-                this.cc.add(new InternetAddress(address));
-            } catch (AddressException adrEx) {
-            }
+            this.addAddress(this.cc, address);
         }
         return this;
     }
@@ -383,10 +440,7 @@ public class MailBuilder {
         if (address != null) {
             for (String oneAddress : address) {
                 if (oneAddress != null) {
-                    try {
-                        this.bcc.add(new InternetAddress(oneAddress));
-                    } catch (AddressException adrEx) {
-                    }
+                    this.addAddress(this.bcc, oneAddress);
                 }
             }
         }
@@ -430,10 +484,7 @@ public class MailBuilder {
     public MailBuilder setBcc(String address) {
         this.bcc.clear();
         if (StringUtils.isEmpty(address) == false) {
-            try {
-                this.bcc.add(new InternetAddress(address));
-            } catch (AddressException adrEx) {
-            }
+            this.addAddress(this.bcc, address);
         }
         return this;
     }
@@ -457,6 +508,17 @@ public class MailBuilder {
         return this;
     }
 
+    /**
+     * Sets the subject by rendering a compiled placeholder template.
+     * @param subjectTemplate compiled subject template
+     * @param values          values by placeholder name
+     * @return builder instance
+     */
+    public MailBuilder setSubject(PlaceholderTemplate subjectTemplate, Map<String, ?> values) {
+        this.subject = (subjectTemplate != null) ? subjectTemplate.render(values) : null;
+        return this;
+    }
+
     /**
      * Sets the plain text body, assuming UTF-8 charset.
      * @param plainText plain text body
@@ -543,6 +605,27 @@ public class MailBuilder {
         return this;
     }
 
+    /**
+     * Enables sending text as 8bit instead of quoted-printable or base64 if the SMTP server advertises
+     * 8BITMIME. The server is asked before the message is built, which is done when sending with a
+     * transport pool or a BatchSender; the message is then sent with BODY=8BITMIME. Messages built with
+     * buildMessage() or sent without pool keep using quoted-printable or base64, as the server is not known.
+     * @return builder instance
+     */
+    public MailBuilder enable8BitMime() {
+        this.eightBitMime = true;
+        return this;
+    }
+
+    /**
+     * Disables sending text as 8bit (default).
+     * @return builder instance
+     */
+    public MailBuilder disable8BitMime() {
+        this.eightBitMime = false;
+        return this;
+    }
+
     /**
      * Adds one or more inline images.
      * @param inlineImage inline image
@@ -624,15 +707,144 @@ public class MailBuilder {
         return this;
     }
 
+    /**
+     * Sets a cache for encoded inline images and attachments, so identical content is only
+     * encoded once even if it is used in many messages.
+     * @param contentCache encoded content cache, null to disable caching
+     * @return builder instance
+     */
+    public MailBuilder setEncodedContentCache(EncodedContentCache contentCache) {
+        this.encodedContentCache = contentCache;
+        return this;
+    }
+
+    /**
+     * Sets if an address is kept only once across to, cc and bcc (the default). If enabled, an address
+     * is listed in the highest ranked of to, cc, bcc it has been added to and shows up again in the next one
+     * if that field is cleared; duplicates within one of them are always ignored.
+     * Recipients added before are kept.
+     * @param acrossTypes true to keep every address once across to, cc and bcc, false to only
+     *                    ignore duplicates within each of them
+     * @return builder instance
+     */
+    public MailBuilder setCrossTypeDeduplication(boolean acrossTypes) {
+        this.recipients.setAcrossTypes(acrossTypes);
+        return this;
+    }
+
+    /**
+     * Copies the settings of the given builder to this builder: sessions, plain text conversion, 8bit,
+     * address parsing, recipient deduplication, content cache, metrics listener, send throttle and retry policy.
+     * Addresses, subject and content are not copied. Must be called before recipients are added.
+     * @param source builder to copy the settings from
+     */
+    protected void copySettingsFrom(MailBuilder source) {
+        new MailSettings(source).applyTo(this);
+    }
+
+    /**
+     * Returns the number of recipients which have been ignored (or hidden in cc or bcc by a
+     * higher ranked type) because they have been added before.
+     * @return number of duplicates
+     */
+    public long getDuplicateRecipientCount() {
+        return this.recipients.getDuplicateCount();
+    }
+
+    /**
+     * Sets the parser for addresses given as strings.
+     * @param parser address parser, null to use the default parser
+     * @return builder instance
+     */
+    public MailBuilder setAddressParser(AddressParser parser) {
+        this.addressParser = (parser != null) ? parser : AddressParser.getDefault();
+        return this;
+    }
+
+    /**
+     * Returns the addresses given as strings which have been ignored because they could not be parsed.
+     * @return rejected addresses, empty if all addresses were valid
+     */
+    public List<String> getRejectedAddresses() {
+        return Collections.unmodifiableList(new ArrayList<>(this.rejectedAddresses));
+    }
+
+    /**
+     * Sets the rate limiter used when sending without transport pool. When sending with a
+     * transport pool, the throttle of the pool is used.
+     * @param throttle send throttle, null for unlimited sending
+     * @return builder instance
+     */
+    public MailBuilder setSendThrottle(SendThrottle throttle) {
+        this.sendThrottle = throttle;
+        return this;
+    }
+
+    /**
+     * Sets the policy for retrying transient failures (4xx replies like 421 or 451) used when
+     * sending without transport pool. When sending with a transport pool, the policy of the pool is used.
+     * @param policy retry policy, null to not retry
+     * @return builder instance
+     */
+    public MailBuilder setRetryPolicy(RetryPolicy policy) {
+        this.retryPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets a listener which is informed about the duration of each phase of building,
+     * writing and sending messages and about their outcome.
+     * @param listener metrics listener, null to disable metrics
+     * @return builder instance
+     */
+    public MailBuilder setMetricsListener(MailMetricsListener listener) {
+        this.metricsListener = listener;
+        return this;
+    }
+
+    /**
+     * Parses the given address and adds it to the given list, or remembers it as rejected if it is invalid.
+     * @param target  target list
+     * @param address address to parse
+     */
+    protected void addAddress(List<InternetAddress> target, String address) {
+        InternetAddress parsed = this.addressParser.parse(address);
+        if (parsed != null) {
+            target.add(parsed);
+        } else {
+            this.rejectedAddresses.add(address);
+        }
+    }
+
     /**
      * Builds the complete JavaMail message, ready for sending.
-     * Only uses data that has been set, no further validation is done
+     * Only uses data that has been set, no further validation is done.
+     * The transfer encoding of every part is chosen from a single pass over its content:
+     * 7bit for ASCII, otherwise the smaller of quoted-printable and base64. 8bit is not used,
+     * as the SMTP server the message will be sent to is not known.
      * @return message or null on error
      */
     public Message buildMessage() {
+        return this.buildMessage(false);
+    }
+
+    /**
+     * Builds the complete JavaMail message, ready for sending. If 8bit is enabled and accepted by the
+     * server, text parts may use 8bit and the message is sent with BODY=8BITMIME (RFC 6152).
+     * @param serverAccepts8Bit true if the SMTP server advertised 8BITMIME
+     * @return message or null on error
+     */
+    protected Message buildMessage(boolean serverAccepts8Bit) {
+        boolean with8Bit = this.eightBitMime && serverAccepts8Bit;
+        BuildContext context = ((this.metricsListener == null) && (with8Bit == false))
+                ? PLAIN_BUILD_CONTEXT : new BuildContext(this.metricsListener, with8Bit);
+        MailMetricsListener listener = context.listener;
+        long buildStart = (listener != null) ? System.nanoTime() : 0L;
+        int partCount = 0;
         try {
             this.lastException = null;
-            MimeMessage message = new MimeMessage(this.session);
+            // the written size is only needed for the DATA phase reported to the listener
+            SMTPMessage message = new CountingSMTPMessage(this.session, listener != null);
             String tmpSubject = this.subject;
             if (StringUtils.isEmpty(tmpSubject) == false) {
                 // ensure that the subject does not contain any line-breaks
@@ -642,18 +854,7 @@ public class MailBuilder {
                         .replace("\n", " ");
                 message.setSubject(tmpSubject, "UTF-8");
             }
-            if (this.from.isEmpty() == false) {
-                message.addFrom(this.from.toArray(new InternetAddress[0]));
-            }
-            if (this.to.isEmpty() == false) {
-                message.addRecipients(Message.RecipientType.TO, this.to.toArray(new InternetAddress[0]));
-            }
-            if (this.cc.isEmpty() == false) {
-                message.addRecipients(Message.RecipientType.CC, this.cc.toArray(new InternetAddress[0]));
-            }
-            if (this.bcc.isEmpty() == false) {
-                message.addRecipients(Message.RecipientType.BCC, this.bcc.toArray(new InternetAddress[0]));
-            }
+            this.addAddresses(message);
 
             Multipart mainMultipart = null;
 
@@ -664,10 +865,15 @@ public class MailBuilder {
             }
 
             // collect content
+            long phaseStart = context.startPhase();
             String htmlContent = null;
             String htmlContentCharset = null;
+            // streaming html is read while the message is written, not held as a string
+            boolean streamingHtml = (this.htmlTextProvider instanceof StreamingStringContentProvider);
             if (this.htmlTextProvider != null) {
-                htmlContent = this.htmlTextProvider.getStringData();
+                if (streamingHtml == false) {
+                    htmlContent = this.htmlTextProvider.getStringData();
+                }
                 htmlContentCharset = this.htmlTextProvider.getStringCharset();
             }
             String plainContent = null;
@@ -675,15 +881,20 @@ public class MailBuilder {
             if (this.plainTextProvider != null) {
                 plainContent = this.plainTextProvider.getStringData();
                 plainContentCharset = this.plainTextProvider.getStringCharset();
-            } else if ((this.plainConverter != null) && (htmlContent != null)) {
+            }
+            context.endPhase(MailPhase.CONTENT, phaseStart, -1L);
+            if ((this.plainTextProvider == null)
+                    && (this.plainConverter != null) && ((htmlContent != null) || streamingHtml)) {
                 // if no plain text provider is given but automatic conversion from
                 //   html is enabled and html content is present then auto-convert
-                plainContent = this.plainConverter.convertHtmlToPlainText(htmlContent);
+                phaseStart = context.startPhase();
+                plainContent = this.convertHtmlToPlain(htmlContent);
                 plainContentCharset = htmlContentCharset;
+                context.endPhase(MailPhase.HTML_CONVERSION, phaseStart, -1L);
             }
 
             // build html part with inline images (if any)
-            if (StringUtils.isEmpty(htmlContent) == false) {
+            if (streamingHtml || (StringUtils.isEmpty(htmlContent) == false)) {
                 if (this.inlineImages.isEmpty() == true) {
                     // only html, no images
                     if (mainMultipart != null) {
@@ -692,14 +903,16 @@ public class MailBuilder {
                         if (StringUtils.isEmpty(htmlContentCharset) == false) {
                             htmlType = htmlType + "; charset=" + htmlContentCharset;
                         }
-                        htmlContentPart.setContent(htmlContent, htmlType);
+                        this.setHtmlContent(context, htmlContentPart, htmlContent, htmlType);
                         mainMultipart.addBodyPart(htmlContentPart);
+                        partCount++;
                     } else {
                         String htmlType = "text/html";
                         if (StringUtils.isEmpty(htmlContentCharset) == false) {
                             htmlType = htmlType + "; charset=" + htmlContentCharset;
                         }
-                        message.setContent(htmlContent, htmlType);
+                        this.setHtmlContent(context, message, htmlContent, htmlType);
+                        partCount++;
                     }
                 } else {
                     // html plus images
@@ -710,14 +923,15 @@ public class MailBuilder {
                     if (StringUtils.isEmpty(htmlContentCharset) == false) {
                         htmlType = htmlType + "; charset=" + htmlContentCharset;
                     }
-                    htmlContentPart.setContent(htmlContent, htmlType);
+                    this.setHtmlContent(context, htmlContentPart, htmlContent, htmlType);
                     htmlPart.addBodyPart(htmlContentPart);
+                    partCount++;
                     // then add images
                     for (BinaryContentProvider oneImageProvider : this.inlineImages) {
                         if (oneImageProvider == null) {
                             continue;
                         }
-                        MimeBodyPart imagePart = new MimeBodyPart();
+                        MimeBodyPart imagePart = this.createBinaryPart(context, oneImageProvider);
                         String contentID = oneImageProvider.getContentId();
                         if (contentID != null) {
                             // Content-ID should look like <some_id>
@@ -729,8 +943,8 @@ public class MailBuilder {
                             }
                             imagePart.addHeader("Content-ID", contentID);
                         }
-                        imagePart.setDataHandler(new DataHandler(oneImageProvider.getDataSource()));
                         htmlPart.addBodyPart(imagePart);
+                        partCount++;
                     }
                     // if plain text part is present, then build alternative parts, else just add html part
                     if (StringUtils.isEmpty(plainContent) == false) {
@@ -738,7 +952,9 @@ public class MailBuilder {
                         // add text first, then html
                         MimeBodyPart textPart = new MimeBodyPart();
                         textPart.setText(plainContent, plainContentCharset);
+                        this.setTextTransferEncoding(context, textPart, plainContent, plainContentCharset);
                         multipart.addBodyPart(textPart);
+                        partCount++;
                         MimeBodyPart mbpHtml = new MimeBodyPart();
                         mbpHtml.setContent(htmlPart);
                         multipart.addBodyPart(mbpHtml);
@@ -764,10 +980,13 @@ public class MailBuilder {
                 if (mainMultipart != null) {
                     MimeBodyPart mbp = new MimeBodyPart();
                     mbp.setText(plainContent, plainContentCharset);
+                    this.setTextTransferEncoding(context, mbp, plainContent, plainContentCharset);
                     mainMultipart.addBodyPart(mbp);
                 } else {
                     message.setText(plainContent, plainContentCharset);
+                    this.setTextTransferEncoding(context, message, plainContent, plainContentCharset);
                 }
+                partCount++;
             }
 
             // add attachments
@@ -776,20 +995,286 @@ public class MailBuilder {
                     if (oneAttachmentProvider == null) {
                         continue;
                     }
-                    MimeBodyPart attachmentPart = new MimeBodyPart();
-                    attachmentPart.setDataHandler(new DataHandler(oneAttachmentProvider.getDataSource()));
+                    MimeBodyPart attachmentPart = this.createBinaryPart(context, oneAttachmentProvider);
                     attachmentPart.setFileName(oneAttachmentProvider.getName());
                     mainMultipart.addBodyPart(attachmentPart);
+                    partCount++;
                 }
             }
 
+            if (context.used8Bit) {
+                // SMTPTransport only sends the MAIL extension, it does not add BODY=8BITMIME itself
+                String mailExtension = (this.session != null)
+                        ? this.session.getProperty("mail.smtp.mailextension") : null;
+                message.setMailExtension(StringUtils.isEmpty(mailExtension)
+                        ? BODY_8BITMIME : mailExtension + " " + BODY_8BITMIME);
+            }
             return message;
         } catch (Exception ex) {
             this.lastException = ex;
             return null;
+        } finally {
+            if (listener != null) {
+                long buildNanos = System.nanoTime() - buildStart;
+                listener.phaseCompleted(MailPhase.MIME_ASSEMBLY, buildNanos - context.measuredPhaseNanos, -1L);
+                listener.messageBuilt(buildNanos, partCount, this.lastException);
+            }
+        }
+    }
+
+    /**
+     * Adds senders and recipients to the message being built.
+     * @param message message
+     * @throws MessagingException if addresses could not be set
+     */
+    protected void addAddresses(MimeMessage message) throws MessagingException {
+        if (this.from.isEmpty() == false) {
+            message.addFrom(this.from.toArray(new InternetAddress[0]));
+        }
+        if (this.to.isEmpty() == false) {
+            message.addRecipients(Message.RecipientType.TO, this.to.toArray(new InternetAddress[0]));
+        }
+        if (this.cc.isEmpty() == false) {
+            message.addRecipients(Message.RecipientType.CC, this.cc.toArray(new InternetAddress[0]));
+        }
+        if (this.bcc.isEmpty() == false) {
+            message.addRecipients(Message.RecipientType.BCC, this.bcc.toArray(new InternetAddress[0]));
+        }
+    }
+
+    /**
+     * Builds the message and writes it in RFC 822 format to the given stream. The message is
+     * written part by part: content providers deliver their data only while their part is
+     * written, and the message is not kept after writing. For attachments backed by streaming
+     * content providers like FileAttachmentContentProvider, memory use therefore depends on the
+     * buffer size and not on the size of the message. The stream is flushed but not closed.
+     * @param out output stream
+     * @throws IOException        if writing failed
+     * @throws MessagingException if message could not be built
+     */
+    public void writeTo(OutputStream out) throws IOException, MessagingException {
+        this.writeTo(out, DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * Builds the message and writes it in RFC 822 format to the given stream, using a buffer of the given size.
+     * The stream is flushed but not closed.
+     * @param out        output stream
+     * @param bufferSize write buffer size in bytes
+     * @throws IOException        if writing failed
+     * @throws MessagingException if message could not be built
+     */
+    public void writeTo(OutputStream out, int bufferSize) throws IOException, MessagingException {
+        Message message = this.buildMessage();
+        if (message == null) {
+            throw new MessagingException("message could not be built", this.lastException);
+        }
+        message.saveChanges();
+        MailMetricsListener listener = this.metricsListener;
+        if (listener == null) {
+            BufferedOutputStream bufferedOut = new BufferedOutputStream(out, Math.max(1, bufferSize));
+            message.writeTo(bufferedOut);
+            bufferedOut.flush();
+            return;
+        }
+        long writeStart = System.nanoTime();
+        CountingOutputStream countingOut = new CountingOutputStream(out);
+        BufferedOutputStream bufferedOut = new BufferedOutputStream(countingOut, Math.max(1, bufferSize));
+        try {
+            message.writeTo(bufferedOut);
+            bufferedOut.flush();
+        } finally {
+            listener.phaseCompleted(MailPhase.WRITE, System.nanoTime() - writeStart, countingOut.getCount());
         }
     }
 
+    /**
+     * Builds the message and writes it in RFC 822 format to the given channel. The channel is not closed.
+     * @param channel writable channel
+     * @throws IOException        if writing failed
+     * @throws MessagingException if message could not be built
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException, MessagingException {
+        this.writeTo(Channels.newOutputStream(channel), DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * Estimates the size of the message as sent to the SMTP server, without building or encoding it.
+     * The result is an upper bound, see MessageSizeEstimator.
+     * @return size in bytes
+     * @throws IOException if content could not be read
+     */
+    public long estimateSize() throws IOException {
+        return new MessageSizeEstimator(this, false).estimate();
+    }
+
+    /**
+     * Checks if the estimated message size is within the maximum size the SMTP server advertises
+     * with the SIZE extension, so an oversized message can be handled before it is transferred.
+     * Without transport pool, a connection is opened to read the limit.
+     * @param transportPool transport pool, may be null
+     * @return true if the message fits or the server has no limit, false if it is too large
+     * @throws IOException        if content could not be read
+     * @throws MessagingException if server could not be connected
+     */
+    public boolean fitsServerSizeLimit(TransportPool transportPool) throws IOException, MessagingException {
+        long maxSize;
+        if ((transportPool != null) && (this.mailSession != null)) {
+            maxSize = transportPool.getMaxMessageSize(this.mailSession);
+        } else {
+            Transport transport = this.session.getTransport("smtp");
+            transport.connect();
+            try {
+                maxSize = SmtpUtils.getMaxMessageSize(transport);
+            } finally {
+                TransportPool.closeQuietly(transport);
+            }
+        }
+        if (maxSize < 0L) {
+            return true;
+        }
+        // without transport pool, the message is sent without 8bit
+        return new MessageSizeEstimator(this, this.serverAccepts8Bit(transportPool)).estimate() <= maxSize;
+    }
+
+    /**
+     * Converts the html content to plain text. If the html provider is streaming and the converter
+     * supports streaming, the html is read from the provider without holding it as a string.
+     * @param htmlContent html content, null if html provider is streaming
+     * @return plain text
+     * @throws IOException if html could not be read
+     */
+    protected String convertHtmlToPlain(String htmlContent) throws IOException {
+        if (htmlContent != null) {
+            return this.plainConverter.convertHtmlToPlainText(htmlContent);
+        }
+        StreamingStringContentProvider streamingProvider = (StreamingStringContentProvider) this.htmlTextProvider;
+        if (this.plainConverter instanceof StreamingHtmlToPlainConverter) {
+            StringBuilder plainText = new StringBuilder();
+            try (Reader htmlReader = streamingProvider.openReader()) {
+                ((StreamingHtmlToPlainConverter) this.plainConverter).convertHtmlToPlainText(htmlReader, plainText);
+            }
+            return plainText.toString();
+        }
+        return this.plainConverter.convertHtmlToPlainText(streamingProvider.getStringData());
+    }
+
+    /**
+     * Sets the html content of the given part.
+     * @param context     build context
+     * @param part        message or body part
+     * @param htmlContent html content, null if html provider is streaming
+     * @param htmlType    content type
+     * @throws MessagingException if content could not be set
+     */
+    protected void setHtmlContent(BuildContext context, MimePart part, String htmlContent, String htmlType)
+            throws MessagingException {
+        String htmlCharset = this.htmlTextProvider.getStringCharset();
+        if (htmlContent != null) {
+            part.setContent(htmlContent, htmlType);
+            this.setTextTransferEncoding(context, part, htmlContent, htmlCharset);
+        } else {
+            StreamingStringContentProvider streamingProvider = (StreamingStringContentProvider) this.htmlTextProvider;
+            DataSource dataSource = streamingProvider.getDataSource(htmlType);
+            part.setDataHandler(new DataHandler(dataSource));
+            this.setTransferEncoding(context, part, dataSource, true);
+        }
+    }
+
+    /**
+     * Sets the transfer encoding of a text part, chosen from an analysis of the encoded text.
+     * The text is analyzed while it is encoded in chunks, without a copy of the encoded text.
+     * @param context build context
+     * @param part    message or body part, content must be set
+     * @param text    text, may be null
+     * @param charset charset, null for the default charset
+     * @throws MessagingException if charset is not supported
+     */
+    protected void setTextTransferEncoding(BuildContext context, MimePart part, String text, String charset)
+            throws MessagingException {
+        ContentAnalysis analysis;
+        try {
+            analysis = MessageSizeEstimator.analyzeText(text, charset);
+        } catch (IOException ioEx) {
+            throw new MessagingException("text could not be encoded", ioEx);
+        }
+        context.setTransferEncoding(part, analysis.chooseEncoding(true, context.with8Bit));
+    }
+
+    /**
+     * Sets the transfer encoding of a part, chosen from an analysis of the data source's content.
+     * For content other than text, reading stops at the first byte that requires base64.
+     * The content is read again for every build, so content providers may change their content.
+     * @param context    build context
+     * @param part       message or body part, content must be set
+     * @param dataSource data source of the content
+     * @param isText     true if the content is text
+     * @throws MessagingException if content could not be read
+     */
+    protected void setTransferEncoding(BuildContext context, MimePart part, DataSource dataSource, boolean isText)
+            throws MessagingException {
+        ContentAnalysis analysis;
+        try {
+            analysis = analyzeContent(dataSource, isText == false);
+        } catch (IOException ioEx) {
+            throw new MessagingException("content could not be read", ioEx);
+        }
+        context.setTransferEncoding(part, analysis.chooseEncoding(isText, context.with8Bit));
+    }
+
+    /**
+     * Analyzes the content of a data source in one pass over its stream.
+     * @param dataSource     data source of the content
+     * @param stopAtNonAscii true if an analysis stopped at the first non-ASCII byte is sufficient
+     * @return analysis
+     * @throws IOException if content could not be read
+     */
+    protected static ContentAnalysis analyzeContent(DataSource dataSource, boolean stopAtNonAscii)
+            throws IOException {
+        try (InputStream in = dataSource.getInputStream()) {
+            return ContentAnalysis.of(in, stopAtNonAscii);
+        }
+    }
+
+    /**
+     * Creates the body part for an inline image or attachment.
+     * @param context         build context
+     * @param contentProvider content provider
+     * @return body part with content set
+     * @throws MessagingException if part could not be created
+     */
+    protected MimeBodyPart createBinaryPart(BuildContext context, BinaryContentProvider contentProvider)
+            throws MessagingException {
+        if ((this.encodedContentCache != null) && ((contentProvider instanceof PreEncodedContentProvider) == false)
+                && contentProvider.isCacheable()) {
+            long phaseStart = context.startPhase();
+            PreEncodedContentProvider preEncoded;
+            try {
+                preEncoded = this.encodedContentCache.encode(contentProvider, context.with8Bit);
+            } catch (IOException ioEx) {
+                throw new MessagingException("content could not be read", ioEx);
+            }
+            context.endPhase(MailPhase.ENCODING, phaseStart, preEncoded.getEncodedSize());
+            contentProvider = preEncoded;
+        }
+        if (contentProvider instanceof PreEncodedContentProvider) {
+            PreEncodedContentProvider preEncoded = (PreEncodedContentProvider) contentProvider;
+            if (context.with8Bit && ContentAnalysis.ENCODING_8BIT.equalsIgnoreCase(preEncoded.getTransferEncoding())) {
+                context.used8Bit = true;
+            }
+            MimeBodyPart part = new PreencodedMimeBodyPart(preEncoded.getTransferEncoding());
+            part.setDataHandler(new DataHandler(preEncoded.getDataSource()));
+            return part;
+        }
+        MimeBodyPart part = new MimeBodyPart();
+        DataSource dataSource = contentProvider.getDataSource();
+        part.setDataHandler(new DataHandler(dataSource));
+        String contentType = dataSource.getContentType();
+        this.setTransferEncoding(context, part, dataSource,
+                (contentType != null) && contentType.regionMatches(true, 0, "text/", 0, "text/".length()));
+        return part;
+    }
+
     /**
      * Builds and sends the message.
      * @return true if message was sent, false on error
@@ -799,7 +1284,28 @@ public class MailBuilder {
         Message message = this.buildMessage();
         if (message != null) {
             try {
-                Transport.send(message);
+                this.sendMessage(message, null);
+                return true;
+            } catch (Exception ex) {
+                this.lastException = ex;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds and sends the message using a pooled transport, so the connection to the SMTP server
+     * can be reused for following messages. If this builder was not created on a MailSession,
+     * then the message is sent without pooling.
+     * @param transportPool transport pool to use
+     * @return true if message was sent, false on error
+     */
+    public boolean buildMessageAndSend(TransportPool transportPool) {
+        this.lastException = null;
+        Message message = this.buildMessage(this.serverAccepts8Bit(transportPool));
+        if (message != null) {
+            try {
+                this.sendMessage(message, transportPool);
                 return true;
             } catch (Exception ex) {
                 this.lastException = ex;
@@ -808,6 +1314,190 @@ public class MailBuilder {
         return false;
     }
 
+    /**
+     * Builds and sends the message, returning the outcome instead of storing it as last exception.
+     * @param transportPool transport pool to use, null to send without pooling
+     * @return send result
+     */
+    public SendResult buildMessageAndSendWithResult(TransportPool transportPool) {
+        return this.buildMessageAndSendWithResult(transportPool, null);
+    }
+
+    /**
+     * Builds and sends the message, returning the outcome instead of storing it as last exception.
+     * @param transportPool transport pool to use, null to send without pooling
+     * @param relayGate     gate for the relays of a RelayMailSession, may be null
+     * @return send result
+     */
+    protected SendResult buildMessageAndSendWithResult(TransportPool transportPool,
+                                                       RelayMailSession.RelayGate relayGate) {
+        Message message = this.buildMessage(this.serverAccepts8Bit(transportPool));
+        if (message == null) {
+            return SendResult.failed(null, this.lastException);
+        }
+        try {
+            this.sendMessage(message, transportPool, relayGate);
+            return SendResult.sent(message);
+        } catch (Exception ex) {
+            return SendResult.failed(message, ex);
+        }
+    }
+
+    /**
+     * Checks if the SMTP server accepts 8bit content, asking the transport pool if 8bit is enabled.
+     * @param transportPool transport pool, may be null
+     * @return true if 8bit is enabled and the server advertised 8BITMIME, false without transport pool
+     */
+    protected boolean serverAccepts8Bit(TransportPool transportPool) {
+        if (this.eightBitMime == false) {
+            return false;
+        }
+        if ((transportPool == null) || (this.mailSession == null)) {
+            // server cannot be asked before building
+            return false;
+        }
+        try {
+            return transportPool.supports8BitMime(this.mailSession);
+        } catch (MessagingException ex) {
+            // sending will report the connection problem
+            return false;
+        }
+    }
+
+    /**
+     * Sends an already built message, using the transport pool if given and if this builder
+     * has been created on a MailSession. On a RelayMailSession without transport pool, a relay
+     * is selected and a new connection is opened for the message.
+     * @param message       message to send
+     * @param transportPool transport pool, may be null
+     * @throws MessagingException if sending failed
+     */
+    protected void sendMessage(Message message, TransportPool transportPool) throws MessagingException {
+        this.sendMessage(message, transportPool, null);
+    }
+
+    /**
+     * Sends an already built message, using the transport pool if given and if this builder
+     * has been created on a MailSession. On a RelayMailSession, every relay the message is sent to
+     * is passed through the given gate; without transport pool, the send throttle of this builder is
+     * waited for with the host of the relay and transient failures are retried on the relays.
+     * @param message       message to send
+     * @param transportPool transport pool, may be null
+     * @param relayGate     gate for the relays of a RelayMailSession, may be null
+     * @throws MessagingException if sending failed
+     */
+    protected void sendMessage(Message message, TransportPool transportPool, RelayMailSession.RelayGate relayGate)
+            throws MessagingException {
+        MailMetricsListener listener = this.metricsListener;
+        if ((listener == null) && (this.sendThrottle == null) && (this.retryPolicy == null)) {
+            if (this.mailSession instanceof RelayMailSession) {
+                ((RelayMailSession) this.mailSession).send(message, transportPool, null, relayGate);
+            } else if ((transportPool != null) && (this.mailSession != null)) {
+                transportPool.send(this.mailSession, message);
+            } else {
+                Transport.send(message);
+            }
+            return;
+        }
+        long sendStart = (listener != null) ? System.nanoTime() : 0L;
+        try {
+            if (this.mailSession instanceof RelayMailSession) {
+                // with transport pool, the throttle and retry policy of the pool are used
+                ((RelayMailSession) this.mailSession).send(message, transportPool, listener, relayGate,
+                        (transportPool == null) ? this.sendThrottle : null,
+                        (transportPool == null) ? this.retryPolicy : null);
+            } else if ((transportPool != null) && (this.mailSession != null)) {
+                transportPool.send(this.mailSession, message, listener);
+            } else {
+                this.sendMessageWithRetry(message, listener);
+            }
+        } catch (MessagingException | RuntimeException ex) {
+            if (listener != null) {
+                listener.messageSent(System.nanoTime() - sendStart, ex);
+            }
+            throw ex;
+        }
+        if (listener != null) {
+            listener.messageSent(System.nanoTime() - sendStart, null);
+        }
+    }
+
+    /**
+     * Sends the message without transport pool, waiting for the send throttle and retrying
+     * transient failures if configured.
+     * @param message  message to send
+     * @param listener metrics listener, may be null
+     * @throws MessagingException if sending failed
+     */
+    protected void sendMessageWithRetry(Message message, MailMetricsListener listener) throws MessagingException {
+        RetryPolicy retry = this.retryPolicy;
+        for (int attempt = 1; true; attempt++) {
+            try {
+                if (this.sendThrottle != null) {
+                    long waitNanos = this.sendThrottle.acquire(this.session);
+                    if (listener != null) {
+                        listener.phaseCompleted(MailPhase.THROTTLE, waitNanos, -1L);
+                    }
+                }
+                if (listener != null) {
+                    this.sendMessageMeasured(message, listener);
+                } else {
+                    Transport.send(message);
+                }
+                return;
+            } catch (InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("interrupted while waiting for send throttle", intEx);
+            } catch (MessagingException ex) {
+                if ((retry == null) || (retry.shouldRetry(ex, attempt) == false)) {
+                    throw ex;
+                }
+                try {
+                    long waitNanos = retry.backoff(attempt);
+                    if (listener != null) {
+                        listener.phaseCompleted(MailPhase.BACKOFF, waitNanos, -1L);
+                    }
+                } catch (InterruptedException intEx) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the message on a new connection like Transport.send(), but reports connecting
+     * and transferring the message as separate phases.
+     * @param message  message to send
+     * @param listener metrics listener
+     * @throws MessagingException if sending failed
+     */
+    protected void sendMessageMeasured(Message message, MailMetricsListener listener) throws MessagingException {
+        message.saveChanges();
+        Address[] recipients = message.getAllRecipients();
+        if ((recipients == null) || (recipients.length == 0)) {
+            throw new SendFailedException("No recipient addresses");
+        }
+        long phaseStart = System.nanoTime();
+        Transport transport = this.session.getTransport(recipients[0]);
+        try {
+            transport.connect();
+            long now = System.nanoTime();
+            listener.phaseCompleted(MailPhase.CONNECT, now - phaseStart, -1L);
+            phaseStart = now;
+            boolean sent = false;
+            try {
+                transport.sendMessage(message, recipients);
+                sent = true;
+            } finally {
+                listener.phaseCompleted(MailPhase.DATA, System.nanoTime() - phaseStart,
+                        sent ? CountingSMTPMessage.getWrittenSize(message) : -1L);
+            }
+        } finally {
+            transport.close();
+        }
+    }
+
     /**
      * Returns the last exception.
      * @return exception or null
@@ -815,4 +1505,73 @@ public class MailBuilder {
     public Exception getLastException() {
         return lastException;
     }
+
+    /**
+     * State of one build, so builds do not share mutable state. The state is only changed
+     * with a metrics listener or with 8bit allowed.
+     */
+    protected static class BuildContext {
+
+        /**
+         * Metrics listener, may be null.
+         */
+        protected final MailMetricsListener listener;
+        /**
+         * Flag if text parts may use 8bit transfer encoding.
+         */
+        protected final boolean with8Bit;
+        /**
+         * Nanoseconds spent in measured build phases, used for the MIME assembly time.
+         */
+        protected long measuredPhaseNanos = 0L;
+        /**
+         * Flag if a part uses 8bit transfer encoding.
+         */
+        protected boolean used8Bit = false;
+
+        /**
+         * Creates a new build context.
+         * @param listener metrics listener, may be null
+         * @param with8Bit true if text parts may use 8bit transfer encoding
+         */
+        protected BuildContext(MailMetricsListener listener, boolean with8Bit) {
+            this.listener = listener;
+            this.with8Bit = with8Bit;
+        }
+
+        /**
+         * Returns the start time of a build phase if a metrics listener is set.
+         * @return start time in nanoseconds or 0 without listener
+         */
+        protected long startPhase() {
+            return (this.listener != null) ? System.nanoTime() : 0L;
+        }
+
+        /**
+         * Reports a completed build phase to the metrics listener, if set.
+         * @param phase      phase
+         * @param phaseStart start time returned by startPhase()
+         * @param byteCount  number of bytes, -1 if unknown or not applicable
+         */
+        protected void endPhase(MailPhase phase, long phaseStart, long byteCount) {
+            if (this.listener != null) {
+                long nanos = System.nanoTime() - phaseStart;
+                this.measuredPhaseNanos += nanos;
+                this.listener.phaseCompleted(phase, nanos, byteCount);
+            }
+        }
+
+        /**
+         * Sets the given transfer encoding of a part, remembering if 8bit is used while allowed.
+         * @param part             message or body part, content must be set
+         * @param transferEncoding transfer encoding
+         * @throws MessagingException if header could not be set
+         */
+        protected void setTransferEncoding(MimePart part, String transferEncoding) throws MessagingException {
+            if (this.with8Bit && ContentAnalysis.ENCODING_8BIT.equals(transferEncoding)) {
+                this.used8Bit = true;
+            }
+            part.setHeader("Content-Transfer-Encoding", transferEncoding);
+        }
+    }
 }
@@ -0,0 +1,204 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.sessionimpl.TransportPool;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous mail dispatcher, builds and sends messages on a pool of worker threads.
+ * The number of waiting messages is bounded: if the queue is full, submitting blocks until
+ * a worker is free (or the given timeout elapsed), so callers are slowed down instead of
+ * piling up messages in memory.
+ * A MailBuilder must not be changed after it has been submitted.
+ * @author nilscoding
+ */
+public class MailDispatcher {
+
+    /**
+     * Counter for naming dispatcher threads.
+     */
+    protected static final AtomicInteger DISPATCHER_COUNTER = new AtomicInteger();
+
+    /**
+     * Executor running the send tasks.
+     */
+    protected final ExecutorService executor;
+    /**
+     * Permits for running and queued tasks.
+     */
+    protected final Semaphore permits;
+    /**
+     * Transport pool, may be null.
+     */
+    protected final TransportPool transportPool;
+    /**
+     * Number of queued or running tasks.
+     */
+    protected final AtomicInteger pendingCount = new AtomicInteger();
+
+    /**
+     * Creates a new dispatcher sending without transport pool.
+     * @param workerCount   number of worker threads
+     * @param queueCapacity maximum number of messages waiting for a worker
+     */
+    public MailDispatcher(int workerCount, int queueCapacity) {
+        this(workerCount, queueCapacity, null);
+    }
+
+    /**
+     * Creates a new dispatcher.
+     * @param workerCount   number of worker threads
+     * @param queueCapacity maximum number of messages waiting for a worker
+     * @param transportPool transport pool to send with, may be null
+     */
+    public MailDispatcher(int workerCount, int queueCapacity, TransportPool transportPool) {
+        int workers = Math.max(1, workerCount);
+        int capacity = Math.max(0, queueCapacity);
+        this.transportPool = transportPool;
+        this.permits = new Semaphore(workers + capacity);
+        final int dispatcherNumber = DISPATCHER_COUNTER.incrementAndGet();
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(workers + capacity),
+                new ThreadFactory() {
+                    private final AtomicInteger threadCounter = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                                "mailbuilder-dispatcher-" + dispatcherNumber + "-" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        tpe.allowCoreThreadTimeOut(true);
+        this.executor = tpe;
+    }
+
+    /**
+     * Creates a new dispatcher on the given executor. The executor must accept at least
+     * maxPending tasks without rejecting them.
+     * @param executor      executor
+     * @param maxPending    maximum number of queued and running messages
+     * @param transportPool transport pool to send with, may be null
+     */
+    protected MailDispatcher(ExecutorService executor, int maxPending, TransportPool transportPool) {
+        this.executor = executor;
+        this.permits = new Semaphore(Math.max(1, maxPending));
+        this.transportPool = transportPool;
+    }
+
+    /**
+     * Submits the given builder for building and sending, blocking while the queue is full.
+     * @param mailBuilder mail builder
+     * @return future with send result
+     * @throws RejectedExecutionException if the dispatcher has been shut down or the calling thread was interrupted
+     */
+    public Future<SendResult> submit(MailBuilder mailBuilder) {
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("interrupted while waiting for free queue slot", intEx);
+        }
+        return this.submitWithPermit(mailBuilder);
+    }
+
+    /**
+     * Submits the given builder for building and sending, waiting at most the given time while the queue is full.
+     * @param mailBuilder mail builder
+     * @param timeout     maximum time to wait
+     * @param unit        time unit
+     * @return future with send result
+     * @throws RejectedExecutionException if the queue stayed full, the dispatcher has been shut down
+     *                                    or the calling thread was interrupted
+     */
+    public Future<SendResult> submit(MailBuilder mailBuilder, long timeout, TimeUnit unit) {
+        try {
+            if (this.permits.tryAcquire(timeout, unit) == false) {
+                throw new RejectedExecutionException("mail dispatcher queue is full");
+            }
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("interrupted while waiting for free queue slot", intEx);
+        }
+        return this.submitWithPermit(mailBuilder);
+    }
+
+    /**
+     * Submits the builder after a permit has been acquired.
+     * @param mailBuilder mail builder
+     * @return future with send result
+     */
+    protected Future<SendResult> submitWithPermit(final MailBuilder mailBuilder) {
+        this.pendingCount.incrementAndGet();
+        try {
+            return this.executor.submit(new Callable<SendResult>() {
+                @Override
+                public SendResult call() {
+                    try {
+                        return deliver(mailBuilder);
+                    } finally {
+                        pendingCount.decrementAndGet();
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            this.pendingCount.decrementAndGet();
+            this.permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Builds and sends the message of the given builder, called on a worker thread.
+     * @param mailBuilder mail builder
+     * @return send result
+     */
+    protected SendResult deliver(MailBuilder mailBuilder) {
+        if (mailBuilder == null) {
+            return SendResult.failed(null, new IllegalArgumentException("no mail builder given"));
+        }
+        try {
+            return mailBuilder.buildMessageAndSendWithResult(this.transportPool);
+        } catch (RuntimeException ex) {
+            return SendResult.failed(null, ex);
+        }
+    }
+
+    /**
+     * Returns the number of messages that are queued or currently being sent.
+     * @return number of pending messages
+     */
+    public int getPendingCount() {
+        return this.pendingCount.get();
+    }
+
+    /**
+     * Stops accepting new messages, already submitted messages are still sent.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Waits until all submitted messages have been processed after shutdown.
+     * @param timeout maximum time to wait
+     * @param unit    time unit
+     * @return true if all messages have been processed, false if timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.executor.awaitTermination(timeout, unit);
+    }
+
+}
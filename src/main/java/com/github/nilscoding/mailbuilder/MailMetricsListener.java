@@ -0,0 +1,34 @@
+package com.github.nilscoding.mailbuilder;
+
+/**
+ * Listener for timings and outcomes of building, writing and sending messages.
+ * Methods are called on the thread doing the work, so implementations must be thread-safe
+ * and fast; they should not allocate or block.
+ * @author nilscoding
+ */
+public interface MailMetricsListener {
+
+    /**
+     * Called when a phase has been completed.
+     * @param phase     phase
+     * @param nanos     duration in nanoseconds
+     * @param byteCount number of encoded or written bytes, -1 if unknown or not applicable
+     */
+    void phaseCompleted(MailPhase phase, long nanos, long byteCount);
+
+    /**
+     * Called when building a message has been completed.
+     * @param nanos     total build duration in nanoseconds
+     * @param partCount number of leaf MIME parts (text, html, images, attachments)
+     * @param failure   exception if building failed, null on success
+     */
+    void messageBuilt(long nanos, int partCount, Exception failure);
+
+    /**
+     * Called when sending a message has been completed.
+     * @param nanos   total send duration in nanoseconds, including connecting
+     * @param failure exception if sending failed, null on success
+     */
+    void messageSent(long nanos, Exception failure);
+
+}
@@ -0,0 +1,49 @@
+package com.github.nilscoding.mailbuilder;
+
+/**
+ * Phases of building, writing and sending a message, reported to a {@link MailMetricsListener}.
+ * @author nilscoding
+ */
+public enum MailPhase {
+
+    /**
+     * Reading the text of the string content providers.
+     */
+    CONTENT,
+    /**
+     * Converting html to plain text.
+     */
+    HTML_CONVERSION,
+    /**
+     * Transfer-encoding an inline image or attachment before the message is written,
+     * reported with the number of encoded bytes.
+     */
+    ENCODING,
+    /**
+     * Assembling headers and MIME parts, i.e. the time of building the message
+     * not spent in the other build phases.
+     */
+    MIME_ASSEMBLY,
+    /**
+     * Waiting for the rate limiter before sending.
+     */
+    THROTTLE,
+    /**
+     * Getting a connected transport, either from a pool or by connecting to the SMTP server.
+     */
+    CONNECT,
+    /**
+     * Transferring the message to the SMTP server, including encoding of parts which
+     * are not pre-encoded, reported with the number of bytes of the message if it was built by a MailBuilder.
+     */
+    DATA,
+    /**
+     * Waiting before sending again after a transient failure.
+     */
+    BACKOFF,
+    /**
+     * Writing the message to a stream, reported with the number of written bytes.
+     */
+    WRITE
+
+}
@@ -9,7 +9,8 @@ import javax.mail.Session;
 public interface MailSession {
 
     /**
-     * Creates a new JavaMail session, each call should return a new session.
+     * Creates a new JavaMail session, each call should return a new session unless
+     * the implementation explicitly caches sessions.
      * @return new JavaMail session
      */
     Session createNewSession();
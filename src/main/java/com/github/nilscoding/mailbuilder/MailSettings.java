@@ -0,0 +1,119 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.sessionimpl.RetryPolicy;
+import com.github.nilscoding.mailbuilder.sessionimpl.SendThrottle;
+import com.github.nilscoding.mailbuilder.utils.AddressParser;
+
+import javax.mail.Session;
+
+/**
+ * Immutable snapshot of the settings of a MailBuilder: sessions, plain text conversion, 8bit,
+ * address parsing, recipient deduplication, content cache, metrics listener, send throttle and retry policy.
+ * Addresses, subject and content are not part of the settings.
+ * The referenced objects (like the converter or the cache) are shared, not copied.
+ * @author nilscoding
+ */
+public class MailSettings {
+
+    /**
+     * Session.
+     */
+    protected final Session session;
+    /**
+     * Mail session the JavaMail session was created from, may be null.
+     */
+    protected final MailSession mailSession;
+    /**
+     * HTML-to-plain converter, may be null.
+     */
+    protected final HtmlToPlainConverter plainConverter;
+    /**
+     * Flag if text may be sent as 8bit if the SMTP server advertises 8BITMIME.
+     */
+    protected final boolean eightBitMime;
+    /**
+     * Parser for addresses given as strings.
+     */
+    protected final AddressParser addressParser;
+    /**
+     * Flag if an address is kept only once across to, cc and bcc.
+     */
+    protected final boolean crossTypeDeduplication;
+    /**
+     * Cache for encoded inline images and attachments, may be null.
+     */
+    protected final EncodedContentCache encodedContentCache;
+    /**
+     * Metrics listener, may be null.
+     */
+    protected final MailMetricsListener metricsListener;
+    /**
+     * Rate limiter for sending without transport pool, may be null.
+     */
+    protected final SendThrottle sendThrottle;
+    /**
+     * Policy for retrying transient failures when sending without transport pool, may be null.
+     */
+    protected final RetryPolicy retryPolicy;
+
+    /**
+     * Creates a snapshot of the settings of the given builder.
+     * @param source builder to take the settings from
+     */
+    protected MailSettings(MailBuilder source) {
+        this.session = source.session;
+        this.mailSession = source.mailSession;
+        this.plainConverter = source.plainConverter;
+        this.eightBitMime = source.eightBitMime;
+        this.addressParser = source.addressParser;
+        this.crossTypeDeduplication = source.recipients.isAcrossTypes();
+        this.encodedContentCache = source.encodedContentCache;
+        this.metricsListener = source.metricsListener;
+        this.sendThrottle = source.sendThrottle;
+        this.retryPolicy = source.retryPolicy;
+    }
+
+    /**
+     * Creates a snapshot of the current settings of the given builder. Later changes
+     * to the builder do not affect the snapshot.
+     * @param mailBuilder mail builder
+     * @return settings
+     */
+    public static MailSettings of(MailBuilder mailBuilder) {
+        return new MailSettings(mailBuilder);
+    }
+
+    /**
+     * Sets these settings on the given builder.
+     * @param target builder to change
+     */
+    protected void applyTo(MailBuilder target) {
+        target.session = this.session;
+        target.mailSession = this.mailSession;
+        target.plainConverter = this.plainConverter;
+        target.eightBitMime = this.eightBitMime;
+        target.addressParser = this.addressParser;
+        target.recipients.setAcrossTypes(this.crossTypeDeduplication);
+        target.encodedContentCache = this.encodedContentCache;
+        target.metricsListener = this.metricsListener;
+        target.sendThrottle = this.sendThrottle;
+        target.retryPolicy = this.retryPolicy;
+    }
+
+    /**
+     * Returns the session.
+     * @return session, may be null
+     */
+    public Session getSession() {
+        return this.session;
+    }
+
+    /**
+     * Checks if an address is kept only once across to, cc and bcc.
+     * @return true if duplicates are removed across to, cc and bcc
+     */
+    public boolean isCrossTypeDeduplication() {
+        return this.crossTypeDeduplication;
+    }
+
+}
@@ -0,0 +1,525 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.utils.RecipientStore;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the data of a MailBuilder. Unlike a MailBuilder, a spec can be shared
+ * between threads: {@link #toMessage(Session)} can be called concurrently, and the {@code with...}
+ * methods return changed copies which share all unchanged lists and content providers with the original,
+ * so creating one copy per recipient is cheap. Recipients are deduplicated once when a spec is created,
+ * and messages are built directly from the frozen lists of the spec.
+ * Content providers are shared, not copied, so they must allow being read from several threads
+ * (like DefaultStringContentProvider or PreEncodedContentProvider).
+ * @author nilscoding
+ */
+public class MailSpec {
+
+    /**
+     * Settings of the builder the spec was created from.
+     */
+    protected final MailSettings settings;
+    /**
+     * Senders.
+     */
+    protected final List<InternetAddress> from;
+    /**
+     * Recipients (to, cc and bcc).
+     */
+    protected final Recipients recipients;
+    /**
+     * Subject.
+     */
+    protected final String subject;
+    /**
+     * Plain text provider.
+     */
+    protected final StringContentProvider plainTextProvider;
+    /**
+     * Html text provider.
+     */
+    protected final StringContentProvider htmlTextProvider;
+    /**
+     * Inline images.
+     */
+    protected final List<BinaryContentProvider> inlineImages;
+    /**
+     * Attachments.
+     */
+    protected final List<BinaryContentProvider> attachments;
+
+    /**
+     * Creates a new spec. Lists must not be changed afterwards.
+     * @param settings          settings
+     * @param from              senders
+     * @param recipients        recipients
+     * @param subject           subject
+     * @param plainTextProvider plain text provider
+     * @param htmlTextProvider  html text provider
+     * @param inlineImages      inline images
+     * @param attachments       attachments
+     */
+    protected MailSpec(MailSettings settings, List<InternetAddress> from, Recipients recipients, String subject,
+                       StringContentProvider plainTextProvider, StringContentProvider htmlTextProvider,
+                       List<BinaryContentProvider> inlineImages, List<BinaryContentProvider> attachments) {
+        this.settings = settings;
+        this.from = from;
+        this.recipients = recipients;
+        this.subject = subject;
+        this.plainTextProvider = plainTextProvider;
+        this.htmlTextProvider = htmlTextProvider;
+        this.inlineImages = inlineImages;
+        this.attachments = attachments;
+    }
+
+    /**
+     * Creates a spec from the current state of the given builder. Later changes
+     * to the builder do not affect the spec.
+     * @param mailBuilder mail builder
+     * @return spec
+     */
+    public static MailSpec of(MailBuilder mailBuilder) {
+        // the lists of the builder are already deduplicated
+        List<InternetAddress> to = freeze(mailBuilder.to);
+        List<InternetAddress> cc = freeze(mailBuilder.cc);
+        List<InternetAddress> bcc = freeze(mailBuilder.bcc);
+        return new MailSpec(new MailSettings(mailBuilder), freeze(mailBuilder.from),
+                new Recipients(to, cc, bcc, mailBuilder.recipients.isAcrossTypes()), mailBuilder.subject,
+                mailBuilder.plainTextProvider, mailBuilder.htmlTextProvider,
+                freeze(mailBuilder.inlineImages), freeze(mailBuilder.attachments));
+    }
+
+    /**
+     * Returns an unmodifiable copy of the given list, or the shared empty list.
+     * @param <T>  item type
+     * @param list list to copy
+     * @return unmodifiable list
+     */
+    protected static <T> List<T> freeze(List<T> list) {
+        if ((list == null) || list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    /**
+     * Returns an unmodifiable list of the given items without null values.
+     * @param <T>   item type
+     * @param items items
+     * @return unmodifiable list
+     */
+    @SafeVarargs
+    protected static <T> List<T> freeze(T... items) {
+        if (items == null) {
+            return Collections.emptyList();
+        }
+        List<T> list = new ArrayList<>(items.length);
+        for (T oneItem : items) {
+            if (oneItem != null) {
+                list.add(oneItem);
+            }
+        }
+        return list.isEmpty() ? Collections.<T>emptyList() : Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns a copy with the given senders.
+     * @param address senders
+     * @return changed copy
+     */
+    public MailSpec withFrom(InternetAddress... address) {
+        return new MailSpec(this.settings, freeze(address), this.recipients,
+                this.subject, this.plainTextProvider, this.htmlTextProvider,
+                this.inlineImages, this.attachments);
+    }
+
+    /**
+     * Returns a copy with the given recipients (to), keeping cc and bcc.
+     * @param address recipients
+     * @return changed copy
+     */
+    public MailSpec withTo(InternetAddress... address) {
+        return new MailSpec(this.settings, this.from, this.recipients.withTo(freeze(address)),
+                this.subject, this.plainTextProvider, this.htmlTextProvider,
+                this.inlineImages, this.attachments);
+    }
+
+    /**
+     * Returns a copy with the given recipients (cc), keeping to and bcc.
+     * @param address recipients
+     * @return changed copy
+     */
+    public MailSpec withCc(InternetAddress... address) {
+        return new MailSpec(this.settings, this.from, this.recipients.withCc(freeze(address)),
+                this.subject, this.plainTextProvider, this.htmlTextProvider,
+                this.inlineImages, this.attachments);
+    }
+
+    /**
+     * Returns a copy with the given recipients (bcc), keeping to and cc.
+     * @param address recipients
+     * @return changed copy
+     */
+    public MailSpec withBcc(InternetAddress... address) {
+        return new MailSpec(this.settings, this.from, this.recipients.withBcc(freeze(address)),
+                this.subject, this.plainTextProvider, this.htmlTextProvider,
+                this.inlineImages, this.attachments);
+    }
+
+    /**
+     * Returns a copy with the given subject.
+     * @param mailSubject subject
+     * @return changed copy
+     */
+    public MailSpec withSubject(String mailSubject) {
+        return new MailSpec(this.settings, this.from, this.recipients,
+                mailSubject, this.plainTextProvider, this.htmlTextProvider,
+                this.inlineImages, this.attachments);
+    }
+
+    /**
+     * Returns a copy with the given plain text.
+     * @param plainText plain text
+     * @return changed copy
+     */
+    public MailSpec withBodyPlain(String plainText) {
+        return this.withBodyPlain((plainText != null) ? new DefaultStringContentProvider(plainText) : null);
+    }
+
+    /**
+     * Returns a copy with the given plain text provider.
+     * @param contentProvider plain text provider
+     * @return changed copy
+     */
+    public MailSpec withBodyPlain(StringContentProvider contentProvider) {
+        return new MailSpec(this.settings, this.from, this.recipients,
+                this.subject, contentProvider, this.htmlTextProvider,
+                this.inlineImages, this.attachments);
+    }
+
+    /**
+     * Returns a copy with the given html text.
+     * @param htmlText html text
+     * @return changed copy
+     */
+    public MailSpec withBodyHtml(String htmlText) {
+        return this.withBodyHtml((htmlText != null) ? new DefaultStringContentProvider(htmlText) : null);
+    }
+
+    /**
+     * Returns a copy with the given html text provider.
+     * @param contentProvider html text provider
+     * @return changed copy
+     */
+    public MailSpec withBodyHtml(StringContentProvider contentProvider) {
+        return new MailSpec(this.settings, this.from, this.recipients,
+                this.subject, this.plainTextProvider, contentProvider,
+                this.inlineImages, this.attachments);
+    }
+
+    /**
+     * Returns a copy with the given attachments added to the attachments of this spec.
+     * @param binaryAttachments attachments to add
+     * @return changed copy
+     */
+    public MailSpec withAddedAttachment(BinaryContentProvider... binaryAttachments) {
+        List<BinaryContentProvider> added = freeze(binaryAttachments);
+        if (added.isEmpty()) {
+            return this;
+        }
+        List<BinaryContentProvider> combined = new ArrayList<>(this.attachments.size() + added.size());
+        combined.addAll(this.attachments);
+        combined.addAll(added);
+        return new MailSpec(this.settings, this.from, this.recipients,
+                this.subject, this.plainTextProvider, this.htmlTextProvider,
+                this.inlineImages, Collections.unmodifiableList(combined));
+    }
+
+    /**
+     * Returns the senders.
+     * @return unmodifiable list of senders
+     */
+    public List<InternetAddress> getFrom() {
+        return this.from;
+    }
+
+    /**
+     * Returns the recipients (to) without duplicates.
+     * @return unmodifiable list of recipients
+     */
+    public List<InternetAddress> getTo() {
+        return this.recipients.listedTo;
+    }
+
+    /**
+     * Returns the recipients (cc) without duplicates.
+     * @return unmodifiable list of recipients
+     */
+    public List<InternetAddress> getCc() {
+        return this.recipients.listedCc;
+    }
+
+    /**
+     * Returns the recipients (bcc) without duplicates.
+     * @return unmodifiable list of recipients
+     */
+    public List<InternetAddress> getBcc() {
+        return this.recipients.listedBcc;
+    }
+
+    /**
+     * Returns the subject.
+     * @return subject
+     */
+    public String getSubject() {
+        return this.subject;
+    }
+
+    /**
+     * Returns the attachments.
+     * @return unmodifiable list of attachments
+     */
+    public List<BinaryContentProvider> getAttachments() {
+        return this.attachments;
+    }
+
+    /**
+     * Builds the message using the session of the builder the spec was created from.
+     * @return message
+     * @throws MessagingException if message could not be built
+     */
+    public Message toMessage() throws MessagingException {
+        return this.toMessage(this.settings.session);
+    }
+
+    /**
+     * Builds the message using the given session. Can be called from many threads at once.
+     * @param buildSession session for the message
+     * @return message
+     * @throws MessagingException if message could not be built
+     */
+    public Message toMessage(Session buildSession) throws MessagingException {
+        MailBuilder mb = new SpecMessageBuilder(this);
+        mb.session = buildSession;
+        Message message = mb.buildMessage();
+        if (message == null) {
+            throw new MessagingException("message could not be built", mb.getLastException());
+        }
+        return message;
+    }
+
+    /**
+     * Creates a new builder with the data of this spec, e.g. for sending the message.
+     * @return new builder, owned by the caller
+     */
+    public MailBuilder toBuilder() {
+        MailBuilder mb = new MailBuilder();
+        this.settings.applyTo(mb);
+        mb.from.addAll(this.from);
+        mb.to.addAll(this.recipients.listedTo);
+        mb.cc.addAll(this.recipients.listedCc);
+        mb.bcc.addAll(this.recipients.listedBcc);
+        mb.subject = this.subject;
+        mb.plainTextProvider = this.plainTextProvider;
+        mb.htmlTextProvider = this.htmlTextProvider;
+        mb.inlineImages.addAll(this.inlineImages);
+        mb.attachments.addAll(this.attachments);
+        return mb;
+    }
+
+    /**
+     * Returns a short description for debugging.
+     * @return description
+     */
+    @Override
+    public String toString() {
+        return "MailSpec[subject=" + this.subject + ", to=" + Arrays.toString(this.recipients.listedTo.toArray())
+                + ", cc=" + this.recipients.listedCc.size() + ", bcc=" + this.recipients.listedBcc.size()
+                + ", attachments=" + this.attachments.size() + "]";
+    }
+
+    /**
+     * Recipients of a spec as given and without duplicates. Immutable.
+     */
+    protected static class Recipients {
+
+        /**
+         * Recipients (to) as given.
+         */
+        protected final List<InternetAddress> to;
+        /**
+         * Recipients (cc) as given.
+         */
+        protected final List<InternetAddress> cc;
+        /**
+         * Recipients (bcc) as given.
+         */
+        protected final List<InternetAddress> bcc;
+        /**
+         * Flag if an address is kept only once across to, cc and bcc.
+         */
+        protected final boolean acrossTypes;
+        /**
+         * Recipients (to) without duplicates.
+         */
+        protected final List<InternetAddress> listedTo;
+        /**
+         * Recipients (cc) without duplicates.
+         */
+        protected final List<InternetAddress> listedCc;
+        /**
+         * Recipients (bcc) without duplicates.
+         */
+        protected final List<InternetAddress> listedBcc;
+
+        /**
+         * Creates new recipients of already deduplicated lists.
+         * @param to          recipients (to)
+         * @param cc          recipients (cc)
+         * @param bcc         recipients (bcc)
+         * @param acrossTypes true if an address is kept only once across to, cc and bcc
+         */
+        protected Recipients(List<InternetAddress> to, List<InternetAddress> cc, List<InternetAddress> bcc,
+                             boolean acrossTypes) {
+            this(to, cc, bcc, acrossTypes, to, cc, bcc);
+        }
+
+        /**
+         * Creates new recipients.
+         * @param to          recipients (to) as given
+         * @param cc          recipients (cc) as given
+         * @param bcc         recipients (bcc) as given
+         * @param acrossTypes true if an address is kept only once across to, cc and bcc
+         * @param listedTo    recipients (to) without duplicates
+         * @param listedCc    recipients (cc) without duplicates
+         * @param listedBcc   recipients (bcc) without duplicates
+         */
+        protected Recipients(List<InternetAddress> to, List<InternetAddress> cc, List<InternetAddress> bcc,
+                             boolean acrossTypes, List<InternetAddress> listedTo,
+                             List<InternetAddress> listedCc, List<InternetAddress> listedBcc) {
+            this.to = to;
+            this.cc = cc;
+            this.bcc = bcc;
+            this.acrossTypes = acrossTypes;
+            this.listedTo = listedTo;
+            this.listedCc = listedCc;
+            this.listedBcc = listedBcc;
+        }
+
+        /**
+         * Creates new recipients, removing duplicates once.
+         * @param to          recipients (to)
+         * @param cc          recipients (cc)
+         * @param bcc         recipients (bcc)
+         * @param acrossTypes true if an address is kept only once across to, cc and bcc
+         * @return recipients
+         */
+        protected static Recipients of(List<InternetAddress> to, List<InternetAddress> cc,
+                                       List<InternetAddress> bcc, boolean acrossTypes) {
+            if (to.size() + cc.size() + bcc.size() <= 1) {
+                // nothing to deduplicate, e.g. one copy per recipient
+                return new Recipients(to, cc, bcc, acrossTypes);
+            }
+            RecipientStore store = new RecipientStore(acrossTypes);
+            List<InternetAddress> listedTo = store.view(Message.RecipientType.TO);
+            List<InternetAddress> listedCc = store.view(Message.RecipientType.CC);
+            List<InternetAddress> listedBcc = store.view(Message.RecipientType.BCC);
+            listedTo.addAll(to);
+            listedCc.addAll(cc);
+            listedBcc.addAll(bcc);
+            return new Recipients(to, cc, bcc, acrossTypes,
+                    (listedTo.size() == to.size()) ? to : freeze(listedTo),
+                    (listedCc.size() == cc.size()) ? cc : freeze(listedCc),
+                    (listedBcc.size() == bcc.size()) ? bcc : freeze(listedBcc));
+        }
+
+        /**
+         * Returns a copy with the given recipients (to).
+         * @param address recipients
+         * @return changed copy
+         */
+        protected Recipients withTo(List<InternetAddress> address) {
+            return of(address, this.cc, this.bcc, this.acrossTypes);
+        }
+
+        /**
+         * Returns a copy with the given recipients (cc).
+         * @param address recipients
+         * @return changed copy
+         */
+        protected Recipients withCc(List<InternetAddress> address) {
+            return of(this.to, address, this.bcc, this.acrossTypes);
+        }
+
+        /**
+         * Returns a copy with the given recipients (bcc).
+         * @param address recipients
+         * @return changed copy
+         */
+        protected Recipients withBcc(List<InternetAddress> address) {
+            return of(this.to, this.cc, address, this.acrossTypes);
+        }
+    }
+
+    /**
+     * Builder for one message of a spec. Takes the settings and content of the spec and
+     * adds the frozen address lists of the spec to the message, so they are not copied and
+     * deduplicated again.
+     */
+    protected static class SpecMessageBuilder extends MailBuilder {
+
+        /**
+         * Spec to build.
+         */
+        protected final MailSpec spec;
+
+        /**
+         * Creates a new builder for the given spec.
+         * @param spec spec to build
+         */
+        protected SpecMessageBuilder(MailSpec spec) {
+            this.spec = spec;
+            spec.settings.applyTo(this);
+            this.subject = spec.subject;
+            this.plainTextProvider = spec.plainTextProvider;
+            this.htmlTextProvider = spec.htmlTextProvider;
+            this.inlineImages.addAll(spec.inlineImages);
+            this.attachments.addAll(spec.attachments);
+        }
+
+        /**
+         * Adds the senders and recipients of the spec to the message being built.
+         * @param message message
+         * @throws MessagingException if addresses could not be set
+         */
+        @Override
+        protected void addAddresses(MimeMessage message) throws MessagingException {
+            if (this.spec.from.isEmpty() == false) {
+                message.addFrom(this.spec.from.toArray(new InternetAddress[0]));
+            }
+            Recipients specRecipients = this.spec.recipients;
+            if (specRecipients.listedTo.isEmpty() == false) {
+                message.addRecipients(Message.RecipientType.TO,
+                        specRecipients.listedTo.toArray(new InternetAddress[0]));
+            }
+            if (specRecipients.listedCc.isEmpty() == false) {
+                message.addRecipients(Message.RecipientType.CC,
+                        specRecipients.listedCc.toArray(new InternetAddress[0]));
+            }
+            if (specRecipients.listedBcc.isEmpty() == false) {
+                message.addRecipients(Message.RecipientType.BCC,
+                        specRecipients.listedBcc.toArray(new InternetAddress[0]));
+            }
+        }
+    }
+
+}
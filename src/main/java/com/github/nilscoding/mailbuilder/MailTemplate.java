@@ -0,0 +1,166 @@
+package com.github.nilscoding.mailbuilder;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compiled mail template. When compiled from a MailBuilder, inline images and attachments
+ * (unless they are not cacheable) are read and transfer-encoded once, and the auto-generated plain text
+ * is converted once.
+ * Rendering a message then only sets the per-recipient data, while the pre-encoded parts
+ * are shared between all rendered messages.
+ * A compiled template is immutable and can be used from many threads at once.
+ * @author nilscoding
+ */
+public class MailTemplate {
+
+    /**
+     * Compiled builder data, never changed after compiling.
+     */
+    protected final MailBuilder compiled;
+    /**
+     * Plain text converted from the template html, null if auto conversion is not used.
+     */
+    protected final StringContentProvider convertedPlainText;
+
+    /**
+     * Creates a new template from compiled builder data.
+     * @param compiled           compiled builder data
+     * @param convertedPlainText plain text converted from template html, may be null
+     */
+    protected MailTemplate(MailBuilder compiled, StringContentProvider convertedPlainText) {
+        this.compiled = compiled;
+        this.convertedPlainText = convertedPlainText;
+    }
+
+    /**
+     * Compiles a template from the current state of the given builder. Later changes
+     * to the builder do not affect the template.
+     * @param mailBuilder mail builder to compile
+     * @return compiled template
+     * @throws IOException        if content of a content provider could not be read
+     * @throws MessagingException if content could not be encoded
+     */
+    public static MailTemplate compile(MailBuilder mailBuilder) throws IOException, MessagingException {
+        MailBuilder compiled = new MailBuilder();
+        compiled.copySettingsFrom(mailBuilder);
+        compiled.from.addAll(mailBuilder.from);
+        compiled.to.addAll(mailBuilder.to);
+        compiled.cc.addAll(mailBuilder.cc);
+        compiled.bcc.addAll(mailBuilder.bcc);
+        compiled.subject = mailBuilder.subject;
+        if (mailBuilder.htmlTextProvider != null) {
+            compiled.htmlTextProvider = new DefaultStringContentProvider(
+                    mailBuilder.htmlTextProvider.getStringData(), mailBuilder.htmlTextProvider.getStringCharset());
+        }
+        if (mailBuilder.plainTextProvider != null) {
+            compiled.plainTextProvider = new DefaultStringContentProvider(
+                    mailBuilder.plainTextProvider.getStringData(), mailBuilder.plainTextProvider.getStringCharset());
+        }
+        for (BinaryContentProvider oneProvider : mailBuilder.inlineImages) {
+            compiled.inlineImages.add(encode(oneProvider, compiled.encodedContentCache));
+        }
+        for (BinaryContentProvider oneProvider : mailBuilder.attachments) {
+            compiled.attachments.add(encode(oneProvider, compiled.encodedContentCache));
+        }
+        StringContentProvider convertedPlainText = null;
+        if ((compiled.plainTextProvider == null) && (compiled.plainConverter != null)
+                && (compiled.htmlTextProvider != null) && (compiled.htmlTextProvider.getStringData() != null)) {
+            convertedPlainText = new DefaultStringContentProvider(
+                    compiled.plainConverter.convertHtmlToPlainText(compiled.htmlTextProvider.getStringData()),
+                    compiled.htmlTextProvider.getStringCharset());
+        }
+        return new MailTemplate(compiled, convertedPlainText);
+    }
+
+    /**
+     * Encodes the given content provider, using the cache if present. Providers which
+     * are not cacheable are kept as they are.
+     * @param contentProvider content provider
+     * @param contentCache    encoded content cache, may be null
+     * @return pre-encoded content provider or given provider if not cacheable
+     * @throws IOException        if content could not be read
+     * @throws MessagingException if content could not be encoded
+     */
+    protected static BinaryContentProvider encode(BinaryContentProvider contentProvider,
+                                                  EncodedContentCache contentCache)
+            throws IOException, MessagingException {
+        if (contentProvider.isCacheable() == false) {
+            return contentProvider;
+        }
+        if (contentCache != null) {
+            return contentCache.encode(contentProvider);
+        }
+        return PreEncodedContentProvider.encode(contentProvider);
+    }
+
+    /**
+     * Renders a message for the given recipients, replacing the recipients of the template.
+     * @param to recipients
+     * @return rendered message
+     * @throws MessagingException if message could not be built
+     */
+    public Message render(InternetAddress... to) throws MessagingException {
+        MailBuilder personalization = new MailBuilder();
+        if (to != null) {
+            personalization.addTo(Arrays.asList(to));
+        }
+        return this.render(personalization);
+    }
+
+    /**
+     * Renders a message using the data of the given builder for personalization:
+     * senders, recipients, subject and body providers that are set on the given builder
+     * replace those of the template, inline images and attachments are added to those of the template.
+     * @param personalization builder with per-recipient data, may be null
+     * @return rendered message
+     * @throws MessagingException if message could not be built
+     */
+    public Message render(MailBuilder personalization) throws MessagingException {
+        MailBuilder mb = this.newBuilder(personalization);
+        Message message = mb.buildMessage();
+        if (message == null) {
+            throw new MessagingException("message could not be built", mb.getLastException());
+        }
+        return message;
+    }
+
+    /**
+     * Creates a new builder from the template data and the given personalization.
+     * @param personalization builder with per-recipient data, may be null
+     * @return new builder
+     */
+    protected MailBuilder newBuilder(MailBuilder personalization) {
+        MailBuilder mb = new MailBuilder();
+        mb.copySettingsFrom(this.compiled);
+        mb.inlineImages.addAll(this.compiled.inlineImages);
+        mb.attachments.addAll(this.compiled.attachments);
+        if (personalization == null) {
+            personalization = new MailBuilder();
+        }
+        mb.from.addAll(personalization.from.isEmpty() ? this.compiled.from : personalization.from);
+        boolean ownRecipients = (personalization.to.isEmpty() == false)
+                || (personalization.cc.isEmpty() == false)
+                || (personalization.bcc.isEmpty() == false);
+        MailBuilder recipientSource = ownRecipients ? personalization : this.compiled;
+        mb.to.addAll(recipientSource.to);
+        mb.cc.addAll(recipientSource.cc);
+        mb.bcc.addAll(recipientSource.bcc);
+        mb.subject = (personalization.subject != null) ? personalization.subject : this.compiled.subject;
+        mb.htmlTextProvider = (personalization.htmlTextProvider != null)
+                ? personalization.htmlTextProvider : this.compiled.htmlTextProvider;
+        mb.plainTextProvider = (personalization.plainTextProvider != null)
+                ? personalization.plainTextProvider : this.compiled.plainTextProvider;
+        if ((mb.plainTextProvider == null) && (mb.htmlTextProvider == this.compiled.htmlTextProvider)) {
+            // html of the template is used, so plain text has to be converted only once
+            mb.plainTextProvider = this.convertedPlainText;
+        }
+        mb.inlineImages.addAll(personalization.inlineImages);
+        mb.attachments.addAll(personalization.attachments);
+        return mb;
+    }
+
+}
@@ -0,0 +1,333 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.utils.ContentAnalysis;
+import com.github.nilscoding.mailbuilder.utils.StringUtils;
+
+import javax.activation.DataSource;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeUtility;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Estimates the size of the message a MailBuilder builds, as sent to the SMTP server, without building
+ * or encoding it. Content sizes are exact: text and binary content is analyzed in one pass to choose the
+ * transfer encoding like MailBuilder does, and the encoded size is calculated from the analysis. For binary
+ * content of known length which is not text, reading stops at the first non-ASCII byte. Generated headers
+ * like Date, Message-ID and MIME boundaries are counted with their maximum length, so the estimate is
+ * an upper bound which is at most a few hundred bytes larger than the real size.
+ * @author nilscoding
+ */
+public class MessageSizeEstimator {
+
+    /**
+     * Length of CRLF.
+     */
+    protected static final int CRLF = 2;
+    /**
+     * Maximum length of the Date header line.
+     */
+    protected static final int DATE_HEADER = 60;
+    /**
+     * Maximum length of the Message-ID header line without user and host name.
+     */
+    protected static final int MESSAGE_ID_HEADER = 64;
+    /**
+     * Maximum length of a host name.
+     */
+    protected static final int MAX_HOST_NAME = 64;
+    /**
+     * Length of the MIME-Version header line.
+     */
+    protected static final int MIME_VERSION_HEADER = 19;
+    /**
+     * Maximum length of a MIME boundary generated by JavaMail.
+     */
+    protected static final int MAX_BOUNDARY = 46;
+    /**
+     * Length of "Content-Type: ".
+     */
+    protected static final int CONTENT_TYPE_NAME = 14;
+    /**
+     * Length of "Content-Transfer-Encoding: ".
+     */
+    protected static final int TRANSFER_ENCODING_NAME = 27;
+    /**
+     * Maximum length of a charset parameter added by JavaMail to text content types.
+     */
+    protected static final int CHARSET_PARAMETER = 32;
+    /**
+     * Length of the parameter separator, including folding.
+     */
+    protected static final int PARAMETER_SEPARATOR = 5;
+
+    /**
+     * Mail builder.
+     */
+    protected final MailBuilder mailBuilder;
+    /**
+     * Flag if text may use 8bit transfer encoding.
+     */
+    protected final boolean allow8Bit;
+
+    /**
+     * Creates a new estimator for the given mail builder, for a message built without 8bit.
+     * @param mailBuilder mail builder
+     */
+    public MessageSizeEstimator(MailBuilder mailBuilder) {
+        this(mailBuilder, false);
+    }
+
+    /**
+     * Creates a new estimator for the given mail builder.
+     * @param mailBuilder mail builder
+     * @param allow8Bit   true if 8bit is enabled on the builder and accepted by the SMTP server
+     */
+    public MessageSizeEstimator(MailBuilder mailBuilder, boolean allow8Bit) {
+        this.mailBuilder = mailBuilder;
+        this.allow8Bit = allow8Bit;
+    }
+
+    /**
+     * Estimates the size of the message as sent to the SMTP server, i.e. without Bcc header.
+     * @return size in bytes
+     * @throws IOException if content could not be read
+     */
+    public long estimate() throws IOException {
+        MailBuilder mb = this.mailBuilder;
+        long size = this.estimateMessageHeaders();
+
+        String htmlContent = null;
+        String htmlCharset = null;
+        boolean streamingHtml = (mb.htmlTextProvider instanceof StreamingStringContentProvider);
+        if (mb.htmlTextProvider != null) {
+            if (streamingHtml == false) {
+                htmlContent = mb.htmlTextProvider.getStringData();
+            }
+            htmlCharset = mb.htmlTextProvider.getStringCharset();
+        }
+        String plainContent = null;
+        String plainCharset = null;
+        if (mb.plainTextProvider != null) {
+            plainContent = mb.plainTextProvider.getStringData();
+            plainCharset = mb.plainTextProvider.getStringCharset();
+        }
+        if ((mb.plainTextProvider == null) && (mb.plainConverter != null) && ((htmlContent != null) || streamingHtml)) {
+            plainContent = mb.convertHtmlToPlain(htmlContent);
+            plainCharset = htmlCharset;
+        }
+
+        long mainEntity;
+        if (streamingHtml || (StringUtils.isEmpty(htmlContent) == false)) {
+            ContentAnalysis htmlAnalysis;
+            if (htmlContent != null) {
+                htmlAnalysis = analyzeText(htmlContent, htmlCharset);
+            } else {
+                StreamingStringContentProvider streamingProvider = (StreamingStringContentProvider) mb.htmlTextProvider;
+                htmlAnalysis = MailBuilder.analyzeContent(streamingProvider.getDataSource("text/html"), false);
+            }
+            long htmlEntity = this.estimateTextEntity(htmlAnalysis, "text/html", htmlCharset);
+            if (mb.inlineImages.isEmpty()) {
+                mainEntity = htmlEntity;
+            } else {
+                long related = this.estimateMultipartStart("related") + this.estimateBodyPart(htmlEntity);
+                for (BinaryContentProvider oneImageProvider : mb.inlineImages) {
+                    if (oneImageProvider != null) {
+                        related += this.estimateBodyPart(this.estimateBinaryEntity(oneImageProvider, false));
+                    }
+                }
+                related += this.estimateMultipartEnd();
+                if (StringUtils.isEmpty(plainContent) == false) {
+                    long plainEntity = this.estimateTextEntity(analyzeText(plainContent, plainCharset),
+                            "text/plain", plainCharset);
+                    mainEntity = this.estimateMultipartStart("alternative") + this.estimateBodyPart(plainEntity)
+                            + this.estimateBodyPart(related) + this.estimateMultipartEnd();
+                } else {
+                    mainEntity = related;
+                }
+            }
+        } else {
+            mainEntity = this.estimateTextEntity(analyzeText(plainContent, plainCharset),
+                    "text/plain", plainCharset);
+        }
+
+        if (mb.attachments.isEmpty()) {
+            return size + mainEntity;
+        }
+        size += this.estimateMultipartStart("mixed") + this.estimateBodyPart(mainEntity);
+        for (BinaryContentProvider oneAttachmentProvider : mb.attachments) {
+            if (oneAttachmentProvider != null) {
+                size += this.estimateBodyPart(this.estimateBinaryEntity(oneAttachmentProvider, true));
+            }
+        }
+        return size + this.estimateMultipartEnd();
+    }
+
+    /**
+     * Estimates the size of the message headers, except for the content headers.
+     * @return size in bytes
+     * @throws IOException if subject could not be encoded
+     */
+    protected long estimateMessageHeaders() throws IOException {
+        MailBuilder mb = this.mailBuilder;
+        long size = DATE_HEADER + MIME_VERSION_HEADER + MESSAGE_ID_HEADER + MAX_HOST_NAME;
+        size += String.valueOf(System.getProperty("user.name")).length();
+        size += estimateAddressHeader("From", mb.from);
+        size += estimateAddressHeader("To", mb.to);
+        size += estimateAddressHeader("Cc", mb.cc);
+        if (StringUtils.isEmpty(mb.subject) == false) {
+            String tmpSubject = mb.subject.replace("\r\n", " ").replace("\r", " ").replace("\n", " ");
+            size += "Subject: ".length() + MimeUtility.fold("Subject: ".length(),
+                    MimeUtility.encodeText(tmpSubject, "UTF-8", null)).length() + CRLF;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the size of an address header.
+     * @param name      header name
+     * @param addresses addresses
+     * @return size in bytes, 0 without addresses
+     */
+    protected static long estimateAddressHeader(String name, List<InternetAddress> addresses) {
+        if (addresses.isEmpty()) {
+            return 0L;
+        }
+        int used = name.length() + 2;
+        return used + InternetAddress.toString(addresses.toArray(new InternetAddress[0]), used).length() + CRLF;
+    }
+
+    /**
+     * Estimates the size of a text entity: content headers, empty line and encoded content.
+     * @param analysis    analysis of the encoded text
+     * @param mimeType    MIME type, e.g. text/plain
+     * @param charset     charset, may be null
+     * @return size in bytes
+     */
+    protected long estimateTextEntity(ContentAnalysis analysis, String mimeType, String charset) {
+        String transferEncoding = analysis.chooseEncoding(true, this.allow8Bit);
+        return CONTENT_TYPE_NAME + mimeType.length() + CHARSET_PARAMETER + CRLF
+                + TRANSFER_ENCODING_NAME + transferEncoding.length() + CRLF
+                + CRLF + analysis.getEncodedSize(transferEncoding);
+    }
+
+    /**
+     * Estimates the size of a binary entity: content headers, empty line and encoded content.
+     * @param contentProvider content provider
+     * @param attachment      true for attachments having a file name
+     * @return size in bytes
+     * @throws IOException if content could not be read
+     */
+    protected long estimateBinaryEntity(BinaryContentProvider contentProvider, boolean attachment) throws IOException {
+        DataSource dataSource = contentProvider.getDataSource();
+        String contentType = dataSource.getContentType();
+        long size = CONTENT_TYPE_NAME + contentType.length() + CHARSET_PARAMETER + CRLF;
+        String contentId = contentProvider.getContentId();
+        if ((attachment == false) && (contentId != null)) {
+            size += "Content-ID: <>".length() + contentId.length() + CRLF;
+        }
+        if (attachment && (contentProvider.getName() != null)) {
+            // name parameter of Content-Type plus Content-Disposition
+            long nameSize = estimateParameterValue(contentProvider.getName());
+            size += PARAMETER_SEPARATOR + "name=".length() + nameSize;
+            size += "Content-Disposition: attachment".length() + PARAMETER_SEPARATOR + "filename=".length()
+                    + nameSize + CRLF;
+        }
+        String transferEncoding;
+        long contentSize;
+        if (contentProvider instanceof PreEncodedContentProvider) {
+            PreEncodedContentProvider preEncoded = (PreEncodedContentProvider) contentProvider;
+            transferEncoding = preEncoded.getTransferEncoding();
+            contentSize = preEncoded.getEncodedSize();
+        } else {
+            // an EncodedContentCache chooses the same transfer encoding as building without cache
+            boolean isText = contentType.regionMatches(true, 0, "text/", 0, "text/".length());
+            long length = contentProvider.getContentLength();
+            // non-text content is base64 as soon as one non-ASCII byte is found
+            ContentAnalysis analysis = MailBuilder.analyzeContent(dataSource, (isText == false) && (length >= 0L));
+            transferEncoding = analysis.chooseEncoding(isText, this.allow8Bit);
+            if (analysis.isComplete()) {
+                contentSize = analysis.getEncodedSize(transferEncoding);
+            } else {
+                contentSize = ContentAnalysis.getBase64Size(length);
+            }
+        }
+        size += TRANSFER_ENCODING_NAME + transferEncoding.length() + CRLF;
+        return size + CRLF + contentSize;
+    }
+
+    /**
+     * Returns the maximum size of a header parameter value, which may be quoted or encoded.
+     * @param value parameter value
+     * @return size in bytes
+     */
+    protected static long estimateParameterValue(String value) {
+        long size = 2L;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            // non-ASCII characters may be encoded as up to three %XX
+            size += (c < 0200) ? 1L : 9L;
+        }
+        return size + "*=utf-8''".length();
+    }
+
+    /**
+     * Returns the size of a multipart content header plus the empty line.
+     * @param subType multipart sub type
+     * @return size in bytes
+     */
+    protected long estimateMultipartStart(String subType) {
+        return CONTENT_TYPE_NAME + "multipart/".length() + subType.length() + PARAMETER_SEPARATOR
+                + "boundary=\"\"".length() + MAX_BOUNDARY + CRLF + CRLF;
+    }
+
+    /**
+     * Returns the size of one body part of a multipart, including its boundary line.
+     * @param entitySize size of the body part's headers and content
+     * @return size in bytes
+     */
+    protected long estimateBodyPart(long entitySize) {
+        return 2 + MAX_BOUNDARY + CRLF + entitySize + CRLF;
+    }
+
+    /**
+     * Returns the size of the closing boundary line of a multipart.
+     * @return size in bytes
+     */
+    protected long estimateMultipartEnd() {
+        return 2 + MAX_BOUNDARY + 2 + CRLF;
+    }
+
+    /**
+     * Analyzes the given text encoded with the given charset, without creating a copy of the encoded text.
+     * @param text    text, may be null
+     * @param charset MIME charset, null for the default charset
+     * @return analysis
+     * @throws IOException if charset is not supported
+     */
+    protected static ContentAnalysis analyzeText(String text, String charset) throws IOException {
+        String javaCharset = javaCharset(charset);
+        Charset encoding;
+        try {
+            encoding = Charset.forName(javaCharset);
+        } catch (IllegalArgumentException ex) {
+            throw new UnsupportedEncodingException(javaCharset);
+        }
+        return ContentAnalysis.of(text, encoding);
+    }
+
+    /**
+     * Returns the Java charset name for the given MIME charset.
+     * @param charset MIME charset, null for the default charset
+     * @return Java charset name
+     */
+    protected static String javaCharset(String charset) {
+        if (StringUtils.isEmpty(charset)) {
+            return MimeUtility.getDefaultJavaCharset();
+        }
+        return MimeUtility.javaCharset(charset);
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.github.nilscoding.mailbuilder;
+
+import java.util.Map;
+
+/**
+ * StringContentProvider rendering a compiled {@link PlaceholderTemplate} with per-recipient values.
+ * The text is rendered when the message is built.
+ * @author nilscoding
+ */
+public class PlaceholderContentProvider extends StringContentProvider {
+
+    /**
+     * Compiled template.
+     */
+    protected final PlaceholderTemplate template;
+    /**
+     * Values by placeholder name.
+     */
+    protected final Map<String, ?> values;
+    /**
+     * Charset.
+     */
+    protected final String charset;
+
+    /**
+     * Creates a new content provider with charset utf-8.
+     * @param template compiled template
+     * @param values   values by placeholder name
+     */
+    public PlaceholderContentProvider(PlaceholderTemplate template, Map<String, ?> values) {
+        this(template, values, "utf-8");
+    }
+
+    /**
+     * Creates a new content provider.
+     * @param template compiled template
+     * @param values   values by placeholder name
+     * @param charset  charset name
+     */
+    public PlaceholderContentProvider(PlaceholderTemplate template, Map<String, ?> values, String charset) {
+        super();
+        this.template = template;
+        this.values = values;
+        this.charset = charset;
+    }
+
+    /**
+     * Returns the rendered text.
+     * @return rendered text
+     */
+    @Override
+    public String getStringData() {
+        return this.template.render(this.values);
+    }
+
+    /**
+     * Returns the charset.
+     * @return charset
+     */
+    @Override
+    public String getStringCharset() {
+        return this.charset;
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.github.nilscoding.mailbuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Text template with placeholders like <code>${name}</code>, compiled once into literal
+ * and placeholder segments. Rendering only looks up the values and appends the segments
+ * to a builder which is sized for the result, so no intermediate strings are created.
+ * Placeholders without a value are kept as they are, <code>$${</code> renders as a literal <code>${</code>.
+ * Values are inserted as they are, without escaping.
+ * A compiled template is immutable and can be used from many threads at once.
+ * @author nilscoding
+ */
+public class PlaceholderTemplate {
+
+    /**
+     * Literal segments, one more than placeholders: literals[i] comes before names[i].
+     */
+    protected final String[] literals;
+    /**
+     * Placeholder names.
+     */
+    protected final String[] names;
+    /**
+     * Total length of all literal segments.
+     */
+    protected final int literalLength;
+
+    /**
+     * Creates a compiled template.
+     * @param literals literal segments
+     * @param names    placeholder names
+     */
+    protected PlaceholderTemplate(String[] literals, String[] names) {
+        this.literals = literals;
+        this.names = names;
+        int length = 0;
+        for (String oneLiteral : literals) {
+            length += oneLiteral.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compiles the given template text.
+     * @param template template text, null is handled like an empty text
+     * @return compiled template
+     */
+    public static PlaceholderTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        String text = (template != null) ? template : "";
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        int len = text.length();
+        while (pos < len) {
+            int start = text.indexOf("${", pos);
+            if (start < 0) {
+                literal.append(text, pos, len);
+                break;
+            }
+            if ((start > 0) && (text.charAt(start - 1) == '$')) {
+                // escaped: $${ is a literal ${
+                literal.append(text, pos, start - 1).append("${");
+                pos = start + 2;
+                continue;
+            }
+            int end = text.indexOf('}', start + 2);
+            if (end < 0) {
+                literal.append(text, pos, len);
+                break;
+            }
+            literal.append(text, pos, start);
+            literals.add(literal.toString());
+            literal.setLength(0);
+            names.add(text.substring(start + 2, end).trim());
+            pos = end + 1;
+        }
+        literals.add(literal.toString());
+        return new PlaceholderTemplate(literals.toArray(new String[0]), names.toArray(new String[0]));
+    }
+
+    /**
+     * Renders the template with the given values.
+     * @param values values by placeholder name, may be null
+     * @return rendered text
+     */
+    public String render(Map<String, ?> values) {
+        if (this.names.length == 0) {
+            return this.literals[0];
+        }
+        String[] resolved = this.resolve(values);
+        int length = this.literalLength;
+        for (String oneValue : resolved) {
+            length += oneValue.length();
+        }
+        StringBuilder sb = new StringBuilder(length);
+        this.appendResolved(sb, resolved);
+        return sb.toString();
+    }
+
+    /**
+     * Renders the template with the given values and appends the result to the given builder.
+     * @param sb     target builder
+     * @param values values by placeholder name, may be null
+     */
+    public void renderTo(StringBuilder sb, Map<String, ?> values) {
+        String[] resolved = this.resolve(values);
+        int length = this.literalLength;
+        for (String oneValue : resolved) {
+            length += oneValue.length();
+        }
+        sb.ensureCapacity(sb.length() + length);
+        this.appendResolved(sb, resolved);
+    }
+
+    /**
+     * Creates a content provider rendering this template with the given values.
+     * @param values values by placeholder name
+     * @return content provider
+     */
+    public StringContentProvider provider(Map<String, ?> values) {
+        return new PlaceholderContentProvider(this, values);
+    }
+
+    /**
+     * Creates a content provider rendering this template with the given values and charset.
+     * @param values  values by placeholder name
+     * @param charset charset name
+     * @return content provider
+     */
+    public StringContentProvider provider(Map<String, ?> values, String charset) {
+        return new PlaceholderContentProvider(this, values, charset);
+    }
+
+    /**
+     * Returns the names of all placeholders.
+     * @return placeholder names in order of first use
+     */
+    public Set<String> getPlaceholderNames() {
+        Set<String> result = new LinkedHashSet<>();
+        Collections.addAll(result, this.names);
+        return result;
+    }
+
+    /**
+     * Looks up the values of all placeholders.
+     * @param values values by placeholder name, may be null
+     * @return value strings, placeholders without value are kept as they are
+     */
+    protected String[] resolve(Map<String, ?> values) {
+        String[] resolved = new String[this.names.length];
+        for (int i = 0; i < this.names.length; i++) {
+            Object value = (values != null) ? values.get(this.names[i]) : null;
+            resolved[i] = (value != null) ? value.toString() : "${" + this.names[i] + "}";
+        }
+        return resolved;
+    }
+
+    /**
+     * Appends the literals and the resolved values.
+     * @param sb       target builder
+     * @param resolved value strings
+     */
+    protected void appendResolved(StringBuilder sb, String[] resolved) {
+        for (int i = 0; i < resolved.length; i++) {
+            sb.append(this.literals[i]).append(resolved[i]);
+        }
+        sb.append(this.literals[resolved.length]);
+    }
+
+}
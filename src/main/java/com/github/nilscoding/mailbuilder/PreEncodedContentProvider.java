@@ -0,0 +1,180 @@
+package com.github.nilscoding.mailbuilder;
+
+import javax.activation.DataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeUtility;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Content provider holding content that already is transfer-encoded, e.g. as base64.
+ * MailBuilder writes this content as it is, so it only has to be encoded once
+ * even if it is used in many messages. Instances are immutable and can be shared between threads;
+ * data given to the public constructor is copied.
+ * @author nilscoding
+ */
+public class PreEncodedContentProvider extends BinaryContentProvider {
+
+    /**
+     * Transfer encoding used by default.
+     */
+    public static final String DEFAULT_TRANSFER_ENCODING = "base64";
+    /**
+     * Buffer size for reading content.
+     */
+    protected static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Encoded data.
+     */
+    protected final byte[] encodedData;
+    /**
+     * Transfer encoding of the data.
+     */
+    protected final String transferEncoding;
+    /**
+     * Content-Type.
+     */
+    protected final String contentType;
+    /**
+     * Content ID.
+     */
+    protected final String contentId;
+    /**
+     * Name.
+     */
+    protected final String name;
+
+    /**
+     * Creates a new content provider for already encoded data. The data is copied, so the given
+     * array may be changed afterwards.
+     * @param encodedData      transfer-encoded data
+     * @param transferEncoding transfer encoding of the data, e.g. base64
+     * @param contentType      content type of the decoded data
+     * @param contentId        content id, may be null
+     * @param name             file name, may be null
+     */
+    public PreEncodedContentProvider(byte[] encodedData, String transferEncoding, String contentType,
+                                     String contentId, String name) {
+        this(encodedData, transferEncoding, contentType, contentId, name, true);
+    }
+
+    /**
+     * Creates a new content provider for already encoded data.
+     * @param encodedData      transfer-encoded data
+     * @param transferEncoding transfer encoding of the data, e.g. base64
+     * @param contentType      content type of the decoded data
+     * @param contentId        content id, may be null
+     * @param name             file name, may be null
+     * @param copyData         true to copy the data, false to use the array, which must not be changed afterwards
+     */
+    protected PreEncodedContentProvider(byte[] encodedData, String transferEncoding, String contentType,
+                                        String contentId, String name, boolean copyData) {
+        super();
+        if (encodedData == null) {
+            this.encodedData = new byte[0];
+        } else {
+            this.encodedData = copyData ? encodedData.clone() : encodedData;
+        }
+        this.transferEncoding = transferEncoding;
+        this.contentType = contentType;
+        this.contentId = contentId;
+        this.name = name;
+    }
+
+    /**
+     * Reads the content of the given provider and encodes it using base64.
+     * @param contentProvider content provider to encode
+     * @return pre-encoded content provider
+     * @throws IOException        if content could not be read
+     * @throws MessagingException if content could not be encoded
+     */
+    public static PreEncodedContentProvider encode(BinaryContentProvider contentProvider)
+            throws IOException, MessagingException {
+        return encode(contentProvider, DEFAULT_TRANSFER_ENCODING);
+    }
+
+    /**
+     * Reads the content of the given provider and encodes it using the given transfer encoding.
+     * @param contentProvider  content provider to encode
+     * @param transferEncoding transfer encoding, e.g. base64 or quoted-printable
+     * @return pre-encoded content provider
+     * @throws IOException        if content could not be read
+     * @throws MessagingException if content could not be encoded
+     */
+    public static PreEncodedContentProvider encode(BinaryContentProvider contentProvider, String transferEncoding)
+            throws IOException, MessagingException {
+        if (contentProvider instanceof PreEncodedContentProvider) {
+            return (PreEncodedContentProvider) contentProvider;
+        }
+        DataSource dataSource = contentProvider.getDataSource();
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        try (InputStream in = dataSource.getInputStream()) {
+            OutputStream encodingOut = MimeUtility.encode(bytesOut, transferEncoding);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                encodingOut.write(buffer, 0, len);
+            }
+            encodingOut.flush();
+            encodingOut.close();
+        }
+        return new PreEncodedContentProvider(bytesOut.toByteArray(), transferEncoding,
+                dataSource.getContentType(), contentProvider.getContentId(), contentProvider.getName(), false);
+    }
+
+    /**
+     * Returns a DataSource delivering the transfer-encoded data.
+     * @return DataSource
+     */
+    @Override
+    public DataSource getDataSource() {
+        return new ByteArrayDataSource(this.encodedData, this.contentType);
+    }
+
+    /**
+     * Returns the content ID.
+     * @return content ID
+     */
+    @Override
+    public String getContentId() {
+        return this.contentId;
+    }
+
+    /**
+     * Returns the name.
+     * @return name
+     */
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the transfer encoding of the data.
+     * @return transfer encoding
+     */
+    public String getTransferEncoding() {
+        return this.transferEncoding;
+    }
+
+    /**
+     * Returns the content type of the decoded data.
+     * @return content type
+     */
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    /**
+     * Returns the size of the encoded data.
+     * @return size in bytes
+     */
+    public int getEncodedSize() {
+        return this.encodedData.length;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.github.nilscoding.mailbuilder;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Result of sending a message. Only the Message-ID and the recipients of the message are kept,
+ * not the message itself, so results do not hold the content of sent messages in memory.
+ * Instances are immutable and can safely be passed between threads.
+ * @author nilscoding
+ */
+public class SendResult {
+
+    /**
+     * Flag if message was sent.
+     */
+    protected final boolean sent;
+    /**
+     * Message-ID of the message, null if building failed or the message has none.
+     */
+    protected final String messageId;
+    /**
+     * Recipients the message was sent to.
+     */
+    protected final Address[] recipients;
+    /**
+     * Exception, null if message was sent.
+     */
+    protected final Exception exception;
+
+    /**
+     * Creates a new send result.
+     * @param sent       true if message was sent
+     * @param messageId  Message-ID, may be null
+     * @param recipients recipients, may be null
+     * @param exception  exception, may be null
+     */
+    protected SendResult(boolean sent, String messageId, Address[] recipients, Exception exception) {
+        this.sent = sent;
+        this.messageId = messageId;
+        this.recipients = (recipients != null) ? recipients : new Address[0];
+        this.exception = exception;
+    }
+
+    /**
+     * Creates a result for a sent message.
+     * @param message sent message
+     * @return send result
+     */
+    public static SendResult sent(Message message) {
+        return new SendResult(true, getMessageId(message), getRecipients(message), null);
+    }
+
+    /**
+     * Creates a result for a message that could not be built or sent.
+     * @param message   message, null if building failed
+     * @param exception exception
+     * @return send result
+     */
+    public static SendResult failed(Message message, Exception exception) {
+        return new SendResult(false, getMessageId(message), getRecipients(message), exception);
+    }
+
+    /**
+     * Checks if the message was sent.
+     * @return true if sent, false on error
+     */
+    public boolean isSent() {
+        return this.sent;
+    }
+
+    /**
+     * Returns the Message-ID of the message.
+     * @return Message-ID or null if building failed or the message has none
+     */
+    public String getMessageId() {
+        return this.messageId;
+    }
+
+    /**
+     * Returns the recipients the message was sent to.
+     * @return copy of the recipients, empty if building failed
+     */
+    public Address[] getRecipients() {
+        return this.recipients.clone();
+    }
+
+    /**
+     * Returns the exception.
+     * @return exception or null if message was sent
+     */
+    public Exception getException() {
+        return this.exception;
+    }
+
+    /**
+     * Returns a short description of this result.
+     * @return description
+     */
+    @Override
+    public String toString() {
+        if (this.sent) {
+            return "SendResult[sent]";
+        }
+        return "SendResult[failed: " + this.exception + "]";
+    }
+
+    /**
+     * Returns the Message-ID of the given message.
+     * @param message message, may be null
+     * @return Message-ID or null
+     */
+    protected static String getMessageId(Message message) {
+        if ((message instanceof MimeMessage) == false) {
+            return null;
+        }
+        try {
+            return ((MimeMessage) message).getMessageID();
+        } catch (MessagingException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns all recipients of the given message.
+     * @param message message, may be null
+     * @return recipients or null
+     */
+    protected static Address[] getRecipients(Message message) {
+        if (message == null) {
+            return null;
+        }
+        try {
+            return message.getAllRecipients();
+        } catch (MessagingException ex) {
+            return null;
+        }
+    }
+
+}
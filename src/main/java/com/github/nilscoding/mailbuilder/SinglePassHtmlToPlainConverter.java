@@ -0,0 +1,722 @@
+package com.github.nilscoding.mailbuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * HTML to plain text converter that produces the same output as SimpleHtmlToPlainConverter
+ * for well-formed HTML, but converts in a single pass over the document instead of applying
+ * a chain of regular expressions. This avoids one copy of the document per replacement and
+ * the backtracking of the regular expressions on large documents.
+ * Unlike SimpleHtmlToPlainConverter, a '&lt;' which is not followed by a letter, '/', '!' or '?'
+ * is kept as text, so text like "a &lt; b" is not taken for the start of a tag.
+ * The converter can also read from a Reader and write to an Appendable with bounded working memory.
+ * When streaming, the text of the first body element is used, so for documents with more than one
+ * body element or with unclosed script blocks the result may differ from the string conversion.
+ * Like the string conversion, a document whose body element is not closed is converted as a whole,
+ * as long as its text is shorter than 64K chars; for longer ones only the text of the body is used.
+ * A tag longer than 64K chars is taken as text, and a whitespace run longer than 64K chars is written
+ * even at the end of the text.
+ * Instances are stateless and can be shared between threads.
+ * @author nilscoding
+ */
+public class SinglePassHtmlToPlainConverter implements StreamingHtmlToPlainConverter {
+
+    /**
+     * Creates a new converter instance.
+     */
+    public SinglePassHtmlToPlainConverter() {
+    }
+
+    /**
+     * Converts the given HTML text to plain text.
+     * @param htmlText html text to convert
+     * @return converted text
+     */
+    @Override
+    public String convertHtmlToPlainText(String htmlText) {
+        if (htmlText == null) {
+            return null;
+        }
+        // all line-breaks of the source are dropped
+        int srcLen = htmlText.length();
+        char[] src = new char[srcLen];
+        int len = 0;
+        for (int i = 0; i < srcLen; i++) {
+            char c = htmlText.charAt(i);
+            if ((c != '\r') && (c != '\n')) {
+                src[len++] = c;
+            }
+        }
+        int start = 0;
+        int end = len;
+        // only use the content of the body, if present
+        int bodyEnd = lastIndexOf(src, len, "</body>", len);
+        if (bodyEnd >= 0) {
+            int bodyStart = lastIndexOf(src, len, "<body", bodyEnd - 1);
+            while (bodyStart >= 0) {
+                int tagEnd = indexOf(src, '>', bodyStart + 5, len);
+                if ((tagEnd >= 0) && (tagEnd < bodyEnd)) {
+                    start = tagEnd + 1;
+                    end = bodyEnd;
+                    break;
+                }
+                bodyStart = lastIndexOf(src, len, "<body", bodyStart - 1);
+            }
+        }
+        PlainTextBuilder out = new PlainTextBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = src[i];
+            if ((c != '<') || (i + 1 >= end) || (isTagStart(src[i + 1]) == false)) {
+                out.append(c);
+                i++;
+                continue;
+            }
+            int tagEnd = indexOf(src, '>', i + 1, end);
+            if (tagEnd < 0) {
+                // no more tags, rest is text
+                while (i < end) {
+                    out.append(src[i++]);
+                }
+                break;
+            }
+            if (startsWith(src, i, tagEnd, "<script")) {
+                int blockEnd = findBlockEnd(src, tagEnd + 1, end, "</script>", false);
+                if (blockEnd >= 0) {
+                    i = blockEnd;
+                    continue;
+                }
+            } else if (startsWith(src, i, tagEnd, "<noscript")) {
+                int blockEnd = findBlockEnd(src, tagEnd + 1, end, "</noscript>", true);
+                if (blockEnd >= 0) {
+                    i = blockEnd;
+                    continue;
+                }
+            } else if (startsWith(src, i, tagEnd, "<br")) {
+                out.append('\n');
+            } else if (startsWith(src, i, tagEnd, "<li")) {
+                out.append('\n');
+                out.append('-');
+                out.append(' ');
+            } else if (isBlockTag(src, i, tagEnd)) {
+                out.append('\n');
+            } else if (equalsTag(src, i, tagEnd, "</ul>") || equalsTag(src, i, tagEnd, "</ol>")) {
+                out.append('\n');
+            }
+            // all other tags are dropped
+            i = tagEnd + 1;
+        }
+        return out.toTrimmedString();
+    }
+
+    /**
+     * Reads HTML text from the given reader and writes the converted plain text to the given target.
+     * @param htmlReader reader for html text
+     * @param plainOut   target for converted plain text
+     * @throws IOException if reading or writing failed
+     */
+    @Override
+    public void convertHtmlToPlainText(Reader htmlReader, Appendable plainOut) throws IOException {
+        new StreamConversion(htmlReader, plainOut).run();
+    }
+
+    /**
+     * Checks if a '&lt;' followed by the given char starts a tag. Only letters, '/', '!' and '?'
+     * start a tag, so a '&lt;' in text like "a &lt; b" is kept.
+     * @param c char following the '&lt;'
+     * @return true if a tag starts
+     */
+    protected static boolean isTagStart(char c) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || (c == '/') || (c == '!') || (c == '?');
+    }
+
+    /**
+     * Checks if the tag is a heading, paragraph or div tag (opening or closing).
+     * @param src    source
+     * @param from   index of '&lt;'
+     * @param tagEnd index of '&gt;'
+     * @return true if block tag
+     */
+    protected static boolean isBlockTag(char[] src, int from, int tagEnd) {
+        int pos = from + 1;
+        while ((pos < tagEnd) && (src[pos] == '/')) {
+            pos++;
+        }
+        if (pos >= tagEnd) {
+            return false;
+        }
+        char c = src[pos];
+        if (c == 'p') {
+            return true;
+        }
+        if ((c == 'h') && (pos + 1 < tagEnd) && (src[pos + 1] >= '0') && (src[pos + 1] <= '9')) {
+            return true;
+        }
+        return (c == 'd') && (pos + 2 < tagEnd) && (src[pos + 1] == 'i') && (src[pos + 2] == 'v');
+    }
+
+    /**
+     * Finds the end of a script or noscript block.
+     * @param src         source
+     * @param from        index after the opening tag
+     * @param end         end of region
+     * @param closingTag  closing tag
+     * @param skipScripts true to skip script blocks while searching
+     * @return index after the closing tag or -1 if not found
+     */
+    protected static int findBlockEnd(char[] src, int from, int end, String closingTag, boolean skipScripts) {
+        int pos = from;
+        while (pos < end) {
+            int next = indexOf(src, '<', pos, end);
+            if (next < 0) {
+                return -1;
+            }
+            if (regionMatches(src, next, end, closingTag)) {
+                return next + closingTag.length();
+            }
+            if (skipScripts && regionMatches(src, next, end, "<script")) {
+                int tagEnd = indexOf(src, '>', next + 1, end);
+                if (tagEnd >= 0) {
+                    int scriptEnd = findBlockEnd(src, tagEnd + 1, end, "</script>", false);
+                    if (scriptEnd >= 0) {
+                        pos = scriptEnd;
+                        continue;
+                    }
+                }
+            }
+            pos = next + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if the tag starts with the given prefix.
+     * @param src    source
+     * @param from   index of '&lt;'
+     * @param tagEnd index of '&gt;'
+     * @param prefix prefix
+     * @return true if tag starts with prefix
+     */
+    protected static boolean startsWith(char[] src, int from, int tagEnd, String prefix) {
+        return regionMatches(src, from, tagEnd, prefix);
+    }
+
+    /**
+     * Checks if the tag equals the given tag.
+     * @param src    source
+     * @param from   index of '&lt;'
+     * @param tagEnd index of '&gt;'
+     * @param tag    tag including brackets
+     * @return true if equal
+     */
+    protected static boolean equalsTag(char[] src, int from, int tagEnd, String tag) {
+        return ((tagEnd - from + 1) == tag.length()) && regionMatches(src, from, tagEnd + 1, tag);
+    }
+
+    /**
+     * Checks if the source contains the given string at the given position.
+     * @param src  source
+     * @param from position
+     * @param end  end of region
+     * @param str  string
+     * @return true if present
+     */
+    protected static boolean regionMatches(char[] src, int from, int end, String str) {
+        int strLen = str.length();
+        if (from + strLen > end) {
+            return false;
+        }
+        for (int i = 0; i < strLen; i++) {
+            if (src[from + i] != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the given char.
+     * @param src  source
+     * @param c    char to find
+     * @param from start index
+     * @param end  end of region
+     * @return index or -1
+     */
+    protected static int indexOf(char[] src, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (src[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the last index of the given string, starting at or before the given index.
+     * @param src  source
+     * @param len  length of source
+     * @param str  string to find
+     * @param from maximum start index
+     * @return index or -1
+     */
+    protected static int lastIndexOf(char[] src, int len, String str, int from) {
+        for (int i = Math.min(from, len - str.length()); i >= 0; i--) {
+            if (regionMatches(src, i, len, str)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Output buffer which reduces more than two consecutive line-breaks to two.
+     */
+    protected static class PlainTextBuilder {
+
+        /**
+         * Buffer.
+         */
+        private final StringBuilder sb;
+        /**
+         * Number of line-breaks at the end of the buffer.
+         */
+        private int trailingNewlines = 0;
+
+        /**
+         * Creates a new buffer.
+         * @param capacity initial capacity
+         */
+        PlainTextBuilder(int capacity) {
+            this.sb = new StringBuilder(Math.max(16, capacity));
+        }
+
+        /**
+         * Appends a char.
+         * @param c char
+         */
+        void append(char c) {
+            if (c == '\n') {
+                if (this.trailingNewlines >= 2) {
+                    return;
+                }
+                this.trailingNewlines++;
+            } else {
+                this.trailingNewlines = 0;
+            }
+            this.sb.append(c);
+        }
+
+        /**
+         * Returns the trimmed text.
+         * @return text
+         */
+        String toTrimmedString() {
+            int from = 0;
+            int to = this.sb.length();
+            while ((from < to) && (this.sb.charAt(from) <= ' ')) {
+                from++;
+            }
+            while ((to > from) && (this.sb.charAt(to - 1) <= ' ')) {
+                to--;
+            }
+            return this.sb.substring(from, to);
+        }
+    }
+
+    /**
+     * State of one stream conversion.
+     */
+    protected static class StreamConversion {
+
+        /**
+         * Size of the read buffer.
+         */
+        private static final int BUFFER_SIZE = 8192;
+        /**
+         * Initial size of the tag buffer.
+         */
+        private static final int TAG_BUFFER_SIZE = 256;
+        /**
+         * Maximum number of chars kept while waiting for the start or the end of the body element.
+         */
+        private static final int MAX_HEAD_LENGTH = 64 * 1024;
+        /**
+         * Maximum length of a tag, longer tags are taken as text.
+         */
+        private static final int MAX_TAG_LENGTH = 64 * 1024;
+        /**
+         * Maximum number of whitespace chars kept for trimming, longer runs are written.
+         */
+        private static final int MAX_PENDING_WHITESPACE = 64 * 1024;
+
+        /**
+         * Reader.
+         */
+        private final Reader in;
+        /**
+         * Target.
+         */
+        private final Appendable out;
+        /**
+         * Current tag, including brackets.
+         */
+        private final StringBuilder tag = new StringBuilder();
+        /**
+         * Chars of current tag for classifying.
+         */
+        private char[] tagChars = new char[TAG_BUFFER_SIZE];
+        /**
+         * Flag if currently inside a tag.
+         */
+        private boolean inTag = false;
+        /**
+         * Flag if the previous char was a '&lt;' which may start a tag.
+         */
+        private boolean afterLt = false;
+        /**
+         * Closing tag of the block currently skipped, null if not skipping.
+         */
+        private String skipUntil = null;
+        /**
+         * Number of matched chars of the closing tag.
+         */
+        private int skipMatched = 0;
+        /**
+         * Text of the whole document, used if the body element is missing or not closed.
+         * Null once the end of the body element has been reached.
+         */
+        private TextOutput documentText = new TextOutput();
+        /**
+         * Text of the body element, null until the body element starts.
+         */
+        private TextOutput bodyText = null;
+        /**
+         * Flag if end of body has been reached.
+         */
+        private boolean done = false;
+
+        /**
+         * Creates a new conversion.
+         * @param in  reader
+         * @param out target
+         */
+        StreamConversion(Reader in, Appendable out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        /**
+         * Runs the conversion.
+         * @throws IOException if reading or writing failed
+         */
+        void run() throws IOException {
+            char[] buffer = new char[BUFFER_SIZE];
+            int len;
+            while ((this.done == false) && ((len = this.in.read(buffer)) != -1)) {
+                for (int i = 0; (i < len) && (this.done == false); i++) {
+                    char c = buffer[i];
+                    if ((c != '\r') && (c != '\n')) {
+                        this.process(c);
+                    }
+                }
+            }
+            if (this.afterLt && (this.done == false)) {
+                this.emit('<');
+            }
+            if (this.inTag && (this.done == false)) {
+                // no closing bracket, so it was text
+                this.emitTag();
+            }
+            if (this.documentText != null) {
+                // no end of body, so the whole document is used
+                this.documentText.flush();
+            }
+        }
+
+        /**
+         * Returns if the text is collected while waiting for the body element.
+         * @return true if waiting for the body element
+         */
+        private boolean isWaitingForBody() {
+            return (this.bodyText == null) && (this.documentText != null) && this.documentText.isBuffered();
+        }
+
+        /**
+         * Returns if the text is written as the text of the body element or without waiting for it.
+         * @return true if the body element has started or is not waited for anymore
+         */
+        private boolean isInBody() {
+            return this.isWaitingForBody() == false;
+        }
+
+        /**
+         * Ends the conversion at the end of the body element.
+         * @throws IOException if writing failed
+         */
+        private void endBody() throws IOException {
+            if (this.bodyText != null) {
+                this.documentText = null;
+                this.bodyText.flush();
+            }
+            this.done = true;
+        }
+
+        /**
+         * Processes one char.
+         * @param c char
+         * @throws IOException if writing failed
+         */
+        private void process(char c) throws IOException {
+            if (this.skipUntil != null) {
+                if (c == this.skipUntil.charAt(this.skipMatched)) {
+                    this.skipMatched++;
+                    if (this.skipMatched == this.skipUntil.length()) {
+                        this.skipUntil = null;
+                    }
+                } else {
+                    this.skipMatched = (c == '<') ? 1 : 0;
+                }
+                return;
+            }
+            if (this.inTag == false) {
+                if (this.afterLt) {
+                    this.afterLt = false;
+                    if (isTagStart(c)) {
+                        this.inTag = true;
+                        this.tag.setLength(0);
+                        this.tag.append('<');
+                    } else {
+                        this.emit('<');
+                        this.process(c);
+                        return;
+                    }
+                } else if (c == '<') {
+                    this.afterLt = true;
+                    return;
+                } else {
+                    this.emit(c);
+                    return;
+                }
+            }
+            this.tag.append(c);
+            if (c == '>') {
+                this.inTag = false;
+                this.processTag();
+            } else if (this.tag.length() > MAX_TAG_LENGTH) {
+                // too long for a tag, so it was text
+                this.inTag = false;
+                this.emitTag();
+            }
+        }
+
+        /**
+         * Writes the collected tag as text.
+         * @throws IOException if writing failed
+         */
+        private void emitTag() throws IOException {
+            for (int i = 0; i < this.tag.length(); i++) {
+                this.emit(this.tag.charAt(i));
+            }
+            this.tag.setLength(0);
+        }
+
+        /**
+         * Processes a complete tag.
+         * @throws IOException if writing failed
+         */
+        private void processTag() throws IOException {
+            int length = this.tag.length();
+            if (length > this.tagChars.length) {
+                this.tagChars = new char[length];
+            }
+            this.tag.getChars(0, length, this.tagChars, 0);
+            char[] t = this.tagChars;
+            int tagEnd = length - 1;
+            int bodyEnd = length - "</body>".length();
+            if (this.isInBody() && (bodyEnd > 0) && equalsTag(t, bodyEnd, tagEnd, "</body>")) {
+                // an unclosed tag running into the end of the body was text
+                for (int i = 0; i < bodyEnd; i++) {
+                    this.emit(t[i]);
+                }
+                this.endBody();
+            } else if (startsWith(t, 0, tagEnd, "<script")) {
+                this.startSkip("</script>");
+            } else if (startsWith(t, 0, tagEnd, "<noscript")) {
+                this.startSkip("</noscript>");
+            } else if (this.isWaitingForBody() && startsWith(t, 0, tagEnd, "<body")) {
+                // the text of the whole document is kept until the end of the body is known
+                this.bodyText = new TextOutput();
+            } else if (this.isInBody() && equalsTag(t, 0, tagEnd, "</body>")) {
+                this.endBody();
+            } else if (startsWith(t, 0, tagEnd, "<br")) {
+                this.emit('\n');
+            } else if (startsWith(t, 0, tagEnd, "<li")) {
+                this.emit('\n');
+                this.emit('-');
+                this.emit(' ');
+            } else if (isBlockTag(t, 0, tagEnd)) {
+                this.emit('\n');
+            } else if (equalsTag(t, 0, tagEnd, "</ul>") || equalsTag(t, 0, tagEnd, "</ol>")) {
+                this.emit('\n');
+            }
+        }
+
+        /**
+         * Starts skipping until the given closing tag.
+         * @param closingTag closing tag
+         */
+        private void startSkip(String closingTag) {
+            this.skipUntil = closingTag;
+            this.skipMatched = 0;
+        }
+
+        /**
+         * Writes one char of text to the text of the document and of the body element.
+         * @param c char
+         * @throws IOException if writing failed
+         */
+        private void emit(char c) throws IOException {
+            if (this.documentText != null) {
+                this.documentText.emit(c);
+            }
+            if (this.bodyText != null) {
+                this.bodyText.emit(c);
+            }
+            this.checkBuffer();
+        }
+
+        /**
+         * Stops waiting for the start or the end of the body element if too much text has been collected.
+         * @throws IOException if writing failed
+         */
+        private void checkBuffer() throws IOException {
+            if ((this.documentText != null) && (this.documentText.getBufferedLength() > MAX_HEAD_LENGTH)) {
+                if (this.bodyText == null) {
+                    // no body element so far, the whole document is used
+                    this.documentText.flush();
+                } else {
+                    // too long to wait for the end of the body, only its text is used
+                    this.documentText = null;
+                    this.bodyText.flush();
+                }
+            }
+        }
+
+        /**
+         * Plain text written to the target or collected until it is known to be used.
+         */
+        private final class TextOutput {
+
+            /**
+             * Collected text, null if the text is written to the target.
+             */
+            private StringBuilder buffer;
+            /**
+             * Whitespace not yet written, dropped at the end to trim the text.
+             */
+            private final StringBuilder pendingWhitespace = new StringBuilder();
+            /**
+             * Number of consecutive line-breaks at the end of the text.
+             */
+            private int trailingNewlines = 0;
+            /**
+             * Flag if any non-whitespace char has been written.
+             */
+            private boolean started = false;
+
+            /**
+             * Creates a new text output collecting the text.
+             */
+            TextOutput() {
+                this.buffer = new StringBuilder();
+            }
+
+            /**
+             * Returns if the text is collected.
+             * @return true if collected
+             */
+            boolean isBuffered() {
+                return this.buffer != null;
+            }
+
+            /**
+             * Returns the number of collected chars.
+             * @return number of chars, 0 if the text is written to the target
+             */
+            int getBufferedLength() {
+                return (this.buffer != null) ? this.buffer.length() : 0;
+            }
+
+            /**
+             * Writes the collected text to the target and writes all further text there.
+             * @throws IOException if writing failed
+             */
+            void flush() throws IOException {
+                if (this.buffer != null) {
+                    StreamConversion.this.out.append(this.buffer);
+                    this.buffer = null;
+                }
+            }
+
+            /**
+             * Writes one char of text, reducing line-breaks and trimming whitespace.
+             * @param c char
+             * @throws IOException if writing failed
+             */
+            void emit(char c) throws IOException {
+                if (c == '\n') {
+                    if (this.trailingNewlines >= 2) {
+                        return;
+                    }
+                    this.trailingNewlines++;
+                } else {
+                    this.trailingNewlines = 0;
+                }
+                if (c <= ' ') {
+                    if (this.started) {
+                        this.pendingWhitespace.append(c);
+                        if (this.pendingWhitespace.length() > MAX_PENDING_WHITESPACE) {
+                            this.write(this.pendingWhitespace);
+                            this.pendingWhitespace.setLength(0);
+                        }
+                    }
+                    return;
+                }
+                this.started = true;
+                if (this.pendingWhitespace.length() > 0) {
+                    this.write(this.pendingWhitespace);
+                    this.pendingWhitespace.setLength(0);
+                }
+                this.write(c);
+            }
+
+            /**
+             * Writes text to the buffer or the target.
+             * @param text text
+             * @throws IOException if writing failed
+             */
+            private void write(CharSequence text) throws IOException {
+                if (this.buffer != null) {
+                    this.buffer.append(text);
+                } else {
+                    StreamConversion.this.out.append(text);
+                }
+            }
+
+            /**
+             * Writes a char to the buffer or the target.
+             * @param c char
+             * @throws IOException if writing failed
+             */
+            private void write(char c) throws IOException {
+                if (this.buffer != null) {
+                    this.buffer.append(c);
+                } else {
+                    StreamConversion.this.out.append(c);
+                }
+            }
+        }
+    }
+
+}
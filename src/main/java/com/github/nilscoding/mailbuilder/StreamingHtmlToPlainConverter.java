@@ -0,0 +1,22 @@
+package com.github.nilscoding.mailbuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Interface for HTML to plain text converters which can also convert streams, so large HTML
+ * documents do not need to be held in memory as a whole.
+ * @author nilscoding
+ */
+public interface StreamingHtmlToPlainConverter extends HtmlToPlainConverter {
+
+    /**
+     * Reads an HTML document from the given reader and writes the converted plain text to the given target.
+     * Neither the reader nor the target are closed.
+     * @param htmlReader reader for html text
+     * @param plainOut   target for converted plain text
+     * @throws IOException if reading or writing failed
+     */
+    void convertHtmlToPlainText(Reader htmlReader, Appendable plainOut) throws IOException;
+
+}
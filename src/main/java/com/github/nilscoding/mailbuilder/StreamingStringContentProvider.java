@@ -0,0 +1,88 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.utils.ReaderInputStream;
+
+import javax.activation.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * String content provider which can deliver its content as a stream. MailBuilder reads the
+ * content while the message is written instead of holding it as a string, and uses a
+ * StreamingHtmlToPlainConverter (if set) to create the plain text from the stream.
+ * @author nilscoding
+ */
+public abstract class StreamingStringContentProvider extends StringContentProvider {
+
+    /**
+     * Buffer size for reading the content as a string.
+     */
+    protected static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Creates a new streaming string content provider instance.
+     */
+    public StreamingStringContentProvider() {
+    }
+
+    /**
+     * Opens a new reader on the content, each call must return a new reader starting at the beginning.
+     * @return reader, closed by the caller
+     * @throws IOException if content could not be opened
+     */
+    public abstract Reader openReader() throws IOException;
+
+    /**
+     * Reads the whole content into a string.
+     * @return string content data or null if it could not be read
+     */
+    @Override
+    public String getStringData() {
+        try (Reader reader = this.openReader()) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[BUFFER_SIZE];
+            int len;
+            while ((len = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, len);
+            }
+            return sb.toString();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a DataSource delivering the content encoded with the charset of this provider.
+     * @param contentType content type of the data source
+     * @return data source
+     */
+    public DataSource getDataSource(final String contentType) {
+        return new DataSource() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                String charset = getStringCharset();
+                return new ReaderInputStream(openReader(),
+                        Charset.forName((charset != null) ? charset : "utf-8"));
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                throw new IOException("streaming content is read-only");
+            }
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public String getName() {
+                return null;
+            }
+        };
+    }
+
+}
@@ -69,4 +69,13 @@ public class TextAttachmentContentProvider extends BinaryContentProvider {
         return this.filename;
     }
 
+    /**
+     * Returns the length of the encoded text.
+     * @return length in bytes
+     */
+    @Override
+    public long getContentLength() {
+        return this.data.length;
+    }
+
 }
@@ -0,0 +1,419 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.sessionimpl.RelayMailSession;
+import com.github.nilscoding.mailbuilder.sessionimpl.SendThrottle;
+import com.github.nilscoding.mailbuilder.sessionimpl.TransportPool;
+import com.github.nilscoding.mailbuilder.utils.SendExecutors;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Mail dispatcher running every send on its own virtual thread, so tens of thousands of sends can wait
+ * for their SMTP servers at once without tuning pool sizes. Virtual threads are used on Java 24 and later,
+ * and on Java 21 to 23 if enabled (see {@link SendExecutors}); otherwise it falls back to a pool of platform threads.
+ * The number of messages sent to one SMTP host at the same time can be limited, further messages
+ * for that host wait in a queue of the host until a send has finished, without holding a thread.
+ * For a {@link RelayMailSession}, the limit applies to each relay the message is sent to; as the relay
+ * is selected while sending, these messages wait for a free slot on their thread.
+ * A MailBuilder must not be changed after it has been submitted.
+ * @author nilscoding
+ */
+public class VirtualThreadMailDispatcher extends MailDispatcher {
+
+    /**
+     * Default maximum number of queued and running messages.
+     */
+    public static final int DEFAULT_MAX_PENDING = 100000;
+    /**
+     * Default number of platform threads used if virtual threads are not available.
+     */
+    public static final int DEFAULT_PLATFORM_THREADS = 64;
+
+    /**
+     * Concurrency limits set for single hosts.
+     */
+    protected final ConcurrentMap<String, Integer> hostLimits = new ConcurrentHashMap<>();
+    /**
+     * Gates counting the running sends and holding the waiting messages, by host.
+     */
+    protected final ConcurrentMap<String, HostGate> hostGates = new ConcurrentHashMap<>();
+    /**
+     * Concurrency limit for hosts without own limit, 0 or less for unlimited.
+     */
+    protected volatile int defaultConcurrencyLimit = 0;
+
+    /**
+     * Creates a new dispatcher with default settings, sending without transport pool.
+     */
+    public VirtualThreadMailDispatcher() {
+        this(DEFAULT_MAX_PENDING, DEFAULT_PLATFORM_THREADS, null);
+    }
+
+    /**
+     * Creates a new dispatcher with default settings.
+     * @param transportPool transport pool to send with, may be null
+     */
+    public VirtualThreadMailDispatcher(TransportPool transportPool) {
+        this(DEFAULT_MAX_PENDING, DEFAULT_PLATFORM_THREADS, transportPool);
+    }
+
+    /**
+     * Creates a new dispatcher.
+     * @param maxPending      maximum number of queued and running messages, submitting blocks if reached
+     * @param platformThreads number of platform threads used if virtual threads are not available
+     * @param transportPool   transport pool to send with, may be null
+     */
+    public VirtualThreadMailDispatcher(int maxPending, int platformThreads, TransportPool transportPool) {
+        super(SendExecutors.newSendExecutor("mailbuilder-vdispatcher-" + DISPATCHER_COUNTER.incrementAndGet() + "-",
+                platformThreads), maxPending, transportPool);
+    }
+
+    /**
+     * Checks if sends run on virtual threads.
+     * @return true if virtual threads are used, false for platform threads
+     */
+    public boolean isVirtual() {
+        return SendExecutors.isVirtual();
+    }
+
+    /**
+     * Sets the maximum number of messages sent at the same time to hosts without own limit.
+     * Sends already running keep counting against the new limit.
+     * @param limit maximum number of concurrent sends, 0 or less for unlimited
+     */
+    public void setDefaultConcurrencyLimit(int limit) {
+        this.defaultConcurrencyLimit = limit;
+        for (HostGate oneGate : this.hostGates.values()) {
+            this.startWaiting(oneGate);
+        }
+    }
+
+    /**
+     * Sets the maximum number of messages sent at the same time to the given SMTP host.
+     * Sends already running keep counting against the new limit.
+     * @param host  SMTP host
+     * @param limit maximum number of concurrent sends, 0 or less for unlimited
+     */
+    public void setConcurrencyLimit(String host, int limit) {
+        String key = (host != null) ? host : "";
+        this.hostLimits.put(key, limit);
+        HostGate gate = this.hostGates.get(key);
+        if (gate != null) {
+            this.startWaiting(gate);
+        }
+    }
+
+    /**
+     * Returns the concurrency limit for the given host.
+     * @param host SMTP host
+     * @return maximum number of concurrent sends, 0 or less for unlimited
+     */
+    public int getConcurrencyLimit(String host) {
+        Integer hostLimit = this.hostLimits.get((host != null) ? host : "");
+        return (hostLimit != null) ? hostLimit : this.defaultConcurrencyLimit;
+    }
+
+    /**
+     * Submits the builder after a permit has been acquired. If its SMTP host has no free slot, the message
+     * waits in the queue of the host without taking a worker, so messages for other hosts are not held up.
+     * Messages for a RelayMailSession are queued normally, their relay is only known while sending.
+     * @param mailBuilder mail builder
+     * @return future with send result
+     */
+    @Override
+    protected Future<SendResult> submitWithPermit(final MailBuilder mailBuilder) {
+        if ((mailBuilder == null) || (mailBuilder.mailSession instanceof RelayMailSession)) {
+            return super.submitWithPermit(mailBuilder);
+        }
+        HostGate gate = this.getGate(SendThrottle.getHost(mailBuilder.session));
+        FutureTask<SendResult> task = new FutureTask<>(new Callable<SendResult>() {
+            @Override
+            public SendResult call() {
+                try {
+                    return deliver(mailBuilder);
+                } finally {
+                    pendingCount.decrementAndGet();
+                    permits.release();
+                }
+            }
+        });
+        this.pendingCount.incrementAndGet();
+        if (gate.enterOrQueue(task)) {
+            try {
+                this.executor.execute(new GateRunner(gate, task));
+            } catch (RuntimeException ex) {
+                gate.leaveWithoutHandOver();
+                this.pendingCount.decrementAndGet();
+                this.permits.release();
+                throw ex;
+            }
+        }
+        return task;
+    }
+
+    /**
+     * Builds and sends the message. For a RelayMailSession, a slot of the selected relay is taken
+     * while the message is sent to it, waiting on the worker thread if the relay has no free slot.
+     * Other messages already hold a slot of their host when they get here.
+     * @param mailBuilder mail builder
+     * @return send result
+     */
+    @Override
+    protected SendResult deliver(MailBuilder mailBuilder) {
+        if ((mailBuilder != null) && (mailBuilder.mailSession instanceof RelayMailSession)) {
+            try {
+                return mailBuilder.buildMessageAndSendWithResult(this.transportPool, new RelayPermits());
+            } catch (RuntimeException ex) {
+                return SendResult.failed(null, ex);
+            }
+        }
+        return super.deliver(mailBuilder);
+    }
+
+    /**
+     * Returns the gate for the given host.
+     * @param host SMTP host
+     * @return gate
+     */
+    protected HostGate getGate(String host) {
+        String key = (host != null) ? host : "";
+        HostGate gate = this.hostGates.get(key);
+        if (gate != null) {
+            return gate;
+        }
+        HostGate created = new HostGate(key);
+        gate = this.hostGates.putIfAbsent(key, created);
+        return (gate != null) ? gate : created;
+    }
+
+    /**
+     * Starts waiting messages of the given gate for which slots became free, after the limit has been raised.
+     * @param gate gate
+     */
+    protected void startWaiting(HostGate gate) {
+        Runnable next;
+        while ((next = gate.pollStartable()) != null) {
+            this.runOnWorker(gate, next);
+        }
+        gate.wakeUpWaiters();
+    }
+
+    /**
+     * Runs the given task of a gate and the tasks handed over to it on a worker thread. If the executor
+     * does not accept it anymore after shutdown, the task runs on the calling thread.
+     * @param gate gate the task holds a slot of
+     * @param task task
+     */
+    protected void runOnWorker(HostGate gate, Runnable task) {
+        GateRunner runner = new GateRunner(gate, task);
+        try {
+            this.executor.execute(runner);
+        } catch (RejectedExecutionException ex) {
+            runner.run();
+        }
+    }
+
+    /**
+     * Slots of one SMTP host. Counts the sends running to the host and holds the messages waiting for a slot;
+     * the limit is read on every check, so changing it takes effect for the running sends as well.
+     */
+    protected class HostGate {
+
+        /**
+         * SMTP host.
+         */
+        protected final String host;
+        /**
+         * Messages waiting for a slot.
+         */
+        protected final Queue<Runnable> waiting = new ArrayDeque<>();
+        /**
+         * Number of sends holding a slot.
+         */
+        protected int running = 0;
+
+        /**
+         * Creates a new gate.
+         * @param host SMTP host
+         */
+        protected HostGate(String host) {
+            this.host = host;
+        }
+
+        /**
+         * Checks if another send may start, must be called holding the lock of this gate.
+         * @return true if a slot is free
+         */
+        protected boolean hasFreeSlot() {
+            int limit = getConcurrencyLimit(this.host);
+            return (limit <= 0) || (this.running < limit);
+        }
+
+        /**
+         * Takes a slot for the given task or queues it if there is none.
+         * @param task task
+         * @return true if a slot was taken and the task must be started, false if it was queued
+         */
+        protected synchronized boolean enterOrQueue(Runnable task) {
+            if (this.waiting.isEmpty() && this.hasFreeSlot()) {
+                this.running++;
+                return true;
+            }
+            this.waiting.add(task);
+            return false;
+        }
+
+        /**
+         * Waits for a free slot and takes it, waiting messages go first.
+         * @throws InterruptedException if interrupted while waiting
+         */
+        protected synchronized void enter() throws InterruptedException {
+            while ((this.waiting.isEmpty() == false) || (this.hasFreeSlot() == false)) {
+                this.wait();
+            }
+            this.running++;
+        }
+
+        /**
+         * Frees a slot or hands it over to the next waiting message.
+         * @return waiting message now holding the slot, null if the slot has been freed
+         */
+        protected synchronized Runnable leave() {
+            int limit = getConcurrencyLimit(this.host);
+            if ((this.waiting.isEmpty() == false) && ((limit <= 0) || (this.running <= limit))) {
+                return this.waiting.poll();
+            }
+            this.leaveWithoutHandOver();
+            return null;
+        }
+
+        /**
+         * Frees a slot without starting a waiting message.
+         */
+        protected synchronized void leaveWithoutHandOver() {
+            this.running--;
+            this.notifyAll();
+        }
+
+        /**
+         * Takes a slot for the next waiting message if one is free.
+         * @return waiting message now holding a slot, null if none
+         */
+        protected synchronized Runnable pollStartable() {
+            if (this.waiting.isEmpty() || (this.hasFreeSlot() == false)) {
+                return null;
+            }
+            this.running++;
+            return this.waiting.poll();
+        }
+
+        /**
+         * Wakes up sends waiting in enter() to check the changed limit.
+         */
+        protected synchronized void wakeUpWaiters() {
+            this.notifyAll();
+        }
+
+        /**
+         * Returns the number of sends holding a slot.
+         * @return number of sends
+         */
+        public synchronized int getRunningCount() {
+            return this.running;
+        }
+
+        /**
+         * Returns the number of messages waiting for a slot.
+         * @return number of messages
+         */
+        public synchronized int getWaitingCount() {
+            return this.waiting.size();
+        }
+    }
+
+    /**
+     * Runs a task holding a slot of a gate, followed by the waiting messages the slot is handed over to.
+     */
+    protected static class GateRunner implements Runnable {
+
+        /**
+         * Gate.
+         */
+        protected final HostGate gate;
+        /**
+         * First task.
+         */
+        protected final Runnable task;
+
+        /**
+         * Creates a new runner.
+         * @param gate gate the task holds a slot of
+         * @param task task
+         */
+        protected GateRunner(HostGate gate, Runnable task) {
+            this.gate = gate;
+            this.task = task;
+        }
+
+        /**
+         * Runs the task and the tasks handed over to its slot.
+         */
+        @Override
+        public void run() {
+            Runnable current = this.task;
+            while (current != null) {
+                try {
+                    current.run();
+                } finally {
+                    current = this.gate.leave();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gate applying the concurrency limits to the relays one message is sent to, one relay at a time.
+     */
+    protected class RelayPermits implements RelayMailSession.RelayGate {
+
+        /**
+         * Gate of the relay currently sent to.
+         */
+        protected HostGate gate;
+
+        /**
+         * Waits for a free slot of the given relay.
+         * @param relay selected relay
+         * @throws InterruptedException if interrupted while waiting
+         */
+        @Override
+        public void enter(RelayMailSession.Relay relay) throws InterruptedException {
+            HostGate relayGate = getGate(relay.getHost());
+            relayGate.enter();
+            this.gate = relayGate;
+        }
+
+        /**
+         * Frees the slot of the given relay, handing it over to a waiting message.
+         * @param relay relay the message has been sent to
+         */
+        @Override
+        public void leave(RelayMailSession.Relay relay) {
+            if (this.gate != null) {
+                Runnable next = this.gate.leave();
+                if (next != null) {
+                    runOnWorker(this.gate, next);
+                }
+                this.gate = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,667 @@
+package com.github.nilscoding.mailbuilder.sessionimpl;
+
+import com.github.nilscoding.mailbuilder.CountingSMTPMessage;
+import com.github.nilscoding.mailbuilder.MailMetricsListener;
+import com.github.nilscoding.mailbuilder.MailPhase;
+import com.github.nilscoding.mailbuilder.MailSession;
+import com.github.nilscoding.mailbuilder.utils.SmtpUtils;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mail session spreading messages across several SMTP relays. When a message is sent using a
+ * builder created on this session (with or without TransportPool), a relay is selected for every
+ * message. A relay failing repeatedly on connection level or with transient errors is taken out of
+ * rotation for some time and then gets another chance. Only failures of the relay itself count: failures
+ * while connecting, 421 replies and lost connections. The message is tried on the other relays if the relay
+ * failed before the end of the message data, as afterwards the relay may have accepted it already.
+ * Failures of the message, like rejected recipients or unreadable attachments, are not counted against the
+ * relay and not tried on other relays.
+ * With a TransportPool every relay keeps its own connections, so throughput grows with the number of relays.
+ * This class is thread-safe.
+ * @author nilscoding
+ */
+public class RelayMailSession implements MailSession {
+
+    /**
+     * Default number of consecutive failures after which a relay is taken out of rotation.
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    /**
+     * Default time in milliseconds a failing relay is out of rotation.
+     */
+    public static final long DEFAULT_RETRY_AFTER_MILLIS = 30000L;
+
+    /**
+     * Relay selection strategies.
+     */
+    public enum Selection {
+        /**
+         * Weighted round-robin: relays get messages in proportion to their weight.
+         */
+        WEIGHTED_ROUND_ROBIN,
+        /**
+         * Relay with the fewest messages currently being sent, relative to its weight.
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * Relay with the lowest average send time, multiplied by the messages currently being sent.
+         */
+        LATENCY_AWARE
+    }
+
+    /**
+     * Relays.
+     */
+    protected final List<Relay> relays = new CopyOnWriteArrayList<>();
+    /**
+     * Selection strategy.
+     */
+    protected volatile Selection selection;
+    /**
+     * Number of consecutive failures after which a relay is taken out of rotation.
+     */
+    protected volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    /**
+     * Time a failing relay is out of rotation.
+     */
+    protected volatile long retryAfterMillis = DEFAULT_RETRY_AFTER_MILLIS;
+
+    /**
+     * Creates a new relay session using weighted round-robin.
+     */
+    public RelayMailSession() {
+        this(Selection.WEIGHTED_ROUND_ROBIN);
+    }
+
+    /**
+     * Creates a new relay session.
+     * @param selection selection strategy
+     */
+    public RelayMailSession(Selection selection) {
+        this.selection = (selection != null) ? selection : Selection.WEIGHTED_ROUND_ROBIN;
+    }
+
+    /**
+     * Adds a relay with weight 1.
+     * @param mailSession mail session of the relay
+     * @return this relay session
+     */
+    public RelayMailSession addRelay(MailSession mailSession) {
+        return this.addRelay(mailSession, 1);
+    }
+
+    /**
+     * Adds a relay.
+     * @param mailSession mail session of the relay
+     * @param weight      weight, relays with higher weight get more messages
+     * @return this relay session
+     */
+    public RelayMailSession addRelay(MailSession mailSession, int weight) {
+        if (mailSession == null) {
+            throw new IllegalArgumentException("no mail session given");
+        }
+        this.relays.add(new Relay(mailSession, Math.max(1, weight)));
+        return this;
+    }
+
+    /**
+     * Sets the selection strategy.
+     * @param selection selection strategy
+     */
+    public void setSelection(Selection selection) {
+        if (selection != null) {
+            this.selection = selection;
+        }
+    }
+
+    /**
+     * Sets when a failing relay is taken out of rotation and for how long.
+     * @param failureThreshold number of consecutive failures
+     * @param retryAfterMillis time in milliseconds until the relay gets another chance
+     */
+    public void setFailurePolicy(int failureThreshold, long retryAfterMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.retryAfterMillis = Math.max(0L, retryAfterMillis);
+    }
+
+    /**
+     * Returns the relays.
+     * @return unmodifiable list of relays
+     */
+    public List<Relay> getRelays() {
+        return Collections.unmodifiableList(new ArrayList<>(this.relays));
+    }
+
+    /**
+     * Creates a session of the first available relay. The session is used for building
+     * messages, the relay for sending is selected when the message is sent.
+     * @return new JavaMail session
+     */
+    @Override
+    public Session createNewSession() {
+        long now = System.currentTimeMillis();
+        for (Relay oneRelay : this.relays) {
+            if (oneRelay.isAvailable(now)) {
+                return oneRelay.mailSession.createNewSession();
+            }
+        }
+        if (this.relays.isEmpty()) {
+            throw new IllegalStateException("no relay added");
+        }
+        return this.relays.get(0).mailSession.createNewSession();
+    }
+
+    /**
+     * Sends the given message using one of the relays. If connecting to the relay fails or the relay
+     * fails before the end of the message data, the other relays are tried.
+     * @param message         message to send
+     * @param transportPool   transport pool to use, null to open a new connection
+     * @param metricsListener metrics listener, may be null
+     * @throws MessagingException if sending failed on all tried relays
+     */
+    public void send(Message message, TransportPool transportPool, MailMetricsListener metricsListener)
+            throws MessagingException {
+        this.send(message, transportPool, metricsListener, null);
+    }
+
+    /**
+     * Sends the given message using one of the relays, passing through the given gate for every relay
+     * the message is sent to. If connecting to the relay fails or the relay fails before the end of
+     * the message data, the other relays are tried.
+     * @param message         message to send
+     * @param transportPool   transport pool to use, null to open a new connection
+     * @param metricsListener metrics listener, may be null
+     * @param gate            gate entered before sending to a relay and left afterwards, may be null
+     * @throws MessagingException if sending failed on all tried relays
+     */
+    public void send(Message message, TransportPool transportPool, MailMetricsListener metricsListener,
+            RelayGate gate) throws MessagingException {
+        this.send(message, transportPool, metricsListener, gate, null, null);
+    }
+
+    /**
+     * Sends the given message using one of the relays like send(Message, TransportPool, MailMetricsListener,
+     * RelayGate). Before sending to a relay, the given throttle is waited for using the host of that relay.
+     * If the message failed on all tried relays with a transient failure, it is sent again after the delay
+     * of the given retry policy, selecting the relays again. With a transport pool, the throttle and
+     * retry policy of the pool are used as well.
+     * @param message         message to send
+     * @param transportPool   transport pool to use, null to open a new connection
+     * @param metricsListener metrics listener, may be null
+     * @param gate            gate entered before sending to a relay and left afterwards, may be null
+     * @param sendThrottle    rate limiter, may be null
+     * @param retryPolicy     policy for retrying transient failures, may be null
+     * @throws MessagingException if sending failed
+     */
+    public void send(Message message, TransportPool transportPool, MailMetricsListener metricsListener,
+            RelayGate gate, SendThrottle sendThrottle, RetryPolicy retryPolicy) throws MessagingException {
+        Address[] recipients = message.getAllRecipients();
+        if ((recipients == null) || (recipients.length == 0)) {
+            throw new SendFailedException("No recipient addresses");
+        }
+        for (int attempt = 1; true; attempt++) {
+            try {
+                this.sendOnce(message, recipients, transportPool, metricsListener, gate, sendThrottle);
+                return;
+            } catch (MessagingException ex) {
+                if ((retryPolicy == null) || (retryPolicy.shouldRetry(ex, attempt) == false)) {
+                    throw ex;
+                }
+                try {
+                    long waitNanos = retryPolicy.backoff(attempt);
+                    if (metricsListener != null) {
+                        metricsListener.phaseCompleted(MailPhase.BACKOFF, waitNanos, -1L);
+                    }
+                } catch (InterruptedException intEx) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the given message once using one of the relays, trying the other relays if connecting
+     * to the relay fails or the relay fails before the end of the message data.
+     * @param message         message to send
+     * @param recipients      envelope recipients, not empty
+     * @param transportPool   transport pool to use, null to open a new connection
+     * @param metricsListener metrics listener, may be null
+     * @param gate            gate entered before sending to a relay and left afterwards, may be null
+     * @param sendThrottle    rate limiter, may be null
+     * @throws MessagingException if sending failed on all tried relays
+     */
+    protected void sendOnce(Message message, Address[] recipients, TransportPool transportPool,
+            MailMetricsListener metricsListener, RelayGate gate, SendThrottle sendThrottle)
+            throws MessagingException {
+        List<Relay> tried = new ArrayList<>(this.relays.size());
+        MessagingException lastFailure = null;
+        while (true) {
+            Relay relay = this.select(tried);
+            if (relay == null) {
+                if (lastFailure != null) {
+                    throw lastFailure;
+                }
+                throw new MessagingException("no relay added");
+            }
+            tried.add(relay);
+            try {
+                if (sendThrottle != null) {
+                    long waitNanos = sendThrottle.acquire(relay.getHost());
+                    if (metricsListener != null) {
+                        metricsListener.phaseCompleted(MailPhase.THROTTLE, waitNanos, -1L);
+                    }
+                }
+                if (gate != null) {
+                    gate.enter(relay);
+                }
+            } catch (InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("interrupted while waiting for relay", intEx);
+            }
+            relay.outstanding.incrementAndGet();
+            long start = System.nanoTime();
+            // failures before a connection exists are failures of the relay, not of the message
+            AtomicBoolean connected = new AtomicBoolean();
+            try {
+                if (transportPool != null) {
+                    transportPool.send(relay.mailSession, message, metricsListener, connected);
+                } else {
+                    Transport transport = connect(relay.mailSession, recipients[0], metricsListener);
+                    connected.set(true);
+                    sendDirect(transport, message, recipients, metricsListener);
+                }
+                relay.recordSuccess(System.nanoTime() - start);
+                return;
+            } catch (MessagingException ex) {
+                if (connected.get() && (isRelayFailure(ex) == false)) {
+                    // message was rejected or could not be written, relay itself works
+                    relay.recordSuccess(System.nanoTime() - start);
+                    throw ex;
+                }
+                relay.recordFailure(this.failureThreshold, this.retryAfterMillis);
+                if (connected.get() && (isFailedBeforeDataEnd(ex) == false)) {
+                    // relay may have accepted the message, sending it again could deliver it twice
+                    throw ex;
+                }
+                lastFailure = ex;
+            } finally {
+                relay.outstanding.decrementAndGet();
+                if (gate != null) {
+                    gate.leave(relay);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the given failure while sending is a failure of the relay: a lost connection or a 421 reply.
+     * @param ex failure
+     * @return true if the failure counts against the relay
+     */
+    protected static boolean isRelayFailure(MessagingException ex) {
+        if (SmtpUtils.isConnectionLost(ex)) {
+            return true;
+        }
+        // JavaMail reports a connection closed by the server as reply code -1
+        return (SmtpUtils.getFailedCommand(ex) != null) && (SmtpUtils.getReturnCode(ex) == -1);
+    }
+
+    /**
+     * Checks if the given failure happened on a command before the end of the message data, so the relay
+     * has not accepted the message. Failures while writing the message data or reading a reply without
+     * knowing the command are treated as after the end of the data.
+     * @param ex failure
+     * @return true if the message can be tried on another relay
+     */
+    protected static boolean isFailedBeforeDataEnd(MessagingException ex) {
+        String command = SmtpUtils.getFailedCommand(ex);
+        return (command != null) && (command.startsWith(".") == false);
+    }
+
+    /**
+     * Selects the relay for the next message.
+     * @param excluded relays not to select
+     * @return relay or null if all relays are excluded
+     */
+    protected Relay select(List<Relay> excluded) {
+        long now = System.currentTimeMillis();
+        List<Relay> candidates = new ArrayList<>(this.relays.size());
+        Relay earliestRetry = null;
+        for (Relay oneRelay : this.relays) {
+            if (excluded.contains(oneRelay)) {
+                continue;
+            }
+            if (oneRelay.isAvailable(now)) {
+                candidates.add(oneRelay);
+            } else if ((earliestRetry == null) || (oneRelay.downUntilMillis < earliestRetry.downUntilMillis)) {
+                earliestRetry = oneRelay;
+            }
+        }
+        if (candidates.isEmpty()) {
+            // all relays are out of rotation, try the one that will be back first
+            return earliestRetry;
+        }
+        switch (this.selection) {
+            case LEAST_OUTSTANDING:
+                return selectLeastOutstanding(candidates);
+            case LATENCY_AWARE:
+                return selectLatencyAware(candidates);
+            default:
+                return this.selectWeightedRoundRobin(candidates);
+        }
+    }
+
+    /**
+     * Selects a relay using smooth weighted round-robin.
+     * @param candidates available relays, not empty
+     * @return relay
+     */
+    protected Relay selectWeightedRoundRobin(List<Relay> candidates) {
+        synchronized (this.relays) {
+            Relay best = null;
+            long totalWeight = 0L;
+            for (Relay oneRelay : candidates) {
+                oneRelay.currentWeight += oneRelay.weight;
+                totalWeight += oneRelay.weight;
+                if ((best == null) || (oneRelay.currentWeight > best.currentWeight)) {
+                    best = oneRelay;
+                }
+            }
+            best.currentWeight -= totalWeight;
+            return best;
+        }
+    }
+
+    /**
+     * Selects the relay with the fewest outstanding messages relative to its weight.
+     * @param candidates available relays, not empty
+     * @return relay
+     */
+    protected static Relay selectLeastOutstanding(List<Relay> candidates) {
+        Relay best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Relay oneRelay : candidates) {
+            double score = (double) oneRelay.outstanding.get() / oneRelay.weight;
+            if (score < bestScore) {
+                best = oneRelay;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Selects the relay with the lowest expected time, i.e. average send time multiplied by
+     * the number of outstanding messages plus one. Relays without measurements are tried first.
+     * @param candidates available relays, not empty
+     * @return relay
+     */
+    protected static Relay selectLatencyAware(List<Relay> candidates) {
+        Relay best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Relay oneRelay : candidates) {
+            long latency = oneRelay.averageLatencyNanos.get();
+            if (latency == 0L) {
+                return oneRelay;
+            }
+            double score = (double) latency * (oneRelay.outstanding.get() + 1) / oneRelay.weight;
+            if (score < bestScore) {
+                best = oneRelay;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Opens a new connection of the given mail session.
+     * @param mailSession     mail session
+     * @param recipient       first recipient, for choosing the transport
+     * @param metricsListener metrics listener, may be null
+     * @return connected transport
+     * @throws MessagingException if connecting failed
+     */
+    protected static Transport connect(MailSession mailSession, Address recipient,
+            MailMetricsListener metricsListener) throws MessagingException {
+        long phaseStart = (metricsListener != null) ? System.nanoTime() : 0L;
+        Transport transport = mailSession.createNewSession().getTransport(recipient);
+        try {
+            transport.connect();
+        } catch (MessagingException | RuntimeException ex) {
+            TransportPool.closeQuietly(transport);
+            throw ex;
+        }
+        if (metricsListener != null) {
+            metricsListener.phaseCompleted(MailPhase.CONNECT, System.nanoTime() - phaseStart, -1L);
+        }
+        return transport;
+    }
+
+    /**
+     * Sends the message over the given connection and closes it.
+     * @param transport       connected transport
+     * @param message         message to send
+     * @param recipients      envelope recipients
+     * @param metricsListener metrics listener, may be null
+     * @throws MessagingException if sending failed
+     */
+    protected static void sendDirect(Transport transport, Message message, Address[] recipients,
+            MailMetricsListener metricsListener) throws MessagingException {
+        try {
+            message.saveChanges();
+            long phaseStart = (metricsListener != null) ? System.nanoTime() : 0L;
+            transport.sendMessage(message, recipients);
+            if (metricsListener != null) {
+                metricsListener.phaseCompleted(MailPhase.DATA, System.nanoTime() - phaseStart,
+                        CountingSMTPMessage.getWrittenSize(message));
+            }
+        } finally {
+            TransportPool.closeQuietly(transport);
+        }
+    }
+
+    /**
+     * Gate passed by every message sent to a relay, e.g. to limit the number of messages sent
+     * to one relay at the same time.
+     */
+    public interface RelayGate {
+
+        /**
+         * Called before a message is sent to the given relay, may block.
+         * @param relay selected relay
+         * @throws InterruptedException if interrupted while waiting
+         */
+        void enter(Relay relay) throws InterruptedException;
+
+        /**
+         * Called after a message has been sent to the given relay or sending failed.
+         * @param relay relay the message has been sent to
+         */
+        void leave(Relay relay);
+    }
+
+    /**
+     * One relay with its health and load data.
+     */
+    public static class Relay {
+
+        /**
+         * Weight of the latest measurement in the average send time, in 1/8.
+         */
+        protected static final int LATENCY_SMOOTHING_SHIFT = 3;
+
+        /**
+         * Mail session of the relay.
+         */
+        protected final MailSession mailSession;
+        /**
+         * Weight.
+         */
+        protected final int weight;
+        /**
+         * Number of messages currently being sent.
+         */
+        protected final AtomicInteger outstanding = new AtomicInteger();
+        /**
+         * Average send time (exponentially weighted), 0 if not measured yet.
+         */
+        protected final AtomicLong averageLatencyNanos = new AtomicLong();
+        /**
+         * Number of sent messages.
+         */
+        protected final AtomicLong sentCount = new AtomicLong();
+        /**
+         * Number of failures.
+         */
+        protected final AtomicLong failureCount = new AtomicLong();
+        /**
+         * Current weight for smooth weighted round-robin, guarded by the relay list.
+         */
+        protected long currentWeight = 0L;
+        /**
+         * Number of consecutive failures.
+         */
+        protected int consecutiveFailures = 0;
+        /**
+         * Time until the relay is out of rotation.
+         */
+        protected volatile long downUntilMillis = 0L;
+        /**
+         * SMTP host of the relay, determined on first use.
+         */
+        protected volatile String host;
+
+        /**
+         * Creates a new relay.
+         * @param mailSession mail session
+         * @param weight      weight
+         */
+        protected Relay(MailSession mailSession, int weight) {
+            this.mailSession = mailSession;
+            this.weight = weight;
+        }
+
+        /**
+         * Checks if the relay is in rotation.
+         * @param now current time in milliseconds
+         * @return true if available
+         */
+        protected boolean isAvailable(long now) {
+            return (this.downUntilMillis <= now);
+        }
+
+        /**
+         * Records a successful send.
+         * @param nanos send time
+         */
+        protected void recordSuccess(long nanos) {
+            this.sentCount.incrementAndGet();
+            synchronized (this) {
+                this.consecutiveFailures = 0;
+                this.downUntilMillis = 0L;
+            }
+            long average = this.averageLatencyNanos.get();
+            long updated = (average == 0L) ? nanos : average + ((nanos - average) >> LATENCY_SMOOTHING_SHIFT);
+            this.averageLatencyNanos.compareAndSet(average, Math.max(1L, updated));
+        }
+
+        /**
+         * Records a failed send and takes the relay out of rotation if it failed too often.
+         * @param failureThreshold number of consecutive failures
+         * @param retryAfterMillis time out of rotation
+         */
+        protected void recordFailure(int failureThreshold, long retryAfterMillis) {
+            this.failureCount.incrementAndGet();
+            synchronized (this) {
+                this.consecutiveFailures++;
+                if (this.consecutiveFailures >= failureThreshold) {
+                    this.downUntilMillis = System.currentTimeMillis() + retryAfterMillis;
+                }
+            }
+        }
+
+        /**
+         * Returns the mail session of the relay.
+         * @return mail session
+         */
+        public MailSession getMailSession() {
+            return this.mailSession;
+        }
+
+        /**
+         * Returns the SMTP host of the relay.
+         * @return SMTP host
+         */
+        public String getHost() {
+            String relayHost = this.host;
+            if (relayHost == null) {
+                relayHost = SendThrottle.getHost(this.mailSession.createNewSession());
+                this.host = relayHost;
+            }
+            return relayHost;
+        }
+
+        /**
+         * Returns the weight.
+         * @return weight
+         */
+        public int getWeight() {
+            return this.weight;
+        }
+
+        /**
+         * Returns the number of messages currently being sent.
+         * @return number of messages
+         */
+        public int getOutstandingCount() {
+            return this.outstanding.get();
+        }
+
+        /**
+         * Returns the average send time.
+         * @return send time in nanoseconds, 0 if not measured yet
+         */
+        public long getAverageLatencyNanos() {
+            return this.averageLatencyNanos.get();
+        }
+
+        /**
+         * Returns the number of sent messages.
+         * @return number of messages
+         */
+        public long getSentCount() {
+            return this.sentCount.get();
+        }
+
+        /**
+         * Returns the number of failures.
+         * @return number of failures
+         */
+        public long getFailureCount() {
+            return this.failureCount.get();
+        }
+
+        /**
+         * Checks if the relay is currently in rotation.
+         * @return true if available
+         */
+        public boolean isAvailable() {
+            return this.isAvailable(System.currentTimeMillis());
+        }
+    }
+
+}
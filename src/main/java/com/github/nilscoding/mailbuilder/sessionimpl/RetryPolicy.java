@@ -0,0 +1,130 @@
+package com.github.nilscoding.mailbuilder.sessionimpl;
+
+import com.github.nilscoding.mailbuilder.utils.SmtpUtils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Policy for sending a message again after a transient failure, i.e. a 4xx reply like
+ * 421 or 451 or a lost connection. The delay doubles with every attempt up to a maximum
+ * and is randomly shortened (jitter), so throttled senders do not retry all at the same time.
+ * Instances are immutable and thread-safe.
+ * @author nilscoding
+ */
+public class RetryPolicy {
+
+    /**
+     * Default maximum number of attempts.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    /**
+     * Default delay before the second attempt in milliseconds.
+     */
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 1000L;
+    /**
+     * Default maximum delay in milliseconds.
+     */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 60000L;
+    /**
+     * Default fraction by which delays are randomly shortened.
+     */
+    public static final double DEFAULT_JITTER = 0.5d;
+
+    /**
+     * Maximum number of attempts.
+     */
+    protected final int maxAttempts;
+    /**
+     * Delay before the second attempt.
+     */
+    protected final long initialDelayMillis;
+    /**
+     * Maximum delay.
+     */
+    protected final long maxDelayMillis;
+    /**
+     * Fraction by which delays are randomly shortened.
+     */
+    protected final double jitter;
+
+    /**
+     * Creates a new policy with default values.
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_JITTER);
+    }
+
+    /**
+     * Creates a new policy.
+     * @param maxAttempts        maximum number of attempts including the first one
+     * @param initialDelayMillis delay before the second attempt in milliseconds
+     * @param maxDelayMillis     maximum delay in milliseconds
+     * @param jitter             fraction between 0 and 1 by which delays are randomly shortened
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, double jitter) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelayMillis = Math.max(0L, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.jitter = Math.min(1.0d, Math.max(0.0d, jitter));
+    }
+
+    /**
+     * Checks if sending should be tried again after the given failure.
+     * @param ex      failure
+     * @param attempt number of the failed attempt, starting with 1
+     * @return true to try again
+     */
+    public boolean shouldRetry(Exception ex, int attempt) {
+        return (attempt < this.maxAttempts) && this.isRetryable(ex);
+    }
+
+    /**
+     * Checks if the given failure is transient.
+     * @param ex failure
+     * @return true if transient
+     */
+    protected boolean isRetryable(Exception ex) {
+        return SmtpUtils.isTransientFailure(ex) || SmtpUtils.isConnectionLost(ex);
+    }
+
+    /**
+     * Returns the delay before the next attempt.
+     * @param attempt number of the failed attempt, starting with 1
+     * @return delay in milliseconds
+     */
+    public long getDelayMillis(int attempt) {
+        long delay = this.initialDelayMillis;
+        for (int i = 1; (i < attempt) && (delay < this.maxDelayMillis); i++) {
+            delay *= 2L;
+        }
+        delay = Math.min(delay, this.maxDelayMillis);
+        if ((this.jitter > 0.0d) && (delay > 0L)) {
+            delay -= (long) (delay * this.jitter * ThreadLocalRandom.current().nextDouble());
+        }
+        return delay;
+    }
+
+    /**
+     * Waits before the next attempt.
+     * @param attempt number of the failed attempt, starting with 1
+     * @return waiting time in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long backoff(int attempt) throws InterruptedException {
+        long start = System.nanoTime();
+        long delay = this.getDelayMillis(attempt);
+        if (delay > 0L) {
+            Thread.sleep(delay);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Returns the maximum number of attempts.
+     * @return maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.github.nilscoding.mailbuilder.sessionimpl;
+
+import com.github.nilscoding.mailbuilder.utils.TokenBucket;
+
+import javax.mail.Session;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of messages sent per second to each SMTP host, using one token bucket per host.
+ * Rates can be changed at any time, e.g. when the server starts throttling. Time spent waiting
+ * for the limiter is counted. This class is thread-safe.
+ * @author nilscoding
+ */
+public class SendThrottle {
+
+    /**
+     * Host key used if the session has no SMTP host.
+     */
+    protected static final String UNKNOWN_HOST = "";
+
+    /**
+     * Token buckets by host.
+     */
+    protected final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    /**
+     * Rates set for single hosts.
+     */
+    protected final ConcurrentMap<String, Double> hostRates = new ConcurrentHashMap<>();
+    /**
+     * Rate for hosts without own rate, 0 or less for unlimited.
+     */
+    protected volatile double defaultRate;
+    /**
+     * Lock for rate changes and bucket creation, so a new bucket never gets an outdated rate.
+     */
+    protected final Object rateLock = new Object();
+    /**
+     * Number of acquired permits.
+     */
+    protected final AtomicLong acquireCount = new AtomicLong();
+    /**
+     * Number of permits that had to wait.
+     */
+    protected final AtomicLong waitCount = new AtomicLong();
+    /**
+     * Total waiting time.
+     */
+    protected final AtomicLong totalWaitNanos = new AtomicLong();
+
+    /**
+     * Creates a new throttle.
+     * @param defaultRate messages per second for every host, 0 or less for unlimited
+     */
+    public SendThrottle(double defaultRate) {
+        this.defaultRate = defaultRate;
+    }
+
+    /**
+     * Sets the rate for hosts without own rate.
+     * @param messagesPerSecond messages per second, 0 or less for unlimited
+     */
+    public void setDefaultRate(double messagesPerSecond) {
+        synchronized (this.rateLock) {
+            this.defaultRate = messagesPerSecond;
+            for (String oneHost : this.buckets.keySet()) {
+                if (this.hostRates.containsKey(oneHost) == false) {
+                    this.applyRate(oneHost, messagesPerSecond);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the rate for the given host.
+     * @param host              SMTP host
+     * @param messagesPerSecond messages per second, 0 or less for unlimited
+     */
+    public void setRate(String host, double messagesPerSecond) {
+        String key = (host != null) ? host : UNKNOWN_HOST;
+        synchronized (this.rateLock) {
+            this.hostRates.put(key, messagesPerSecond);
+            this.applyRate(key, messagesPerSecond);
+        }
+    }
+
+    /**
+     * Returns the rate for the given host.
+     * @param host SMTP host
+     * @return messages per second, 0 or less for unlimited
+     */
+    public double getRate(String host) {
+        Double hostRate = this.hostRates.get((host != null) ? host : UNKNOWN_HOST);
+        return (hostRate != null) ? hostRate : this.defaultRate;
+    }
+
+    /**
+     * Waits until a message may be sent using the given session.
+     * @param session session, its SMTP host selects the rate
+     * @return waiting time in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long acquire(Session session) throws InterruptedException {
+        return this.acquire(getHost(session));
+    }
+
+    /**
+     * Waits until a message may be sent to the given host.
+     * @param host SMTP host
+     * @return waiting time in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long acquire(String host) throws InterruptedException {
+        String key = (host != null) ? host : UNKNOWN_HOST;
+        this.acquireCount.incrementAndGet();
+        TokenBucket bucket = this.buckets.get(key);
+        if (bucket == null) {
+            if (this.getRate(key) <= 0.0d) {
+                // unlimited hosts have no bucket, no need to lock
+                return 0L;
+            }
+            synchronized (this.rateLock) {
+                bucket = this.buckets.get(key);
+                if (bucket == null) {
+                    double rate = this.getRate(key);
+                    if (rate <= 0.0d) {
+                        return 0L;
+                    }
+                    bucket = new TokenBucket(rate);
+                    this.buckets.put(key, bucket);
+                }
+            }
+        }
+        long waitNanos = bucket.acquire();
+        if (waitNanos > 0L) {
+            this.waitCount.incrementAndGet();
+            this.totalWaitNanos.addAndGet(waitNanos);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Returns the number of acquired permits.
+     * @return number of permits
+     */
+    public long getAcquireCount() {
+        return this.acquireCount.get();
+    }
+
+    /**
+     * Returns the number of permits that had to wait.
+     * @return number of permits
+     */
+    public long getWaitCount() {
+        return this.waitCount.get();
+    }
+
+    /**
+     * Returns the total time spent waiting.
+     * @return waiting time in nanoseconds
+     */
+    public long getTotalWaitNanos() {
+        return this.totalWaitNanos.get();
+    }
+
+    /**
+     * Changes the rate of an existing bucket or removes it for unlimited rate. Must be called holding the rate lock.
+     * @param key               host key
+     * @param messagesPerSecond messages per second, 0 or less for unlimited
+     */
+    protected void applyRate(String key, double messagesPerSecond) {
+        if (messagesPerSecond <= 0.0d) {
+            this.buckets.remove(key);
+            return;
+        }
+        TokenBucket bucket = this.buckets.get(key);
+        if (bucket != null) {
+            bucket.setRate(messagesPerSecond, Math.max(1.0d, messagesPerSecond));
+        }
+    }
+
+    /**
+     * Returns the SMTP host of the given session.
+     * @param session session
+     * @return host or empty string if unknown
+     */
+    public static String getHost(Session session) {
+        if (session == null) {
+            return UNKNOWN_HOST;
+        }
+        String host = session.getProperty("mail.smtp.host");
+        if (host == null) {
+            host = session.getProperty("mail.host");
+        }
+        return (host != null) ? host : UNKNOWN_HOST;
+    }
+
+}
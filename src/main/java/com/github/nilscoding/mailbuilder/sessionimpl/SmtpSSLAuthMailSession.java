@@ -6,6 +6,7 @@ import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
 import java.util.Enumeration;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * SMTP over SSL (STARTTLS) mail session with authentication.
@@ -33,6 +34,26 @@ public class SmtpSSLAuthMailSession implements MailSession {
      * Additional properties.
      */
     protected Properties additionalProperties;
+    /**
+     * Flag if created sessions are cached and reused.
+     */
+    protected volatile boolean sessionCaching = false;
+    /**
+     * Cached session, null if caching is disabled or session needs to be re-created.
+     */
+    protected volatile Session cachedSession;
+    /**
+     * Lock for changing configuration and cached session.
+     */
+    protected final Object sessionLock = new Object();
+    /**
+     * Number of created sessions.
+     */
+    protected final AtomicLong createdSessionCount = new AtomicLong();
+    /**
+     * Number of reused (cached) sessions.
+     */
+    protected final AtomicLong reusedSessionCount = new AtomicLong();
 
     /**
      * Creates a new SMTP mail session with host, port 465, username and password.
@@ -67,6 +88,17 @@ public class SmtpSSLAuthMailSession implements MailSession {
      * @param additionalProperties additional properties to set
      */
     public void setAdditionalProperties(Properties additionalProperties) {
+        synchronized (this.sessionLock) {
+            this.cachedSession = null;
+            this.mergeAdditionalProperties(additionalProperties);
+        }
+    }
+
+    /**
+     * Merges the given properties into the additional properties.
+     * @param additionalProperties additional properties to merge
+     */
+    protected void mergeAdditionalProperties(Properties additionalProperties) {
         if (additionalProperties == null) {
             this.additionalProperties = null;
             return;
@@ -94,11 +126,100 @@ public class SmtpSSLAuthMailSession implements MailSession {
     }
 
     /**
-     * Creates a new JavaMail session.
-     * @return new JavaMail session
+     * Sets new credentials, a cached session will be re-created on next use.
+     * @param username username
+     * @param password password
+     */
+    public void setCredentials(String username, String password) {
+        synchronized (this.sessionLock) {
+            this.cachedSession = null;
+            this.username = username;
+            this.password = password;
+        }
+    }
+
+    /**
+     * Enables or disables session caching. If enabled, createNewSession() returns the same
+     * JavaMail session until the additional properties or the credentials are changed.
+     * Note that the additional properties are only copied when the session is created, so
+     * changes made directly to the Properties object given to setAdditionalProperties()
+     * are not noticed, call setAdditionalProperties() or invalidateSession() then.
+     * @param sessionCaching true to enable caching, false to disable
+     */
+    public void setSessionCaching(boolean sessionCaching) {
+        synchronized (this.sessionLock) {
+            this.sessionCaching = sessionCaching;
+            this.cachedSession = null;
+        }
+    }
+
+    /**
+     * Checks if session caching is enabled.
+     * @return true if enabled
+     */
+    public boolean isSessionCaching() {
+        return this.sessionCaching;
+    }
+
+    /**
+     * Drops the cached session, the next call to createNewSession() will create a new session.
+     */
+    public void invalidateSession() {
+        synchronized (this.sessionLock) {
+            this.cachedSession = null;
+        }
+    }
+
+    /**
+     * Returns the number of JavaMail sessions that have been created.
+     * @return number of created sessions
+     */
+    public long getCreatedSessionCount() {
+        return this.createdSessionCount.get();
+    }
+
+    /**
+     * Returns the number of calls to createNewSession() that returned a cached session.
+     * @return number of reused sessions
+     */
+    public long getReusedSessionCount() {
+        return this.reusedSessionCount.get();
+    }
+
+    /**
+     * Creates a new JavaMail session or returns the cached session if session caching is enabled.
+     * @return JavaMail session
      */
     @Override
     public Session createNewSession() {
+        if (this.sessionCaching == false) {
+            // sessions are not shared, so concurrent callers do not need to wait for each other
+            return this.createSession();
+        }
+        Session session = this.cachedSession;
+        if (session != null) {
+            this.reusedSessionCount.incrementAndGet();
+            return session;
+        }
+        synchronized (this.sessionLock) {
+            session = this.cachedSession;
+            if (session != null) {
+                this.reusedSessionCount.incrementAndGet();
+                return session;
+            }
+            session = this.createSession();
+            if (this.sessionCaching) {
+                this.cachedSession = session;
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Creates a new JavaMail session from current settings. Callers caching the session hold the session lock.
+     * @return new JavaMail session or null on error
+     */
+    protected Session createSession() {
         try {
             Properties props = new Properties();
             props.put("mail.smtp.auth", "true");
@@ -116,13 +237,16 @@ public class SmtpSSLAuthMailSession implements MailSession {
                     }
                 }
             }
+            final String sessionUsername = this.username;
+            final String sessionPassword = this.password;
             Session session = Session.getInstance(props,
                     new javax.mail.Authenticator() {
                         @Override
                         protected PasswordAuthentication getPasswordAuthentication() {
-                            return new PasswordAuthentication(username, password);
+                            return new PasswordAuthentication(sessionUsername, sessionPassword);
                         }
                     });
+            this.createdSessionCount.incrementAndGet();
             return session;
         } catch (Exception ex) {
             return null;
@@ -0,0 +1,692 @@
+package com.github.nilscoding.mailbuilder.sessionimpl;
+
+import com.github.nilscoding.mailbuilder.CountingSMTPMessage;
+import com.github.nilscoding.mailbuilder.MailMetricsListener;
+import com.github.nilscoding.mailbuilder.MailPhase;
+import com.github.nilscoding.mailbuilder.MailSession;
+import com.github.nilscoding.mailbuilder.utils.SmtpUtils;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pool of connected and authenticated SMTP transports, keyed by mail session.
+ * Transports are kept open after sending and reused for following messages, so
+ * connecting, STARTTLS and authentication only happen once per connection instead of once per message.
+ * This class is thread-safe.
+ * @author nilscoding
+ */
+public class TransportPool {
+
+    /**
+     * Default maximum number of transports per mail session.
+     */
+    public static final int DEFAULT_MAX_PER_SESSION = 4;
+    /**
+     * Default idle time in milliseconds after which an unused transport is closed.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000L;
+    /**
+     * Default idle time in milliseconds after which a transport is checked with NOOP before reusing it.
+     */
+    public static final long DEFAULT_VALIDATE_AFTER_MILLIS = 5000L;
+    /**
+     * Default time in milliseconds to wait for a free transport.
+     */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30000L;
+
+    /**
+     * Maximum number of transports (idle and borrowed) per mail session.
+     */
+    protected final int maxPerSession;
+    /**
+     * Idle time in milliseconds after which an unused transport is closed.
+     */
+    protected final long idleTimeoutMillis;
+    /**
+     * Idle time in milliseconds after which a transport is checked before reusing it.
+     */
+    protected long validateAfterMillis = DEFAULT_VALIDATE_AFTER_MILLIS;
+    /**
+     * Time in milliseconds to wait for a free transport.
+     */
+    protected long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    /**
+     * Rate limiter for sending, may be null.
+     */
+    protected volatile SendThrottle sendThrottle;
+    /**
+     * Policy for retrying transient failures, may be null.
+     */
+    protected volatile RetryPolicy retryPolicy;
+    /**
+     * Pools per mail session.
+     */
+    protected final Map<MailSession, SessionPool> pools = new HashMap<>();
+    /**
+     * Flag if pool has been closed.
+     */
+    protected boolean closed = false;
+
+    /**
+     * Creates a new transport pool with default settings.
+     */
+    public TransportPool() {
+        this(DEFAULT_MAX_PER_SESSION, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a new transport pool.
+     * @param maxPerSession     maximum number of transports per mail session
+     * @param idleTimeoutMillis idle time in milliseconds after which an unused transport is closed
+     */
+    public TransportPool(int maxPerSession, long idleTimeoutMillis) {
+        this.maxPerSession = Math.max(1, maxPerSession);
+        this.idleTimeoutMillis = Math.max(0L, idleTimeoutMillis);
+    }
+
+    /**
+     * Sets the idle time after which a transport is checked using NOOP before it gets reused.
+     * @param validateAfterMillis idle time in milliseconds, 0 to check on every borrow
+     */
+    public void setValidateAfterMillis(long validateAfterMillis) {
+        this.validateAfterMillis = Math.max(0L, validateAfterMillis);
+    }
+
+    /**
+     * Sets the time to wait for a free transport if the maximum number of transports is in use.
+     * @param maxWaitMillis time in milliseconds
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = Math.max(0L, maxWaitMillis);
+    }
+
+    /**
+     * Sets the rate limiter for sending.
+     * @param sendThrottle send throttle, null for unlimited sending
+     */
+    public void setSendThrottle(SendThrottle sendThrottle) {
+        this.sendThrottle = sendThrottle;
+    }
+
+    /**
+     * Sets the policy for retrying transient failures.
+     * @param retryPolicy retry policy, null to not retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sends the given message using a pooled transport of the given mail session.
+     * If the server closed the connection (e.g. with a 421 reply), the transport
+     * is reconnected and sending is tried once more.
+     * @param mailSession mail session
+     * @param message     message to send
+     * @throws MessagingException if sending failed
+     */
+    public void send(MailSession mailSession, Message message) throws MessagingException {
+        this.send(mailSession, message, null);
+    }
+
+    /**
+     * Sends the given message using a pooled transport of the given mail session and reports
+     * the time for getting a transport and for transferring the message to the given listener.
+     * If the server closed the connection (e.g. with a 421 reply), the transport
+     * is reconnected and sending is tried once more. If a send throttle is set, sending waits
+     * for it, and if a retry policy is set, transient failures are retried after a delay.
+     * For a {@link RelayMailSession}, a relay is selected and the transports of that relay are used.
+     * @param mailSession     mail session
+     * @param message         message to send
+     * @param metricsListener metrics listener, may be null
+     * @throws MessagingException if sending failed
+     */
+    public void send(MailSession mailSession, Message message, MailMetricsListener metricsListener)
+            throws MessagingException {
+        if (mailSession instanceof RelayMailSession) {
+            ((RelayMailSession) mailSession).send(message, this, metricsListener);
+            return;
+        }
+        this.send(mailSession, message, metricsListener, null);
+    }
+
+    /**
+     * Sends the given message like send(MailSession, Message, MailMetricsListener) and tells if a
+     * transport of the mail session could be connected, so failures of the server can be told apart
+     * from failures of the message.
+     * @param mailSession     mail session, not a RelayMailSession
+     * @param message         message to send
+     * @param metricsListener metrics listener, may be null
+     * @param connected       set to true once a connected transport has been borrowed, may be null
+     * @throws MessagingException if sending failed
+     */
+    protected void send(MailSession mailSession, Message message, MailMetricsListener metricsListener,
+            AtomicBoolean connected) throws MessagingException {
+        message.saveChanges();
+        RetryPolicy retry = this.retryPolicy;
+        for (int attempt = 1; true; attempt++) {
+            this.throttle(mailSession, metricsListener);
+            try {
+                this.sendOnce(mailSession, message, metricsListener, connected);
+                return;
+            } catch (MessagingException ex) {
+                if ((retry == null) || (retry.shouldRetry(ex, attempt) == false)) {
+                    throw ex;
+                }
+                try {
+                    long waitNanos = retry.backoff(attempt);
+                    if (metricsListener != null) {
+                        metricsListener.phaseCompleted(MailPhase.BACKOFF, waitNanos, -1L);
+                    }
+                } catch (InterruptedException intEx) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the send throttle, if set.
+     * @param mailSession     mail session
+     * @param metricsListener metrics listener, may be null
+     * @throws MessagingException if interrupted while waiting
+     */
+    protected void throttle(MailSession mailSession, MailMetricsListener metricsListener) throws MessagingException {
+        SendThrottle throttle = this.sendThrottle;
+        if (throttle == null) {
+            return;
+        }
+        try {
+            long waitNanos = throttle.acquire(this.getSessionPool(mailSession).session);
+            if (metricsListener != null) {
+                metricsListener.phaseCompleted(MailPhase.THROTTLE, waitNanos, -1L);
+            }
+        } catch (InterruptedException intEx) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("interrupted while waiting for send throttle", intEx);
+        }
+    }
+
+    /**
+     * Sends the given message once, reconnecting once if the connection was lost.
+     * @param mailSession     mail session
+     * @param message         message to send, changes must be saved
+     * @param metricsListener metrics listener, may be null
+     * @param connected       set to true once a connected transport has been borrowed, may be null
+     * @throws MessagingException if sending failed
+     */
+    protected void sendOnce(MailSession mailSession, Message message, MailMetricsListener metricsListener,
+            AtomicBoolean connected) throws MessagingException {
+        long phaseStart = (metricsListener != null) ? System.nanoTime() : 0L;
+        Transport transport = this.borrowTransport(mailSession);
+        if (connected != null) {
+            connected.set(true);
+        }
+        if (metricsListener != null) {
+            long now = System.nanoTime();
+            metricsListener.phaseCompleted(MailPhase.CONNECT, now - phaseStart, -1L);
+            phaseStart = now;
+        }
+        boolean reusable = false;
+        boolean sent = false;
+        try {
+            try {
+                transport.sendMessage(message, message.getAllRecipients());
+            } catch (MessagingException | IllegalStateException ex) {
+                if (this.isReconnectRequired(ex) == false) {
+                    // connection is still fine, error is about this message
+                    reusable = transport.isConnected();
+                    throw ex;
+                }
+                closeQuietly(transport);
+                transport.connect();
+                transport.sendMessage(message, message.getAllRecipients());
+            }
+            reusable = true;
+            sent = true;
+        } finally {
+            if (metricsListener != null) {
+                // the size is only known for messages built by MailBuilder
+                metricsListener.phaseCompleted(MailPhase.DATA, System.nanoTime() - phaseStart,
+                        sent ? CountingSMTPMessage.getWrittenSize(message) : -1L);
+            }
+            if (reusable) {
+                this.returnTransport(mailSession, transport);
+            } else {
+                this.invalidateTransport(mailSession, transport);
+            }
+        }
+    }
+
+    /**
+     * Borrows a connected transport for the given mail session. The transport
+     * must be given back using returnTransport() or invalidateTransport().
+     * @param mailSession mail session
+     * @return connected transport
+     * @throws MessagingException if no transport could be connected
+     */
+    public Transport borrowTransport(MailSession mailSession) throws MessagingException {
+        if (mailSession == null) {
+            throw new MessagingException("no mail session given");
+        }
+        SessionPool sessionPool = this.getSessionPool(mailSession);
+        PooledTransport pooled = sessionPool.acquire();
+        if (pooled != null) {
+            return pooled.transport;
+        }
+        // new slot reserved, connect outside of lock
+        Transport transport = null;
+        try {
+            transport = sessionPool.session.getTransport("smtp");
+            transport.connect();
+            return transport;
+        } catch (MessagingException | RuntimeException ex) {
+            if (transport != null) {
+                closeQuietly(transport);
+            }
+            sessionPool.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the maximum message size the SMTP server of the given mail session advertised with
+     * the SIZE extension. The extensions of a server are read once from a pooled transport and then remembered.
+     * For a RelayMailSession, the smallest limit of its relays is returned.
+     * @param mailSession mail session
+     * @return maximum size in bytes, -1 if the server has no or an unknown limit
+     * @throws MessagingException if no transport could be connected
+     */
+    public long getMaxMessageSize(MailSession mailSession) throws MessagingException {
+        if (mailSession instanceof RelayMailSession) {
+            long minSize = -1L;
+            for (RelayMailSession.Relay oneRelay : ((RelayMailSession) mailSession).getRelays()) {
+                long maxSize = this.getMaxMessageSize(oneRelay.getMailSession());
+                if ((maxSize >= 0L) && ((minSize < 0L) || (maxSize < minSize))) {
+                    minSize = maxSize;
+                }
+            }
+            return minSize;
+        }
+        return this.readExtensions(mailSession).maxMessageSize;
+    }
+
+    /**
+     * Checks if the SMTP server of the given mail session advertised the 8BITMIME extension, so it accepts
+     * 8bit message content. For a RelayMailSession, all relays must advertise it.
+     * @param mailSession mail session
+     * @return true if 8bit content is accepted
+     * @throws MessagingException if no transport could be connected
+     */
+    public boolean supports8BitMime(MailSession mailSession) throws MessagingException {
+        if (mailSession instanceof RelayMailSession) {
+            List<RelayMailSession.Relay> relays = ((RelayMailSession) mailSession).getRelays();
+            for (RelayMailSession.Relay oneRelay : relays) {
+                if (this.supports8BitMime(oneRelay.getMailSession()) == false) {
+                    return false;
+                }
+            }
+            return (relays.isEmpty() == false);
+        }
+        return this.readExtensions(mailSession).eightBitMime;
+    }
+
+    /**
+     * Returns the session pool for the given mail session, with the SMTP extensions of its server read.
+     * @param mailSession mail session
+     * @return session pool
+     * @throws MessagingException if no transport could be connected
+     */
+    protected SessionPool readExtensions(MailSession mailSession) throws MessagingException {
+        SessionPool sessionPool = this.getSessionPool(mailSession);
+        if (sessionPool.extensionsRead) {
+            return sessionPool;
+        }
+        Transport transport = this.borrowTransport(mailSession);
+        try {
+            sessionPool.maxMessageSize = SmtpUtils.getMaxMessageSize(transport);
+            sessionPool.eightBitMime = SmtpUtils.supports8BitMime(transport);
+            sessionPool.extensionsRead = true;
+        } finally {
+            this.returnTransport(mailSession, transport);
+        }
+        return sessionPool;
+    }
+
+    /**
+     * Gives a borrowed transport back to the pool for later reuse.
+     * @param mailSession mail session the transport was borrowed for
+     * @param transport   transport
+     */
+    public void returnTransport(MailSession mailSession, Transport transport) {
+        if ((mailSession == null) || (transport == null)) {
+            return;
+        }
+        SessionPool sessionPool = this.getExistingSessionPool(mailSession);
+        if ((sessionPool == null) || (sessionPool.offer(transport) == false)) {
+            closeQuietly(transport);
+        }
+    }
+
+    /**
+     * Closes a borrowed transport and frees its slot in the pool.
+     * @param mailSession mail session the transport was borrowed for
+     * @param transport   transport
+     */
+    public void invalidateTransport(MailSession mailSession, Transport transport) {
+        if (transport != null) {
+            closeQuietly(transport);
+        }
+        if (mailSession == null) {
+            return;
+        }
+        SessionPool sessionPool = this.getExistingSessionPool(mailSession);
+        if (sessionPool != null) {
+            sessionPool.release();
+        }
+    }
+
+    /**
+     * Closes all idle transports that have not been used for longer than the idle timeout.
+     * This is also done implicitly whenever a transport is borrowed.
+     */
+    public void evictIdle() {
+        List<SessionPool> tmpPools;
+        synchronized (this.pools) {
+            tmpPools = new ArrayList<>(this.pools.values());
+        }
+        for (SessionPool onePool : tmpPools) {
+            onePool.evictIdle();
+        }
+    }
+
+    /**
+     * Closes all idle transports and prevents further borrowing. Borrowed transports
+     * are closed when they are given back.
+     */
+    public void close() {
+        List<SessionPool> tmpPools;
+        synchronized (this.pools) {
+            this.closed = true;
+            tmpPools = new ArrayList<>(this.pools.values());
+            this.pools.clear();
+        }
+        for (SessionPool onePool : tmpPools) {
+            onePool.close();
+        }
+    }
+
+    /**
+     * Returns the number of transports (idle and borrowed) for the given mail session.
+     * @param mailSession mail session
+     * @return number of transports
+     */
+    public int getTransportCount(MailSession mailSession) {
+        SessionPool sessionPool = this.getExistingSessionPool(mailSession);
+        return (sessionPool != null) ? sessionPool.getCount() : 0;
+    }
+
+    /**
+     * Returns the pool for the given mail session, creating it if needed. The session is created
+     * outside of the lock, so borrowing for other mail sessions does not wait for it.
+     * @param mailSession mail session
+     * @return session pool
+     * @throws MessagingException if pool is closed or session could not be created
+     */
+    protected SessionPool getSessionPool(MailSession mailSession) throws MessagingException {
+        synchronized (this.pools) {
+            if (this.closed) {
+                throw new MessagingException("transport pool is closed");
+            }
+            SessionPool sessionPool = this.pools.get(mailSession);
+            if (sessionPool != null) {
+                return sessionPool;
+            }
+        }
+        Session session = mailSession.createNewSession();
+        if (session == null) {
+            throw new MessagingException("mail session could not be created");
+        }
+        synchronized (this.pools) {
+            if (this.closed) {
+                throw new MessagingException("transport pool is closed");
+            }
+            // another thread may have created the pool meanwhile, its session is kept
+            SessionPool sessionPool = this.pools.get(mailSession);
+            if (sessionPool == null) {
+                sessionPool = new SessionPool(session);
+                this.pools.put(mailSession, sessionPool);
+            }
+            return sessionPool;
+        }
+    }
+
+    /**
+     * Returns the pool for the given mail session if present.
+     * @param mailSession mail session
+     * @return session pool or null
+     */
+    protected SessionPool getExistingSessionPool(MailSession mailSession) {
+        synchronized (this.pools) {
+            return this.pools.get(mailSession);
+        }
+    }
+
+    /**
+     * Checks if the given exception indicates that the connection is gone and needs to be re-established.
+     * @param ex exception to check
+     * @return true if reconnect is required
+     */
+    protected boolean isReconnectRequired(Exception ex) {
+        return SmtpUtils.isConnectionLost(ex);
+    }
+
+    /**
+     * Closes the given transport, ignoring errors.
+     * @param transport transport to close
+     */
+    public static void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (Exception ex) {
+        }
+    }
+
+    /**
+     * Idle transport with time of last use.
+     */
+    protected static class PooledTransport {
+
+        /**
+         * Transport.
+         */
+        protected final Transport transport;
+        /**
+         * Time of last use.
+         */
+        protected final long lastUsed;
+
+        /**
+         * Creates a new pooled transport entry.
+         * @param transport transport
+         * @param lastUsed  time of last use
+         */
+        protected PooledTransport(Transport transport, long lastUsed) {
+            this.transport = transport;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Transports of one mail session.
+     */
+    protected class SessionPool {
+
+        /**
+         * JavaMail session used for all transports of this pool.
+         */
+        protected final Session session;
+        /**
+         * Idle transports, most recently used first.
+         */
+        protected final LinkedList<PooledTransport> idle = new LinkedList<>();
+        /**
+         * Number of transports, idle and borrowed.
+         */
+        protected int count = 0;
+        /**
+         * Flag if pool has been closed.
+         */
+        protected boolean poolClosed = false;
+        /**
+         * Maximum message size advertised by the server, -1 for no limit.
+         */
+        protected volatile long maxMessageSize = -1L;
+        /**
+         * Flag if the server advertised 8BITMIME.
+         */
+        protected volatile boolean eightBitMime = false;
+        /**
+         * Flag if the SMTP extensions of the server have been read.
+         */
+        protected volatile boolean extensionsRead = false;
+
+        /**
+         * Creates a new session pool.
+         * @param session JavaMail session
+         */
+        protected SessionPool(Session session) {
+            this.session = session;
+        }
+
+        /**
+         * Takes a healthy idle transport or reserves a slot for a new one, waiting if needed.
+         * @return idle transport or null if a slot for a new transport has been reserved
+         * @throws MessagingException if no transport became available in time
+         */
+        protected PooledTransport acquire() throws MessagingException {
+            long deadline = System.currentTimeMillis() + maxWaitMillis;
+            while (true) {
+                this.evictIdle();
+                PooledTransport candidate = null;
+                synchronized (this) {
+                    if (this.poolClosed) {
+                        throw new MessagingException("transport pool is closed");
+                    }
+                    if (this.idle.isEmpty() == false) {
+                        candidate = this.idle.removeFirst();
+                    } else if (this.count < maxPerSession) {
+                        this.count++;
+                        return null;
+                    } else {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new MessagingException("no transport available within " + maxWaitMillis + " ms");
+                        }
+                        try {
+                            this.wait(remaining);
+                        } catch (InterruptedException intEx) {
+                            Thread.currentThread().interrupt();
+                            throw new MessagingException("interrupted while waiting for transport", intEx);
+                        }
+                        continue;
+                    }
+                }
+                // health check outside of lock, SMTPTransport.isConnected() sends NOOP
+                if ((System.currentTimeMillis() - candidate.lastUsed < validateAfterMillis)
+                        || candidate.transport.isConnected()) {
+                    return candidate;
+                }
+                closeQuietly(candidate.transport);
+                this.release();
+            }
+        }
+
+        /**
+         * Puts a transport back to the idle list.
+         * @param transport transport
+         * @return true if added, false if pool is closed
+         */
+        protected synchronized boolean offer(Transport transport) {
+            if (this.poolClosed) {
+                this.count--;
+                return false;
+            }
+            this.idle.addFirst(new PooledTransport(transport, System.currentTimeMillis()));
+            this.notifyAll();
+            return true;
+        }
+
+        /**
+         * Frees a slot after its transport has been closed.
+         */
+        protected synchronized void release() {
+            if (this.count > 0) {
+                this.count--;
+            }
+            this.notifyAll();
+        }
+
+        /**
+         * Returns the number of transports.
+         * @return number of transports
+         */
+        protected synchronized int getCount() {
+            return this.count;
+        }
+
+        /**
+         * Closes idle transports that exceeded the idle timeout. The transports are closed after
+         * releasing the lock, as closing sends QUIT and waits for the reply.
+         */
+        protected void evictIdle() {
+            List<PooledTransport> expired = new ArrayList<>();
+            synchronized (this) {
+                long oldest = System.currentTimeMillis() - idleTimeoutMillis;
+                for (Iterator<PooledTransport> it = this.idle.iterator(); it.hasNext(); ) {
+                    PooledTransport onePooled = it.next();
+                    if (onePooled.lastUsed < oldest) {
+                        it.remove();
+                        expired.add(onePooled);
+                    }
+                }
+                if (expired.isEmpty()) {
+                    return;
+                }
+                this.count -= expired.size();
+                this.notifyAll();
+            }
+            for (PooledTransport onePooled : expired) {
+                closeQuietly(onePooled.transport);
+            }
+        }
+
+        /**
+         * Closes all idle transports, after releasing the lock.
+         */
+        protected void close() {
+            List<PooledTransport> tmpIdle;
+            synchronized (this) {
+                this.poolClosed = true;
+                tmpIdle = new ArrayList<>(this.idle);
+                this.count -= this.idle.size();
+                this.idle.clear();
+                this.notifyAll();
+            }
+            for (PooledTransport onePooled : tmpIdle) {
+                closeQuietly(onePooled.transport);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,707 @@
+package com.github.nilscoding.mailbuilder.spool;
+
+import com.github.nilscoding.mailbuilder.MailBuilder;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent spool for outgoing messages. Messages are stored in RFC 822 format in an append-only
+ * journal, split into segment files in the spool directory. Delivered or failed messages are marked
+ * by appending a marker record; segments without pending messages are deleted.
+ * Enqueuing returns after the message has been forced to disk. Concurrently enqueued messages
+ * share one fsync (group commit), so throughput grows with the number of enqueuing threads.
+ * A crash before a message has been marked done leads to the message being delivered again
+ * after reopening the spool (at-least-once delivery). A record torn by a write error is removed
+ * again, so messages stored afterwards are not lost on recovery.
+ * Use a {@link SpoolSender} to deliver the spooled messages. This class is thread-safe.
+ * @author nilscoding
+ */
+public class MailSpool implements Closeable {
+
+    /**
+     * Default maximum size of a segment file in bytes.
+     */
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024L * 1024L;
+    /**
+     * Record type: message data.
+     */
+    protected static final byte TYPE_MESSAGE = 1;
+    /**
+     * Record type: message has been delivered.
+     */
+    protected static final byte TYPE_DONE = 2;
+    /**
+     * Record type: message could not be delivered.
+     */
+    protected static final byte TYPE_FAILED = 3;
+    /**
+     * Size of record header: data length, id and type.
+     */
+    protected static final int HEADER_SIZE = 4 + 8 + 1;
+    /**
+     * Size of record trailer: checksum.
+     */
+    protected static final int TRAILER_SIZE = 4;
+    /**
+     * Prefix of segment file names.
+     */
+    protected static final String SEGMENT_PREFIX = "spool-";
+    /**
+     * Suffix of segment file names.
+     */
+    protected static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Spool directory.
+     */
+    protected final Path directory;
+    /**
+     * Maximum size of a segment file.
+     */
+    protected final long maxSegmentBytes;
+    /**
+     * Lock for journal, index and queue.
+     */
+    protected final Object lock = new Object();
+    /**
+     * Lock for forcing the journal to disk.
+     */
+    protected final Object syncLock = new Object();
+    /**
+     * Segments by number.
+     */
+    protected final TreeMap<Long, Segment> segments = new TreeMap<>();
+    /**
+     * Pending entries by id, including entries currently being delivered.
+     */
+    protected final Map<Long, SpoolEntry> pending = new LinkedHashMap<>();
+    /**
+     * Entries waiting for delivery, ordered by time of next attempt.
+     */
+    protected final PriorityQueue<SpoolEntry> queue = new PriorityQueue<>(16, new Comparator<SpoolEntry>() {
+        @Override
+        public int compare(SpoolEntry e1, SpoolEntry e2) {
+            if (e1.nextAttemptMillis != e2.nextAttemptMillis) {
+                return (e1.nextAttemptMillis < e2.nextAttemptMillis) ? -1 : 1;
+            }
+            return (e1.id < e2.id) ? -1 : ((e1.id == e2.id) ? 0 : 1);
+        }
+    });
+    /**
+     * Segment new records are appended to.
+     */
+    protected Segment currentSegment;
+    /**
+     * Next entry id.
+     */
+    protected long nextId = 1L;
+    /**
+     * Number of appended records.
+     */
+    protected long writtenSeq = 0L;
+    /**
+     * Number of appended records which have been forced to disk, guarded by syncLock.
+     */
+    protected long syncedSeq = 0L;
+    /**
+     * Number of messages marked as failed since the spool has been opened.
+     */
+    protected long failedCount = 0L;
+    /**
+     * Flag if enqueuing waits until the message has been forced to disk.
+     */
+    protected volatile boolean syncOnEnqueue = true;
+    /**
+     * Flag if spool has been closed.
+     */
+    protected boolean closed = false;
+    /**
+     * Write error after which a torn record could not be removed from the journal, null if none.
+     * Further records are rejected, as they could not be recovered behind the torn record.
+     */
+    protected IOException writeFailure = null;
+
+    /**
+     * Opens the spool in the given directory with the default segment size.
+     * @param directory spool directory, created if missing
+     * @throws IOException if spool could not be opened
+     */
+    public MailSpool(Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_SEGMENT_BYTES);
+    }
+
+    /**
+     * Opens the spool in the given directory. Pending messages of a previous run are recovered
+     * and are due for delivery immediately.
+     * @param directory       spool directory, created if missing
+     * @param maxSegmentBytes maximum size of a segment file in bytes
+     * @throws IOException if spool could not be opened
+     */
+    public MailSpool(Path directory, long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = Math.max(HEADER_SIZE + TRAILER_SIZE, maxSegmentBytes);
+        Files.createDirectories(directory);
+        this.recover();
+    }
+
+    /**
+     * Sets if enqueuing waits until the message has been forced to disk. Without waiting,
+     * messages enqueued shortly before a system crash may be lost.
+     * @param syncOnEnqueue true to force to disk (default), false to leave it to the operating system
+     */
+    public void setSyncOnEnqueue(boolean syncOnEnqueue) {
+        this.syncOnEnqueue = syncOnEnqueue;
+    }
+
+    /**
+     * Builds the message of the given builder and stores it in the spool.
+     * @param mailBuilder mail builder
+     * @return entry id
+     * @throws MessagingException if message could not be built
+     * @throws IOException        if message could not be stored
+     */
+    public long enqueue(MailBuilder mailBuilder) throws MessagingException, IOException {
+        Message message = mailBuilder.buildMessage();
+        if (message == null) {
+            throw new MessagingException("message could not be built", mailBuilder.getLastException());
+        }
+        return this.enqueue(message);
+    }
+
+    /**
+     * Stores the given message in the spool.
+     * @param message message
+     * @return entry id
+     * @throws MessagingException if message could not be written
+     * @throws IOException        if message could not be stored
+     */
+    public long enqueue(Message message) throws MessagingException, IOException {
+        message.saveChanges();
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        message.writeTo(bytesOut);
+        byte[] data = bytesOut.toByteArray();
+        long id;
+        long seq;
+        synchronized (this.lock) {
+            this.ensureOpen();
+            id = this.nextId++;
+            long offset = this.append(TYPE_MESSAGE, id, data);
+            SpoolEntry entry = new SpoolEntry(id, this.currentSegment.number, offset + HEADER_SIZE, data.length);
+            entry.nextAttemptMillis = System.currentTimeMillis();
+            this.currentSegment.liveCount++;
+            this.pending.put(id, entry);
+            this.queue.add(entry);
+            seq = this.writtenSeq;
+            this.lock.notifyAll();
+        }
+        if (this.syncOnEnqueue) {
+            this.sync(seq);
+        }
+        return id;
+    }
+
+    /**
+     * Takes the next entry which is due for delivery, waiting at most the given time.
+     * The entry must be passed to markDone(), markFailed() or reschedule() afterwards.
+     * @param maxWaitMillis maximum time to wait
+     * @return entry or null if no entry became due or the spool has been closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public SpoolEntry takeDue(long maxWaitMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + Math.max(0L, maxWaitMillis);
+        synchronized (this.lock) {
+            while (this.closed == false) {
+                long now = System.currentTimeMillis();
+                SpoolEntry head = this.queue.peek();
+                if ((head != null) && (head.nextAttemptMillis <= now)) {
+                    this.queue.poll();
+                    head.attempts++;
+                    return head;
+                }
+                long waitMillis = deadline - now;
+                if (head != null) {
+                    waitMillis = Math.min(waitMillis, head.nextAttemptMillis - now);
+                }
+                if (deadline <= now) {
+                    return null;
+                }
+                this.lock.wait(Math.max(1L, waitMillis));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the message of the given entry. The message keeps its stored Message-ID when it is sent.
+     * @param entry   spool entry
+     * @param session session for the message
+     * @return message
+     * @throws IOException        if message could not be read
+     * @throws MessagingException if message could not be parsed
+     */
+    public MimeMessage readMessage(SpoolEntry entry, Session session) throws IOException, MessagingException {
+        Path path = this.segmentPath(entry.segmentNumber);
+        ByteBuffer data = ByteBuffer.allocate(entry.dataLength);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (data.hasRemaining()) {
+                if (channel.read(data, entry.dataOffset + data.position()) < 0) {
+                    throw new IOException("spool segment " + path + " is truncated");
+                }
+            }
+        }
+        return new SpooledMessage(session, new ByteArrayInputStream(data.array()));
+    }
+
+    /**
+     * Marks the given entry as delivered.
+     * @param entry spool entry
+     * @throws IOException if marker could not be written
+     */
+    public void markDone(SpoolEntry entry) throws IOException {
+        this.finish(entry, TYPE_DONE);
+    }
+
+    /**
+     * Marks the given entry as not deliverable, it is not tried again.
+     * @param entry spool entry
+     * @throws IOException if marker could not be written
+     */
+    public void markFailed(SpoolEntry entry) throws IOException {
+        this.finish(entry, TYPE_FAILED);
+    }
+
+    /**
+     * Puts the given entry back into the queue for another attempt after the given delay.
+     * @param entry       spool entry
+     * @param delayMillis delay in milliseconds
+     */
+    public void reschedule(SpoolEntry entry, long delayMillis) {
+        synchronized (this.lock) {
+            if (this.pending.containsKey(entry.id) == false) {
+                return;
+            }
+            entry.nextAttemptMillis = System.currentTimeMillis() + Math.max(0L, delayMillis);
+            this.queue.add(entry);
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the number of messages which have not been delivered yet.
+     * @return number of pending messages
+     */
+    public int getPendingCount() {
+        synchronized (this.lock) {
+            return this.pending.size();
+        }
+    }
+
+    /**
+     * Returns the number of messages marked as failed since the spool has been opened.
+     * @return number of failed messages
+     */
+    public long getFailedCount() {
+        synchronized (this.lock) {
+            return this.failedCount;
+        }
+    }
+
+    /**
+     * Returns the number of segment files.
+     * @return number of segments
+     */
+    public int getSegmentCount() {
+        synchronized (this.lock) {
+            return this.segments.size();
+        }
+    }
+
+    /**
+     * Closes the spool. Threads waiting in takeDue() return null.
+     * @throws IOException if journal could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.syncLock) {
+            synchronized (this.lock) {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+                this.lock.notifyAll();
+                if (this.currentSegment != null) {
+                    this.currentSegment.channel.force(false);
+                    this.currentSegment.channel.close();
+                    this.currentSegment.channel = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a marker record for the given entry and removes it from the pending entries.
+     * @param entry spool entry
+     * @param type  marker type
+     * @throws IOException if marker could not be written
+     */
+    protected void finish(SpoolEntry entry, byte type) throws IOException {
+        synchronized (this.lock) {
+            if (this.pending.remove(entry.id) == null) {
+                return;
+            }
+            this.queue.remove(entry);
+            if (type == TYPE_FAILED) {
+                this.failedCount++;
+            }
+            if (this.closed) {
+                // entry stays pending in the journal and is delivered again after reopening
+                return;
+            }
+            this.append(type, entry.id, new byte[0]);
+            Segment segment = this.segments.get(entry.segmentNumber);
+            if (segment != null) {
+                segment.liveCount--;
+                this.deleteUnusedSegments();
+            }
+        }
+    }
+
+    /**
+     * Forces all records up to the given sequence number to disk. Threads waiting here are
+     * served by a single fsync of the thread that comes first. The fsync runs without holding
+     * the lock, so other threads can append records meanwhile.
+     * @param seq sequence number of the last record that must be on disk
+     * @throws IOException if journal could not be forced
+     */
+    protected void sync(long seq) throws IOException {
+        synchronized (this.syncLock) {
+            if (this.syncedSeq >= seq) {
+                // forced by another thread meanwhile
+                return;
+            }
+            Segment segment;
+            FileChannel channel;
+            long target;
+            synchronized (this.lock) {
+                this.ensureOpen();
+                segment = this.currentSegment;
+                channel = segment.channel;
+                target = this.writtenSeq;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException ccEx) {
+                synchronized (this.lock) {
+                    if (segment.channel == channel) {
+                        throw ccEx;
+                    }
+                }
+                // segment has been forced and closed by startNewSegment() meanwhile
+            }
+            this.syncedSeq = target;
+        }
+    }
+
+    /**
+     * Appends a record to the current segment, starting a new segment if it is full. Must be called holding the lock.
+     * @param type record type
+     * @param id   entry id
+     * @param data record data
+     * @return offset of the record in the segment
+     * @throws IOException if record could not be written
+     */
+    protected long append(byte type, long id, byte[] data) throws IOException {
+        if (this.writeFailure != null) {
+            throw new IOException("mail spool could not recover from a write error", this.writeFailure);
+        }
+        long recordSize = (long) HEADER_SIZE + data.length + TRAILER_SIZE;
+        if ((this.currentSegment.size > 0L) && (this.currentSegment.size + recordSize > this.maxSegmentBytes)) {
+            this.startNewSegment();
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(data.length).putLong(id).put(type);
+        // Buffer casts keep the Java 7 method descriptors when compiled on newer JDKs
+        ((Buffer) header).flip();
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_SIZE);
+        crc.update(data, 0, data.length);
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        trailer.putInt((int) crc.getValue());
+        ((Buffer) trailer).flip();
+        ByteBuffer[] buffers = {header, ByteBuffer.wrap(data), trailer};
+        long offset = this.currentSegment.size;
+        long remaining = recordSize;
+        try {
+            while (remaining > 0L) {
+                remaining -= this.currentSegment.channel.write(buffers);
+            }
+        } catch (IOException ioEx) {
+            this.discardTornRecord(ioEx);
+            throw ioEx;
+        }
+        this.currentSegment.size += recordSize;
+        this.writtenSeq++;
+        return offset;
+    }
+
+    /**
+     * Removes the partly written record after a write error, so later records follow the last
+     * complete one and are found again on recovery. If the segment can not be truncated, a new
+     * segment is started, as reading a segment stops at the torn record. If that fails too,
+     * no further records are accepted. Must be called holding the lock.
+     * @param cause write error
+     */
+    protected void discardTornRecord(IOException cause) {
+        Segment segment = this.currentSegment;
+        try {
+            segment.channel.truncate(segment.size);
+            segment.channel.position(segment.size);
+            return;
+        } catch (IOException truncateEx) {
+            cause.addSuppressed(truncateEx);
+        }
+        try {
+            this.startNewSegment();
+        } catch (IOException segmentEx) {
+            cause.addSuppressed(segmentEx);
+            this.writeFailure = cause;
+        }
+    }
+
+    /**
+     * Forces and closes the current segment and starts a new one. Must be called holding the lock.
+     * @throws IOException if segment could not be created
+     */
+    protected void startNewSegment() throws IOException {
+        long number = this.segments.isEmpty() ? 1L : this.segments.lastKey() + 1L;
+        // the new segment is created first, so the current one stays usable if that fails
+        Path path = this.segmentPath(number);
+        FileChannel channel = this.openSegment(path);
+        Segment previous = this.currentSegment;
+        if (previous != null) {
+            try {
+                previous.channel.force(false);
+            } catch (IOException ioEx) {
+                channel.close();
+                Files.deleteIfExists(path);
+                throw ioEx;
+            }
+            previous.channel.close();
+            previous.channel = null;
+        }
+        Segment segment = new Segment(number);
+        segment.channel = channel;
+        this.segments.put(number, segment);
+        this.currentSegment = segment;
+        this.deleteUnusedSegments();
+    }
+
+    /**
+     * Creates a new segment file and opens it for appending.
+     * @param path path of the segment file
+     * @return channel for appending
+     * @throws IOException if file could not be created
+     */
+    protected FileChannel openSegment(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Deletes the oldest segments as long as they hold no pending messages. Segments are only
+     * deleted from the beginning of the journal, because the marker records of a segment refer
+     * to messages in older segments. Must be called holding the lock.
+     * @throws IOException if segment file could not be deleted
+     */
+    protected void deleteUnusedSegments() throws IOException {
+        while (this.segments.isEmpty() == false) {
+            Segment oldest = this.segments.firstEntry().getValue();
+            if ((oldest == this.currentSegment) || (oldest.liveCount > 0)) {
+                return;
+            }
+            this.segments.remove(oldest.number);
+            Files.deleteIfExists(this.segmentPath(oldest.number));
+        }
+    }
+
+    /**
+     * Reads all segments, rebuilds the pending entries and starts a new segment.
+     * @throws IOException if segments could not be read
+     */
+    protected void recover() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path onePath : stream) {
+                String fileName = onePath.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                            fileName.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException nfEx) {
+                }
+            }
+        }
+        Collections.sort(numbers);
+        Map<Long, SpoolEntry> recovered = new LinkedHashMap<>();
+        Map<Long, Segment> recoveredSegments = new HashMap<>();
+        for (Long oneNumber : numbers) {
+            Segment segment = new Segment(oneNumber);
+            this.segments.put(oneNumber, segment);
+            recoveredSegments.put(oneNumber, segment);
+            this.readSegment(segment, recovered);
+        }
+        long now = System.currentTimeMillis();
+        for (SpoolEntry oneEntry : recovered.values()) {
+            oneEntry.nextAttemptMillis = now;
+            this.pending.put(oneEntry.id, oneEntry);
+            this.queue.add(oneEntry);
+            recoveredSegments.get(oneEntry.segmentNumber).liveCount++;
+        }
+        this.startNewSegment();
+    }
+
+    /**
+     * Reads the records of the given segment. Reading stops at the first incomplete or corrupt
+     * record, which is the result of a crash while writing.
+     * @param segment   segment
+     * @param recovered pending entries by id, updated with the records of the segment
+     * @throws IOException if segment could not be read
+     */
+    protected void readSegment(Segment segment, Map<Long, SpoolEntry> recovered) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.segmentPath(segment.number), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long position = 0L;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            while (position + HEADER_SIZE + TRAILER_SIZE <= fileSize) {
+                ((Buffer) header).clear();
+                if (readFully(channel, header, position) == false) {
+                    break;
+                }
+                ((Buffer) header).flip();
+                int length = header.getInt();
+                long id = header.getLong();
+                byte type = header.get();
+                if ((length < 0) || (position + HEADER_SIZE + length + TRAILER_SIZE > fileSize)) {
+                    break;
+                }
+                ByteBuffer data = ByteBuffer.allocate(length);
+                ((Buffer) trailer).clear();
+                if ((readFully(channel, data, position + HEADER_SIZE) == false)
+                        || (readFully(channel, trailer, position + HEADER_SIZE + length) == false)) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(header.array(), 0, HEADER_SIZE);
+                crc.update(data.array(), 0, length);
+                ((Buffer) trailer).flip();
+                if (trailer.getInt() != (int) crc.getValue()) {
+                    break;
+                }
+                if (type == TYPE_MESSAGE) {
+                    recovered.put(id, new SpoolEntry(id, segment.number, position + HEADER_SIZE, length));
+                } else {
+                    recovered.remove(id);
+                }
+                this.nextId = Math.max(this.nextId, id + 1L);
+                position += HEADER_SIZE + length + TRAILER_SIZE;
+            }
+            segment.size = position;
+        }
+    }
+
+    /**
+     * Reads until the buffer is full.
+     * @param channel  channel
+     * @param buffer   target buffer
+     * @param position file position
+     * @return true if buffer has been filled, false on end of file
+     * @throws IOException if reading failed
+     */
+    protected static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            int len = channel.read(buffer, current);
+            if (len < 0) {
+                return false;
+            }
+            current += len;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the path of the segment with the given number.
+     * @param number segment number
+     * @return path
+     */
+    protected Path segmentPath(long number) {
+        return this.directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Checks that the spool is open. Must be called holding the lock.
+     * @throws IOException if spool has been closed
+     */
+    protected void ensureOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("mail spool has been closed");
+        }
+    }
+
+    /**
+     * Segment file of the journal.
+     */
+    protected static class Segment {
+
+        /**
+         * Segment number.
+         */
+        protected final long number;
+        /**
+         * Size of valid records.
+         */
+        protected long size = 0L;
+        /**
+         * Number of pending messages in this segment.
+         */
+        protected int liveCount = 0;
+        /**
+         * Channel for appending, only open for the current segment.
+         */
+        protected FileChannel channel;
+
+        /**
+         * Creates a new segment.
+         * @param number segment number
+         */
+        protected Segment(long number) {
+            this.number = number;
+        }
+    }
+
+}
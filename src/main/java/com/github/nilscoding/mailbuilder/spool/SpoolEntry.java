@@ -0,0 +1,89 @@
+package com.github.nilscoding.mailbuilder.spool;
+
+/**
+ * Message stored in a {@link MailSpool}, with its position in the journal and its delivery state.
+ * @author nilscoding
+ */
+public class SpoolEntry {
+
+    /**
+     * Entry id.
+     */
+    protected final long id;
+    /**
+     * Number of the segment holding the message.
+     */
+    protected final long segmentNumber;
+    /**
+     * Position of the message data in the segment.
+     */
+    protected final long dataOffset;
+    /**
+     * Length of the message data.
+     */
+    protected final int dataLength;
+    /**
+     * Number of delivery attempts since the spool has been opened.
+     */
+    protected int attempts = 0;
+    /**
+     * Time of next delivery attempt (System.currentTimeMillis()).
+     */
+    protected long nextAttemptMillis = 0L;
+
+    /**
+     * Creates a new entry.
+     * @param id            entry id
+     * @param segmentNumber number of the segment holding the message
+     * @param dataOffset    position of the message data in the segment
+     * @param dataLength    length of the message data
+     */
+    protected SpoolEntry(long id, long segmentNumber, long dataOffset, int dataLength) {
+        this.id = id;
+        this.segmentNumber = segmentNumber;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Returns the entry id.
+     * @return id
+     */
+    public long getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the size of the stored message.
+     * @return size in bytes
+     */
+    public int getDataLength() {
+        return this.dataLength;
+    }
+
+    /**
+     * Returns the number of delivery attempts since the spool has been opened.
+     * @return number of attempts
+     */
+    public int getAttempts() {
+        return this.attempts;
+    }
+
+    /**
+     * Returns the time of the next delivery attempt.
+     * @return time in milliseconds
+     */
+    public long getNextAttemptMillis() {
+        return this.nextAttemptMillis;
+    }
+
+    /**
+     * Returns id and attempts.
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        return "SpoolEntry{id=" + this.id + ", attempts=" + this.attempts + "}";
+    }
+
+}
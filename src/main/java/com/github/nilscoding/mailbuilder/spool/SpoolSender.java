@@ -0,0 +1,286 @@
+package com.github.nilscoding.mailbuilder.spool;
+
+import com.github.nilscoding.mailbuilder.MailSession;
+import com.github.nilscoding.mailbuilder.sessionimpl.TransportPool;
+import com.github.nilscoding.mailbuilder.utils.SmtpUtils;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background sender delivering the messages of a {@link MailSpool}. Failed messages are retried with
+ * exponentially growing delays; messages rejected permanently by the server (5xx reply) or failing
+ * too often are marked as failed.
+ * @author nilscoding
+ */
+public class SpoolSender {
+
+    /**
+     * Default maximum number of delivery attempts.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    /**
+     * Default delay before the second attempt in milliseconds.
+     */
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000L;
+    /**
+     * Default maximum delay between attempts in milliseconds.
+     */
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 15L * 60L * 1000L;
+    /**
+     * Time in milliseconds a worker waits for due messages before checking for shutdown.
+     */
+    protected static final long POLL_MILLIS = 500L;
+    /**
+     * Counter for naming sender threads.
+     */
+    protected static final AtomicInteger SENDER_COUNTER = new AtomicInteger();
+
+    /**
+     * Spool to deliver.
+     */
+    protected final MailSpool spool;
+    /**
+     * Mail session to send with.
+     */
+    protected final MailSession mailSession;
+    /**
+     * Transport pool, may be null.
+     */
+    protected final TransportPool transportPool;
+    /**
+     * Worker threads.
+     */
+    protected final List<Thread> workers = new ArrayList<>();
+    /**
+     * Maximum number of delivery attempts.
+     */
+    protected volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    /**
+     * Delay before the second attempt.
+     */
+    protected volatile long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    /**
+     * Maximum delay between attempts.
+     */
+    protected volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    /**
+     * Flag if sender has been stopped.
+     */
+    protected volatile boolean stopped = false;
+    /**
+     * Session for parsing spooled messages, created on first use.
+     */
+    protected volatile Session session;
+    /**
+     * Number of delivered messages.
+     */
+    protected final AtomicLong sentCount = new AtomicLong();
+    /**
+     * Number of failed attempts.
+     */
+    protected final AtomicLong failedAttemptCount = new AtomicLong();
+
+    /**
+     * Creates a new sender, sending each message on a new connection.
+     * @param spool       spool to deliver
+     * @param mailSession mail session to send with
+     */
+    public SpoolSender(MailSpool spool, MailSession mailSession) {
+        this(spool, mailSession, null);
+    }
+
+    /**
+     * Creates a new sender.
+     * @param spool         spool to deliver
+     * @param mailSession   mail session to send with
+     * @param transportPool transport pool to send with, may be null
+     */
+    public SpoolSender(MailSpool spool, MailSession mailSession, TransportPool transportPool) {
+        this.spool = spool;
+        this.mailSession = mailSession;
+        this.transportPool = transportPool;
+    }
+
+    /**
+     * Sets the maximum number of delivery attempts per message.
+     * @param maxAttempts maximum number of attempts
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * Sets the delays between attempts. The delay doubles with every attempt up to the maximum.
+     * @param initialBackoffMillis delay before the second attempt in milliseconds
+     * @param maxBackoffMillis     maximum delay in milliseconds
+     */
+    public void setBackoff(long initialBackoffMillis, long maxBackoffMillis) {
+        this.initialBackoffMillis = Math.max(0L, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+    }
+
+    /**
+     * Starts the given number of daemon worker threads.
+     * @param workerCount number of worker threads
+     */
+    public synchronized void start(int workerCount) {
+        if (this.stopped) {
+            throw new IllegalStateException("spool sender has been stopped");
+        }
+        int senderNumber = SENDER_COUNTER.incrementAndGet();
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            }, "mailbuilder-spool-sender-" + senderNumber + "-" + (this.workers.size() + 1));
+            worker.setDaemon(true);
+            this.workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops the workers after their current message. Undelivered messages stay in the spool.
+     */
+    public void shutdown() {
+        this.stopped = true;
+    }
+
+    /**
+     * Waits until all workers have stopped after shutdown.
+     * @param timeout maximum time to wait
+     * @param unit    time unit
+     * @return true if all workers have stopped, false if timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<Thread> currentWorkers;
+        synchronized (this) {
+            currentWorkers = new ArrayList<>(this.workers);
+        }
+        for (Thread oneWorker : currentWorkers) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0L) {
+                return false;
+            }
+            oneWorker.join(remainingMillis);
+            if (oneWorker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of delivered messages.
+     * @return number of messages
+     */
+    public long getSentCount() {
+        return this.sentCount.get();
+    }
+
+    /**
+     * Returns the number of failed delivery attempts.
+     * @return number of attempts
+     */
+    public long getFailedAttemptCount() {
+        return this.failedAttemptCount.get();
+    }
+
+    /**
+     * Delivers due messages until the sender is stopped.
+     */
+    protected void runWorker() {
+        while (this.stopped == false) {
+            SpoolEntry entry;
+            try {
+                entry = this.spool.takeDue(POLL_MILLIS);
+            } catch (InterruptedException intEx) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (entry != null) {
+                this.deliver(entry);
+            }
+        }
+    }
+
+    /**
+     * Delivers one message and marks it as done, failed or to be retried.
+     * @param entry spool entry
+     */
+    protected void deliver(SpoolEntry entry) {
+        Exception failure;
+        try {
+            Message message = this.spool.readMessage(entry, this.getSession());
+            this.send(message);
+            this.spool.markDone(entry);
+            this.sentCount.incrementAndGet();
+            return;
+        } catch (IOException | MessagingException | RuntimeException ex) {
+            failure = ex;
+        }
+        this.failedAttemptCount.incrementAndGet();
+        try {
+            if ((entry.getAttempts() >= this.maxAttempts) || SmtpUtils.isPermanentFailure(failure)) {
+                this.spool.markFailed(entry);
+            } else {
+                this.spool.reschedule(entry, this.getBackoffMillis(entry.getAttempts()));
+            }
+        } catch (IOException ioEx) {
+            // marker could not be written, message is tried again after reopening the spool
+        }
+    }
+
+    /**
+     * Sends the given message.
+     * @param message message to send
+     * @throws MessagingException if sending failed
+     */
+    protected void send(Message message) throws MessagingException {
+        if (this.transportPool != null) {
+            this.transportPool.send(this.mailSession, message);
+        } else {
+            Transport.send(message);
+        }
+    }
+
+    /**
+     * Returns the delay before the next attempt.
+     * @param attempts number of attempts made so far
+     * @return delay in milliseconds
+     */
+    protected long getBackoffMillis(int attempts) {
+        long delay = this.initialBackoffMillis;
+        for (int i = 1; (i < attempts) && (delay < this.maxBackoffMillis); i++) {
+            delay *= 2L;
+        }
+        return Math.min(delay, this.maxBackoffMillis);
+    }
+
+    /**
+     * Returns the session for parsing spooled messages.
+     * @return session
+     */
+    protected Session getSession() {
+        Session current = this.session;
+        if (current == null) {
+            current = this.mailSession.createNewSession();
+            this.session = current;
+        }
+        return current;
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.github.nilscoding.mailbuilder.spool;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.InputStream;
+
+/**
+ * Message read back from a {@link MailSpool}. Saving changes keeps the stored Message-ID, so every
+ * delivery attempt of a spooled message, including redelivery after a crash, carries the same
+ * Message-ID and receivers can detect duplicates.
+ * @author nilscoding
+ */
+public class SpooledMessage extends MimeMessage {
+
+    /**
+     * Creates a new message by parsing the given stream.
+     * @param session session
+     * @param is      stream with the message in RFC 822 format
+     * @throws MessagingException if message could not be parsed
+     */
+    public SpooledMessage(Session session, InputStream is) throws MessagingException {
+        super(session, is);
+    }
+
+    /**
+     * Keeps the stored Message-ID, only creates one if the message has none.
+     * @throws MessagingException if Message-ID could not be set
+     */
+    @Override
+    protected void updateMessageID() throws MessagingException {
+        if (this.getHeader("Message-ID", null) == null) {
+            super.updateMessageID();
+        }
+    }
+
+}
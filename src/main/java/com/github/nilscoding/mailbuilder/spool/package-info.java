@@ -0,0 +1,5 @@
+/**
+ * Persistent outbound spool.
+ * @author nilscoding
+ */
+package com.github.nilscoding.mailbuilder.spool;
@@ -0,0 +1,417 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parser for single e-mail addresses like {@code user@example.com}, {@code <user@example.com>},
+ * {@code Name <user@example.com>} or {@code "Name, Company" <user@example.com>}.
+ * The address must be an RFC 5322 addr-spec; like {@code new InternetAddress(String)}, a local part
+ * without domain (e.g. {@code user} for local delivery) is accepted as well. Invalid input is rejected
+ * without throwing exceptions. Only uncommon forms (comments, encoded words in the name)
+ * are handed to the JavaMail parser.
+ * Parsed addresses are kept in a bounded cache; every caller gets its own copy, which may be changed.
+ * This class is thread-safe.
+ * @author nilscoding
+ */
+public class AddressParser {
+
+    /**
+     * Default maximum number of cached addresses.
+     */
+    public static final int DEFAULT_MAX_CACHE_ENTRIES = 10000;
+    /**
+     * Maximum length of the local part.
+     */
+    protected static final int MAX_LOCAL_PART_LENGTH = 64;
+    /**
+     * Maximum length of an address.
+     */
+    protected static final int MAX_ADDRESS_LENGTH = 254;
+    /**
+     * Charset for encoding personal names.
+     */
+    protected static final String PERSONAL_CHARSET = "UTF-8";
+    /**
+     * Special chars of RFC 5322 which are not allowed in atoms, except the dot.
+     */
+    protected static final String SPECIALS = "()<>[]:;@\\,\"";
+    /**
+     * Shared default instance.
+     */
+    private static final AddressParser DEFAULT_INSTANCE = new AddressParser(DEFAULT_MAX_CACHE_ENTRIES);
+
+    /**
+     * Maximum number of cached addresses.
+     */
+    protected final int maxCacheEntries;
+    /**
+     * Parsed addresses by input, never handed out directly.
+     */
+    protected final ConcurrentMap<String, InternetAddress> cache = new ConcurrentHashMap<>();
+    /**
+     * Number of rejected inputs.
+     */
+    protected final AtomicLong rejectedCount = new AtomicLong();
+    /**
+     * Number of cache hits.
+     */
+    protected final AtomicLong hitCount = new AtomicLong();
+    /**
+     * Number of cache misses.
+     */
+    protected final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Creates a new parser.
+     * @param maxCacheEntries maximum number of cached addresses, 0 to disable caching
+     */
+    public AddressParser(int maxCacheEntries) {
+        this.maxCacheEntries = Math.max(0, maxCacheEntries);
+    }
+
+    /**
+     * Returns the shared default parser.
+     * @return default parser
+     */
+    public static AddressParser getDefault() {
+        return DEFAULT_INSTANCE;
+    }
+
+    /**
+     * Parses the given address.
+     * @param address address to parse
+     * @return parsed address (a copy owned by the caller) or null if the address is invalid
+     */
+    public InternetAddress parse(String address) {
+        if (address == null) {
+            this.rejectedCount.incrementAndGet();
+            return null;
+        }
+        InternetAddress parsed = this.cache.get(address);
+        if (parsed != null) {
+            this.hitCount.incrementAndGet();
+            return (InternetAddress) parsed.clone();
+        }
+        this.missCount.incrementAndGet();
+        parsed = this.parseUncached(address);
+        if (parsed == null) {
+            this.rejectedCount.incrementAndGet();
+            return null;
+        }
+        if (this.maxCacheEntries > 0) {
+            if (this.cache.size() >= this.maxCacheEntries) {
+                this.evictOne();
+            }
+            // the cached instance is never handed out, callers get copies
+            this.cache.putIfAbsent(address, (InternetAddress) parsed.clone());
+        }
+        return parsed;
+    }
+
+    /**
+     * Checks if the given address is valid.
+     * @param address address to check
+     * @return true if valid, false if not
+     */
+    public boolean isValid(String address) {
+        return (this.parse(address) != null);
+    }
+
+    /**
+     * Returns the number of rejected inputs.
+     * @return number of rejected inputs
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * Returns the number of cache hits.
+     * @return number of hits
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of cache misses.
+     * @return number of misses
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Returns the number of cached addresses.
+     * @return number of entries
+     */
+    public int getCacheSize() {
+        return this.cache.size();
+    }
+
+    /**
+     * Removes all cached addresses.
+     */
+    public void clearCache() {
+        this.cache.clear();
+    }
+
+    /**
+     * Removes one cached address to make room for a new one.
+     */
+    protected void evictOne() {
+        Iterator<String> keyIterator = this.cache.keySet().iterator();
+        if (keyIterator.hasNext()) {
+            keyIterator.next();
+            keyIterator.remove();
+        }
+    }
+
+    /**
+     * Parses the given address without using the cache.
+     * @param address address to parse
+     * @return parsed address or null if invalid
+     */
+    protected InternetAddress parseUncached(String address) {
+        String input = address.trim();
+        if (input.isEmpty()) {
+            return null;
+        }
+        String personal = null;
+        String addrSpec = input;
+        if (input.charAt(input.length() - 1) == '>') {
+            int start = input.lastIndexOf('<');
+            if (start < 0) {
+                return null;
+            }
+            addrSpec = input.substring(start + 1, input.length() - 1).trim();
+            String rawPersonal = input.substring(0, start).trim();
+            if (rawPersonal.isEmpty() == false) {
+                personal = unquotePersonal(rawPersonal);
+                if (personal == null) {
+                    return this.parseWithJavaMail(input);
+                }
+            }
+        } else if (input.indexOf('(') >= 0) {
+            // address with comment
+            return this.parseWithJavaMail(input);
+        }
+        if ((isValidAddrSpec(addrSpec) == false) && (isValidLocalPart(addrSpec) == false)) {
+            return null;
+        }
+        InternetAddress parsed = new InternetAddress();
+        parsed.setAddress(addrSpec);
+        if (personal != null) {
+            try {
+                parsed.setPersonal(personal, PERSONAL_CHARSET);
+            } catch (UnsupportedEncodingException encEx) {
+                return null;
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses the given address using JavaMail, for forms not handled by this parser.
+     * @param address address to parse
+     * @return parsed address or null if invalid
+     */
+    protected InternetAddress parseWithJavaMail(String address) {
+        try {
+            InternetAddress parsed = new InternetAddress(address, true);
+            String addrSpec = parsed.getAddress();
+            return (isValidAddrSpec(addrSpec) || isValidLocalPart(addrSpec)) ? parsed : null;
+        } catch (AddressException adrEx) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the personal name, removing quotes.
+     * @param rawPersonal personal name as given
+     * @return personal name or null if it uses a form not handled by this parser
+     */
+    protected static String unquotePersonal(String rawPersonal) {
+        int len = rawPersonal.length();
+        if ((len >= 2) && (rawPersonal.charAt(0) == '"') && (rawPersonal.charAt(len - 1) == '"')) {
+            StringBuilder sb = new StringBuilder(len - 2);
+            for (int i = 1; i < len - 1; i++) {
+                char c = rawPersonal.charAt(i);
+                if (c == '\\') {
+                    i++;
+                    if (i >= len - 1) {
+                        return null;
+                    }
+                    c = rawPersonal.charAt(i);
+                } else if (c == '"') {
+                    return null;
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+        if (rawPersonal.contains("=?")) {
+            // encoded words
+            return null;
+        }
+        for (int i = 0; i < len; i++) {
+            char c = rawPersonal.charAt(i);
+            if ((c != '.') && (SPECIALS.indexOf(c) >= 0)) {
+                return null;
+            }
+        }
+        return rawPersonal;
+    }
+
+    /**
+     * Checks if the given string is an addr-spec (local-part@domain).
+     * @param addrSpec string to check
+     * @return true if valid, false if not
+     */
+    public static boolean isValidAddrSpec(String addrSpec) {
+        if ((addrSpec == null) || (addrSpec.isEmpty()) || (addrSpec.length() > MAX_ADDRESS_LENGTH)) {
+            return false;
+        }
+        int at;
+        if (addrSpec.charAt(0) == '"') {
+            at = endOfQuotedString(addrSpec);
+            if ((at < 0) || (at >= addrSpec.length()) || (addrSpec.charAt(at) != '@')) {
+                return false;
+            }
+        } else {
+            at = addrSpec.indexOf('@');
+            if ((at <= 0) || (isDotAtom(addrSpec, 0, at) == false)) {
+                return false;
+            }
+        }
+        if (at > MAX_LOCAL_PART_LENGTH) {
+            return false;
+        }
+        return isValidDomain(addrSpec, at + 1, addrSpec.length());
+    }
+
+    /**
+     * Checks if the given string is a local part without domain, which JavaMail accepts as address
+     * for local delivery.
+     * @param localPart string to check
+     * @return true if valid, false if not
+     */
+    public static boolean isValidLocalPart(String localPart) {
+        if ((localPart == null) || (localPart.isEmpty()) || (localPart.length() > MAX_LOCAL_PART_LENGTH)) {
+            return false;
+        }
+        if (localPart.charAt(0) == '"') {
+            return (endOfQuotedString(localPart) == localPart.length());
+        }
+        return isDotAtom(localPart, 0, localPart.length());
+    }
+
+    /**
+     * Returns the index after the closing quote of the quoted string at the beginning of the given string.
+     * @param str string starting with a quote
+     * @return index after closing quote or -1 if not closed
+     */
+    protected static int endOfQuotedString(String str) {
+        for (int i = 1; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i + 1;
+            } else if ((c == '\r') || (c == '\n')) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if the given range is a dot-atom.
+     * @param str   string
+     * @param start start index
+     * @param end   end index (exclusive)
+     * @return true if dot-atom, false if not
+     */
+    protected static boolean isDotAtom(String str, int start, int end) {
+        if ((start >= end) || (str.charAt(start) == '.') || (str.charAt(end - 1) == '.')) {
+            return false;
+        }
+        char previous = 0;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c == '.') {
+                if (previous == '.') {
+                    return false;
+                }
+            } else if (isAtext(c) == false) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the given char is allowed in an atom. Non-ASCII chars are allowed (RFC 6531).
+     * @param c char
+     * @return true if allowed, false if not
+     */
+    protected static boolean isAtext(char c) {
+        if (c >= 0x80) {
+            return true;
+        }
+        if ((c <= ' ') || (c == 0x7F)) {
+            return false;
+        }
+        return (SPECIALS.indexOf(c) < 0);
+    }
+
+    /**
+     * Checks if the given range is a domain name or a domain literal.
+     * @param str   string
+     * @param start start index
+     * @param end   end index (exclusive)
+     * @return true if valid domain, false if not
+     */
+    protected static boolean isValidDomain(String str, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        if (str.charAt(start) == '[') {
+            if (str.charAt(end - 1) != ']') {
+                return false;
+            }
+            for (int i = start + 1; i < end - 1; i++) {
+                char c = str.charAt(i);
+                if ((c <= ' ') || (c == '[') || (c == ']') || (c == '\\') || (c == 0x7F)) {
+                    return false;
+                }
+            }
+            return (end - start > 2);
+        }
+        int labelStart = start;
+        for (int i = start; i <= end; i++) {
+            if ((i == end) || (str.charAt(i) == '.')) {
+                if ((i == labelStart) || (str.charAt(labelStart) == '-') || (str.charAt(i - 1) == '-')) {
+                    return false;
+                }
+                labelStart = i + 1;
+            } else {
+                char c = str.charAt(i);
+                boolean allowed = ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))
+                        || ((c >= '0') && (c <= '9')) || (c == '-') || (c == '_') || (c >= 0x80);
+                if (allowed == false) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,383 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Statistics of content collected in one pass over its bytes, used to choose the transfer encoding
+ * of the content and to calculate the exact size of the content in that encoding, without encoding it.
+ * The sizes are those on the wire, i.e. with line breaks normalized to CRLF, and those of a closed encoder
+ * for quoted-printable and base64.
+ * This class is not thread-safe.
+ * @author nilscoding
+ */
+public class ContentAnalysis {
+
+    /**
+     * Transfer encoding 7bit.
+     */
+    public static final String ENCODING_7BIT = "7bit";
+    /**
+     * Transfer encoding 8bit.
+     */
+    public static final String ENCODING_8BIT = "8bit";
+    /**
+     * Transfer encoding quoted-printable.
+     */
+    public static final String ENCODING_QUOTED_PRINTABLE = "quoted-printable";
+    /**
+     * Transfer encoding base64.
+     */
+    public static final String ENCODING_BASE64 = "base64";
+
+    /**
+     * Maximum line length allowed by SMTP, without CRLF.
+     */
+    public static final int MAX_LINE_LENGTH = 998;
+    /**
+     * Number of characters per base64 line, without CRLF.
+     */
+    protected static final int BASE64_LINE_LENGTH = 76;
+    /**
+     * Number of characters per quoted-printable line before a soft line break, without the '='.
+     */
+    protected static final int QP_LINE_LENGTH = 75;
+    /**
+     * Size of the read buffer.
+     */
+    protected static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Number of bytes.
+     */
+    protected long byteCount = 0L;
+    /**
+     * Number of bytes which are not printable US-ASCII, line breaks or tabs.
+     */
+    protected long nonAsciiCount = 0L;
+    /**
+     * Number of NUL bytes.
+     */
+    protected long nulCount = 0L;
+    /**
+     * Number of CR or LF bytes not being part of a CRLF pair.
+     */
+    protected long bareLineBreakCount = 0L;
+    /**
+     * Flag if a line is longer than MAX_LINE_LENGTH.
+     */
+    protected boolean longLines = false;
+    /**
+     * Flag if all bytes have been analyzed.
+     */
+    protected boolean complete = true;
+    /**
+     * Length of the current line.
+     */
+    protected int lineLength = 0;
+    /**
+     * Flag if the previous byte was a CR.
+     */
+    protected boolean afterCr = false;
+    /**
+     * Size of the content in quoted-printable encoding, up to the pending space.
+     */
+    protected long qpSize = 0L;
+    /**
+     * Length of the current quoted-printable line.
+     */
+    protected int qpLineLength = 0;
+    /**
+     * Flag if a space is pending in the quoted-printable encoder.
+     */
+    protected boolean qpPendingSpace = false;
+
+    /**
+     * Creates a new, empty analysis.
+     */
+    public ContentAnalysis() {
+    }
+
+    /**
+     * Analyzes the given bytes.
+     * @param data data, may be null
+     * @return analysis
+     */
+    public static ContentAnalysis of(byte[] data) {
+        ContentAnalysis analysis = new ContentAnalysis();
+        if (data != null) {
+            analysis.update(data, 0, data.length);
+        }
+        return analysis;
+    }
+
+    /**
+     * Analyzes the given text encoded with the given charset. The text is encoded in chunks,
+     * so no copy of the whole encoded text is created. Characters which cannot be encoded
+     * are replaced, like String.getBytes() and JavaMail do.
+     * @param text    text, may be null
+     * @param charset charset
+     * @return analysis
+     */
+    public static ContentAnalysis of(CharSequence text, Charset charset) {
+        ContentAnalysis analysis = new ContentAnalysis();
+        if (text == null) {
+            return analysis;
+        }
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer in = CharBuffer.wrap(text);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        CoderResult result;
+        do {
+            result = encoder.encode(in, out, true);
+            analysis.update(out);
+        } while (result.isOverflow());
+        do {
+            result = encoder.flush(out);
+            analysis.update(out);
+        } while (result.isOverflow());
+        return analysis;
+    }
+
+    /**
+     * Analyzes the bytes of the given stream, which is not closed.
+     * @param in              input stream
+     * @param stopAtNonAscii true to stop reading at the first non-ASCII byte, leaving the analysis incomplete
+     * @return analysis
+     * @throws IOException if stream could not be read
+     */
+    public static ContentAnalysis of(InputStream in, boolean stopAtNonAscii) throws IOException {
+        ContentAnalysis analysis = new ContentAnalysis();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            if (stopAtNonAscii == false) {
+                analysis.update(buffer, 0, len);
+                continue;
+            }
+            for (int i = 0; i < len; i++) {
+                analysis.update(buffer[i]);
+                if (analysis.nonAsciiCount > 0L) {
+                    analysis.complete = false;
+                    return analysis;
+                }
+            }
+        }
+        return analysis;
+    }
+
+    /**
+     * Adds the given bytes to the analysis.
+     * @param data data
+     * @param off  offset
+     * @param len  number of bytes
+     */
+    public void update(byte[] data, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            this.update(data[i]);
+        }
+    }
+
+    /**
+     * Adds the bytes written to the given buffer to the analysis and clears the buffer.
+     * @param buffer buffer in write mode
+     */
+    protected void update(ByteBuffer buffer) {
+        // Buffer casts keep the Java 7 method descriptors when compiled on newer JDKs
+        ((Buffer) buffer).flip();
+        this.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        ((Buffer) buffer).clear();
+    }
+
+    /**
+     * Adds one byte to the analysis.
+     * @param b byte
+     */
+    public void update(int b) {
+        int c = b & 0xff;
+        this.byteCount++;
+        // raw statistics, like MimeUtility.checkAscii()
+        if (c == '\r' || c == '\n') {
+            if (c == '\n' && this.afterCr) {
+                // second byte of CRLF, already counted as bare CR
+                this.bareLineBreakCount--;
+            } else {
+                this.bareLineBreakCount++;
+            }
+            this.lineLength = 0;
+        } else {
+            if ((c >= 0177) || ((c < 040) && (c != '\t'))) {
+                this.nonAsciiCount++;
+                if (c == 0) {
+                    this.nulCount++;
+                }
+            }
+            if (++this.lineLength > MAX_LINE_LENGTH) {
+                this.longLines = true;
+            }
+        }
+        // quoted-printable size, like QPEncoderStream
+        if (this.qpPendingSpace) {
+            this.qpOutput((c == '\r') || (c == '\n'));
+            this.qpPendingSpace = false;
+        }
+        if (c == '\r') {
+            this.qpLineBreak();
+        } else if (c == '\n') {
+            if (this.afterCr == false) {
+                this.qpLineBreak();
+            }
+        } else if (c == ' ') {
+            this.qpPendingSpace = true;
+        } else {
+            this.qpOutput((c < 040) || (c >= 0177) || (c == '='));
+        }
+        this.afterCr = (c == '\r');
+    }
+
+    /**
+     * Adds one quoted-printable output character to the size.
+     * @param encoded true if the byte is written as =XX
+     */
+    protected void qpOutput(boolean encoded) {
+        int width = encoded ? 3 : 1;
+        this.qpLineLength += width;
+        if (this.qpLineLength > QP_LINE_LENGTH) {
+            // soft line break "=\r\n"
+            this.qpSize += 3;
+            this.qpLineLength = width;
+        }
+        this.qpSize += width;
+    }
+
+    /**
+     * Adds a quoted-printable hard line break to the size.
+     */
+    protected void qpLineBreak() {
+        this.qpSize += 2;
+        this.qpLineLength = 0;
+    }
+
+    /**
+     * Returns the number of analyzed bytes.
+     * @return number of bytes
+     */
+    public long getByteCount() {
+        return this.byteCount;
+    }
+
+    /**
+     * Returns the number of bytes which are not printable US-ASCII, line breaks or tabs.
+     * @return number of non-ASCII bytes
+     */
+    public long getNonAsciiCount() {
+        return this.nonAsciiCount;
+    }
+
+    /**
+     * Checks if a line is longer than the 998 bytes allowed by SMTP.
+     * @return true if long lines were found
+     */
+    public boolean hasLongLines() {
+        return this.longLines;
+    }
+
+    /**
+     * Checks if all bytes of the content have been analyzed. An analysis stopped at the first non-ASCII byte
+     * is incomplete: it only tells that the content is not ASCII, its sizes are not valid.
+     * @return true if complete
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * Returns the transfer encoding JavaMail chooses for the analyzed content (see MimeUtility.getEncoding()):
+     * 7bit for ASCII text with short lines, quoted-printable for text being mostly ASCII, base64 otherwise.
+     * @param isText true if the content type is text/*
+     * @return transfer encoding
+     */
+    public String getDefaultEncoding(boolean isText) {
+        if (this.nonAsciiCount == 0L) {
+            return this.longLines ? ENCODING_QUOTED_PRINTABLE : ENCODING_7BIT;
+        }
+        if (isText && (this.nonAsciiCount <= this.byteCount - this.nonAsciiCount)) {
+            return ENCODING_QUOTED_PRINTABLE;
+        }
+        return ENCODING_BASE64;
+    }
+
+    /**
+     * Chooses the transfer encoding producing the least data which keeps the content intact:
+     * 7bit for ASCII with short lines (for non-text content also without bare CR or LF), 8bit for text
+     * with short lines and without NUL bytes if allowed, otherwise the smaller of quoted-printable and
+     * base64 for text and base64 for other content.
+     * @param isText    true if the content type is text/*
+     * @param allow8bit true if the SMTP server accepts 8bit data (8BITMIME)
+     * @return transfer encoding
+     */
+    public String chooseEncoding(boolean isText, boolean allow8bit) {
+        if (this.complete == false) {
+            return ENCODING_BASE64;
+        }
+        if ((this.nonAsciiCount == 0L) && (this.longLines == false)
+                && (isText || (this.bareLineBreakCount == 0L))) {
+            return ENCODING_7BIT;
+        }
+        if (isText == false) {
+            // quoted-printable and 7bit would change line breaks of binary data
+            return ENCODING_BASE64;
+        }
+        if (allow8bit && (this.longLines == false) && (this.nulCount == 0L)) {
+            return ENCODING_8BIT;
+        }
+        if (this.getEncodedSize(ENCODING_QUOTED_PRINTABLE) <= getBase64Size(this.byteCount)) {
+            return ENCODING_QUOTED_PRINTABLE;
+        }
+        return ENCODING_BASE64;
+    }
+
+    /**
+     * Returns the size of the analyzed content in the given transfer encoding.
+     * @param transferEncoding transfer encoding
+     * @return size in bytes
+     */
+    public long getEncodedSize(String transferEncoding) {
+        if (ENCODING_BASE64.equalsIgnoreCase(transferEncoding)) {
+            return getBase64Size(this.byteCount);
+        }
+        if (ENCODING_QUOTED_PRINTABLE.equalsIgnoreCase(transferEncoding)) {
+            if (this.qpPendingSpace == false) {
+                return this.qpSize;
+            }
+            // a space pending at the end is written as =20 when the encoder is closed, after a soft line break
+            // if the line is full; JavaMail 1.4 only flushes the encoder of a body part and drops the space
+            return this.qpSize + ((this.qpLineLength + 3 > QP_LINE_LENGTH) ? 6 : 3);
+        }
+        // 7bit, 8bit or binary: bare CR or LF are sent as CRLF
+        return this.byteCount + this.bareLineBreakCount;
+    }
+
+    /**
+     * Returns the size of the given number of bytes in base64 encoding, with a CRLF after every 76 characters
+     * and after the last line, as written by JavaMail when the encoder is closed. A body part only flushes
+     * the encoder, so its last CRLF is missing there and the size is an upper bound.
+     * @param byteCount number of bytes
+     * @return size in bytes
+     */
+    public static long getBase64Size(long byteCount) {
+        long chars = ((byteCount + 2L) / 3L) * 4L;
+        long lines = (chars + BASE64_LINE_LENGTH - 1L) / BASE64_LINE_LENGTH;
+        return chars + 2L * lines;
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Cache key identifying content by its SHA-256 hash and an optional qualifier like a content type.
+ * The content itself is not kept. Instances are immutable.
+ * @author nilscoding
+ */
+public final class ContentKey {
+
+    /**
+     * Number of chars hashed at once.
+     */
+    private static final int CHUNK_CHARS = 4096;
+
+    /**
+     * Content hash.
+     */
+    private final byte[] hash;
+    /**
+     * Qualifier.
+     */
+    private final String qualifier;
+    /**
+     * Precomputed hash code.
+     */
+    private final int hashCode;
+
+    /**
+     * Creates a new key.
+     * @param hash      content hash
+     * @param qualifier qualifier, may be null
+     */
+    private ContentKey(byte[] hash, String qualifier) {
+        this.hash = hash;
+        this.qualifier = (qualifier != null) ? qualifier : "";
+        this.hashCode = 31 * Arrays.hashCode(hash) + this.qualifier.hashCode();
+    }
+
+    /**
+     * Creates a key for the given binary content.
+     * @param data      content
+     * @param qualifier qualifier, may be null
+     * @return key
+     */
+    public static ContentKey of(byte[] data, String qualifier) {
+        return new ContentKey(newDigest().digest(data), qualifier);
+    }
+
+    /**
+     * Creates a key for the given text content, hashing the UTF-16 chars without copying the text.
+     * @param text      content
+     * @param qualifier qualifier, may be null
+     * @return key
+     */
+    public static ContentKey of(CharSequence text, String qualifier) {
+        MessageDigest digest = newDigest();
+        int len = text.length();
+        byte[] chunk = new byte[Math.min(len, CHUNK_CHARS) * 2];
+        int pos = 0;
+        while (pos < len) {
+            int count = Math.min(len - pos, CHUNK_CHARS);
+            for (int i = 0; i < count; i++) {
+                char c = text.charAt(pos + i);
+                chunk[2 * i] = (byte) (c >> 8);
+                chunk[2 * i + 1] = (byte) c;
+            }
+            digest.update(chunk, 0, count * 2);
+            pos += count;
+        }
+        return new ContentKey(digest.digest(), qualifier);
+    }
+
+    /**
+     * Creates a new SHA-256 digest.
+     * @return digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the hash code.
+     * @return hash code
+     */
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    /**
+     * Checks if the given object is an equal key.
+     * @param obj object to compare
+     * @return true if equal
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if ((obj instanceof ContentKey) == false) {
+            return false;
+        }
+        ContentKey other = (ContentKey) obj;
+        return Arrays.equals(this.hash, other.hash) && this.qualifier.equals(other.qualifier);
+    }
+
+}
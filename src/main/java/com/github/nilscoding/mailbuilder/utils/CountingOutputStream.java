@@ -0,0 +1,91 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream counting the bytes written to it. If no target stream is given, the data is discarded.
+ * @author nilscoding
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    /**
+     * Number of written bytes.
+     */
+    protected long count = 0L;
+
+    /**
+     * Creates a new stream discarding all data.
+     */
+    public CountingOutputStream() {
+        super(null);
+    }
+
+    /**
+     * Creates a new stream writing to the given stream.
+     * @param out target stream
+     */
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Writes one byte.
+     * @param b byte
+     * @throws IOException if writing failed
+     */
+    @Override
+    public void write(int b) throws IOException {
+        if (this.out != null) {
+            this.out.write(b);
+        }
+        this.count++;
+    }
+
+    /**
+     * Writes the given bytes.
+     * @param b   data
+     * @param off offset
+     * @param len number of bytes
+     * @throws IOException if writing failed
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.out != null) {
+            this.out.write(b, off, len);
+        }
+        this.count += len;
+    }
+
+    /**
+     * Flushes the target stream.
+     * @throws IOException if flushing failed
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.out != null) {
+            this.out.flush();
+        }
+    }
+
+    /**
+     * Closes the target stream.
+     * @throws IOException if closing failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.out != null) {
+            this.out.close();
+        }
+    }
+
+    /**
+     * Returns the number of written bytes.
+     * @return number of bytes
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Input stream delivering the chars of a reader, encoded with a given charset.
+ * Only fixed-size buffers are used, independent of the length of the content.
+ * @author nilscoding
+ */
+public class ReaderInputStream extends InputStream {
+
+    /**
+     * Buffer size.
+     */
+    protected static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Reader.
+     */
+    protected final Reader reader;
+    /**
+     * Charset encoder.
+     */
+    protected final CharsetEncoder encoder;
+    /**
+     * Chars read but not yet encoded.
+     */
+    protected final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    /**
+     * Encoded bytes not yet delivered.
+     */
+    protected final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 4);
+    /**
+     * Flag if end of reader was reached.
+     */
+    protected boolean endOfInput = false;
+    /**
+     * Flag if encoder has been flushed.
+     */
+    protected boolean flushed = false;
+
+    /**
+     * Creates a new stream.
+     * @param reader  reader
+     * @param charset charset to encode chars with
+     */
+    public ReaderInputStream(Reader reader, Charset charset) {
+        this.reader = reader;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Buffer casts keep the Java 7 method descriptors when compiled on newer JDKs
+        ((Buffer) this.chars).flip();
+        ((Buffer) this.bytes).flip();
+    }
+
+    /**
+     * Fills the byte buffer if it is empty.
+     * @return true if bytes are available, false at end of stream
+     * @throws IOException if reading failed
+     */
+    protected boolean fill() throws IOException {
+        while ((this.bytes.hasRemaining() == false) && (this.flushed == false)) {
+            ((Buffer) this.bytes).clear();
+            if (this.endOfInput == false) {
+                // keep chars not encoded yet, e.g. the first half of a surrogate pair
+                this.chars.compact();
+                int len = 0;
+                if (this.chars.hasRemaining()) {
+                    len = this.reader.read(this.chars.array(), this.chars.arrayOffset() + this.chars.position(),
+                            this.chars.remaining());
+                }
+                if (len < 0) {
+                    this.endOfInput = true;
+                } else {
+                    ((Buffer) this.chars).position(this.chars.position() + len);
+                }
+                ((Buffer) this.chars).flip();
+            }
+            CoderResult result = this.encoder.encode(this.chars, this.bytes, this.endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (this.endOfInput && (this.chars.hasRemaining() == false)) {
+                this.encoder.flush(this.bytes);
+                this.flushed = true;
+            }
+            ((Buffer) this.bytes).flip();
+        }
+        return this.bytes.hasRemaining();
+    }
+
+    /**
+     * Reads one byte.
+     * @return byte or -1 at end of stream
+     * @throws IOException if reading failed
+     */
+    @Override
+    public int read() throws IOException {
+        if (this.fill() == false) {
+            return -1;
+        }
+        return this.bytes.get() & 0xFF;
+    }
+
+    /**
+     * Reads bytes into the given array.
+     * @param b   target array
+     * @param off offset
+     * @param len maximum number of bytes
+     * @return number of bytes read or -1 at end of stream
+     * @throws IOException if reading failed
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.fill() == false) {
+            return -1;
+        }
+        int count = Math.min(len, this.bytes.remaining());
+        this.bytes.get(b, off, count);
+        return count;
+    }
+
+    /**
+     * Closes the reader.
+     * @throws IOException if closing failed
+     */
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+}
@@ -0,0 +1,503 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import javax.mail.Message;
+import javax.mail.internet.InternetAddress;
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Insertion-ordered store of to, cc and bcc recipients which ignores duplicate addresses.
+ * Addresses are compared ignoring case. By default, an address is only listed once across all
+ * recipient types with the precedence to &gt; cc &gt; bcc: adding an address to bcc which is already
+ * a to recipient does not list it as bcc recipient, adding it to to while it is a bcc recipient lists it
+ * as to recipient only. The membership in every type is kept, so an address hidden by a type of higher
+ * precedence is listed again when that type is cleared.
+ * Recipients are kept in arrays with an open-addressing hash index, so lookups take constant time
+ * and large lists need less memory than linked lists.
+ * This class is not thread-safe.
+ * @author nilscoding
+ */
+public class RecipientStore {
+
+    /**
+     * Type marker of removed entries.
+     */
+    protected static final byte REMOVED = 0;
+    /**
+     * Type marker of to recipients.
+     */
+    protected static final byte TO = 1;
+    /**
+     * Type marker of cc recipients.
+     */
+    protected static final byte CC = 2;
+    /**
+     * Type marker of bcc recipients.
+     */
+    protected static final byte BCC = 3;
+    /**
+     * Initial capacity.
+     */
+    protected static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Flag if an address is only listed once across all recipient types.
+     */
+    protected boolean acrossTypes;
+    /**
+     * Addresses in insertion order, one entry per address and recipient type.
+     */
+    protected InternetAddress[] addresses = new InternetAddress[INITIAL_CAPACITY];
+    /**
+     * Recipient types of the entries, REMOVED for removed entries.
+     */
+    protected byte[] types = new byte[INITIAL_CAPACITY];
+    /**
+     * Flags of entries hidden by an entry of the same address with a type of higher precedence.
+     */
+    protected boolean[] hidden = new boolean[INITIAL_CAPACITY];
+    /**
+     * Number of used entries, including removed ones.
+     */
+    protected int used = 0;
+    /**
+     * Hash index: entry index + 1, 0 for empty buckets. Length is a power of two.
+     */
+    protected int[] index = new int[INITIAL_CAPACITY * 2];
+    /**
+     * Number of listed recipients per type.
+     */
+    protected final int[] counts = new int[BCC + 1];
+    /**
+     * Number of ignored duplicates.
+     */
+    protected long duplicateCount = 0L;
+
+    /**
+     * Creates a new store listing every address once across all recipient types.
+     */
+    public RecipientStore() {
+        this(true);
+    }
+
+    /**
+     * Creates a new store.
+     * @param acrossTypes true to list every address once across all recipient types (to &gt; cc &gt; bcc),
+     *                    false to only ignore duplicates within one type
+     */
+    public RecipientStore(boolean acrossTypes) {
+        this.acrossTypes = acrossTypes;
+    }
+
+    /**
+     * Adds a recipient.
+     * @param type    recipient type (to, cc or bcc)
+     * @param address address
+     * @return true if listed as recipient of the given type, false if ignored or hidden
+     */
+    public boolean add(Message.RecipientType type, InternetAddress address) {
+        return this.add(toTypeCode(type), address);
+    }
+
+    /**
+     * Adds a recipient.
+     * @param typeCode type code
+     * @param address  address
+     * @return true if listed as recipient of the given type, false if ignored or hidden
+     */
+    protected boolean add(byte typeCode, InternetAddress address) {
+        if (address == null) {
+            return false;
+        }
+        String addrSpec = address.getAddress();
+        if (addrSpec == null) {
+            // nothing to compare, keep as it is
+            this.append(typeCode, address, false, -1);
+            return true;
+        }
+        int mask = this.index.length - 1;
+        int bucket = hashIgnoreCase(addrSpec) & mask;
+        int listed = -1;
+        while (this.index[bucket] != 0) {
+            int entry = this.index[bucket] - 1;
+            if (addrSpec.equalsIgnoreCase(this.addresses[entry].getAddress())) {
+                if (this.types[entry] == typeCode) {
+                    this.duplicateCount++;
+                    return false;
+                }
+                if (this.hidden[entry] == false) {
+                    listed = entry;
+                }
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        if ((this.acrossTypes == false) || (listed < 0)) {
+            this.append(typeCode, address, false, bucket);
+            return true;
+        }
+        this.duplicateCount++;
+        if (typeCode < this.types[listed]) {
+            // higher precedence, list as recipient of this type instead
+            this.hidden[listed] = true;
+            this.counts[this.types[listed]]--;
+            this.append(typeCode, address, false, bucket);
+            return true;
+        }
+        this.append(typeCode, address, true, bucket);
+        return false;
+    }
+
+    /**
+     * Appends a new entry.
+     * @param typeCode   type code
+     * @param address    address
+     * @param hiddenFlag true if hidden by an entry with a type of higher precedence
+     * @param bucket     free index bucket for the entry, -1 to not index it
+     */
+    protected void append(byte typeCode, InternetAddress address, boolean hiddenFlag, int bucket) {
+        if (this.used == this.addresses.length) {
+            int newCapacity = this.addresses.length * 2;
+            this.addresses = Arrays.copyOf(this.addresses, newCapacity);
+            this.types = Arrays.copyOf(this.types, newCapacity);
+            this.hidden = Arrays.copyOf(this.hidden, newCapacity);
+        }
+        int entry = this.used++;
+        this.addresses[entry] = address;
+        this.types[entry] = typeCode;
+        this.hidden[entry] = hiddenFlag;
+        if (hiddenFlag == false) {
+            this.counts[typeCode]++;
+        }
+        if (bucket >= 0) {
+            this.index[bucket] = entry + 1;
+        }
+        if (this.used * 2 > this.index.length) {
+            this.rebuild(this.index.length * 2);
+        }
+    }
+
+    /**
+     * Removes all recipients of the given type. Addresses hidden by them are listed again
+     * in their other types.
+     * @param type recipient type
+     */
+    public void clear(Message.RecipientType type) {
+        this.clear(toTypeCode(type));
+    }
+
+    /**
+     * Removes all recipients of the given type.
+     * @param typeCode type code
+     */
+    protected void clear(byte typeCode) {
+        boolean found = false;
+        for (int i = 0; i < this.used; i++) {
+            if (this.types[i] == typeCode) {
+                this.types[i] = REMOVED;
+                found = true;
+            }
+        }
+        if (found) {
+            this.rebuild(this.index.length);
+            this.updateHidden();
+        }
+    }
+
+    /**
+     * Sets if an address is listed only once across all recipient types. Recipients added before are kept.
+     * @param acrossTypes true to list every address once across all recipient types (to &gt; cc &gt; bcc),
+     *                    false to only ignore duplicates within one type
+     */
+    public void setAcrossTypes(boolean acrossTypes) {
+        if (this.acrossTypes != acrossTypes) {
+            this.acrossTypes = acrossTypes;
+            this.updateHidden();
+        }
+    }
+
+    /**
+     * Determines again which entries are hidden and counts the listed recipients.
+     */
+    protected void updateHidden() {
+        Arrays.fill(this.counts, 0);
+        int mask = this.index.length - 1;
+        for (int i = 0; i < this.used; i++) {
+            String addrSpec = this.addresses[i].getAddress();
+            boolean hiddenFlag = false;
+            if (this.acrossTypes && (addrSpec != null)) {
+                int bucket = hashIgnoreCase(addrSpec) & mask;
+                while (this.index[bucket] != 0) {
+                    int entry = this.index[bucket] - 1;
+                    if ((this.types[entry] < this.types[i])
+                            && addrSpec.equalsIgnoreCase(this.addresses[entry].getAddress())) {
+                        hiddenFlag = true;
+                        break;
+                    }
+                    bucket = (bucket + 1) & mask;
+                }
+            }
+            this.hidden[i] = hiddenFlag;
+            if (hiddenFlag == false) {
+                this.counts[this.types[i]]++;
+            }
+        }
+    }
+
+    /**
+     * Removes entries marked as removed and rebuilds the hash index.
+     * @param indexLength length of the new index, a power of two
+     */
+    protected void rebuild(int indexLength) {
+        int kept = 0;
+        for (int i = 0; i < this.used; i++) {
+            if (this.types[i] != REMOVED) {
+                this.addresses[kept] = this.addresses[i];
+                this.types[kept] = this.types[i];
+                this.hidden[kept] = this.hidden[i];
+                kept++;
+            }
+        }
+        Arrays.fill(this.addresses, kept, this.used, null);
+        Arrays.fill(this.types, kept, this.used, REMOVED);
+        Arrays.fill(this.hidden, kept, this.used, false);
+        this.used = kept;
+        int length = indexLength;
+        while (kept * 2 > length) {
+            length *= 2;
+        }
+        this.index = new int[length];
+        int mask = length - 1;
+        for (int i = 0; i < kept; i++) {
+            String addrSpec = this.addresses[i].getAddress();
+            if (addrSpec == null) {
+                continue;
+            }
+            int bucket = hashIgnoreCase(addrSpec) & mask;
+            while (this.index[bucket] != 0) {
+                bucket = (bucket + 1) & mask;
+            }
+            this.index[bucket] = i + 1;
+        }
+    }
+
+    /**
+     * Returns the number of recipients of the given type.
+     * @param type recipient type
+     * @return number of recipients
+     */
+    public int size(Message.RecipientType type) {
+        return this.counts[toTypeCode(type)];
+    }
+
+    /**
+     * Checks if every address is listed once across all recipient types.
+     * @return true if duplicates are removed across types, false if only within one type
+     */
+    public boolean isAcrossTypes() {
+        return this.acrossTypes;
+    }
+
+    /**
+     * Returns the number of duplicates which have been ignored, hidden or have hidden another recipient.
+     * @return number of duplicates
+     */
+    public long getDuplicateCount() {
+        return this.duplicateCount;
+    }
+
+    /**
+     * Returns a live list view of the recipients of the given type. Adding to the view adds to the store,
+     * so duplicates are ignored; only adding and clearing are supported.
+     * @param type recipient type
+     * @return list view
+     */
+    public List<InternetAddress> view(Message.RecipientType type) {
+        return new TypeView(toTypeCode(type));
+    }
+
+    /**
+     * Checks if the given entry is a listed recipient of the given type.
+     * @param entry    entry index
+     * @param typeCode type code
+     * @return true if listed
+     */
+    protected boolean isListed(int entry, byte typeCode) {
+        return (this.types[entry] == typeCode) && (this.hidden[entry] == false);
+    }
+
+    /**
+     * Returns the type code of the given recipient type.
+     * @param type recipient type
+     * @return type code
+     */
+    protected static byte toTypeCode(Message.RecipientType type) {
+        if (Message.RecipientType.TO.equals(type)) {
+            return TO;
+        }
+        if (Message.RecipientType.CC.equals(type)) {
+            return CC;
+        }
+        if (Message.RecipientType.BCC.equals(type)) {
+            return BCC;
+        }
+        throw new IllegalArgumentException("unsupported recipient type: " + type);
+    }
+
+    /**
+     * Returns a hash code of the given string ignoring case, spread for power-of-two tables.
+     * @param str string
+     * @return hash code
+     */
+    protected static int hashIgnoreCase(String str) {
+        int hash = 0;
+        for (int i = 0; i < str.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(str.charAt(i)));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Live list of the recipients of one type.
+     */
+    protected class TypeView extends AbstractList<InternetAddress> {
+
+        /**
+         * Type code.
+         */
+        protected final byte typeCode;
+
+        /**
+         * Creates a new view.
+         * @param typeCode type code
+         */
+        protected TypeView(byte typeCode) {
+            this.typeCode = typeCode;
+        }
+
+        /**
+         * Returns the recipient at the given position. Takes linear time, prefer iterating.
+         * @param position position
+         * @return address
+         */
+        @Override
+        public InternetAddress get(int position) {
+            if ((position < 0) || (position >= this.size())) {
+                throw new IndexOutOfBoundsException("index: " + position + ", size: " + this.size());
+            }
+            int found = 0;
+            for (int i = 0; i < used; i++) {
+                if (isListed(i, this.typeCode)) {
+                    if (found == position) {
+                        return addresses[i];
+                    }
+                    found++;
+                }
+            }
+            throw new IndexOutOfBoundsException("index: " + position);
+        }
+
+        /**
+         * Returns the number of recipients of this type.
+         * @return number of recipients
+         */
+        @Override
+        public int size() {
+            return counts[this.typeCode];
+        }
+
+        /**
+         * Adds a recipient of this type, ignoring duplicates.
+         * @param address address
+         * @return true if listed as recipient of this type
+         */
+        @Override
+        public boolean add(InternetAddress address) {
+            return RecipientStore.this.add(this.typeCode, address);
+        }
+
+        /**
+         * Removes all recipients of this type.
+         */
+        @Override
+        public void clear() {
+            RecipientStore.this.clear(this.typeCode);
+        }
+
+        /**
+         * Returns an iterator over the recipients of this type in insertion order.
+         * @return iterator
+         */
+        @Override
+        public Iterator<InternetAddress> iterator() {
+            return new Iterator<InternetAddress>() {
+                private int next = this.advance(0);
+
+                private int advance(int from) {
+                    int i = from;
+                    while ((i < used) && (isListed(i, typeCode) == false)) {
+                        i++;
+                    }
+                    return i;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return (this.next < used);
+                }
+
+                @Override
+                public InternetAddress next() {
+                    if (this.next >= used) {
+                        throw new NoSuchElementException();
+                    }
+                    InternetAddress address = addresses[this.next];
+                    this.next = this.advance(this.next + 1);
+                    return address;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("remove");
+                }
+            };
+        }
+
+        /**
+         * Returns the recipients of this type as array.
+         * @return array of addresses
+         */
+        @Override
+        public Object[] toArray() {
+            return this.toArray(new InternetAddress[0]);
+        }
+
+        /**
+         * Returns the recipients of this type as array.
+         * @param <T>    array type
+         * @param target array to fill if large enough
+         * @return array of addresses
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T[] toArray(T[] target) {
+            int size = this.size();
+            T[] result = (target.length >= size)
+                    ? target : (T[]) Array.newInstance(target.getClass().getComponentType(), size);
+            int pos = 0;
+            for (int i = 0; (i < used) && (pos < size); i++) {
+                if (isListed(i, this.typeCode)) {
+                    result[pos++] = (T) addresses[i];
+                }
+            }
+            if (result.length > size) {
+                result[size] = null;
+            }
+            return result;
+        }
+    }
+
+}
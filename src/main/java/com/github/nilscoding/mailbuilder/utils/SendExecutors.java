@@ -0,0 +1,65 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for blocking send tasks. This is the version for Java 7 to 20, using a pool
+ * of platform threads; the jar contains a version for Java 21 and later which can start a virtual thread per task.
+ * @author nilscoding
+ */
+public final class SendExecutors {
+
+    /**
+     * System property to enable or disable virtual threads, only read by the version for Java 21 and later.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "mailbuilder.virtualThreads";
+    /**
+     * Time in seconds after which idle platform threads end.
+     */
+    protected static final long KEEP_ALIVE_SECONDS = 60L;
+
+    /**
+     * Utility class, no instances.
+     */
+    private SendExecutors() {
+    }
+
+    /**
+     * Checks if executors run every task on its own virtual thread.
+     * @return true if virtual threads are used, false otherwise
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * Creates an executor accepting any number of tasks. On this JVM, the tasks are run
+     * on the given number of daemon platform threads.
+     * @param namePrefix      prefix for thread names
+     * @param platformThreads number of platform threads, ignored for virtual threads
+     * @return new executor
+     */
+    public static ExecutorService newSendExecutor(final String namePrefix, int platformThreads) {
+        int threads = Math.max(1, platformThreads);
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadCounter = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, namePrefix + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        tpe.allowCoreThreadTimeOut(true);
+        return tpe;
+    }
+
+}
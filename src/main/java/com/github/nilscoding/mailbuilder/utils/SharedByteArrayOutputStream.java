@@ -0,0 +1,38 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Byte array output stream whose written data can be read again without copying it.
+ * A MimeMessage parsed from the returned stream keeps referring to the buffer instead
+ * of reading the content into a new array.
+ * @author nilscoding
+ */
+public class SharedByteArrayOutputStream extends ByteArrayOutputStream {
+
+    /**
+     * Creates a new stream.
+     */
+    public SharedByteArrayOutputStream() {
+        super();
+    }
+
+    /**
+     * Creates a new stream with the given initial capacity.
+     * @param size initial capacity
+     */
+    public SharedByteArrayOutputStream(int size) {
+        super(size);
+    }
+
+    /**
+     * Returns a stream reading the data written so far from the internal buffer. The data
+     * must not be changed while the returned stream is used, so nothing may be written afterwards.
+     * @return stream over the written data
+     */
+    public SharedByteArrayInputStream toInputStream() {
+        return new SharedByteArrayInputStream(this.buf, 0, this.count);
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+import com.sun.mail.smtp.SMTPTransport;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import java.io.EOFException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/**
+ * SMTP related utils.
+ * @author nilscoding
+ */
+public final class SmtpUtils {
+
+    /**
+     * SMTP reply code for "service not available, closing transmission channel".
+     */
+    public static final int SERVICE_CLOSING = 421;
+
+    /**
+     * Lowest SMTP reply code of a transient failure.
+     */
+    public static final int FIRST_TRANSIENT_FAILURE = 400;
+    /**
+     * Highest SMTP reply code of a transient failure.
+     */
+    public static final int LAST_TRANSIENT_FAILURE = 499;
+    /**
+     * Lowest SMTP reply code of a permanent failure.
+     */
+    public static final int FIRST_PERMANENT_FAILURE = 500;
+    /**
+     * Highest SMTP reply code of a permanent failure.
+     */
+    public static final int LAST_PERMANENT_FAILURE = 599;
+
+    /**
+     * Maximum depth when walking through nested exceptions.
+     */
+    private static final int MAX_DEPTH = 10;
+
+    private SmtpUtils() {
+    }
+
+    /**
+     * Returns the SMTP reply code of the given exception or one of its nested exceptions.
+     * @param ex exception
+     * @return reply code or -1 if unknown
+     */
+    public static int getReturnCode(Throwable ex) {
+        Throwable current = ex;
+        for (int depth = 0; (current != null) && (depth < MAX_DEPTH); depth++) {
+            if (current instanceof SMTPSendFailedException) {
+                return ((SMTPSendFailedException) current).getReturnCode();
+            }
+            if (current instanceof SMTPAddressFailedException) {
+                return ((SMTPAddressFailedException) current).getReturnCode();
+            }
+            if (current instanceof SMTPSenderFailedException) {
+                return ((SMTPSenderFailedException) current).getReturnCode();
+            }
+            current = next(current);
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the SMTP command the server failed to answer as expected, from the given exception or one
+     * of its nested exceptions. A failure reading the reply, like a reset connection, has no command.
+     * @param ex exception
+     * @return command (e.g. "MAIL FROM:&lt;...&gt;", "DATA" or "." for the end of the message data) or null
+     */
+    public static String getFailedCommand(Throwable ex) {
+        Throwable current = ex;
+        for (int depth = 0; (current != null) && (depth < MAX_DEPTH); depth++) {
+            if (current instanceof SMTPSendFailedException) {
+                return ((SMTPSendFailedException) current).getCommand();
+            }
+            if (current instanceof SMTPAddressFailedException) {
+                return ((SMTPAddressFailedException) current).getCommand();
+            }
+            if (current instanceof SMTPSenderFailedException) {
+                return ((SMTPSenderFailedException) current).getCommand();
+            }
+            current = next(current);
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the given exception indicates that the connection to the SMTP server is gone,
+     * either closed by the server with a 421 reply or broken on network level (socket errors, timeouts
+     * or end of stream, also if nested in a MessagingException). Other I/O errors, like an attachment
+     * file that cannot be read, are about the message and do not count as lost connection.
+     * @param ex exception to check
+     * @return true if the connection needs to be re-established
+     */
+    public static boolean isConnectionLost(Throwable ex) {
+        if (ex instanceof IllegalStateException) {
+            // thrown by JavaMail if transport is not connected anymore
+            return true;
+        }
+        Throwable current = ex;
+        for (int depth = 0; (current != null) && (depth < MAX_DEPTH); depth++) {
+            if ((current instanceof SocketException) || (current instanceof SocketTimeoutException)
+                    || (current instanceof EOFException)) {
+                return true;
+            }
+            current = next(current);
+        }
+        return (getReturnCode(ex) == SERVICE_CLOSING);
+    }
+
+    /**
+     * Checks if the server rejected the message temporarily (4xx reply like 421 or 451), so sending
+     * it again later may succeed.
+     * @param ex exception to check
+     * @return true if failure is transient
+     */
+    public static boolean isTransientFailure(Throwable ex) {
+        int returnCode = getReturnCode(ex);
+        return (returnCode >= FIRST_TRANSIENT_FAILURE) && (returnCode <= LAST_TRANSIENT_FAILURE);
+    }
+
+    /**
+     * Checks if the server rejected the message permanently (5xx reply), so sending it again will not help.
+     * @param ex exception to check
+     * @return true if failure is permanent
+     */
+    public static boolean isPermanentFailure(Throwable ex) {
+        int returnCode = getReturnCode(ex);
+        return (returnCode >= FIRST_PERMANENT_FAILURE) && (returnCode <= LAST_PERMANENT_FAILURE);
+    }
+
+    /**
+     * Returns the maximum message size the server advertised with the SIZE extension (RFC 1870).
+     * @param transport connected transport
+     * @return maximum size in bytes, -1 if the server has no or an unknown limit
+     */
+    public static long getMaxMessageSize(Transport transport) {
+        if ((transport instanceof SMTPTransport) == false) {
+            return -1L;
+        }
+        String sizeParam = ((SMTPTransport) transport).getExtensionParameter("SIZE");
+        if (sizeParam == null) {
+            return -1L;
+        }
+        try {
+            long maxSize = Long.parseLong(sizeParam.trim());
+            // SIZE 0 means no fixed limit
+            return (maxSize > 0L) ? maxSize : -1L;
+        } catch (NumberFormatException nfEx) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Checks if the server advertised the 8BITMIME extension (RFC 6152), so it accepts 8bit message content.
+     * @param transport connected transport
+     * @return true if 8bit content is accepted
+     */
+    public static boolean supports8BitMime(Transport transport) {
+        return (transport instanceof SMTPTransport) && ((SMTPTransport) transport).supportsExtension("8BITMIME");
+    }
+
+    /**
+     * Returns the nested exception.
+     * @param ex exception
+     * @return nested exception or null
+     */
+    private static Throwable next(Throwable ex) {
+        if (ex instanceof MessagingException) {
+            Exception nextEx = ((MessagingException) ex).getNextException();
+            if (nextEx != null) {
+                return nextEx;
+            }
+        }
+        return ex.getCause();
+    }
+
+}
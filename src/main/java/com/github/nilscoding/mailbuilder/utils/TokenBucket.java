@@ -0,0 +1,154 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter. Tokens are added at a fixed rate up to the burst size; taking a token
+ * when the bucket is empty waits until the token is available. Callers are served in order of arrival.
+ * The rate can be changed at any time. This class is thread-safe.
+ * @author nilscoding
+ */
+public class TokenBucket {
+
+    /**
+     * Nanoseconds per second.
+     */
+    protected static final double NANOS_PER_SECOND = 1.0e9d;
+
+    /**
+     * Tokens per second.
+     */
+    protected double permitsPerSecond;
+    /**
+     * Maximum number of stored tokens.
+     */
+    protected double burstSize;
+    /**
+     * Currently available tokens, negative if tokens have been reserved in advance.
+     */
+    protected double tokens;
+    /**
+     * Time of last refill (System.nanoTime()).
+     */
+    protected long lastRefillNanos;
+
+    /**
+     * Creates a new token bucket allowing a burst of one second worth of tokens.
+     * @param permitsPerSecond tokens per second, must be positive
+     */
+    public TokenBucket(double permitsPerSecond) {
+        this(permitsPerSecond, Math.max(1.0d, permitsPerSecond));
+    }
+
+    /**
+     * Creates a new, full token bucket.
+     * @param permitsPerSecond tokens per second, must be positive
+     * @param burstSize        maximum number of stored tokens, at least 1
+     */
+    public TokenBucket(double permitsPerSecond, double burstSize) {
+        if ((permitsPerSecond > 0.0d) == false) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burstSize = Math.max(1.0d, burstSize);
+        this.tokens = this.burstSize;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes one token, waiting until it is available.
+     * @return waiting time in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long acquire() throws InterruptedException {
+        long waitNanos = this.reserve();
+        if (waitNanos > 0L) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Takes one token if it is available right away.
+     * @return true if token has been taken, false if bucket is empty
+     */
+    public synchronized boolean tryAcquire() {
+        this.refill(System.nanoTime());
+        if (this.tokens >= 1.0d) {
+            this.tokens -= 1.0d;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reserves one token and returns the time until it is available.
+     * @return waiting time in nanoseconds, 0 if available right away
+     */
+    protected synchronized long reserve() {
+        this.refill(System.nanoTime());
+        this.tokens -= 1.0d;
+        if (this.tokens >= 0.0d) {
+            return 0L;
+        }
+        return (long) Math.ceil(-this.tokens / this.permitsPerSecond * NANOS_PER_SECOND);
+    }
+
+    /**
+     * Sets the rate. Reserved tokens keep their waiting time.
+     * @param permitsPerSecond tokens per second, must be positive
+     */
+    public synchronized void setRate(double permitsPerSecond) {
+        if ((permitsPerSecond > 0.0d) == false) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.refill(System.nanoTime());
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    /**
+     * Sets rate and maximum number of stored tokens in one step, so no token is taken in between.
+     * @param permitsPerSecond tokens per second, must be positive
+     * @param burstSize        maximum number of stored tokens, at least 1
+     */
+    public synchronized void setRate(double permitsPerSecond, double burstSize) {
+        if ((permitsPerSecond > 0.0d) == false) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.refill(System.nanoTime());
+        this.permitsPerSecond = permitsPerSecond;
+        this.burstSize = Math.max(1.0d, burstSize);
+        this.tokens = Math.min(this.tokens, this.burstSize);
+    }
+
+    /**
+     * Sets the maximum number of stored tokens.
+     * @param burstSize maximum number of stored tokens, at least 1
+     */
+    public synchronized void setBurstSize(double burstSize) {
+        this.refill(System.nanoTime());
+        this.burstSize = Math.max(1.0d, burstSize);
+        this.tokens = Math.min(this.tokens, this.burstSize);
+    }
+
+    /**
+     * Returns the rate.
+     * @return tokens per second
+     */
+    public synchronized double getRate() {
+        return this.permitsPerSecond;
+    }
+
+    /**
+     * Adds the tokens for the time since the last refill. Must be called holding the lock.
+     * @param now current time (System.nanoTime())
+     */
+    protected void refill(long now) {
+        long elapsed = now - this.lastRefillNanos;
+        if (elapsed > 0L) {
+            this.tokens = Math.min(this.burstSize, this.tokens + elapsed * this.permitsPerSecond / NANOS_PER_SECOND);
+            this.lastRefillNanos = now;
+        }
+    }
+
+}
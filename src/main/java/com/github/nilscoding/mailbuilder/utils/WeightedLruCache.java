@@ -0,0 +1,191 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least-recently-used cache limited by number of entries and by total weight (e.g. size in bytes)
+ * of its values. Keeps hit, miss and eviction statistics. This class is thread-safe.
+ * @param <K> key type
+ * @param <V> value type
+ * @author nilscoding
+ */
+public class WeightedLruCache<K, V> {
+
+    /**
+     * Maximum number of entries.
+     */
+    protected final int maxEntries;
+    /**
+     * Maximum total weight.
+     */
+    protected final long maxWeight;
+    /**
+     * Entries in access order.
+     */
+    protected final LinkedHashMap<K, WeightedValue<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Current total weight.
+     */
+    protected long currentWeight = 0L;
+    /**
+     * Number of hits.
+     */
+    protected final AtomicLong hitCount = new AtomicLong();
+    /**
+     * Number of misses.
+     */
+    protected final AtomicLong missCount = new AtomicLong();
+    /**
+     * Number of evicted entries.
+     */
+    protected final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     * @param maxEntries maximum number of entries
+     * @param maxWeight  maximum total weight
+     */
+    public WeightedLruCache(int maxEntries, long maxWeight) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxWeight = Math.max(0L, maxWeight);
+    }
+
+    /**
+     * Returns the cached value for the given key and counts a hit or a miss.
+     * @param key key
+     * @return value or null
+     */
+    public V get(K key) {
+        WeightedValue<V> entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(key);
+        }
+        if (entry == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+        this.hitCount.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Adds a value, evicting the least recently used entries if a limit is exceeded.
+     * Values heavier than the weight limit are not cached.
+     * @param key    key
+     * @param value  value
+     * @param weight weight of the value
+     */
+    public void put(K key, V value, long weight) {
+        if ((value == null) || (weight > this.maxWeight) || (this.maxEntries == 0)) {
+            return;
+        }
+        synchronized (this.entries) {
+            WeightedValue<V> previous = this.entries.put(key, new WeightedValue<>(value, weight));
+            if (previous != null) {
+                this.currentWeight -= previous.weight;
+            }
+            this.currentWeight += weight;
+            for (Iterator<Map.Entry<K, WeightedValue<V>>> it = this.entries.entrySet().iterator();
+                 it.hasNext() && ((this.currentWeight > this.maxWeight) || (this.entries.size() > this.maxEntries)); ) {
+                Map.Entry<K, WeightedValue<V>> eldest = it.next();
+                it.remove();
+                this.currentWeight -= eldest.getValue().weight;
+                this.evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.currentWeight = 0L;
+        }
+    }
+
+    /**
+     * Returns the number of hits.
+     * @return number of hits
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of misses.
+     * @return number of misses
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Returns the number of evicted entries.
+     * @return number of evictions
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * Returns the hit rate.
+     * @return hit rate between 0 and 1, 0 if cache has not been used yet
+     */
+    public double getHitRate() {
+        long hits = this.hitCount.get();
+        long total = hits + this.missCount.get();
+        return (total > 0) ? ((double) hits / (double) total) : 0d;
+    }
+
+    /**
+     * Returns the number of entries.
+     * @return number of entries
+     */
+    public int getEntryCount() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * Returns the total weight of all entries.
+     * @return total weight
+     */
+    public long getCurrentWeight() {
+        synchronized (this.entries) {
+            return this.currentWeight;
+        }
+    }
+
+    /**
+     * Value with its weight.
+     * @param <V> value type
+     */
+    protected static final class WeightedValue<V> {
+
+        /**
+         * Value.
+         */
+        private final V value;
+        /**
+         * Weight.
+         */
+        private final long weight;
+
+        /**
+         * Creates a new weighted value.
+         * @param value  value
+         * @param weight weight
+         */
+        WeightedValue(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+}
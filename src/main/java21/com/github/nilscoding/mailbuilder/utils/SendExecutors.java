@@ -0,0 +1,71 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates executors for blocking send tasks. This is the version for Java 21 and later, starting
+ * a virtual thread per task.
+ * JavaMail blocks on the network while holding monitors, which pins a virtual thread to its carrier thread
+ * before Java 24 (JEP 491). On Java 21 to 23, sends would then only run in parallel up to the number
+ * of processors, so platform threads are used there unless the system property {@code mailbuilder.virtualThreads}
+ * is set to {@code true} (e.g. together with a larger {@code jdk.virtualThreadScheduler.parallelism}).
+ * Setting it to {@code false} disables virtual threads on all versions.
+ * @author nilscoding
+ */
+public final class SendExecutors {
+
+    /**
+     * System property to enable or disable virtual threads.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "mailbuilder.virtualThreads";
+    /**
+     * First Java version not pinning virtual threads in synchronized blocks.
+     */
+    private static final int FIRST_UNPINNED_VERSION = 24;
+    /**
+     * Time in seconds after which idle platform threads end.
+     */
+    protected static final long KEEP_ALIVE_SECONDS = 60L;
+
+    /**
+     * Utility class, no instances.
+     */
+    private SendExecutors() {
+    }
+
+    /**
+     * Checks if executors run every task on its own virtual thread.
+     * @return true if virtual threads are used, false otherwise
+     */
+    public static boolean isVirtual() {
+        String configured = System.getProperty(VIRTUAL_THREADS_PROPERTY);
+        if (configured != null) {
+            return Boolean.parseBoolean(configured);
+        }
+        return (Runtime.version().feature() >= FIRST_UNPINNED_VERSION);
+    }
+
+    /**
+     * Creates an executor accepting any number of tasks. Every task is run on its own virtual thread,
+     * or on the given number of daemon platform threads if virtual threads are not used.
+     * @param namePrefix      prefix for thread names
+     * @param platformThreads number of platform threads, ignored for virtual threads
+     * @return new executor
+     */
+    public static ExecutorService newSendExecutor(String namePrefix, int platformThreads) {
+        if (isVirtual()) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 1L).factory());
+        }
+        int threads = Math.max(1, platformThreads);
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                Thread.ofPlatform().daemon().name(namePrefix, 1L).factory());
+        tpe.allowCoreThreadTimeOut(true);
+        return tpe;
+    }
+
+}
@@ -0,0 +1,265 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.sessionimpl.RetryPolicy;
+import org.junit.Test;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.SharedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for sending batches and sending to recipients in chunks with BatchSender.
+ * @author nilscoding
+ */
+public class BatchSenderTest {
+
+    @Test
+    public void sendsSameDataOncePerChunk() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        Message message = this.newBuilder(mailSession).buildMessage();
+        List<ChunkSendResult> results = new BatchSender(mailSession).sendInChunks(message, 3);
+
+        assertEquals(3, results.size());
+        for (ChunkSendResult oneResult : results) {
+            assertTrue(oneResult.isSent());
+        }
+        List<RecordingTransport.Sent> sent = RecordingTransport.getSent(mailSession);
+        assertEquals(3, sent.size());
+        assertEquals(Arrays.asList("to1@example.com", "to2@example.com", "cc@example.com"),
+                toStrings(sent.get(0).recipients));
+        assertEquals(Arrays.asList("bcc1@example.com", "bcc2@example.com", "bcc3@example.com"),
+                toStrings(sent.get(1).recipients));
+        assertEquals(Arrays.asList("bcc4@example.com"), toStrings(sent.get(2).recipients));
+        assertEquals(toStrings(sent.get(2).recipients), toStrings(Arrays.asList(results.get(2).getRecipients())));
+        for (RecordingTransport.Sent oneSent : sent) {
+            assertArrayEquals(sent.get(0).data, oneSent.data);
+        }
+        String data = new String(sent.get(0).data, "US-ASCII");
+        assertFalse(data.contains("bcc1@example.com"));
+        assertTrue(data.contains("to1@example.com"));
+        // one connection for all chunks
+        assertEquals(1, ((AtomicInteger) RecordingTransport.getProperties(mailSession)
+                .get(RecordingTransport.CONNECTS)).get());
+    }
+
+    @Test
+    public void serializedMessageReadsWrittenData() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        MimeMessage message = (MimeMessage) this.newBuilder(mailSession).buildMessage();
+        message.saveChanges();
+        MimeMessage serialized = BatchSender.serialize(message);
+        // the content refers to the written buffer instead of a copy
+        assertTrue(serialized.getRawInputStream() instanceof SharedInputStream);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        message.writeTo(expected, new String[] {"Bcc", "Content-Length"});
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        serialized.writeTo(actual);
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        assertNull(serialized.getHeader("Bcc"));
+    }
+
+    @Test
+    public void failingChunkDoesNotStopOthers() {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        RecordingTransport.getProperties(mailSession).setProperty(RecordingTransport.REJECT_RECIPIENT,
+                "bcc2@example.com");
+        List<ChunkSendResult> results = new BatchSender(mailSession).sendInChunks(this.newBuilder(mailSession), 3);
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSent());
+        assertFalse(results.get(1).isSent());
+        assertNotNull(results.get(1).getException());
+        assertTrue(results.get(2).isSent());
+        assertEquals(2, RecordingTransport.getSent(mailSession).size());
+    }
+
+    @Test
+    public void chunkIsRetriedOnItsOwn() {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        ((AtomicInteger) RecordingTransport.getProperties(mailSession)
+                .get(RecordingTransport.TRANSIENT_FAILURES)).set(1);
+        BatchSender sender = new BatchSender(mailSession);
+        sender.setRetryPolicy(new RetryPolicy(2, 0L, 0L, 0.0d));
+        List<ChunkSendResult> results = sender.sendInChunks(this.newBuilder(mailSession), 4);
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isSent());
+        assertTrue(results.get(1).isSent());
+        List<RecordingTransport.Sent> sent = RecordingTransport.getSent(mailSession);
+        assertEquals(2, sent.size());
+        assertEquals(4, sent.get(0).recipients.size());
+        assertEquals(3, sent.get(1).recipients.size());
+    }
+
+    @Test
+    public void messageWithoutRecipientsFails() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        Message message = MailBuilder.onSession(mailSession)
+                .setFrom("sender@example.com")
+                .setBodyPlain("text")
+                .buildMessage();
+        List<ChunkSendResult> results = new BatchSender(mailSession).sendInChunks(message, 3);
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).isSent());
+        assertTrue(RecordingTransport.getSent(mailSession).isEmpty());
+    }
+
+    @Test
+    public void sendsBuildersInOrderOverOneConnection() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        List<MailBuilder> builders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            builders.add(this.newSingleBuilder(mailSession, "to" + i + "@example.com", "message " + i));
+        }
+        List<SendResult> results = new BatchSender(mailSession).sendBuilders(builders);
+
+        assertEquals(3, results.size());
+        List<RecordingTransport.Sent> sent = RecordingTransport.getSent(mailSession);
+        assertEquals(3, sent.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(results.get(i).isSent());
+            assertEquals("to" + i + "@example.com", results.get(i).getRecipients()[0].toString());
+            assertEquals("message " + i, this.parse(sent.get(i)).getSubject());
+            assertEquals(this.parse(sent.get(i)).getMessageID(), results.get(i).getMessageId());
+        }
+        assertEquals(1, this.counter(mailSession, RecordingTransport.CONNECTS));
+        assertEquals(1, this.counter(mailSession, RecordingTransport.CLOSES));
+    }
+
+    @Test
+    public void failedMessageDoesNotAbortBatch() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        RecordingTransport.getProperties(mailSession).setProperty(RecordingTransport.REJECT_RECIPIENT,
+                "rejected@example.com");
+        List<MailBuilder> builders = new ArrayList<>();
+        builders.add(this.newSingleBuilder(mailSession, "first@example.com", "first"));
+        builders.add(this.newSingleBuilder(mailSession, "rejected@example.com", "rejected"));
+        builders.add(null);
+        builders.add(this.newSingleBuilder(mailSession, "last@example.com", "last"));
+        List<SendResult> results = new BatchSender(mailSession).sendBuilders(builders);
+
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).isSent());
+        assertFalse(results.get(1).isSent());
+        assertNotNull(results.get(1).getException());
+        assertFalse(results.get(2).isSent());
+        assertTrue(results.get(2).getException() instanceof IllegalArgumentException);
+        assertTrue(results.get(3).isSent());
+        List<RecordingTransport.Sent> sent = RecordingTransport.getSent(mailSession);
+        assertEquals(2, sent.size());
+        assertEquals("last", this.parse(sent.get(1)).getSubject());
+        // the rejected recipient does not cost the connection
+        assertEquals(1, this.counter(mailSession, RecordingTransport.CONNECTS));
+    }
+
+    @Test
+    public void reconnectsOnlyOnConnectionLoss() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            messages.add(this.newSingleBuilder(mailSession, "to" + i + "@example.com", "message " + i)
+                    .buildMessage());
+        }
+        ((AtomicInteger) RecordingTransport.getProperties(mailSession)
+                .get(RecordingTransport.TRANSIENT_FAILURES)).set(1);
+        List<SendResult> results = new BatchSender(mailSession).sendMessages(messages);
+        assertFalse(results.get(0).isSent());
+        assertTrue(results.get(1).isSent());
+        assertTrue(results.get(2).isSent());
+        assertEquals(1, this.counter(mailSession, RecordingTransport.CONNECTS));
+
+        ((AtomicInteger) RecordingTransport.getProperties(mailSession)
+                .get(RecordingTransport.CLOSING_FAILURES)).set(1);
+        results = new BatchSender(mailSession).sendMessages(messages);
+        for (SendResult oneResult : results) {
+            assertTrue(oneResult.isSent());
+        }
+        // one connection for the second batch, re-established once after the 421 reply
+        assertEquals(3, this.counter(mailSession, RecordingTransport.CONNECTS));
+        assertEquals(5, RecordingTransport.getSent(mailSession).size());
+    }
+
+    /**
+     * Creates a builder with one recipient.
+     * @param mailSession mail session
+     * @param to          recipient
+     * @param subject     subject
+     * @return builder
+     */
+    private MailBuilder newSingleBuilder(MailSession mailSession, String to, String subject) {
+        return MailBuilder.onSession(mailSession)
+                .setFrom("sender@example.com")
+                .addTo(to)
+                .setSubject(subject)
+                .setBodyPlain("text");
+    }
+
+    /**
+     * Parses a sent message.
+     * @param sent sent message
+     * @return parsed message
+     * @throws MessagingException if message could not be parsed
+     */
+    private MimeMessage parse(RecordingTransport.Sent sent) throws MessagingException {
+        return new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(sent.data));
+    }
+
+    /**
+     * Returns a counter of the sessions of the given mail session.
+     * @param mailSession mail session
+     * @param name        property name
+     * @return counter value
+     */
+    private int counter(MailSession mailSession, String name) {
+        return ((AtomicInteger) RecordingTransport.getProperties(mailSession).get(name)).get();
+    }
+
+    /**
+     * Creates a builder with seven recipients.
+     * @param mailSession mail session
+     * @return builder
+     */
+    private MailBuilder newBuilder(MailSession mailSession) {
+        return MailBuilder.onSession(mailSession)
+                .setFrom("sender@example.com")
+                .addTo("to1@example.com")
+                .addTo("to2@example.com")
+                .addCc("cc@example.com")
+                .addBcc("bcc1@example.com")
+                .addBcc("bcc2@example.com")
+                .addBcc("bcc3@example.com")
+                .addBcc("bcc4@example.com")
+                .setSubject("subject")
+                .setBodyPlain("text");
+    }
+
+    /**
+     * Converts addresses to strings.
+     * @param addresses addresses
+     * @return address strings
+     */
+    private static List<String> toStrings(List<Address> addresses) {
+        List<String> result = new ArrayList<>();
+        for (Address oneAddress : addresses) {
+            result.add(oneAddress.toString());
+        }
+        return result;
+    }
+}
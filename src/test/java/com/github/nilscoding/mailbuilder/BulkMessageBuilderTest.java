@@ -0,0 +1,140 @@
+package com.github.nilscoding.mailbuilder;
+
+import org.junit.Test;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for BulkMessageBuilder.
+ * @author nilscoding
+ */
+public class BulkMessageBuilderTest {
+
+    @Test
+    public void closeShutsDownOwnPool() {
+        BulkMessageBuilder bulk = new BulkMessageBuilder();
+        assertFalse(bulk.pool.isShutdown());
+        bulk.close();
+        assertTrue(bulk.pool.isShutdown());
+    }
+
+    @Test
+    public void closeKeepsGivenPool() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new BulkMessageBuilder(pool, 16).close();
+            assertFalse(pool.isShutdown());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void eachMessageGetsOnlyItsOwnRecipient() throws Exception {
+        MailBuilder base = MailBuilder.onSession(Session.getInstance(new Properties()))
+                .setFrom("sender@example.com")
+                .addBcc("archive@example.com")
+                .setSubject("Hello")
+                .setBodyPlain("text");
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            inputs.add("user" + i + "@example.com");
+        }
+        final List<BuiltMessage<String>> results = new ArrayList<>();
+        long builtCount;
+        try (BulkMessageBuilder bulk = new BulkMessageBuilder(new ForkJoinPool(4), 16, 2, true)) {
+            builtCount = bulk.build(base, inputs, new BulkMessageBuilder.Personalizer<String>() {
+                @Override
+                public void personalize(MailBuilder mailBuilder, String input) {
+                    mailBuilder.addTo(input);
+                }
+            }, new BulkMessageBuilder.ChunkConsumer<String>() {
+                @Override
+                public void accept(List<BuiltMessage<String>> chunk) {
+                    results.addAll(chunk);
+                }
+            });
+        }
+        assertEquals(100L, builtCount);
+        assertEquals(100, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            BuiltMessage<String> oneResult = results.get(i);
+            assertEquals(inputs.get(i), oneResult.getInput());
+            Message message = oneResult.getMessage();
+            assertArrayEquals(new String[]{inputs.get(i)}, toStrings(message.getRecipients(Message.RecipientType.TO)));
+            assertArrayEquals(new String[]{"archive@example.com"},
+                    toStrings(message.getRecipients(Message.RecipientType.BCC)));
+        }
+        // the base builder is not changed by the personalizer
+        assertEquals(0, base.to.size());
+    }
+
+    @Test
+    public void failingInputDoesNotAffectOthers() {
+        List<Integer> inputs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            inputs.add(i);
+        }
+        final List<BuiltMessage<Integer>> results = new ArrayList<>();
+        long builtCount;
+        try (BulkMessageBuilder bulk = new BulkMessageBuilder(new ForkJoinPool(4), 8, 2, true)) {
+            builtCount = bulk.build(inputs, new BulkMessageBuilder.MessageFactory<Integer>() {
+                @Override
+                public Message createMessage(Integer input) throws Exception {
+                    if (input % 10 == 3) {
+                        throw new IllegalStateException("failed " + input);
+                    }
+                    return MailBuilder.onSession(Session.getInstance(new Properties()))
+                            .setFrom("sender@example.com")
+                            .addTo("user" + input + "@example.com")
+                            .setBodyPlain("text")
+                            .buildMessage();
+                }
+            }, new BulkMessageBuilder.ChunkConsumer<Integer>() {
+                @Override
+                public void accept(List<BuiltMessage<Integer>> chunk) {
+                    results.addAll(chunk);
+                }
+            });
+        }
+        assertEquals(45L, builtCount);
+        for (BuiltMessage<Integer> oneResult : results) {
+            if (oneResult.getInput() % 10 == 3) {
+                assertNull(oneResult.getMessage());
+                assertEquals("failed " + oneResult.getInput(), oneResult.getException().getMessage());
+            } else {
+                assertNotNull(oneResult.getMessage());
+                assertNull(oneResult.getException());
+            }
+        }
+    }
+
+    /**
+     * Converts addresses to strings.
+     * @param addresses addresses, may be null
+     * @return address strings
+     */
+    private static String[] toStrings(Address[] addresses) {
+        if (addresses == null) {
+            return new String[0];
+        }
+        String[] result = new String[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            result[i] = addresses[i].toString();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.nilscoding.mailbuilder;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for CachingHtmlToPlainConverter.
+ * @author nilscoding
+ */
+public class CachingHtmlToPlainConverterTest {
+
+    @Test
+    public void cachesStringConversions() {
+        CachingHtmlToPlainConverter converter = new CachingHtmlToPlainConverter(new SimpleHtmlToPlainConverter());
+        assertEquals("a b", converter.convertHtmlToPlainText("a <b>b</b>"));
+        assertEquals("a b", converter.convertHtmlToPlainText("a <b>b</b>"));
+        assertEquals(1L, converter.getMissCount());
+        assertEquals(1L, converter.getHitCount());
+    }
+
+    @Test
+    public void passesStreamsToStreamingConverter() throws IOException {
+        final int[] streamed = new int[1];
+        SinglePassHtmlToPlainConverter streaming = new SinglePassHtmlToPlainConverter() {
+            @Override
+            public void convertHtmlToPlainText(Reader htmlReader, Appendable plainOut) throws IOException {
+                streamed[0]++;
+                super.convertHtmlToPlainText(htmlReader, plainOut);
+            }
+        };
+        CachingHtmlToPlainConverter converter = new CachingHtmlToPlainConverter(streaming);
+        StringBuilder plain = new StringBuilder();
+        converter.convertHtmlToPlainText(new StringReader("<p>a</p>"), plain);
+        assertEquals("a", plain.toString());
+        assertEquals(1, streamed[0]);
+        assertEquals(0, converter.getEntryCount());
+    }
+
+    @Test
+    public void readsStreamsForOtherConverters() throws IOException {
+        CachingHtmlToPlainConverter converter = new CachingHtmlToPlainConverter(new SimpleHtmlToPlainConverter());
+        StringBuilder plain = new StringBuilder();
+        converter.convertHtmlToPlainText(new StringReader("<p>a</p>"), plain);
+        assertEquals("a", plain.toString());
+        assertEquals(1, converter.getEntryCount());
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.github.nilscoding.mailbuilder;
+
+import org.junit.Test;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests that EncodedContentCache reads content only on a miss and keeps the transfer encoding of MailBuilder.
+ * @author nilscoding
+ */
+public class EncodedContentCacheTest {
+
+    @Test
+    public void hitDoesNotReadContent() throws Exception {
+        EncodedContentCache cache = new EncodedContentCache();
+        CountingDataSource dataSource = new CountingDataSource(new byte[] {1, 2, 3}, "image/png");
+        AttachmentContentProvider provider = new AttachmentContentProvider(dataSource, "a.png");
+        PreEncodedContentProvider first = cache.encode(provider);
+        PreEncodedContentProvider second = cache.encode(provider);
+        assertEquals(1, dataSource.readCount);
+        assertEquals(1L, cache.getMissCount());
+        assertEquals(1L, cache.getHitCount());
+        assertSame(first.encodedData, second.encodedData);
+    }
+
+    @Test
+    public void sameContentOfOtherProviderIsHit() throws Exception {
+        EncodedContentCache cache = new EncodedContentCache();
+        PreEncodedContentProvider first = cache.encode(
+                new AttachmentContentProvider(new byte[] {1, 2, 3}, "image/png", "a.png"));
+        PreEncodedContentProvider second = cache.encode(
+                new AttachmentContentProvider(new byte[] {1, 2, 3}, "image/png", "b.png"));
+        assertEquals(1L, cache.getHitCount());
+        assertSame(first.encodedData, second.encodedData);
+        assertEquals("b.png", second.getName());
+    }
+
+    @Test
+    public void evictedContentIsReadAgain() throws Exception {
+        EncodedContentCache cache = new EncodedContentCache();
+        CountingDataSource dataSource = new CountingDataSource(new byte[] {1, 2, 3}, "image/png");
+        AttachmentContentProvider provider = new AttachmentContentProvider(dataSource, "a.png");
+        cache.encode(provider);
+        cache.clear();
+        PreEncodedContentProvider encoded = cache.encode(provider);
+        assertEquals(2, dataSource.readCount);
+        assertEquals(1, cache.getEntryCount());
+        assertEquals("AQID", new String(encoded.encodedData, "US-ASCII"));
+    }
+
+    @Test
+    public void transferEncodingMatchesUncachedBuild() throws Exception {
+        EncodedContentCache cache = new EncodedContentCache();
+        MailBuilder uncached = this.newBuilder();
+        MailBuilder cached = this.newBuilder().setEncodedContentCache(cache);
+        MimeMultipart uncachedParts = this.buildAndSave(uncached);
+        MimeMultipart cachedParts = this.buildAndSave(cached);
+        assertEquals(uncachedParts.getCount(), cachedParts.getCount());
+        for (int i = 1; i < uncachedParts.getCount(); i++) {
+            MimeBodyPart uncachedPart = (MimeBodyPart) uncachedParts.getBodyPart(i);
+            MimeBodyPart cachedPart = (MimeBodyPart) cachedParts.getBodyPart(i);
+            assertEquals(uncachedPart.getEncoding(), cachedPart.getEncoding());
+            assertEquals(this.write(uncachedPart), this.write(cachedPart));
+        }
+        assertEquals("7bit", ((MimeBodyPart) cachedParts.getBodyPart(1)).getEncoding());
+        assertEquals("quoted-printable", ((MimeBodyPart) cachedParts.getBodyPart(2)).getEncoding());
+        assertEquals("base64", ((MimeBodyPart) cachedParts.getBodyPart(3)).getEncoding());
+        assertEquals(uncached.estimateSize(), cached.estimateSize());
+        // built again, the content is found in the cache
+        cached.buildMessage();
+        assertEquals(3L, cache.getHitCount());
+    }
+
+    private MailBuilder newBuilder() throws Exception {
+        return MailBuilder.onSession(Session.getInstance(new Properties()))
+                .setFrom("sender@example.com")
+                .addTo("recipient@example.com")
+                .setSubject("subject")
+                .setBodyPlain("text")
+                .addAttachment(new TextAttachmentContentProvider("a;b\r\n1;2\r\n", "text/csv", "a.csv"))
+                .addAttachment(new TextAttachmentContentProvider(
+                        "Viele Gr\u00fc\u00dfe aus dem sch\u00f6nen Rheinland\r\n", "text/plain; charset=utf-8", "b.txt"))
+                .addAttachment(new AttachmentContentProvider(new byte[] {1, 2, 3}, "image/png", "c.png"));
+    }
+
+    private String write(MimeBodyPart part) throws Exception {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        part.writeTo(bytesOut);
+        return bytesOut.toString("US-ASCII");
+    }
+
+    private MimeMultipart buildAndSave(MailBuilder builder) throws Exception {
+        Message message = builder.buildMessage();
+        // pre-encoded parts set their transfer encoding header when saving, as before sending
+        message.saveChanges();
+        return (MimeMultipart) message.getContent();
+    }
+
+    /**
+     * Data source counting how often its content is read.
+     */
+    private static class CountingDataSource extends ByteArrayDataSource {
+
+        private int readCount = 0;
+
+        CountingDataSource(byte[] data, String contentType) {
+            super(data, contentType);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            this.readCount++;
+            return super.getInputStream();
+        }
+    }
+
+}
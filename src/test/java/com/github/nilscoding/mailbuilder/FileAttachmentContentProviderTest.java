@@ -0,0 +1,56 @@
+package com.github.nilscoding.mailbuilder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for FileAttachmentContentProvider.
+ * @author nilscoding
+ */
+public class FileAttachmentContentProviderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsFileWithChannelAndMapping() throws Exception {
+        byte[] data = new byte[200000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Path path = this.folder.newFile("data.bin").toPath();
+        Files.write(path, data);
+        assertArrayEquals(data, read(new FileAttachmentContentProvider(path, null, null, false)));
+        FileAttachmentContentProvider mapped = new FileAttachmentContentProvider(path, null, null, true);
+        assertArrayEquals(data, read(mapped));
+        assertNotNull(mapped.mappedContent);
+        mapped.releaseMapping();
+        assertNull(mapped.mappedContent);
+        // mapped again on the next read
+        assertArrayEquals(data, read(mapped));
+    }
+
+    private static byte[] read(FileAttachmentContentProvider provider) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        try (InputStream in = provider.getDataSource().getInputStream()) {
+            byte[] buffer = new byte[1000];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                bytesOut.write(buffer, 0, len);
+            }
+        }
+        return bytesOut.toByteArray();
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.github.nilscoding.mailbuilder;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests buckets, percentiles and resetting of HistogramMailMetrics.
+ * @author nilscoding
+ */
+public class HistogramMailMetricsTest {
+
+    @Test
+    public void durationsAreCountedInPowerOfTwoBuckets() {
+        HistogramMailMetrics.Histogram histogram = new HistogramMailMetrics.Histogram();
+        histogram.record(0L, -1L);
+        histogram.record(-5L, -1L);
+        histogram.record(1L, -1L);
+        histogram.record(2L, -1L);
+        histogram.record(3L, -1L);
+        histogram.record(4L, -1L);
+        histogram.record(1000L, 100L);
+        histogram.record(Long.MAX_VALUE, -1L);
+        long[] buckets = histogram.getBucketCounts();
+        assertEquals(HistogramMailMetrics.Histogram.BUCKET_COUNT, buckets.length);
+        // negative durations are recorded as 0
+        assertEquals(2L, buckets[0]);
+        assertEquals(1L, buckets[1]);
+        assertEquals(2L, buckets[2]);
+        assertEquals(1L, buckets[3]);
+        // 512 to 1023
+        assertEquals(1L, buckets[10]);
+        assertEquals(1L, buckets[63]);
+        assertEquals(8L, histogram.getCount());
+        assertEquals(Long.MAX_VALUE, histogram.getMaxNanos());
+        assertEquals(100L, histogram.getTotalBytes());
+    }
+
+    @Test
+    public void percentilesAreUpperBoundsOfBuckets() {
+        HistogramMailMetrics.Histogram histogram = new HistogramMailMetrics.Histogram();
+        assertEquals(0L, histogram.getPercentileNanos(0.5d));
+        assertEquals(0L, histogram.getMeanNanos());
+        for (int i = 0; i < 90; i++) {
+            histogram.record(100L, -1L);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(5000L, -1L);
+        }
+        // 100 lies in the bucket from 64 to 127, 5000 in the one from 4096 to 8191
+        assertEquals(127L, histogram.getPercentileNanos(0.5d));
+        assertEquals(127L, histogram.getPercentileNanos(0.9d));
+        // never above the maximum
+        assertEquals(5000L, histogram.getPercentileNanos(0.91d));
+        assertEquals(5000L, histogram.getPercentileNanos(1.0d));
+        assertEquals(5000L, histogram.getPercentileNanos(2.0d));
+        assertEquals(127L, histogram.getPercentileNanos(-1.0d));
+        assertEquals((90L * 100L + 10L * 5000L) / 100L, histogram.getMeanNanos());
+    }
+
+    @Test
+    public void resetClearsAllValues() {
+        HistogramMailMetrics metrics = new HistogramMailMetrics();
+        metrics.phaseCompleted(MailPhase.ENCODING, 200L, 50L);
+        metrics.messageBuilt(1000L, 3, null);
+        metrics.messageBuilt(2000L, 2, new IOException("failed"));
+        metrics.messageSent(3000L, new IOException("failed"));
+        assertEquals(1L, metrics.getPhaseHistogram(MailPhase.ENCODING).getCount());
+        assertEquals(50L, metrics.getPhaseHistogram(MailPhase.ENCODING).getTotalBytes());
+        assertEquals(0L, metrics.getPhaseHistogram(MailPhase.WRITE).getCount());
+        assertEquals(2L, metrics.getBuildHistogram().getCount());
+        assertEquals(3000L, metrics.getBuildHistogram().getTotalNanos());
+        assertEquals(1L, metrics.getBuildFailureCount());
+        assertEquals(1L, metrics.getSendFailureCount());
+        assertEquals(5L, metrics.getPartCount());
+        assertTrue(metrics.toString().contains("ENCODING="));
+
+        metrics.reset();
+        for (MailPhase onePhase : MailPhase.values()) {
+            assertEquals(0L, metrics.getPhaseHistogram(onePhase).getCount());
+        }
+        assertEquals(0L, metrics.getBuildHistogram().getCount());
+        assertEquals(0L, metrics.getBuildHistogram().getTotalNanos());
+        assertEquals(0L, metrics.getBuildHistogram().getMaxNanos());
+        assertEquals(0L, metrics.getBuildHistogram().getBucketCounts()[10]);
+        assertEquals(0L, metrics.getSendHistogram().getCount());
+        assertEquals(0L, metrics.getBuildFailureCount());
+        assertEquals(0L, metrics.getSendFailureCount());
+        assertEquals(0L, metrics.getPartCount());
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.github.nilscoding.mailbuilder;
+
+import org.junit.Test;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests queueing, rejection and shutdown of MailDispatcher.
+ * @author nilscoding
+ */
+public class MailDispatcherTest {
+
+    @Test
+    public void resultHoldsMessageIdAndRecipients() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        MailDispatcher dispatcher = new MailDispatcher(1, 1);
+        try {
+            SendResult result = dispatcher.submit(this.newBuilder(mailSession)).get(30L, TimeUnit.SECONDS);
+            assertTrue(result.isSent());
+            assertNull(result.getException());
+            assertEquals(1, result.getRecipients().length);
+            assertEquals("recipient@example.com", result.getRecipients()[0].toString());
+            MimeMessage sent = new MimeMessage(Session.getInstance(new Properties()),
+                    new ByteArrayInputStream(RecordingTransport.getSent(mailSession).get(0).data));
+            assertNotNull(result.getMessageId());
+            assertEquals(sent.getMessageID(), result.getMessageId());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void submitBlocksWhileQueueIsFull() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        CountDownLatch block = new CountDownLatch(1);
+        Semaphore started = new Semaphore(0);
+        RecordingTransport.getProperties(mailSession).put(RecordingTransport.BLOCK, block);
+        RecordingTransport.getProperties(mailSession).put(RecordingTransport.STARTED, started);
+        final MailDispatcher dispatcher = new MailDispatcher(1, 1);
+        try {
+            Future<SendResult> first = dispatcher.submit(this.newBuilder(mailSession));
+            assertTrue(started.tryAcquire(30L, TimeUnit.SECONDS));
+            Future<SendResult> second = dispatcher.submit(this.newBuilder(mailSession));
+            assertEquals(2, dispatcher.getPendingCount());
+            try {
+                dispatcher.submit(this.newBuilder(mailSession), 50L, TimeUnit.MILLISECONDS);
+                fail("queue should be full");
+            } catch (RejectedExecutionException ex) {
+                // expected
+            }
+            assertEquals(2, dispatcher.getPendingCount());
+
+            final MailBuilder third = this.newBuilder(mailSession);
+            final AtomicReference<Future<SendResult>> thirdResult = new AtomicReference<>();
+            Thread submitter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    thirdResult.set(dispatcher.submit(third));
+                }
+            });
+            submitter.start();
+            submitter.join(200L);
+            assertTrue(submitter.isAlive());
+            block.countDown();
+            submitter.join(30000L);
+            assertFalse(submitter.isAlive());
+            assertTrue(first.get(30L, TimeUnit.SECONDS).isSent());
+            assertTrue(second.get(30L, TimeUnit.SECONDS).isSent());
+            assertTrue(thirdResult.get().get(30L, TimeUnit.SECONDS).isSent());
+            assertEquals(3, RecordingTransport.getSent(mailSession).size());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void shutdownSendsSubmittedMessagesAndRejectsNewOnes() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        CountDownLatch block = new CountDownLatch(1);
+        RecordingTransport.getProperties(mailSession).put(RecordingTransport.BLOCK, block);
+        MailDispatcher dispatcher = new MailDispatcher(1, 2);
+        Future<SendResult> first = dispatcher.submit(this.newBuilder(mailSession));
+        Future<SendResult> second = dispatcher.submit(this.newBuilder(mailSession));
+        dispatcher.shutdown();
+        try {
+            dispatcher.submit(this.newBuilder(mailSession));
+            fail("dispatcher should reject messages after shutdown");
+        } catch (RejectedExecutionException ex) {
+            // expected
+        }
+        assertFalse(dispatcher.awaitTermination(50L, TimeUnit.MILLISECONDS));
+        block.countDown();
+        assertTrue(dispatcher.awaitTermination(30L, TimeUnit.SECONDS));
+        assertTrue(first.get().isSent());
+        assertTrue(second.get().isSent());
+        assertEquals(2, RecordingTransport.getSent(mailSession).size());
+        assertEquals(0, dispatcher.getPendingCount());
+    }
+
+    @Test
+    public void failedBuildIsReported() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        MailDispatcher dispatcher = new MailDispatcher(1, 1);
+        try {
+            SendResult result = dispatcher.submit(null).get(30L, TimeUnit.SECONDS);
+            assertFalse(result.isSent());
+            assertTrue(result.getException() instanceof IllegalArgumentException);
+            assertNull(result.getMessageId());
+            assertEquals(0, result.getRecipients().length);
+        } finally {
+            dispatcher.shutdown();
+        }
+        assertTrue(RecordingTransport.getSent(mailSession).isEmpty());
+    }
+
+    private MailBuilder newBuilder(MailSession mailSession) {
+        return MailBuilder.onSession(mailSession)
+                .setFrom("sender@example.com")
+                .addTo("recipient@example.com")
+                .setSubject("subject")
+                .setBodyPlain("text");
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.sessionimpl.TransportPool;
+import org.junit.Test;
+
+import javax.mail.Message;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the phases and byte counts MailBuilder reports to a metrics listener.
+ * @author nilscoding
+ */
+public class MailMetricsTest {
+
+    @Test
+    public void dataPhaseReportsMessageSize() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        RecordingListener listener = new RecordingListener();
+        MailBuilder mb = this.newBuilder(mailSession, listener);
+        assertTrue(mb.buildMessageAndSend());
+        List<RecordingTransport.Sent> sent = RecordingTransport.getSent(mailSession);
+        assertEquals(1, sent.size());
+        assertEquals(Long.valueOf(sent.get(0).data.length), listener.byteCounts.get(MailPhase.DATA));
+    }
+
+    @Test
+    public void dataPhaseReportsMessageSizeWithPool() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        RecordingListener listener = new RecordingListener();
+        MailBuilder mb = this.newBuilder(mailSession, listener);
+        TransportPool pool = new TransportPool();
+        try {
+            assertTrue(mb.buildMessageAndSend(pool));
+        } finally {
+            pool.close();
+        }
+        List<RecordingTransport.Sent> sent = RecordingTransport.getSent(mailSession);
+        assertEquals(Long.valueOf(sent.get(0).data.length), listener.byteCounts.get(MailPhase.DATA));
+    }
+
+    @Test
+    public void sizeIsOnlyCountedWithListener() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        Message withoutListener = this.newBuilder(mailSession, null).buildMessage();
+        withoutListener.writeTo(new ByteArrayOutputStream());
+        assertEquals(-1L, CountingSMTPMessage.getWrittenSize(withoutListener));
+
+        Message withListener = this.newBuilder(mailSession, new RecordingListener()).buildMessage();
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        withListener.writeTo(written);
+        assertEquals(written.size(), CountingSMTPMessage.getWrittenSize(withListener));
+    }
+
+    /**
+     * Creates a builder with sender, recipient, text and listener.
+     * @param mailSession mail session
+     * @param listener    metrics listener
+     * @return builder
+     */
+    private MailBuilder newBuilder(MailSession mailSession, MailMetricsListener listener) {
+        return MailBuilder.onSession(mailSession)
+                .setFrom("sender@example.com")
+                .addTo("recipient@example.com")
+                .setBodyPlain("Mit freundlichen Grüßen")
+                .setMetricsListener(listener);
+    }
+
+    /**
+     * Listener remembering the last byte count of every phase.
+     */
+    private static class RecordingListener implements MailMetricsListener {
+
+        private final Map<MailPhase, Long> byteCounts = new ConcurrentHashMap<>();
+
+        @Override
+        public void phaseCompleted(MailPhase phase, long nanos, long byteCount) {
+            this.byteCounts.put(phase, byteCount);
+        }
+
+        @Override
+        public void messageBuilt(long nanos, int partCount, Exception failure) {
+        }
+
+        @Override
+        public void messageSent(long nanos, Exception failure) {
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.utils.AddressParser;
+import org.junit.Test;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that MailSpec and MailTemplate keep the settings of the builder they are created from,
+ * and that a spec removes duplicate recipients once.
+ * @author nilscoding
+ */
+public class MailSpecTest {
+
+    private final AddressParser addressParser = new AddressParser(10);
+
+    @Test
+    public void specKeepsSettings() {
+        MailBuilder mb = this.newBuilder();
+        this.assertSettings(MailSpec.of(mb).toBuilder());
+    }
+
+    @Test
+    public void templateKeepsSettings() throws Exception {
+        MailBuilder mb = this.newBuilder();
+        this.assertSettings(MailTemplate.compile(mb).newBuilder(null));
+    }
+
+    @Test
+    public void laterBuilderChangesDoNotAffectSpec() throws Exception {
+        MailBuilder mb = this.newBuilder();
+        MailSpec spec = MailSpec.of(mb);
+        mb.disable8BitMime().setCrossTypeDeduplication(true).addTo("b@example.com");
+        assertTrue(spec.settings.eightBitMime);
+        assertFalse(spec.settings.isCrossTypeDeduplication());
+        assertEquals(1, spec.getTo().size());
+        assertEquals(1, spec.toMessage().getRecipients(Message.RecipientType.TO).length);
+    }
+
+    @Test
+    public void withRecipientsRemovesDuplicatesOnce() throws Exception {
+        MailSpec base = MailSpec.of(MailBuilder.onSession(Session.getInstance(new Properties()))
+                .setFrom("sender@example.com")
+                .addCc("x@example.com", "y@example.com")
+                .setBodyPlain("text"));
+        MailSpec spec = base.withTo(new InternetAddress("X@example.com"), new InternetAddress("x@example.com"));
+        assertEquals(1, spec.getTo().size());
+        assertEquals(1, spec.getCc().size());
+        assertEquals("y@example.com", spec.getCc().get(0).getAddress());
+
+        Message message = spec.toMessage();
+        assertEquals(1, message.getRecipients(Message.RecipientType.TO).length);
+        assertEquals(1, message.getRecipients(Message.RecipientType.CC).length);
+        assertNull(message.getRecipients(Message.RecipientType.BCC));
+
+        // cc as given is kept, so replacing to lists x in cc again
+        MailSpec other = spec.withTo(new InternetAddress("z@example.com"));
+        assertEquals(2, other.getCc().size());
+        assertSame(base.getCc(), other.getCc());
+    }
+
+    @Test
+    public void singleRecipientIsNotCopied() throws Exception {
+        MailSpec base = MailSpec.of(MailBuilder.onSession(Session.getInstance(new Properties()))
+                .setBodyPlain("text"));
+        MailSpec spec = base.withTo(new InternetAddress("a@example.com"));
+        assertSame(spec.recipients.to, spec.getTo());
+        assertEquals("a@example.com",
+                ((InternetAddress) spec.toMessage().getRecipients(Message.RecipientType.TO)[0]).getAddress());
+    }
+
+    /**
+     * Creates a builder with settings differing from the defaults.
+     * @return builder
+     */
+    private MailBuilder newBuilder() {
+        return MailBuilder.onSession(Session.getInstance(new Properties()))
+                .setCrossTypeDeduplication(false)
+                .enable8BitMime()
+                .setAddressParser(this.addressParser)
+                .setFrom("sender@example.com")
+                .addTo("a@example.com")
+                .setBodyPlain("text");
+    }
+
+    /**
+     * Checks that the given builder has the settings of newBuilder().
+     * @param mb builder
+     */
+    private void assertSettings(MailBuilder mb) {
+        assertTrue(mb.eightBitMime);
+        assertSame(this.addressParser, mb.addressParser);
+        mb.addCc("a@example.com");
+        assertEquals(1, mb.to.size());
+        assertEquals(1, mb.cc.size());
+    }
+}
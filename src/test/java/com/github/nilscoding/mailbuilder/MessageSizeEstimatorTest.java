@@ -0,0 +1,118 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.sun.mail.util.CRLFOutputStream;
+import org.junit.Test;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the size estimate is an upper bound close to the size of the written message.
+ * @author nilscoding
+ */
+public class MessageSizeEstimatorTest {
+
+    /**
+     * Maximum difference between estimate and real size.
+     */
+    private static final long MAX_OVERESTIMATE = 1000L;
+
+    @Test
+    public void plainAsciiText() throws Exception {
+        this.assertEstimate(this.newBuilder().setBodyPlain("Hello,\r\n\r\nthis is a plain text.\nBye "));
+    }
+
+    @Test
+    public void plainNonAsciiText() throws Exception {
+        this.assertEstimate(this.newBuilder()
+                .setSubject("Grüße aus Köln – ein längerer Betreff, der gefaltet werden muss, weil er lang ist")
+                .setBodyPlain(this.repeat("Schöne Grüße aus Köln am Rhein, bis bald! \n", 200)));
+    }
+
+    @Test
+    public void plainTextWithLongLines() throws Exception {
+        this.assertEstimate(this.newBuilder().setBodyPlain(this.repeat("x ", 2000)));
+    }
+
+    @Test
+    public void htmlWithGeneratedPlainText() throws Exception {
+        this.assertEstimate(this.newBuilder()
+                .setBodyHtml("<html><body><p>Hallo Jürgen,</p><p>" + this.repeat("viele Grüße ", 300)
+                        + "</p></body></html>")
+                .enableAutoPlainFromHtml());
+    }
+
+    @Test
+    public void htmlWithImagesAndAttachments() throws Exception {
+        byte[] image = new byte[5000];
+        new Random(42L).nextBytes(image);
+        this.assertEstimate(this.newBuilder()
+                .setBodyPlain("plain text")
+                .setBodyHtml("<p>see image <img src=\"cid:logo\"></p>")
+                .addHtmlInlineImage(new InlineImageContentProvider(image, "image/png", "logo"))
+                .addAttachment(new AttachmentContentProvider(image, "application/octet-stream", "data.bin"))
+                .addAttachment(new AttachmentContentProvider("a;b;c\r\n1;2;3\r\n".getBytes("US-ASCII"),
+                        "text/csv", "Übersicht.csv")));
+    }
+
+    @Test
+    public void manyRecipients() throws Exception {
+        MailBuilder mb = this.newBuilder().setBodyPlain("text");
+        for (int i = 0; i < 50; i++) {
+            mb.addTo("Recipient Nummer " + i + " <recipient" + i + "@example.com>");
+            mb.addCc("cc" + i + "@example.com");
+            mb.addBcc("bcc" + i + "@example.com");
+        }
+        this.assertEstimate(mb);
+    }
+
+    /**
+     * Checks that the estimate is at least the size of the message as sent, and not much larger.
+     * @param mb builder
+     * @throws Exception on error
+     */
+    private void assertEstimate(MailBuilder mb) throws Exception {
+        long estimate = mb.estimateSize();
+        Message message = mb.buildMessage();
+        message.saveChanges();
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        // like SMTPTransport: without Bcc and with CRLF line breaks
+        CRLFOutputStream crlfOut = new CRLFOutputStream(bytesOut);
+        ((MimeMessage) message).writeTo(crlfOut, new String[] {"Bcc", "Content-Length"});
+        crlfOut.flush();
+        long size = bytesOut.size();
+        assertTrue("estimate " + estimate + " < size " + size, estimate >= size);
+        assertTrue("estimate " + estimate + " much larger than size " + size, estimate - size <= MAX_OVERESTIMATE);
+    }
+
+    /**
+     * Creates a builder with sender, recipient and subject.
+     * @return builder
+     */
+    private MailBuilder newBuilder() {
+        return MailBuilder.onSession(Session.getInstance(new Properties()))
+                .setFrom("Sender <sender@example.com>")
+                .addTo("recipient@example.com")
+                .setSubject("subject");
+    }
+
+    /**
+     * Repeats a text.
+     * @param text  text
+     * @param count number of repetitions
+     * @return repeated text
+     */
+    private String repeat(String text, int count) {
+        StringBuilder sb = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.nilscoding.mailbuilder;
+
+import org.junit.Test;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests writing messages with MailBuilder.writeTo.
+ * @author nilscoding
+ */
+public class MessageWriteTest {
+
+    @Test
+    public void writtenMessageEqualsBuiltMessage() throws Exception {
+        MailBuilder mb = this.newBuilder();
+        Message message = mb.buildMessage();
+        message.saveChanges();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        message.writeTo(expected);
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        mb.writeTo(written);
+        assertTrue(normalize(written).contains("BOUNDARY"));
+        assertEquals(normalize(expected), normalize(written));
+
+        // the buffer size does not change the output
+        ByteArrayOutputStream unbuffered = new ByteArrayOutputStream();
+        mb.writeTo(unbuffered, 0);
+        assertEquals(normalize(expected), normalize(unbuffered));
+    }
+
+    @Test
+    public void writtenToChannelEqualsWrittenToStream() throws Exception {
+        MailBuilder mb = this.newBuilder();
+        ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
+        mb.writeTo(streamOut);
+        ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+        mb.writeTo(Channels.newChannel(channelOut));
+        assertNotEquals(0, channelOut.size());
+        assertEquals(normalize(streamOut), normalize(channelOut));
+    }
+
+    @Test
+    public void writePhaseReportsWrittenBytes() throws Exception {
+        final List<Long> writeByteCounts = new ArrayList<>();
+        MailBuilder mb = this.newBuilder().setMetricsListener(new MailMetricsListener() {
+            @Override
+            public void phaseCompleted(MailPhase phase, long nanos, long byteCount) {
+                if (phase == MailPhase.WRITE) {
+                    writeByteCounts.add(byteCount);
+                }
+            }
+
+            @Override
+            public void messageBuilt(long nanos, int partCount, Exception failure) {
+            }
+
+            @Override
+            public void messageSent(long nanos, Exception failure) {
+            }
+        });
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        mb.writeTo(written, 16);
+        assertEquals(1, writeByteCounts.size());
+        assertEquals(Long.valueOf(written.size()), writeByteCounts.get(0));
+    }
+
+    /**
+     * Creates a builder for a message with html, plain text and an attachment.
+     * @return builder
+     */
+    private MailBuilder newBuilder() {
+        return MailBuilder.onSession(Session.getInstance(new Properties()))
+                .setFrom("sender@example.com")
+                .addTo("recipient@example.com")
+                .setSubject("subject")
+                .setBodyHtml("<html><body><p>Mit freundlichen Grüßen</p></body></html>")
+                .setBodyPlain("Mit freundlichen Grüßen")
+                .addAttachment(new AttachmentContentProvider(new byte[] {1, 2, 3}, "image/png", "a.png"));
+    }
+
+    /**
+     * Returns the written message without the parts that differ between builds,
+     * the Message-ID and the multipart boundaries.
+     * @param out written message
+     * @return normalized message
+     * @throws Exception on error
+     */
+    private static String normalize(ByteArrayOutputStream out) throws Exception {
+        return out.toString("US-ASCII")
+                .replaceAll("Message-ID: [^\r\n]*\r\n", "")
+                .replaceAll("----=_Part_[0-9_.]+", "BOUNDARY");
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.nilscoding.mailbuilder;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for PlaceholderTemplate.
+ * @author nilscoding
+ */
+public class PlaceholderTemplateTest {
+
+    @Test
+    public void replacesPlaceholders() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("Hello ${name}, your order ${ id } is ${state}.");
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", "Jane");
+        values.put("id", 42);
+        values.put("state", "shipped");
+        assertEquals("Hello Jane, your order 42 is shipped.", template.render(values));
+        assertEquals(Arrays.asList("name", "id", "state"),
+                Arrays.asList(template.getPlaceholderNames().toArray()));
+    }
+
+    @Test
+    public void keepsPlaceholdersWithoutValue() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("Dear ${title} ${name}");
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", "Doe");
+        assertEquals("Dear ${title} Doe", template.render(values));
+        assertEquals("Dear ${title} ${name}", template.render(null));
+    }
+
+    @Test
+    public void escapedPlaceholderIsLiteral() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("Cost: $${price} for ${name}");
+        Map<String, Object> values = new HashMap<>();
+        values.put("price", "10");
+        values.put("name", "you");
+        assertEquals("Cost: ${price} for you", template.render(values));
+        assertEquals(1, template.getPlaceholderNames().size());
+    }
+
+    @Test
+    public void valuesAreNotEscapedOrExpanded() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("<p>${text}</p>");
+        Map<String, Object> values = new HashMap<>();
+        values.put("text", "<b>${other}</b>");
+        values.put("other", "nope");
+        assertEquals("<p><b>${other}</b></p>", template.render(values));
+    }
+
+    @Test
+    public void unclosedPlaceholderIsLiteral() {
+        assertEquals("a ${b c", PlaceholderTemplate.compile("a ${b c").render(null));
+        assertEquals("", PlaceholderTemplate.compile(null).render(null));
+    }
+
+    @Test
+    public void renderToAppends() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("${a}-${b}");
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", "1");
+        values.put("b", "2");
+        StringBuilder sb = new StringBuilder("x:");
+        template.renderTo(sb, values);
+        assertEquals("x:1-2", sb.toString());
+    }
+}
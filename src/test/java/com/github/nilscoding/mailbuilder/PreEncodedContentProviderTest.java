@@ -0,0 +1,30 @@
+package com.github.nilscoding.mailbuilder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for PreEncodedContentProvider.
+ * @author nilscoding
+ */
+public class PreEncodedContentProviderTest {
+
+    @Test
+    public void givenDataIsCopied() throws Exception {
+        byte[] data = "AQID\r\n".getBytes("US-ASCII");
+        PreEncodedContentProvider provider = new PreEncodedContentProvider(data, "base64", "image/png", null, null);
+        data[0] = 'X';
+        assertEquals("AQID\r\n", new String(provider.encodedData, "US-ASCII"));
+    }
+
+    @Test
+    public void encodesContent() throws Exception {
+        PreEncodedContentProvider provider = PreEncodedContentProvider.encode(
+                new AttachmentContentProvider(new byte[] {1, 2, 3}, "image/png", "a.png"));
+        assertEquals("AQID\r\n", new String(provider.encodedData, "US-ASCII"));
+        assertEquals("a.png", provider.getName());
+        assertEquals(6, provider.getEncodedSize());
+    }
+
+}
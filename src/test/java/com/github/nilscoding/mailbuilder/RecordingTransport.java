@@ -0,0 +1,239 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.Provider;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport for tests which records sent messages in its session instead of talking to a server.
+ * Sessions are created with {@link #newMailSession(String)}; the behaviour is controlled by session properties.
+ * @author nilscoding
+ */
+public class RecordingTransport extends Transport {
+
+    /**
+     * Session property holding the list of sent messages.
+     */
+    public static final String SENT = "test.sent";
+    /**
+     * Session property holding the number of connects.
+     */
+    public static final String CONNECTS = "test.connects";
+    /**
+     * Session property: if "true", connecting fails with a refused connection.
+     */
+    public static final String REFUSE_CONNECT = "test.refuseConnect";
+    /**
+     * Session property: recipient which is rejected permanently (550).
+     */
+    public static final String REJECT_RECIPIENT = "test.rejectRecipient";
+    /**
+     * Session property holding the number of sends still failing with 451.
+     */
+    public static final String TRANSIENT_FAILURES = "test.transientFailures";
+    /**
+     * Session property holding the number of sends still failing with 421, closing the connection.
+     */
+    public static final String CLOSING_FAILURES = "test.closingFailures";
+    /**
+     * Session property holding the number of connection checks (NOOP).
+     */
+    public static final String NOOPS = "test.noops";
+    /**
+     * Session property holding the number of connection checks still failing.
+     */
+    public static final String NOOP_FAILURES = "test.noopFailures";
+    /**
+     * Session property holding the number of closed transports.
+     */
+    public static final String CLOSES = "test.closes";
+    /**
+     * Session property: optional runnable called whenever a transport is closed.
+     */
+    public static final String ON_CLOSE = "test.onClose";
+    /**
+     * Session property: optional semaphore released whenever a send starts.
+     */
+    public static final String STARTED = "test.started";
+    /**
+     * Session property: optional latch every send waits for before the message is recorded.
+     */
+    public static final String BLOCK = "test.block";
+
+    /**
+     * Creates a new transport.
+     * @param session session
+     * @param urlname URL name
+     */
+    public RecordingTransport(Session session, URLName urlname) {
+        super(session, urlname);
+    }
+
+    /**
+     * Creates a mail session whose sessions use this transport and share their properties.
+     * @param host SMTP host
+     * @return mail session
+     */
+    public static MailSession newMailSession(String host) {
+        final Properties props = new Properties();
+        props.setProperty("mail.smtp.host", host);
+        props.put(SENT, new CopyOnWriteArrayList<Sent>());
+        props.put(CONNECTS, new AtomicInteger());
+        props.put(TRANSIENT_FAILURES, new AtomicInteger());
+        props.put(CLOSING_FAILURES, new AtomicInteger());
+        props.put(NOOPS, new AtomicInteger());
+        props.put(NOOP_FAILURES, new AtomicInteger());
+        props.put(CLOSES, new AtomicInteger());
+        return new MailSession() {
+            @Override
+            public Session createNewSession() {
+                Session session = Session.getInstance(props);
+                try {
+                    session.setProvider(new Provider(Provider.Type.TRANSPORT, "smtp",
+                            RecordingTransport.class.getName(), "test", "1"));
+                } catch (NoSuchProviderException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                return session;
+            }
+        };
+    }
+
+    /**
+     * Returns the messages sent with the sessions of the given mail session.
+     * @param mailSession mail session created by newMailSession()
+     * @return sent messages
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Sent> getSent(MailSession mailSession) {
+        return (List<Sent>) getProperties(mailSession).get(SENT);
+    }
+
+    /**
+     * Returns the properties shared by the sessions of the given mail session.
+     * @param mailSession mail session created by newMailSession()
+     * @return properties
+     */
+    public static Properties getProperties(MailSession mailSession) {
+        return mailSession.createNewSession().getProperties();
+    }
+
+    @Override
+    protected boolean protocolConnect(String host, int port, String user, String password)
+            throws MessagingException {
+        Properties props = this.session.getProperties();
+        ((AtomicInteger) props.get(CONNECTS)).incrementAndGet();
+        if ("true".equals(props.getProperty(REFUSE_CONNECT))) {
+            throw new MessagingException("Could not connect to SMTP host: " + host,
+                    new ConnectException("Connection refused"));
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        if (super.isConnected() == false) {
+            return false;
+        }
+        Properties props = this.session.getProperties();
+        ((AtomicInteger) props.get(NOOPS)).incrementAndGet();
+        if (((AtomicInteger) props.get(NOOP_FAILURES)).getAndDecrement() > 0) {
+            this.setConnected(false);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws MessagingException {
+        Properties props = this.session.getProperties();
+        Runnable onClose = (Runnable) props.get(ON_CLOSE);
+        if (onClose != null) {
+            onClose.run();
+        }
+        ((AtomicInteger) props.get(CLOSES)).incrementAndGet();
+        super.close();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        Properties props = this.session.getProperties();
+        Semaphore started = (Semaphore) props.get(STARTED);
+        if (started != null) {
+            started.release();
+        }
+        CountDownLatch block = (CountDownLatch) props.get(BLOCK);
+        if (block != null) {
+            try {
+                block.await(30L, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("interrupted while blocked", ex);
+            }
+        }
+        if (((AtomicInteger) props.get(CLOSING_FAILURES)).getAndDecrement() > 0) {
+            this.setConnected(false);
+            throw new SMTPSendFailedException("DATA", 421, "421 closing connection", null, null, null, null);
+        }
+        if (((AtomicInteger) props.get(TRANSIENT_FAILURES)).getAndDecrement() > 0) {
+            throw new SMTPSendFailedException("DATA", 451, "451 try again later", null, null, null, null);
+        }
+        String rejected = props.getProperty(REJECT_RECIPIENT);
+        for (Address oneAddress : addresses) {
+            if (oneAddress.toString().equals(rejected)) {
+                throw new SMTPSendFailedException("RCPT TO", 550, "550 no such user", null, null, null, null);
+            }
+        }
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        try {
+            message.writeTo(bytesOut);
+        } catch (IOException ex) {
+            throw new MessagingException("IOException while sending message", ex);
+        }
+        ((List<Sent>) props.get(SENT)).add(new Sent(addresses, bytesOut.toByteArray()));
+    }
+
+    /**
+     * One sent message.
+     */
+    public static class Sent {
+
+        /**
+         * Envelope recipients.
+         */
+        public final List<Address> recipients;
+        /**
+         * Message as written to the server.
+         */
+        public final byte[] data;
+
+        /**
+         * Creates a new record.
+         * @param recipients envelope recipients
+         * @param data       message data
+         */
+        public Sent(Address[] recipients, byte[] data) {
+            this.recipients = Arrays.asList(recipients.clone());
+            this.data = data;
+        }
+    }
+}
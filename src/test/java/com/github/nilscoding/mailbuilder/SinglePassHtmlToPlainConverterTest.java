@@ -0,0 +1,162 @@
+package com.github.nilscoding.mailbuilder;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for SinglePassHtmlToPlainConverter.
+ * @author nilscoding
+ */
+public class SinglePassHtmlToPlainConverterTest {
+
+    /**
+     * Building blocks of random documents: markup first, then text with a literal '&lt;'
+     * and an unclosed tag at the end.
+     */
+    private static final String[] TOKENS = {
+        "text", "more words", " ", "  ", "\n", "\r\n", "&amp;", ">", "x > y", "<p>", "</p>", "<p class=\"a\">",
+        "<br>", "<br/>", "<h1>", "</h1>", "<div>", "</div>", "<ul>", "</ul>", "<ol>", "</ol>", "<li>", "</li>",
+        "<b>", "</b>", "<!-- comment -->", "<?xml?>", "<script>var a = 1 < 2;</script>",
+        "<noscript><p>no</p></noscript>",
+        "a < b", "<", "<5", "< y", "x<=y", "<>", "<-", "x <", "<i unclosed",
+    };
+
+    /**
+     * Number of tokens without a literal '&lt;' and without the unclosed tag. SimpleHtmlToPlainConverter
+     * takes a literal '&lt;' for the start of a tag, and it removes block tags before other tags, so an
+     * unclosed tag followed by a block tag is text there.
+     */
+    private static final int MARKUP_TOKENS = TOKENS.length - 9;
+
+    /**
+     * Number of random documents.
+     */
+    private static final int RANDOM_DOCUMENTS = 20000;
+
+    private final SinglePassHtmlToPlainConverter converter = new SinglePassHtmlToPlainConverter();
+
+    @Test
+    public void keepsLiteralLessThan() {
+        assertEquals("price < 5\n\nnext", this.converter.convertHtmlToPlainText("<p>price < 5</p><p>next</p>"));
+        assertEquals("a bold x < y", this.converter.convertHtmlToPlainText("<p>a <b>bold</b> x < y</p>"));
+        assertEquals("a <> b", this.converter.convertHtmlToPlainText("a <> b"));
+        assertEquals("1 <2", this.converter.convertHtmlToPlainText("1 <2"));
+    }
+
+    @Test
+    public void differsFromSimpleConverterOnLiteralLessThan() {
+        String html = "a < y <b>bold</b>";
+        assertEquals("a bold", new SimpleHtmlToPlainConverter().convertHtmlToPlainText(html));
+        assertEquals("a < y bold", this.converter.convertHtmlToPlainText(html));
+    }
+
+    @Test
+    public void matchesSimpleConverter() {
+        SimpleHtmlToPlainConverter simple = new SimpleHtmlToPlainConverter();
+        Random random = new Random(42L);
+        for (int i = 0; i < RANDOM_DOCUMENTS; i++) {
+            String html = randomDocument(random, " ", MARKUP_TOKENS);
+            assertEquals(html, simple.convertHtmlToPlainText(html), this.converter.convertHtmlToPlainText(html));
+        }
+    }
+
+    @Test
+    public void streamMatchesString() throws IOException {
+        Random random = new Random(7L);
+        for (int i = 0; i < RANDOM_DOCUMENTS; i++) {
+            String html = randomDocument(random, "", TOKENS.length);
+            assertEquals(html, this.converter.convertHtmlToPlainText(html), this.convertStream(html));
+        }
+    }
+
+    @Test
+    public void streamWithUnclosedBodyMatchesString() throws IOException {
+        String html = "<html><head><title>t</title></head><body><p>Hello</p><p>World</p>";
+        assertEquals("t\nHello\n\nWorld", this.convertStream(html));
+        Random random = new Random(11L);
+        for (int i = 0; i < RANDOM_DOCUMENTS; i++) {
+            String body = randomDocument(random, "", TOKENS.length);
+            if (body.startsWith("<html>")) {
+                // a second body element is not converted like the string conversion
+                continue;
+            }
+            html = "<html><head><title>t</title></head><body>" + body;
+            assertEquals(html, this.converter.convertHtmlToPlainText(html), this.convertStream(html));
+        }
+    }
+
+    @Test
+    public void streamWithLongUnclosedBodyUsesBodyText() throws IOException {
+        String text = repeat('x', 100000);
+        String html = "<html><head><title>t</title></head><body><p>" + text + "</p>";
+        assertEquals("t\n" + text, this.converter.convertHtmlToPlainText(html));
+        // too long to wait for the end of the body, so the text before the body is dropped
+        assertEquals(text, this.convertStream(html));
+    }
+
+    @Test
+    public void streamTakesOverlongTagAsText() throws IOException {
+        String unclosed = "<a" + repeat('x', 100000);
+        assertEquals("a " + unclosed, this.convertStream("a " + unclosed));
+        // text after a tag which is too long is converted as usual
+        assertEquals(unclosed + "> b", this.convertStream(unclosed + "> <b>b</b>"));
+    }
+
+    @Test
+    public void streamKeepsLongWhitespace() throws IOException {
+        String html = "a" + repeat(' ', 100000) + "b";
+        assertEquals(this.converter.convertHtmlToPlainText(html), this.convertStream(html));
+    }
+
+    /**
+     * Returns a string repeating the given char.
+     * @param c     char
+     * @param count number of chars
+     * @return string
+     */
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Converts the given html using the stream conversion.
+     * @param html html
+     * @return plain text
+     * @throws IOException never
+     */
+    private String convertStream(String html) throws IOException {
+        StringBuilder plain = new StringBuilder();
+        this.converter.convertHtmlToPlainText(new StringReader(html), plain);
+        return plain.toString();
+    }
+
+    /**
+     * Creates a random document, in a third of the cases wrapped in a body element. When comparing with
+     * SimpleHtmlToPlainConverter, tokens are separated by spaces: it removes script blocks before other tags,
+     * so a '&lt;' directly before a script block would start a tag with the text after the block.
+     * @param random     random
+     * @param separator  separator between tokens
+     * @param tokenCount number of TOKENS to choose from
+     * @return document
+     */
+    static String randomDocument(Random random, String separator, int tokenCount) {
+        StringBuilder html = new StringBuilder();
+        int count = random.nextInt(20);
+        for (int i = 0; i < count; i++) {
+            html.append(TOKENS[random.nextInt(tokenCount)]).append(separator);
+        }
+        if (random.nextInt(3) == 0) {
+            return "<html><head><title>t</title></head><body class=\"x\">" + html + "</body></html>";
+        }
+        return html.toString();
+    }
+}
@@ -0,0 +1,164 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.sun.mail.smtp.SMTPMessage;
+import org.junit.Test;
+
+import javax.activation.DataSource;
+import javax.mail.Message;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimePart;
+import javax.mail.util.ByteArrayDataSource;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the transfer encodings MailBuilder chooses from the content.
+ * @author nilscoding
+ */
+public class TransferEncodingTest {
+
+    /**
+     * Mostly ASCII text.
+     */
+    private static final String GERMAN = "Mit freundlichen Grüßen aus der schönen Stadt Köln am Rhein";
+
+    @Test
+    public void asciiTextIs7Bit() throws Exception {
+        Message message = this.newBuilder().setBodyPlain("plain ASCII text").buildMessage();
+        assertEquals("7bit", getEncoding(message));
+    }
+
+    @Test
+    public void mostlyAsciiTextIsQuotedPrintable() throws Exception {
+        Message message = this.newBuilder().setBodyPlain(GERMAN).buildMessage();
+        assertEquals("quoted-printable", getEncoding(message));
+        assertNull(((SMTPMessage) message).getMailExtension());
+    }
+
+    @Test
+    public void nonLatinTextIsBase64() throws Exception {
+        Message message = this.newBuilder().setBodyPlain("这是一封中文邮件，祝你一切顺利").buildMessage();
+        assertEquals("base64", getEncoding(message));
+    }
+
+    @Test
+    public void eightBitOnlyIfServerAcceptsIt() throws Exception {
+        MailBuilder mb = this.newBuilder().setBodyPlain(GERMAN).enable8BitMime();
+        Message accepted = mb.buildMessage(true);
+        assertEquals("8bit", getEncoding(accepted));
+        assertEquals("BODY=8BITMIME", ((SMTPMessage) accepted).getMailExtension());
+
+        Message notAccepted = mb.buildMessage(false);
+        assertEquals("quoted-printable", getEncoding(notAccepted));
+        assertNull(((SMTPMessage) notAccepted).getMailExtension());
+
+        // ASCII text needs no 8bit, so the message is not announced as 8bit
+        Message ascii = this.newBuilder().setBodyPlain("ASCII").enable8BitMime().buildMessage(true);
+        assertEquals("7bit", getEncoding(ascii));
+        assertNull(((SMTPMessage) ascii).getMailExtension());
+    }
+
+    @Test
+    public void htmlAndAttachmentsGetOwnEncodings() throws Exception {
+        byte[] binary = {0, 1, 2, (byte) 0xff, 'a', 'b'};
+        Message message = this.newBuilder()
+                .setBodyHtml("<p>" + GERMAN + "</p>")
+                .addAttachment(new AttachmentContentProvider(binary, "application/octet-stream", "data.bin"))
+                .addAttachment(new AttachmentContentProvider("a;b\r\n1;2\r\n".getBytes("US-ASCII"),
+                        "text/csv", "list.csv"))
+                .buildMessage();
+        Multipart multipart = (Multipart) message.getContent();
+        assertEquals("quoted-printable", getEncoding(multipart.getBodyPart(0)));
+        assertEquals("base64", getEncoding(multipart.getBodyPart(1)));
+        assertEquals("7bit", getEncoding(multipart.getBodyPart(2)));
+    }
+
+    @Test
+    public void changedContentIsAnalyzedAgain() throws Exception {
+        final byte[][] content = {"ASCII only".getBytes("US-ASCII")};
+        BinaryContentProvider provider = new BinaryContentProvider() {
+            @Override
+            public DataSource getDataSource() {
+                ByteArrayDataSource dataSource = new ByteArrayDataSource(content[0], "application/octet-stream");
+                dataSource.setName("data.bin");
+                return dataSource;
+            }
+
+            @Override
+            public String getContentId() {
+                return null;
+            }
+
+            @Override
+            public String getName() {
+                return "data.bin";
+            }
+        };
+        MailBuilder mb = this.newBuilder().setBodyPlain("text").addAttachment(provider);
+        assertEquals("7bit", getEncoding(((Multipart) mb.buildMessage().getContent()).getBodyPart(1)));
+        content[0] = new byte[] {0, (byte) 0x80, (byte) 0xff};
+        assertEquals("base64", getEncoding(((Multipart) mb.buildMessage().getContent()).getBodyPart(1)));
+    }
+
+    @Test
+    public void nestedBuildDoesNotChangeOuterBuild() throws Exception {
+        final MailBuilder mb = this.newBuilder().enable8BitMime();
+        final Message[] nested = new Message[1];
+        final boolean[] nestedStarted = {false};
+        mb.setBodyPlain(new StringContentProvider() {
+            @Override
+            public String getStringData() {
+                if (nestedStarted[0] == false) {
+                    // build again while the outer build reads its content
+                    nestedStarted[0] = true;
+                    nested[0] = mb.buildMessage(false);
+                }
+                return GERMAN;
+            }
+        });
+        Message outer = mb.buildMessage(true);
+        assertEquals("quoted-printable", getEncoding(nested[0]));
+        assertEquals("8bit", getEncoding(outer));
+        assertEquals("BODY=8BITMIME", ((SMTPMessage) outer).getMailExtension());
+    }
+
+    @Test
+    public void plainBuildDoesNotChangeSharedContext() throws Exception {
+        PreEncodedContentProvider eightBit = new PreEncodedContentProvider(
+                GERMAN.getBytes("UTF-8"), "8bit", "text/plain; charset=UTF-8", null, "greeting.txt");
+        MailBuilder mb = this.newBuilder().setBodyPlain("text").addAttachment(eightBit);
+        Message plain = mb.buildMessage();
+        assertNull(((SMTPMessage) plain).getMailExtension());
+        assertFalse(MailBuilder.PLAIN_BUILD_CONTEXT.used8Bit);
+        assertEquals(0L, MailBuilder.PLAIN_BUILD_CONTEXT.measuredPhaseNanos);
+
+        Message accepted = mb.enable8BitMime().buildMessage(true);
+        assertEquals("BODY=8BITMIME", ((SMTPMessage) accepted).getMailExtension());
+        assertFalse(MailBuilder.PLAIN_BUILD_CONTEXT.used8Bit);
+    }
+
+    /**
+     * Creates a builder with sender and recipient.
+     * @return builder
+     */
+    private MailBuilder newBuilder() {
+        return MailBuilder.onSession(Session.getInstance(new Properties()))
+                .setFrom("sender@example.com")
+                .addTo("recipient@example.com");
+    }
+
+    /**
+     * Returns the transfer encoding of a part.
+     * @param part message or body part
+     * @return transfer encoding
+     * @throws Exception on error
+     */
+    private static String getEncoding(Part part) throws Exception {
+        return ((MimePart) part).getEncoding();
+    }
+}
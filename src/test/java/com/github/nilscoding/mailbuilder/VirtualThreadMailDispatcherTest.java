@@ -0,0 +1,149 @@
+package com.github.nilscoding.mailbuilder;
+
+import com.github.nilscoding.mailbuilder.sessionimpl.RelayMailSession;
+import org.junit.Test;
+
+import javax.mail.Session;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the concurrency limits of VirtualThreadMailDispatcher.
+ * @author nilscoding
+ */
+public class VirtualThreadMailDispatcherTest {
+
+    @Test
+    public void relayLimitAppliesToEveryTriedRelay() throws Exception {
+        int port = this.findClosedPort();
+        RelayMailSession relaySession = new RelayMailSession();
+        relaySession.addRelay(this.newMailSession("127.0.0.1", port));
+        relaySession.addRelay(this.newMailSession("localhost", port));
+        VirtualThreadMailDispatcher dispatcher = new VirtualThreadMailDispatcher();
+        try {
+            // only the second relay is limited, the message is built on a session of the first one
+            dispatcher.setConcurrencyLimit("localhost", 1);
+            MailBuilder mb = MailBuilder.onSession(relaySession)
+                    .setFrom("sender@example.com")
+                    .addTo("recipient@example.com")
+                    .setSubject("subject")
+                    .setBodyPlain("text");
+            SendResult result = dispatcher.submit(mb).get(30L, TimeUnit.SECONDS);
+            // both relays refuse the connection
+            assertFalse(result.isSent());
+            VirtualThreadMailDispatcher.HostGate gate = dispatcher.hostGates.get("localhost");
+            assertNotNull(gate);
+            assertEquals(0, gate.getRunningCount());
+            assertEquals(0, dispatcher.hostGates.get("127.0.0.1").getRunningCount());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void limitedHostDoesNotHoldUpOtherHosts() throws Exception {
+        MailSession limited = RecordingTransport.newMailSession("limited.example.com");
+        CountDownLatch block = new CountDownLatch(1);
+        Semaphore started = new Semaphore(0);
+        RecordingTransport.getProperties(limited).put(RecordingTransport.BLOCK, block);
+        RecordingTransport.getProperties(limited).put(RecordingTransport.STARTED, started);
+        MailSession other = RecordingTransport.newMailSession("other.example.com");
+        // two workers: a blocked send and a message queued for the limited host must leave one free
+        VirtualThreadMailDispatcher dispatcher = new VirtualThreadMailDispatcher(100, 2, null);
+        try {
+            dispatcher.setConcurrencyLimit("limited.example.com", 1);
+            List<Future<SendResult>> limitedResults = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                limitedResults.add(dispatcher.submit(this.newBuilder(limited)));
+            }
+            assertTrue(started.tryAcquire(30L, TimeUnit.SECONDS));
+            assertTrue(dispatcher.submit(this.newBuilder(other)).get(30L, TimeUnit.SECONDS).isSent());
+            VirtualThreadMailDispatcher.HostGate gate = dispatcher.hostGates.get("limited.example.com");
+            assertEquals(1, gate.getRunningCount());
+            assertEquals(2, gate.getWaitingCount());
+            block.countDown();
+            for (Future<SendResult> oneResult : limitedResults) {
+                assertTrue(oneResult.get(30L, TimeUnit.SECONDS).isSent());
+            }
+            assertEquals(3, RecordingTransport.getSent(limited).size());
+            // the slot is freed after the result has been set
+            dispatcher.shutdown();
+            assertTrue(dispatcher.awaitTermination(30L, TimeUnit.SECONDS));
+            assertEquals(0, gate.getRunningCount());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void runningSendsCountAgainstChangedLimit() throws Exception {
+        MailSession limited = RecordingTransport.newMailSession("limited.example.com");
+        CountDownLatch block = new CountDownLatch(1);
+        Semaphore started = new Semaphore(0);
+        RecordingTransport.getProperties(limited).put(RecordingTransport.BLOCK, block);
+        RecordingTransport.getProperties(limited).put(RecordingTransport.STARTED, started);
+        VirtualThreadMailDispatcher dispatcher = new VirtualThreadMailDispatcher();
+        try {
+            dispatcher.setDefaultConcurrencyLimit(1);
+            Future<SendResult> first = dispatcher.submit(this.newBuilder(limited));
+            assertTrue(started.tryAcquire(30L, TimeUnit.SECONDS));
+            // setting the limit again must not free the slot of the running send
+            dispatcher.setConcurrencyLimit("limited.example.com", 1);
+            dispatcher.setDefaultConcurrencyLimit(1);
+            Future<SendResult> second = dispatcher.submit(this.newBuilder(limited));
+            Future<SendResult> third = dispatcher.submit(this.newBuilder(limited));
+            assertFalse(started.tryAcquire(200L, TimeUnit.MILLISECONDS));
+            VirtualThreadMailDispatcher.HostGate gate = dispatcher.hostGates.get("limited.example.com");
+            assertEquals(1, gate.getRunningCount());
+            // raising the limit starts the waiting messages
+            dispatcher.setConcurrencyLimit("limited.example.com", 3);
+            assertTrue(started.tryAcquire(2, 30L, TimeUnit.SECONDS));
+            assertEquals(3, gate.getRunningCount());
+            block.countDown();
+            assertTrue(first.get(30L, TimeUnit.SECONDS).isSent());
+            assertTrue(second.get(30L, TimeUnit.SECONDS).isSent());
+            assertTrue(third.get(30L, TimeUnit.SECONDS).isSent());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    private MailBuilder newBuilder(MailSession mailSession) {
+        return MailBuilder.onSession(mailSession)
+                .setFrom("sender@example.com")
+                .addTo("recipient@example.com")
+                .setSubject("subject")
+                .setBodyPlain("text");
+    }
+
+    private MailSession newMailSession(final String host, final int port) {
+        return new MailSession() {
+            @Override
+            public Session createNewSession() {
+                Properties props = new Properties();
+                props.put("mail.smtp.host", host);
+                props.put("mail.smtp.port", String.valueOf(port));
+                props.put("mail.smtp.connectiontimeout", "5000");
+                return Session.getInstance(props);
+            }
+        };
+    }
+
+    private int findClosedPort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.github.nilscoding.mailbuilder.sessionimpl;
+
+import com.github.nilscoding.mailbuilder.MailBuilder;
+import com.github.nilscoding.mailbuilder.MailSession;
+import com.github.nilscoding.mailbuilder.RecordingTransport;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests relay selection and failover of RelayMailSession.
+ * @author nilscoding
+ */
+public class RelayMailSessionTest {
+
+    @Test
+    public void weightedRoundRobinFollowsWeights() {
+        MailSession heavy = RecordingTransport.newMailSession("heavy.example.com");
+        MailSession light = RecordingTransport.newMailSession("light.example.com");
+        RelayMailSession relaySession = new RelayMailSession().addRelay(heavy, 2).addRelay(light, 1);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(this.send(relaySession, null));
+        }
+        assertEquals(4, RecordingTransport.getSent(heavy).size());
+        assertEquals(2, RecordingTransport.getSent(light).size());
+    }
+
+    @Test
+    public void leastOutstandingSelectsIdleRelay() {
+        RelayMailSession relaySession = new RelayMailSession(RelayMailSession.Selection.LEAST_OUTSTANDING)
+                .addRelay(RecordingTransport.newMailSession("busy.example.com"))
+                .addRelay(RecordingTransport.newMailSession("idle.example.com"));
+        RelayMailSession.Relay busy = relaySession.relays.get(0);
+        busy.outstanding.set(3);
+        assertSame(relaySession.relays.get(1), relaySession.select(new ArrayList<RelayMailSession.Relay>()));
+        List<RelayMailSession.Relay> excluded = new ArrayList<>();
+        excluded.add(relaySession.relays.get(1));
+        assertSame(busy, relaySession.select(excluded));
+    }
+
+    @Test
+    public void refusedConnectionFailsOver() {
+        MailSession down = RecordingTransport.newMailSession("down.example.com");
+        RecordingTransport.getProperties(down).setProperty(RecordingTransport.REFUSE_CONNECT, "true");
+        MailSession up = RecordingTransport.newMailSession("up.example.com");
+        RelayMailSession relaySession = new RelayMailSession().addRelay(down).addRelay(up);
+        relaySession.setFailurePolicy(2, 60000L);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(this.send(relaySession, null));
+        }
+        assertEquals(4, RecordingTransport.getSent(up).size());
+        RelayMailSession.Relay downRelay = relaySession.relays.get(0);
+        // taken out of rotation after two failures
+        assertEquals(2L, downRelay.getFailureCount());
+        assertFalse(downRelay.isAvailable());
+        assertEquals(4L, relaySession.relays.get(1).getSentCount());
+    }
+
+    @Test
+    public void refusedConnectionFailsOverWithPool() {
+        MailSession down = RecordingTransport.newMailSession("down.example.com");
+        RecordingTransport.getProperties(down).setProperty(RecordingTransport.REFUSE_CONNECT, "true");
+        MailSession up = RecordingTransport.newMailSession("up.example.com");
+        RelayMailSession relaySession = new RelayMailSession().addRelay(down).addRelay(up);
+        TransportPool pool = new TransportPool();
+        try {
+            assertTrue(this.send(relaySession, pool));
+            assertTrue(this.send(relaySession, pool));
+        } finally {
+            pool.close();
+        }
+        assertEquals(2, RecordingTransport.getSent(up).size());
+        assertEquals(1L, relaySession.relays.get(0).getFailureCount());
+        // one connection of the pool for both messages
+        assertEquals(1, this.getConnects(up));
+    }
+
+    @Test
+    public void rejectedMessageIsNotTriedElsewhere() {
+        MailSession first = RecordingTransport.newMailSession("first.example.com");
+        RecordingTransport.getProperties(first).setProperty(RecordingTransport.REJECT_RECIPIENT,
+                "recipient@example.com");
+        MailSession second = RecordingTransport.newMailSession("second.example.com");
+        RelayMailSession relaySession = new RelayMailSession().addRelay(first).addRelay(second);
+
+        assertFalse(this.send(relaySession, null));
+        assertTrue(RecordingTransport.getSent(second).isEmpty());
+        assertEquals(0, this.getConnects(second));
+        assertEquals(0L, relaySession.relays.get(0).getFailureCount());
+    }
+
+    @Test
+    public void builderThrottleAndRetryApplyWithoutPool() {
+        MailSession relay = RecordingTransport.newMailSession("relay.example.com");
+        ((AtomicInteger) RecordingTransport.getProperties(relay).get(RecordingTransport.TRANSIENT_FAILURES)).set(1);
+        RelayMailSession relaySession = new RelayMailSession().addRelay(relay);
+        SendThrottle throttle = new SendThrottle(1000.0d);
+
+        MailBuilder mb = this.newBuilder(relaySession)
+                .setSendThrottle(throttle)
+                .setRetryPolicy(new RetryPolicy(2, 0L, 0L, 0.0d));
+        assertTrue(mb.buildMessageAndSend());
+        assertEquals(1, RecordingTransport.getSent(relay).size());
+        // one permit per attempt, taken for the relay's host
+        assertEquals(2L, throttle.getAcquireCount());
+        assertTrue(throttle.buckets.containsKey("relay.example.com"));
+    }
+
+    /**
+     * Builds and sends a message.
+     * @param relaySession  relay session
+     * @param transportPool transport pool, may be null
+     * @return true if sent
+     */
+    private boolean send(RelayMailSession relaySession, TransportPool transportPool) {
+        MailBuilder mb = this.newBuilder(relaySession);
+        return (transportPool != null) ? mb.buildMessageAndSend(transportPool) : mb.buildMessageAndSend();
+    }
+
+    /**
+     * Creates a builder for a simple message.
+     * @param relaySession relay session
+     * @return builder
+     */
+    private MailBuilder newBuilder(RelayMailSession relaySession) {
+        return MailBuilder.onSession(relaySession)
+                .setFrom("sender@example.com")
+                .addTo("recipient@example.com")
+                .setSubject("subject")
+                .setBodyPlain("text");
+    }
+
+    /**
+     * Returns the number of connects to the given relay.
+     * @param mailSession mail session of the relay
+     * @return number of connects
+     */
+    private int getConnects(MailSession mailSession) {
+        return ((AtomicInteger) RecordingTransport.getProperties(mailSession).get(RecordingTransport.CONNECTS)).get();
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.nilscoding.mailbuilder.sessionimpl;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+import org.junit.Test;
+
+import javax.mail.MessagingException;
+import java.net.SocketException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for RetryPolicy.
+ * @author nilscoding
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void retriesTransientFailuresUpToMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy(3, 0L, 0L, 0.0d);
+        Exception busy = new SMTPSendFailedException("DATA", 451, "451 try again later", null, null, null, null);
+        assertTrue(policy.shouldRetry(busy, 1));
+        assertTrue(policy.shouldRetry(busy, 2));
+        assertFalse(policy.shouldRetry(busy, 3));
+    }
+
+    @Test
+    public void retriesLostConnection() {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.shouldRetry(new MessagingException("Exception reading response",
+                new SocketException("Connection reset")), 1));
+    }
+
+    @Test
+    public void doesNotRetryPermanentFailures() {
+        RetryPolicy policy = new RetryPolicy();
+        assertFalse(policy.shouldRetry(new SMTPSendFailedException("DATA", 554, "554 rejected", null,
+                null, null, null), 1));
+        assertFalse(policy.shouldRetry(new MessagingException("bad address"), 1));
+    }
+
+    @Test
+    public void delayDoublesUpToMaximum() {
+        RetryPolicy policy = new RetryPolicy(10, 100L, 700L, 0.0d);
+        assertEquals(100L, policy.getDelayMillis(1));
+        assertEquals(200L, policy.getDelayMillis(2));
+        assertEquals(400L, policy.getDelayMillis(3));
+        assertEquals(700L, policy.getDelayMillis(4));
+        assertEquals(700L, policy.getDelayMillis(9));
+    }
+
+    @Test
+    public void jitterOnlyShortensDelay() {
+        RetryPolicy policy = new RetryPolicy(10, 1000L, 1000L, 0.5d);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.getDelayMillis(1);
+            assertTrue(delay >= 500L);
+            assertTrue(delay <= 1000L);
+        }
+    }
+
+    @Test
+    public void valuesAreClamped() {
+        RetryPolicy policy = new RetryPolicy(0, -5L, -1L, 2.0d);
+        assertEquals(1, policy.getMaxAttempts());
+        assertEquals(0L, policy.getDelayMillis(1));
+        assertFalse(policy.shouldRetry(new SMTPSendFailedException("DATA", 451, "451 later", null,
+                null, null, null), 1));
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.nilscoding.mailbuilder.sessionimpl;
+
+import org.junit.Test;
+
+import javax.mail.Session;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for SendThrottle.
+ * @author nilscoding
+ */
+public class SendThrottleTest {
+
+    @Test
+    public void unlimitedRateDoesNotWait() throws InterruptedException {
+        SendThrottle throttle = new SendThrottle(0.0d);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0L, throttle.acquire("smtp.example.com"));
+        }
+        assertTrue(throttle.buckets.isEmpty());
+        assertEquals(100L, throttle.getAcquireCount());
+        assertEquals(0L, throttle.getWaitCount());
+    }
+
+    @Test
+    public void unlimitedRateDoesNotLock() throws InterruptedException {
+        final SendThrottle throttle = new SendThrottle(0.0d);
+        throttle.setRate("limited.example.com", 5.0d);
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    throttle.acquire("smtp.example.com");
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        synchronized (throttle.rateLock) {
+            sender.start();
+            sender.join(30000L);
+            assertFalse(sender.isAlive());
+        }
+        assertEquals(1L, throttle.getAcquireCount());
+        assertTrue(throttle.buckets.isEmpty());
+    }
+
+    @Test
+    public void hostRateOverridesDefaultRate() throws InterruptedException {
+        SendThrottle throttle = new SendThrottle(1.0d);
+        throttle.setRate("fast.example.com", 1000.0d);
+        assertEquals(1000.0d, throttle.getRate("fast.example.com"), 0.0d);
+        assertEquals(1.0d, throttle.getRate("slow.example.com"), 0.0d);
+        throttle.acquire("fast.example.com");
+        throttle.acquire("slow.example.com");
+        throttle.setDefaultRate(2.0d);
+        assertEquals(1000.0d, throttle.buckets.get("fast.example.com").getRate(), 0.0d);
+        assertEquals(2.0d, throttle.buckets.get("slow.example.com").getRate(), 0.0d);
+    }
+
+    @Test
+    public void unlimitedHostRateRemovesBucket() throws InterruptedException {
+        SendThrottle throttle = new SendThrottle(5.0d);
+        throttle.acquire("smtp.example.com");
+        throttle.setRate("smtp.example.com", 0.0d);
+        assertNull(throttle.buckets.get("smtp.example.com"));
+        assertEquals(0L, throttle.acquire("smtp.example.com"));
+    }
+
+    @Test
+    public void waitingIsCounted() throws InterruptedException {
+        SendThrottle throttle = new SendThrottle(20.0d);
+        throttle.setRate("smtp.example.com", 20.0d);
+        long waited = 0L;
+        for (int i = 0; i < 22; i++) {
+            waited += throttle.acquire("smtp.example.com");
+        }
+        assertTrue(throttle.getWaitCount() > 0L);
+        assertEquals(waited, throttle.getTotalWaitNanos());
+    }
+
+    @Test
+    public void hostIsTakenFromSession() {
+        Properties props = new Properties();
+        props.setProperty("mail.smtp.host", "smtp.example.com");
+        assertEquals("smtp.example.com", SendThrottle.getHost(Session.getInstance(props)));
+        assertEquals("", SendThrottle.getHost(null));
+    }
+
+    @Test
+    public void newBucketNeverKeepsOutdatedRate() throws InterruptedException {
+        for (int round = 0; round < 50; round++) {
+            final SendThrottle throttle = new SendThrottle(1000.0d);
+            final String host = "smtp" + round + ".example.com";
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] senders = new Thread[4];
+            for (int i = 0; i < senders.length; i++) {
+                senders[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            throttle.acquire(host);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                senders[i].start();
+            }
+            start.countDown();
+            throttle.setRate(host, 1000.5d);
+            for (Thread oneSender : senders) {
+                oneSender.join();
+            }
+            assertEquals(1000.5d, throttle.buckets.get(host).getRate(), 0.0d);
+            assertFalse(throttle.buckets.size() > 1);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.nilscoding.mailbuilder.sessionimpl;
+
+import org.junit.Test;
+
+import javax.mail.PasswordAuthentication;
+import javax.mail.Session;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests session caching of SmtpSSLAuthMailSession.
+ * @author nilscoding
+ */
+public class SmtpSSLAuthMailSessionTest {
+
+    @Test
+    public void withoutCachingEveryCallCreatesSession() {
+        SmtpSSLAuthMailSession mailSession = new SmtpSSLAuthMailSession("smtp.example.com", "user", "secret");
+        assertNotSame(mailSession.createNewSession(), mailSession.createNewSession());
+        assertEquals(2L, mailSession.getCreatedSessionCount());
+        assertEquals(0L, mailSession.getReusedSessionCount());
+    }
+
+    @Test
+    public void cachingReusesSession() {
+        SmtpSSLAuthMailSession mailSession = new SmtpSSLAuthMailSession("smtp.example.com", 587, "user", "secret");
+        mailSession.setSessionCaching(true);
+        Session first = mailSession.createNewSession();
+        assertSame(first, mailSession.createNewSession());
+        assertSame(first, mailSession.createNewSession());
+        assertEquals("587", first.getProperty("mail.smtp.port"));
+        assertEquals(1L, mailSession.getCreatedSessionCount());
+        assertEquals(2L, mailSession.getReusedSessionCount());
+    }
+
+    @Test
+    public void changingCredentialsCreatesNewSession() {
+        SmtpSSLAuthMailSession mailSession = new SmtpSSLAuthMailSession("smtp.example.com", "user", "secret");
+        mailSession.setSessionCaching(true);
+        Session first = mailSession.createNewSession();
+        mailSession.setCredentials("other", "changed");
+        Session second = mailSession.createNewSession();
+        assertNotSame(first, second);
+        assertEquals("user", this.authenticate(first).getUserName());
+        PasswordAuthentication auth = this.authenticate(second);
+        assertEquals("other", auth.getUserName());
+        assertEquals("changed", auth.getPassword());
+        assertSame(second, mailSession.createNewSession());
+        assertEquals(2L, mailSession.getCreatedSessionCount());
+        assertEquals(1L, mailSession.getReusedSessionCount());
+    }
+
+    @Test
+    public void changingPropertiesCreatesNewSession() {
+        SmtpSSLAuthMailSession mailSession = new SmtpSSLAuthMailSession("smtp.example.com", "user", "secret");
+        mailSession.setSessionCaching(true);
+        Session first = mailSession.createNewSession();
+        Properties props = new Properties();
+        props.setProperty("mail.smtp.connectiontimeout", "5000");
+        mailSession.setAdditionalProperties(props);
+        Session second = mailSession.createNewSession();
+        assertNotSame(first, second);
+        assertEquals("5000", second.getProperty("mail.smtp.connectiontimeout"));
+        // explicit invalidation for changes not made through the setter
+        mailSession.invalidateSession();
+        assertNotSame(second, mailSession.createNewSession());
+        assertEquals(3L, mailSession.getCreatedSessionCount());
+        assertEquals(0L, mailSession.getReusedSessionCount());
+    }
+
+    private PasswordAuthentication authenticate(Session session) {
+        return session.requestPasswordAuthentication(null, 465, "smtp", null, null);
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.github.nilscoding.mailbuilder.sessionimpl;
+
+import com.github.nilscoding.mailbuilder.MailSession;
+import com.github.nilscoding.mailbuilder.RecordingTransport;
+import org.junit.Test;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests reuse, limits, eviction and reconnecting of TransportPool.
+ * @author nilscoding
+ */
+public class TransportPoolTest {
+
+    @Test
+    public void transportIsReusedAcrossSends() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        TransportPool pool = new TransportPool();
+        try {
+            for (int i = 0; i < 3; i++) {
+                pool.send(mailSession, this.newMessage(mailSession));
+            }
+            assertEquals(3, RecordingTransport.getSent(mailSession).size());
+            assertEquals(1, this.counter(mailSession, RecordingTransport.CONNECTS));
+            assertEquals(1, pool.getTransportCount(mailSession));
+        } finally {
+            pool.close();
+        }
+        assertEquals(1, this.counter(mailSession, RecordingTransport.CLOSES));
+    }
+
+    @Test
+    public void maxPerSessionLimitsTransports() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        TransportPool pool = new TransportPool(2, 60000L);
+        pool.setMaxWaitMillis(50L);
+        try {
+            Transport first = pool.borrowTransport(mailSession);
+            Transport second = pool.borrowTransport(mailSession);
+            assertNotSame(first, second);
+            try {
+                pool.borrowTransport(mailSession);
+                fail("no transport should be available");
+            } catch (MessagingException ex) {
+                // expected
+            }
+            pool.returnTransport(mailSession, first);
+            assertSame(first, pool.borrowTransport(mailSession));
+            assertEquals(2, this.counter(mailSession, RecordingTransport.CONNECTS));
+            // an invalidated transport frees its slot for a new one
+            pool.invalidateTransport(mailSession, second);
+            assertEquals(1, pool.getTransportCount(mailSession));
+            pool.borrowTransport(mailSession);
+            assertEquals(3, this.counter(mailSession, RecordingTransport.CONNECTS));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void idleTransportsAreClosedOutsideOfLock() throws Exception {
+        final MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        final TransportPool pool = new TransportPool(4, 1L);
+        final AtomicBoolean closedUnderLock = new AtomicBoolean();
+        RecordingTransport.getProperties(mailSession).put(RecordingTransport.ON_CLOSE, new Runnable() {
+            @Override
+            public void run() {
+                if (Thread.holdsLock(pool.getExistingSessionPool(mailSession)) || Thread.holdsLock(pool.pools)) {
+                    closedUnderLock.set(true);
+                }
+            }
+        });
+        try {
+            pool.returnTransport(mailSession, pool.borrowTransport(mailSession));
+            assertEquals(1, pool.getTransportCount(mailSession));
+            Thread.sleep(20L);
+            pool.evictIdle();
+            assertEquals(0, pool.getTransportCount(mailSession));
+            assertEquals(1, this.counter(mailSession, RecordingTransport.CLOSES));
+            assertFalse(closedUnderLock.get());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void idleTransportIsCheckedWithNoop() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        TransportPool pool = new TransportPool();
+        try {
+            pool.send(mailSession, this.newMessage(mailSession));
+            // recently used transports are reused without checking
+            pool.send(mailSession, this.newMessage(mailSession));
+            assertEquals(0, this.counter(mailSession, RecordingTransport.NOOPS));
+            pool.setValidateAfterMillis(0L);
+            pool.send(mailSession, this.newMessage(mailSession));
+            assertEquals(1, this.counter(mailSession, RecordingTransport.NOOPS));
+            assertEquals(1, this.counter(mailSession, RecordingTransport.CONNECTS));
+            // a transport failing the check is replaced by a new connection
+            this.counterOf(mailSession, RecordingTransport.NOOP_FAILURES).set(1);
+            pool.send(mailSession, this.newMessage(mailSession));
+            assertEquals(2, this.counter(mailSession, RecordingTransport.CONNECTS));
+            assertEquals(1, this.counter(mailSession, RecordingTransport.CLOSES));
+            assertEquals(4, RecordingTransport.getSent(mailSession).size());
+            assertEquals(1, pool.getTransportCount(mailSession));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void reconnectsOnceAfterServiceClosing() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        TransportPool pool = new TransportPool();
+        try {
+            this.counterOf(mailSession, RecordingTransport.CLOSING_FAILURES).set(1);
+            pool.send(mailSession, this.newMessage(mailSession));
+            assertEquals(1, RecordingTransport.getSent(mailSession).size());
+            assertEquals(2, this.counter(mailSession, RecordingTransport.CONNECTS));
+            assertEquals(1, pool.getTransportCount(mailSession));
+            // the connection is only re-established once per send
+            this.counterOf(mailSession, RecordingTransport.CLOSING_FAILURES).set(2);
+            try {
+                pool.send(mailSession, this.newMessage(mailSession));
+                fail("sending should fail");
+            } catch (MessagingException ex) {
+                // expected
+            }
+            assertEquals(1, RecordingTransport.getSent(mailSession).size());
+            assertEquals(3, this.counter(mailSession, RecordingTransport.CONNECTS));
+            assertEquals(0, pool.getTransportCount(mailSession));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void messageFailureKeepsConnection() throws Exception {
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        TransportPool pool = new TransportPool();
+        try {
+            this.counterOf(mailSession, RecordingTransport.TRANSIENT_FAILURES).set(1);
+            try {
+                pool.send(mailSession, this.newMessage(mailSession));
+                fail("sending should fail");
+            } catch (MessagingException ex) {
+                // expected
+            }
+            pool.send(mailSession, this.newMessage(mailSession));
+            assertEquals(1, RecordingTransport.getSent(mailSession).size());
+            assertEquals(1, this.counter(mailSession, RecordingTransport.CONNECTS));
+            assertEquals(0, this.counter(mailSession, RecordingTransport.CLOSES));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void sessionIsCreatedOutsideOfLock() throws Exception {
+        final MailSession recording = RecordingTransport.newMailSession("smtp.example.com");
+        final TransportPool pool = new TransportPool();
+        final AtomicBoolean createdUnderLock = new AtomicBoolean();
+        MailSession mailSession = new MailSession() {
+            @Override
+            public Session createNewSession() {
+                if (Thread.holdsLock(pool.pools)) {
+                    createdUnderLock.set(true);
+                }
+                return recording.createNewSession();
+            }
+        };
+        try {
+            pool.send(mailSession, this.newMessage(recording));
+            assertFalse(createdUnderLock.get());
+            assertNotNull(pool.getExistingSessionPool(mailSession));
+        } finally {
+            pool.close();
+        }
+    }
+
+    private MimeMessage newMessage(MailSession mailSession) throws MessagingException {
+        MimeMessage message = new MimeMessage(mailSession.createNewSession());
+        message.setFrom(new InternetAddress("sender@example.com"));
+        message.setRecipients(MimeMessage.RecipientType.TO, "recipient@example.com");
+        message.setSubject("subject");
+        message.setText("text");
+        return message;
+    }
+
+    private AtomicInteger counterOf(MailSession mailSession, String name) {
+        Properties props = RecordingTransport.getProperties(mailSession);
+        return (AtomicInteger) props.get(name);
+    }
+
+    private int counter(MailSession mailSession, String name) {
+        return this.counterOf(mailSession, name).get();
+    }
+
+}
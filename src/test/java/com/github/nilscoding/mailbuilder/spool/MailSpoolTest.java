@@ -0,0 +1,420 @@
+package com.github.nilscoding.mailbuilder.spool;
+
+import com.github.nilscoding.mailbuilder.MailSession;
+import com.github.nilscoding.mailbuilder.RecordingTransport;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests recovery and segment handling of MailSpool.
+ * @author nilscoding
+ */
+public class MailSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Session session = Session.getInstance(new Properties());
+
+    @Test
+    public void truncatedRecordIsDiscarded() throws Exception {
+        Path directory = this.folder.getRoot().toPath();
+        this.enqueueAndClose(directory, 2);
+        Path segment = this.segmentPath(directory, 1L);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3L);
+        }
+        this.assertRecovered(directory, 1);
+    }
+
+    @Test
+    public void corruptRecordIsDiscarded() throws Exception {
+        Path directory = this.folder.getRoot().toPath();
+        this.enqueueAndClose(directory, 2);
+        Path segment = this.segmentPath(directory, 1L);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // flip one byte of the checksum of the last record
+            ByteBuffer last = ByteBuffer.allocate(1);
+            long position = channel.size() - 1L;
+            channel.read(last, position);
+            last.put(0, (byte) (last.get(0) ^ 0xff));
+            last.rewind();
+            channel.write(last, position);
+        }
+        this.assertRecovered(directory, 1);
+    }
+
+    @Test
+    public void deliveredSegmentsAreDeleted() throws Exception {
+        Path directory = this.folder.getRoot().toPath();
+        // every record gets its own segment
+        try (MailSpool spool = new MailSpool(directory, 1L)) {
+            for (int i = 0; i < 3; i++) {
+                spool.enqueue(this.newMessage(i));
+            }
+            assertEquals(3, spool.getSegmentCount());
+            SpoolEntry first = spool.takeDue(0L);
+            SpoolEntry second = spool.takeDue(0L);
+            // the segment of the second message is kept while the first segment holds a pending message
+            spool.markDone(second);
+            assertEquals(4, spool.getSegmentCount());
+            spool.markDone(first);
+            assertEquals(3, spool.getSegmentCount());
+            spool.markFailed(spool.takeDue(0L));
+            assertEquals(1, spool.getSegmentCount());
+            assertEquals(0, spool.getPendingCount());
+        }
+        assertEquals(1, this.countSegmentFiles(directory));
+        try (MailSpool spool = new MailSpool(directory, 1L)) {
+            assertEquals(0, spool.getPendingCount());
+            assertNull(spool.takeDue(0L));
+        }
+    }
+
+    @Test
+    public void concurrentEnqueueAcrossSegments() throws Exception {
+        Path directory = this.folder.getRoot().toPath();
+        final int threadCount = 4;
+        final int messageCount = 50;
+        // segments are rolled over while other threads force the previous one
+        try (final MailSpool spool = new MailSpool(directory, 1L)) {
+            final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < messageCount; i++) {
+                                spool.enqueue(MailSpoolTest.this.newMessage(i));
+                            }
+                        } catch (Exception ex) {
+                            errors.add(ex);
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread oneThread : threads) {
+                oneThread.join();
+            }
+            assertEquals(Collections.<Exception>emptyList(), errors);
+        }
+        try (MailSpool spool = new MailSpool(directory, 1L)) {
+            assertEquals(threadCount * messageCount, spool.getPendingCount());
+        }
+    }
+
+    @Test
+    public void messageIdSurvivesReopenAndRetry() throws Exception {
+        Path directory = this.folder.getRoot().toPath();
+        MimeMessage original = this.newMessage(0);
+        try (MailSpool spool = new MailSpool(directory)) {
+            spool.enqueue(original);
+        }
+        String messageId = original.getMessageID();
+        assertNotNull(messageId);
+        MailSession mailSession = RecordingTransport.newMailSession("smtp.example.com");
+        ((AtomicInteger) RecordingTransport.getProperties(mailSession).get(RecordingTransport.TRANSIENT_FAILURES))
+                .set(1);
+        try (MailSpool spool = new MailSpool(directory)) {
+            SpoolSender sender = new SpoolSender(spool, mailSession);
+            sender.setBackoff(0L, 0L);
+            // first attempt fails with 451, the retry is delivered
+            sender.deliver(spool.takeDue(0L));
+            assertEquals(1, spool.getPendingCount());
+            sender.deliver(spool.takeDue(1000L));
+            assertEquals(0, spool.getPendingCount());
+        }
+        List<RecordingTransport.Sent> sent = RecordingTransport.getSent(mailSession);
+        assertEquals(1, sent.size());
+        MimeMessage delivered = new MimeMessage(this.session, new ByteArrayInputStream(sent.get(0).data));
+        assertEquals(messageId, delivered.getMessageID());
+    }
+
+    @Test
+    public void tornRecordIsRemovedAfterWriteError() throws Exception {
+        Path directory = this.folder.getRoot().toPath();
+        FailingSpool spool = new FailingSpool(directory);
+        try {
+            spool.enqueue(this.newMessage(0));
+            this.assertEnqueueFails(spool, 1);
+            assertEquals(1, spool.getSegmentCount());
+            spool.enqueue(this.newMessage(2));
+            assertEquals(2, spool.getPendingCount());
+            spool.takeDue(0L);
+            assertEquals("message 2", spool.readMessage(spool.takeDue(0L), this.session).getSubject());
+        } finally {
+            spool.close();
+        }
+        this.assertRecoveredSubjects(directory, "message 0", "message 2");
+    }
+
+    @Test
+    public void newSegmentIsStartedIfTornRecordCanNotBeRemoved() throws Exception {
+        Path directory = this.folder.getRoot().toPath();
+        FailingSpool spool = new FailingSpool(directory);
+        try {
+            spool.enqueue(this.newMessage(0));
+            spool.failTruncate = true;
+            this.assertEnqueueFails(spool, 1);
+            assertEquals(2, spool.getSegmentCount());
+            spool.enqueue(this.newMessage(2));
+            spool.takeDue(0L);
+            assertEquals("message 2", spool.readMessage(spool.takeDue(0L), this.session).getSubject());
+        } finally {
+            spool.close();
+        }
+        this.assertRecoveredSubjects(directory, "message 0", "message 2");
+    }
+
+    @Test
+    public void spoolRejectsRecordsIfWriteErrorCanNotBeHandled() throws Exception {
+        Path directory = this.folder.getRoot().toPath();
+        FailingSpool spool = new FailingSpool(directory);
+        try {
+            spool.enqueue(this.newMessage(0));
+            spool.failTruncate = true;
+            spool.failOpen = true;
+            this.assertEnqueueFails(spool, 1);
+            spool.failOpen = false;
+            try {
+                spool.enqueue(this.newMessage(2));
+                fail("spool should reject records after an unhandled write error");
+            } catch (IOException ex) {
+                // expected
+            }
+            assertEquals(1, spool.getPendingCount());
+        } finally {
+            spool.close();
+        }
+        this.assertRecoveredSubjects(directory, "message 0");
+    }
+
+    private void assertEnqueueFails(FailingSpool spool, int number) throws Exception {
+        spool.failWrite = true;
+        try {
+            spool.enqueue(this.newMessage(number));
+            fail("write should fail");
+        } catch (IOException ex) {
+            // expected
+        }
+        spool.failWrite = false;
+    }
+
+    private void assertRecoveredSubjects(Path directory, String... subjects) throws Exception {
+        try (MailSpool spool = new MailSpool(directory)) {
+            assertEquals(subjects.length, spool.getPendingCount());
+            for (String oneSubject : subjects) {
+                assertEquals(oneSubject, spool.readMessage(spool.takeDue(0L), this.session).getSubject());
+            }
+        }
+    }
+
+    private void enqueueAndClose(Path directory, int count) throws Exception {
+        try (MailSpool spool = new MailSpool(directory)) {
+            for (int i = 0; i < count; i++) {
+                spool.enqueue(this.newMessage(i));
+            }
+        }
+    }
+
+    private void assertRecovered(Path directory, int count) throws Exception {
+        try (MailSpool spool = new MailSpool(directory)) {
+            assertEquals(count, spool.getPendingCount());
+            for (int i = 0; i < count; i++) {
+                SpoolEntry entry = spool.takeDue(0L);
+                assertNotNull(entry);
+                MimeMessage message = spool.readMessage(entry, this.session);
+                assertEquals("message " + i, message.getSubject());
+            }
+            // records appended after recovery are found again
+            spool.enqueue(this.newMessage(count));
+        }
+        try (MailSpool spool = new MailSpool(directory)) {
+            assertEquals(count + 1, spool.getPendingCount());
+        }
+    }
+
+    private MimeMessage newMessage(int number) throws Exception {
+        MimeMessage message = new MimeMessage(this.session);
+        message.setFrom(new InternetAddress("sender@example.com"));
+        message.setRecipients(MimeMessage.RecipientType.TO, "recipient@example.com");
+        message.setSubject("message " + number);
+        message.setText("text " + number);
+        return message;
+    }
+
+    private Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("spool-%012d.log", number));
+    }
+
+    private int countSegmentFiles(Path directory) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "spool-*.log")) {
+            for (Path onePath : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Spool whose segment channels can be made to fail.
+     */
+    private static class FailingSpool extends MailSpool {
+
+        private volatile boolean failWrite = false;
+        private volatile boolean failTruncate = false;
+        private volatile boolean failOpen = false;
+
+        FailingSpool(Path directory) throws IOException {
+            super(directory);
+        }
+
+        @Override
+        protected FileChannel openSegment(Path path) throws IOException {
+            if (this.failOpen) {
+                throw new IOException("no space left on device");
+            }
+            return new FailingChannel(super.openSegment(path), this);
+        }
+    }
+
+    /**
+     * Channel writing only the first buffer of a record before failing, like a full disk.
+     */
+    private static class FailingChannel extends FileChannel {
+
+        private final FileChannel delegate;
+        private final FailingSpool spool;
+
+        FailingChannel(FileChannel delegate, FailingSpool spool) {
+            this.delegate = delegate;
+            this.spool = spool;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            if (this.spool.failWrite) {
+                this.delegate.write(srcs[offset]);
+                throw new IOException("no space left on device");
+            }
+            return this.delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            if (this.spool.failTruncate) {
+                throw new IOException("input/output error");
+            }
+            this.delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return this.delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return this.delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return this.delegate.write(src);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return this.delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            this.delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.delegate.size();
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            this.delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return this.delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return this.delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return this.delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return this.delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return this.delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return this.delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return this.delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            this.delegate.close();
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import org.junit.Test;
+
+import javax.mail.internet.InternetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests accepted and rejected forms and caching of AddressParser.
+ * @author nilscoding
+ */
+public class AddressParserTest {
+
+    @Test
+    public void cachedAddressesAreCopied() throws Exception {
+        AddressParser parser = new AddressParser(10);
+        InternetAddress first = parser.parse("Name <user@example.com>");
+        first.setPersonal("Changed");
+        first.setAddress("other@example.com");
+        InternetAddress second = parser.parse("Name <user@example.com>");
+        assertEquals(1L, parser.getHitCount());
+        assertNotSame(first, second);
+        assertEquals("Name", second.getPersonal());
+        assertEquals("user@example.com", second.getAddress());
+        InternetAddress third = parser.parse("Name <user@example.com>");
+        assertNotSame(second, third);
+    }
+
+    @Test
+    public void acceptsCommonForms() {
+        AddressParser parser = new AddressParser(0);
+        this.assertParsed(parser, "user@example.com", "user@example.com", null);
+        this.assertParsed(parser, "  <user@example.com>  ", "user@example.com", null);
+        this.assertParsed(parser, "Name <user@example.com>", "user@example.com", "Name");
+        this.assertParsed(parser, "first.last+tag@sub.example.com", "first.last+tag@sub.example.com", null);
+        this.assertParsed(parser, "user@[192.168.0.1]", "user@[192.168.0.1]", null);
+        assertEquals(0L, parser.getRejectedCount());
+    }
+
+    @Test
+    public void acceptsQuotedNames() {
+        AddressParser parser = new AddressParser(0);
+        this.assertParsed(parser, "\"Doe, John\" <john@example.com>", "john@example.com", "Doe, John");
+        this.assertParsed(parser, "\"Say \\\"Hi\\\"\" <hi@example.com>", "hi@example.com", "Say \"Hi\"");
+        this.assertParsed(parser, "\"quoted local\"@example.com", "\"quoted local\"@example.com", null);
+    }
+
+    @Test
+    public void acceptsCommentsAndEncodedWords() {
+        AddressParser parser = new AddressParser(0);
+        this.assertParsed(parser, "user@example.com (Name)", "user@example.com", "Name");
+        this.assertParsed(parser, "=?UTF-8?B?w4RyZ2Vy?= <user@example.com>", "user@example.com", "\u00c4rger");
+        assertEquals(0L, parser.getRejectedCount());
+    }
+
+    @Test
+    public void acceptsLocalPartWithoutDomain() {
+        // like new InternetAddress(String), addresses for local delivery are accepted
+        AddressParser parser = new AddressParser(0);
+        this.assertParsed(parser, "user", "user", null);
+        this.assertParsed(parser, "Name <user>", "user", "Name");
+        assertEquals(0L, parser.getRejectedCount());
+    }
+
+    @Test
+    public void rejectsInvalidAddresses() {
+        AddressParser parser = new AddressParser(10);
+        String[] invalid = {null, "", "   ", "user@", "@example.com", "user@@example.com", "a..b@example.com",
+            ".user@example.com", "user@-example.com", "user@example..com", "user name@example.com",
+            "Name <user@example.com", "Name <>", "user@exa mple.com"};
+        for (String oneInvalid : invalid) {
+            assertNull(oneInvalid, parser.parse(oneInvalid));
+            assertFalse(oneInvalid, parser.isValid(oneInvalid));
+        }
+        assertEquals(2L * invalid.length, parser.getRejectedCount());
+        // rejected input is not cached
+        assertEquals(0, parser.getCacheSize());
+        assertTrue(parser.isValid("user@example.com"));
+        assertEquals(2L * invalid.length, parser.getRejectedCount());
+    }
+
+    private void assertParsed(AddressParser parser, String input, String address, String personal) {
+        InternetAddress parsed = parser.parse(input);
+        assertNotNull(input, parsed);
+        assertEquals(input, address, parsed.getAddress());
+        assertEquals(input, personal, parsed.getPersonal());
+    }
+
+}
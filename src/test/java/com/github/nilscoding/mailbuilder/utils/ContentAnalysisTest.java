@@ -0,0 +1,130 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import org.junit.Test;
+
+import javax.mail.internet.MimeUtility;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that ContentAnalysis calculates the sizes JavaMail's encoders produce and chooses the encodings.
+ * @author nilscoding
+ */
+public class ContentAnalysisTest {
+
+    @Test
+    public void quotedPrintableSizeMatchesEncoder() throws Exception {
+        String[] samples = {
+            "", " ", "a ", "trailing space ", "space before\r\nline break", "space before \nbare LF \r",
+            "Grüße aus Köln = 100 %", "tab\tand =equals=", repeat('x', 74) + " ",
+            repeat('x', 75) + " ", repeat('x', 72) + "ä ", repeat('y', 300), repeat(' ', 200),
+            repeat('é', 100) + " \r\n \r\n"
+        };
+        for (String oneSample : samples) {
+            byte[] data = oneSample.getBytes("UTF-8");
+            assertEquals(oneSample, encode(data, "quoted-printable").length,
+                    ContentAnalysis.of(data).getEncodedSize(ContentAnalysis.ENCODING_QUOTED_PRINTABLE));
+        }
+    }
+
+    @Test
+    public void sizesMatchEncodersForRandomContent() throws Exception {
+        Random random = new Random(4711L);
+        byte[] alphabet = " \r\n\t=aZ.ä".getBytes("ISO-8859-1");
+        for (int round = 0; round < 200; round++) {
+            byte[] data = new byte[random.nextInt(600)];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (random.nextInt(4) == 0) ? (byte) random.nextInt(256)
+                        : alphabet[random.nextInt(alphabet.length)];
+            }
+            ContentAnalysis analysis = ContentAnalysis.of(new ByteArrayInputStream(data), false);
+            assertTrue(analysis.isComplete());
+            assertEquals(encode(data, "quoted-printable").length,
+                    analysis.getEncodedSize(ContentAnalysis.ENCODING_QUOTED_PRINTABLE));
+            assertEquals(encode(data, "base64").length, analysis.getEncodedSize(ContentAnalysis.ENCODING_BASE64));
+        }
+    }
+
+    @Test
+    public void choosesEncoding() throws Exception {
+        ContentAnalysis ascii = ContentAnalysis.of("plain ASCII text\r\n".getBytes("US-ASCII"));
+        assertEquals(ContentAnalysis.ENCODING_7BIT, ascii.chooseEncoding(true, false));
+        assertEquals(ContentAnalysis.ENCODING_7BIT, ascii.chooseEncoding(true, true));
+
+        String german = "Mit freundlichen Grüßen aus der schönen Stadt Köln am Rhein";
+        ContentAnalysis mostlyAscii = ContentAnalysis.of(german.getBytes("UTF-8"));
+        assertEquals(ContentAnalysis.ENCODING_QUOTED_PRINTABLE, mostlyAscii.chooseEncoding(true, false));
+        assertEquals(ContentAnalysis.ENCODING_8BIT, mostlyAscii.chooseEncoding(true, true));
+        assertEquals(ContentAnalysis.ENCODING_BASE64, mostlyAscii.chooseEncoding(false, true));
+
+        ContentAnalysis nonLatin = ContentAnalysis.of(repeat('中', 50).getBytes("UTF-8"));
+        assertEquals(ContentAnalysis.ENCODING_BASE64, nonLatin.chooseEncoding(true, false));
+        assertEquals(ContentAnalysis.ENCODING_8BIT, nonLatin.chooseEncoding(true, true));
+
+        ContentAnalysis longLine = ContentAnalysis.of(repeat('ä', 600).getBytes("UTF-8"));
+        assertTrue(longLine.hasLongLines());
+        assertFalse(ContentAnalysis.ENCODING_8BIT.equals(longLine.chooseEncoding(true, true)));
+
+        ContentAnalysis bareLineBreak = ContentAnalysis.of("binary\rdata".getBytes("US-ASCII"));
+        assertEquals(ContentAnalysis.ENCODING_7BIT, bareLineBreak.chooseEncoding(true, false));
+        assertEquals(ContentAnalysis.ENCODING_BASE64, bareLineBreak.chooseEncoding(false, false));
+    }
+
+    @Test
+    public void textAnalysisMatchesBytes() throws Exception {
+        String text = repeat('a', 8190) + "\ud83d\ude00 Grüße \r\n" + repeat('é', 9000) + " ";
+        for (String oneCharset : new String[] {"UTF-8", "ISO-8859-1", "US-ASCII"}) {
+            ContentAnalysis fromText = ContentAnalysis.of(text, Charset.forName(oneCharset));
+            ContentAnalysis fromBytes = ContentAnalysis.of(text.getBytes(oneCharset));
+            assertEquals(fromBytes.getByteCount(), fromText.getByteCount());
+            assertEquals(fromBytes.getNonAsciiCount(), fromText.getNonAsciiCount());
+            assertEquals(fromBytes.getEncodedSize(ContentAnalysis.ENCODING_QUOTED_PRINTABLE),
+                    fromText.getEncodedSize(ContentAnalysis.ENCODING_QUOTED_PRINTABLE));
+        }
+    }
+
+    @Test
+    public void stopsAtFirstNonAsciiByte() throws Exception {
+        byte[] data = ("abcä" + repeat('x', 10000)).getBytes("UTF-8");
+        ContentAnalysis analysis = ContentAnalysis.of(new ByteArrayInputStream(data), true);
+        assertFalse(analysis.isComplete());
+        assertEquals(4L, analysis.getByteCount());
+        assertEquals(ContentAnalysis.ENCODING_BASE64, analysis.chooseEncoding(false, true));
+    }
+
+    /**
+     * Encodes the given data with JavaMail, closing the encoder.
+     * @param data             data
+     * @param transferEncoding transfer encoding
+     * @return encoded data
+     * @throws Exception on error
+     */
+    private static byte[] encode(byte[] data, String transferEncoding) throws Exception {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        OutputStream encoder = MimeUtility.encode(bytesOut, transferEncoding);
+        encoder.write(data);
+        encoder.close();
+        return bytesOut.toByteArray();
+    }
+
+    /**
+     * Repeats a character.
+     * @param c     character
+     * @param count number of repetitions
+     * @return string
+     */
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
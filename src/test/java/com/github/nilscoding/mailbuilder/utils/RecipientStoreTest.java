@@ -0,0 +1,154 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import org.junit.Test;
+
+import javax.mail.Message;
+import javax.mail.internet.InternetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for RecipientStore.
+ * @author nilscoding
+ */
+public class RecipientStoreTest {
+
+    private static InternetAddress addr(String address) {
+        InternetAddress result = new InternetAddress();
+        result.setAddress(address);
+        return result;
+    }
+
+    private static List<String> listed(RecipientStore store, Message.RecipientType type) {
+        List<String> result = new ArrayList<>();
+        for (InternetAddress address : store.view(type)) {
+            result.add(address.getAddress());
+        }
+        return result;
+    }
+
+    @Test
+    public void manyAddressesKeepOrderAndIgnoreDuplicates() {
+        RecipientStore store = new RecipientStore();
+        int count = RecipientStore.INITIAL_CAPACITY * 100;
+        for (int i = 0; i < count; i++) {
+            assertTrue(store.add(Message.RecipientType.TO, addr("user" + i + "@example.com")));
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            assertFalse(store.add(Message.RecipientType.TO, addr("user" + i + "@example.com")));
+        }
+        assertEquals(count, store.size(Message.RecipientType.TO));
+        assertEquals(count, store.getDuplicateCount());
+        List<String> to = listed(store, Message.RecipientType.TO);
+        for (int i = 0; i < count; i++) {
+            assertEquals("user" + i + "@example.com", to.get(i));
+        }
+    }
+
+    @Test
+    public void addressesAreComparedIgnoringCase() {
+        RecipientStore store = new RecipientStore();
+        assertTrue(store.add(Message.RecipientType.TO, addr("John.Doe@Example.com")));
+        assertFalse(store.add(Message.RecipientType.TO, addr("john.doe@example.COM")));
+        assertEquals(1, store.size(Message.RecipientType.TO));
+        assertEquals("John.Doe@Example.com", store.view(Message.RecipientType.TO).get(0).getAddress());
+    }
+
+    @Test
+    public void higherRankedTypeHidesAddress() {
+        RecipientStore store = new RecipientStore();
+        assertTrue(store.add(Message.RecipientType.BCC, addr("a@example.com")));
+        assertTrue(store.add(Message.RecipientType.CC, addr("a@example.com")));
+        assertTrue(store.add(Message.RecipientType.TO, addr("a@example.com")));
+        assertFalse(store.add(Message.RecipientType.CC, addr("a@example.com")));
+        assertTrue(store.add(Message.RecipientType.BCC, addr("b@example.com")));
+        assertTrue(store.add(Message.RecipientType.CC, addr("B@example.com")));
+        assertEquals(listOf("a@example.com"), listed(store, Message.RecipientType.TO));
+        assertEquals(listOf("B@example.com"), listed(store, Message.RecipientType.CC));
+        assertEquals(listOf(), listed(store, Message.RecipientType.BCC));
+        assertEquals(0, store.size(Message.RecipientType.BCC));
+        assertEquals(4L, store.getDuplicateCount());
+    }
+
+    @Test
+    public void clearingTypeListsHiddenAddressesAgain() {
+        RecipientStore store = new RecipientStore();
+        store.add(Message.RecipientType.CC, addr("x@example.com"));
+        store.add(Message.RecipientType.BCC, addr("x@example.com"));
+        store.add(Message.RecipientType.TO, addr("x@example.com"));
+        store.add(Message.RecipientType.TO, addr("y@example.com"));
+        assertEquals(0, store.size(Message.RecipientType.CC));
+
+        store.clear(Message.RecipientType.TO);
+        store.add(Message.RecipientType.TO, addr("z@example.com"));
+        assertEquals(listOf("z@example.com"), listed(store, Message.RecipientType.TO));
+        assertEquals(listOf("x@example.com"), listed(store, Message.RecipientType.CC));
+        assertEquals(0, store.size(Message.RecipientType.BCC));
+
+        store.clear(Message.RecipientType.CC);
+        assertEquals(listOf("x@example.com"), listed(store, Message.RecipientType.BCC));
+        assertTrue(store.add(Message.RecipientType.CC, addr("x@example.com")));
+        assertEquals(0, store.size(Message.RecipientType.BCC));
+    }
+
+    @Test
+    public void withoutAcrossTypesOnlyDuplicatesWithinTypeAreIgnored() {
+        RecipientStore store = new RecipientStore(false);
+        assertTrue(store.add(Message.RecipientType.TO, addr("a@example.com")));
+        assertTrue(store.add(Message.RecipientType.CC, addr("a@example.com")));
+        assertFalse(store.add(Message.RecipientType.CC, addr("A@example.com")));
+        assertEquals(1, store.size(Message.RecipientType.TO));
+        assertEquals(1, store.size(Message.RecipientType.CC));
+        assertEquals(1L, store.getDuplicateCount());
+    }
+
+    @Test
+    public void switchingAcrossTypesKeepsRecipients() {
+        RecipientStore store = new RecipientStore(false);
+        store.add(Message.RecipientType.CC, addr("a@example.com"));
+        store.add(Message.RecipientType.TO, addr("a@example.com"));
+        store.setAcrossTypes(true);
+        assertEquals(1, store.size(Message.RecipientType.TO));
+        assertEquals(0, store.size(Message.RecipientType.CC));
+        store.setAcrossTypes(false);
+        assertEquals(listOf("a@example.com"), listed(store, Message.RecipientType.CC));
+    }
+
+    @Test
+    public void addressWithoutAddrSpecIsKept() {
+        RecipientStore store = new RecipientStore();
+        assertTrue(store.add(Message.RecipientType.TO, new InternetAddress()));
+        assertTrue(store.add(Message.RecipientType.TO, new InternetAddress()));
+        assertEquals(2, store.size(Message.RecipientType.TO));
+        store.clear(Message.RecipientType.TO);
+        assertEquals(0, store.size(Message.RecipientType.TO));
+    }
+
+    @Test
+    public void viewToArrayListsRecipientsOfType() {
+        RecipientStore store = new RecipientStore();
+        store.add(Message.RecipientType.TO, addr("a@example.com"));
+        store.add(Message.RecipientType.CC, addr("b@example.com"));
+        store.add(Message.RecipientType.TO, addr("c@example.com"));
+        store.add(Message.RecipientType.CC, addr("a@example.com"));
+        InternetAddress[] to = store.view(Message.RecipientType.TO).toArray(new InternetAddress[0]);
+        assertEquals(2, to.length);
+        assertEquals("c@example.com", to[1].getAddress());
+        assertArrayEquals(new Object[] {store.view(Message.RecipientType.CC).get(0)},
+                store.view(Message.RecipientType.CC).toArray());
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> result = new ArrayList<>();
+        for (String value : values) {
+            result.add(value);
+        }
+        return result;
+    }
+
+}
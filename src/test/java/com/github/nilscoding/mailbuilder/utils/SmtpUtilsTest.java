@@ -0,0 +1,44 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import com.github.nilscoding.mailbuilder.sessionimpl.RetryPolicy;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import org.junit.Test;
+
+import javax.mail.MessagingException;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.net.ConnectException;
+import java.net.SocketException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the failure classification of SmtpUtils.
+ * @author nilscoding
+ */
+public class SmtpUtilsTest {
+
+    @Test
+    public void socketErrorsLoseConnection() {
+        assertTrue(SmtpUtils.isConnectionLost(new MessagingException("Exception reading response",
+                new SocketException("Connection reset"))));
+        assertTrue(SmtpUtils.isConnectionLost(new MessagingException("Could not connect to SMTP host",
+                new ConnectException("Connection refused"))));
+        assertTrue(SmtpUtils.isConnectionLost(new MessagingException("Exception reading response",
+                new EOFException())));
+        assertTrue(SmtpUtils.isConnectionLost(new SMTPSendFailedException("DATA", 421, "421 closing", null,
+                null, null, null)));
+        assertTrue(SmtpUtils.isConnectionLost(new IllegalStateException("Not connected")));
+    }
+
+    @Test
+    public void contentErrorsDoNotLoseConnection() {
+        MessagingException contentFailure = new MessagingException("IOException while sending message",
+                new FileNotFoundException("/missing/attachment.pdf"));
+        assertFalse(SmtpUtils.isConnectionLost(contentFailure));
+        assertFalse(new RetryPolicy(3, 0L, 0L, 0.0d).shouldRetry(contentFailure, 1));
+        assertFalse(SmtpUtils.isConnectionLost(new SMTPSendFailedException("DATA", 554, "554 rejected", null,
+                null, null, null)));
+    }
+}
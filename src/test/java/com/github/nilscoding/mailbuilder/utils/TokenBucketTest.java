@@ -0,0 +1,70 @@
+package com.github.nilscoding.mailbuilder.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for TokenBucket.
+ * @author nilscoding
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void fullBucketAllowsBurstOnly() {
+        TokenBucket bucket = new TokenBucket(0.001d, 3.0d);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void reserveReturnsTimeUntilTokenIsAvailable() {
+        TokenBucket bucket = new TokenBucket(2.0d, 1.0d);
+        assertEquals(0L, bucket.reserve());
+        long waitNanos = bucket.reserve();
+        assertTrue(waitNanos > 400000000L);
+        assertTrue(waitNanos <= 500000000L);
+        // reserved tokens queue up behind each other
+        assertTrue(bucket.reserve() > 900000000L);
+    }
+
+    @Test
+    public void acquireWaitsForToken() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(20.0d, 1.0d);
+        assertEquals(0L, bucket.acquire());
+        long start = System.nanoTime();
+        assertTrue(bucket.acquire() > 0L);
+        assertTrue(System.nanoTime() - start >= 40000000L);
+    }
+
+    @Test
+    public void smallerBurstSizeDropsStoredTokens() {
+        TokenBucket bucket = new TokenBucket(0.001d, 5.0d);
+        bucket.setRate(0.001d, 1.0d);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void setRateChangesRate() {
+        TokenBucket bucket = new TokenBucket(1.0d);
+        bucket.setRate(5.0d);
+        assertEquals(5.0d, bucket.getRate(), 0.0d);
+        bucket.setRate(7.0d, 7.0d);
+        assertEquals(7.0d, bucket.getRate(), 0.0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroRate() {
+        new TokenBucket(0.0d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroRateChange() {
+        new TokenBucket(1.0d).setRate(0.0d, 1.0d);
+    }
+}